@@ -0,0 +1,79 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.tree.PlottedModel;
+import com.jayfella.worlddemo.tree.TreePlacements;
+import com.jayfella.worlddemo.tree.TreesGrid;
+import com.jme3.math.Quaternion;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import jme3tools.optimize.GeometryBatchFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures batching the trees of a cell into a single mesh, which is what the trees grid does when it isn't instanced.
+ * The trees are cloned before each invocation so only the batch is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    private TreesGrid grid;
+    private TreePlacements placements;
+    private Node node;
+
+    @Setup(Level.Trial)
+    public void setupTrial(BenchmarkWorld world) {
+
+        grid = (TreesGrid) world.getGrid("Trees");
+
+        // use the cell with the most trees so there is something to batch.
+        for (GridPos2i cell : BenchmarkWorld.createCells(grid)) {
+
+            TreePlacements cellPlacements = grid.plotTrees(cell);
+
+            if (placements == null || cellPlacements.size() > placements.size()) {
+                placements = cellPlacements;
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+
+        node = new Node("Trees");
+
+        for (int i = 0; i < placements.size(); i++) {
+
+            PlottedModel model = grid.getTrees()[placements.getModel(i)];
+
+            Spatial tree = model.getTreeModel().clone();
+            tree.setLocalScale(placements.getScale(i));
+            tree.setLocalRotation(new Quaternion().fromAngles(0, placements.getRotation(i), 0));
+            tree.setLocalTranslation(placements.getX(i), placements.getY(i), placements.getZ(i));
+            node.attachChild(tree);
+        }
+    }
+
+    @Benchmark
+    public Spatial optimize() {
+        return GeometryBatchFactory.optimize(node);
+    }
+
+}
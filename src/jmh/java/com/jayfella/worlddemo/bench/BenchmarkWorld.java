@@ -0,0 +1,86 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.HeadlessWorld;
+import com.jayfella.worlddemo.world.CellNode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The demo world, started headless once per benchmark trial.
+ * The grids are not attached to the world, so cells are only built when a benchmark asks for them.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkWorld {
+
+    // the cells each benchmark cycles through, so a benchmark doesn't measure the same cell over and over.
+    public static final int CELLS_PER_SIDE = 16;
+
+    private HeadlessWorld world;
+
+    @Setup
+    public void setup() {
+        world = HeadlessWorld.start(123, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        world.stop();
+    }
+
+    public HeadlessWorld getWorld() {
+        return world;
+    }
+
+    public SceneGrid getGrid(String name) {
+        return world.getGrid(name);
+    }
+
+    /**
+     * Builds a cell, including its content. The demo grids build their content on the generation executor, so the
+     * content is built on the calling thread instead if it has not started yet.
+     * @param grid    the grid to build the cell with.
+     * @param gridPos the position of the cell.
+     * @return the data of the cell.
+     */
+    public static Object[] buildCell(SceneGrid grid, GridPos2i gridPos) {
+
+        Object[] data = grid.buildCell(gridPos);
+
+        if (data != null && data.length > 0 && data[0] instanceof CellNode) {
+
+            try {
+                ((CellNode) data[0]).awaitContent();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Creates the positions of a square of cells around the origin.
+     * @param grid the grid the cells belong to.
+     * @return the positions of the cells.
+     */
+    public static GridPos2i[] createCells(SceneGrid grid) {
+
+        GridPos2i[] cells = new GridPos2i[CELLS_PER_SIDE * CELLS_PER_SIDE];
+        int offset = CELLS_PER_SIDE / 2;
+
+        for (int z = 0; z < CELLS_PER_SIDE; z++) {
+            for (int x = 0; x < CELLS_PER_SIDE; x++) {
+                cells[z * CELLS_PER_SIDE + x] = HeadlessWorld.gridPos(x - offset, z - offset,
+                        grid.getGridSettings().getCellSize());
+            }
+        }
+
+        return cells;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.plotters.meshplotter.tri.Triangle;
+import com.jayfella.jme.worldpager.grid.PlottedGrid;
+import com.jayfella.worlddemo.grass.GrassPathsRule;
+import com.jme3.math.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures validating a triangle of the grass grid, with and without the rule compiled into masks.
+ * The positions are spread over a few cells so the masks are looked up as they are when a cell is plotted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class GrassPathsRuleBenchmark {
+
+    private static final int POSITIONS = 4096;
+
+    // the least fraction of positions where a mask must agree with the noise it was built from.
+    private static final float MIN_MASK_ACCURACY = 0.9f;
+
+    @Param({ "true", "false" })
+    public boolean rasterized;
+
+    private GrassPathsRule rule;
+    private Vector3f[] positions;
+    private Triangle triangle;
+    private int index;
+
+    @Setup
+    public void setup(BenchmarkWorld world) {
+
+        PlottedGrid grid = (PlottedGrid) world.getGrid("Grass");
+        int cellSize = grid.getGridSettings().getCellSize().getSize();
+
+        rule = new GrassPathsRule(grid);
+        rule.setRasterized(rasterized);
+        rule.setHeightfields(world.getWorld().getWorldContext().getHeightfields());
+        rule.setMinHeight(8.5f);
+        rule.setMaxHeight(256.5f);
+
+        // sorted by cell, the same order the plotter validates triangles.
+        Random random = new Random(123);
+        positions = new Vector3f[POSITIONS];
+
+        for (int i = 0; i < POSITIONS; i++) {
+            int cell = i * 4 / POSITIONS;
+            positions[i] = new Vector3f(
+                    cell * cellSize + random.nextFloat() * cellSize,
+                    0,
+                    random.nextFloat() * cellSize);
+        }
+
+        triangle = new Triangle();
+        triangle.verts[0] = new Vector3f();
+
+        // a faster mask is no use if it doesn't grow the grass in the same places as the rule without it.
+        if (rasterized) {
+
+            for (int cell = 0; cell < 4; cell++) {
+
+                float accuracy = rule.measureMaskAccuracy(cell, 0, 4096);
+
+                if (accuracy < MIN_MASK_ACCURACY) {
+                    throw new IllegalStateException("The mask of cell " + cell + ",0 only agrees with the rule at "
+                            + accuracy * 100 + "% of the positions.");
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean validate() {
+        Vector3f position = positions[index];
+        index = (index + 1) % POSITIONS;
+        return rule.validate(position, null, 0, triangle);
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.fastnoise.LayeredNoise;
+import com.jayfella.fastnoise.NoiseLayer;
+import com.jme3.math.Vector2f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating a single noise layer and the two layered noise generators the sprite grids use.
+ * This doesn't need the world, so it doesn't start one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class NoiseBenchmark {
+
+    private NoiseLayer layer;
+    private LayeredNoise layeredNoise;
+
+    private final Vector2f location = new Vector2f();
+    private float x;
+
+    @Setup
+    public void setup() {
+
+        layer = new NoiseLayer("Tree Noise", 133);
+
+        // the same layers as the grass grid.
+        NoiseLayer grassLayer_1 = new NoiseLayer("layer 1", 543);
+        grassLayer_1.setScale(new Vector2f(2.5f, 1.5f));
+
+        NoiseLayer grassLayer_2 = new NoiseLayer("layer 1", 432);
+        grassLayer_2.setScale(new Vector2f(1.5f, 2.5f));
+
+        layeredNoise = new LayeredNoise();
+        layeredNoise.addLayer(grassLayer_1);
+        layeredNoise.addLayer(grassLayer_2);
+    }
+
+    // walk along a line so each evaluation is at a new location.
+    private Vector2f nextLocation() {
+        x += 0.37f;
+        return location.set(x, x * 0.5f);
+    }
+
+    @Benchmark
+    public float noiseLayer() {
+        return layer.evaluate(nextLocation());
+    }
+
+    @Benchmark
+    public float layeredNoise() {
+        return layeredNoise.evaluate(nextLocation());
+    }
+
+}
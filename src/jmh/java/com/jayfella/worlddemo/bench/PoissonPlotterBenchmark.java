@@ -0,0 +1,59 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.worlddemo.tree.PoissonPlotter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the tree placement kernel on its own, with the spacing of the three demo trees and without the world
+ * noise, so it runs without starting the world. A cell places the most trees the demo models allow.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PoissonPlotterBenchmark {
+
+    // the radius and space between of the fir, oak and maple.
+    private static final float[][] MODELS = {
+            { 10, 12, 16 },
+            { 12, 18, 19 },
+            { 16, 22, 24 },
+    };
+
+    private static final int AMOUNT = 10;
+
+    @Param({ "32", "64" })
+    public int cellSize;
+
+    @Param({ "32", "256", "2048" })
+    public int maxAttempts;
+
+    private final PoissonPlotter plotter = new PoissonPlotter();
+    private long seed;
+
+    @Benchmark
+    public int plotCell() {
+
+        plotter.reset(seed++, cellSize, MODELS[0][2]);
+
+        for (float[] model : MODELS) {
+            plotter.addPoints(AMOUNT, model[0], model[1], model[2], maxAttempts);
+        }
+
+        return plotter.size();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.grass.VegetationGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a cell of the sprite grids with the settings the demo uses.
+ * The grass grid has a density of 0.2 and the flowers grid has a density of 3.6.
+ * The compact and point cloud layouts include converting the plotted meshes of the cell.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class SpriteGridBenchmark {
+
+    @Param({ "Grass", "Flowers" })
+    public String gridName;
+
+    @Param({ "mesh", "compact", "pointCloud" })
+    public String layout;
+
+    private SceneGrid grid;
+    private GridPos2i[] cells;
+    private int index;
+
+    @Setup
+    public void setup(BenchmarkWorld world) {
+        grid = world.getGrid(gridName);
+        cells = BenchmarkWorld.createCells(grid);
+
+        VegetationGrid vegetationGrid = (VegetationGrid) grid;
+        vegetationGrid.setCompactVertices(layout.equals("compact"));
+        vegetationGrid.setPointCloud(layout.equals("pointCloud"));
+    }
+
+    @Benchmark
+    public Object[] buildCell() {
+        GridPos2i cell = cells[index];
+        index = (index + 1) % cells.length;
+        return BenchmarkWorld.buildCell(grid, cell);
+    }
+
+}
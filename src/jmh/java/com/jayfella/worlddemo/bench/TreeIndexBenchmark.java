@@ -0,0 +1,79 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.tree.TreeHit;
+import com.jayfella.worlddemo.tree.TreeIndex;
+import com.jayfella.worlddemo.tree.TreesGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queries of the tree index over the trees of a square of cells, as the demo plots them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class TreeIndexBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({ "8", "32" })
+    public float radius;
+
+    private TreeIndex index;
+    private final TreeHit hit = new TreeHit();
+    private final float[] points = new float[POINTS * 2];
+    private int next;
+
+    @Setup
+    public void setup(BenchmarkWorld world) {
+
+        TreesGrid grid = (TreesGrid) world.getGrid("Trees");
+        int cellSize = grid.getGridSettings().getCellSize().getSize();
+
+        index = new TreeIndex();
+
+        for (GridPos2i gridPos : BenchmarkWorld.createCells(grid)) {
+            index.add(gridPos, cellSize, grid.plotTrees(gridPos));
+        }
+
+        // points inside the cells, away from the edge of the square.
+        float extent = (BenchmarkWorld.CELLS_PER_SIDE / 2 - 1) * cellSize;
+        Random random = new Random(123);
+
+        for (int i = 0; i < points.length; i++) {
+            points[i] = (random.nextFloat() * 2 - 1) * extent;
+        }
+    }
+
+    @Benchmark
+    public boolean findNearest() {
+        int i = next;
+        next = (next + 2) % points.length;
+        return index.findNearest(points[i], points[i + 1], radius, hit);
+    }
+
+    @Benchmark
+    public int findWithin(Blackhole blackhole) {
+        int i = next;
+        next = (next + 2) % points.length;
+        return index.findWithin(points[i], points[i + 1], radius, (placements, tree, x, z) -> blackhole.consume(tree));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.jayfella.worlddemo.bench;
+
+import com.jayfella.jme.worldpager.core.CellSize;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.tree.PlottedModel;
+import com.jayfella.worlddemo.tree.TreesGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a cell of the trees grid, and placing the trees on their own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class TreesGridBenchmark {
+
+    @Param({ "Size_32", "Size_64" })
+    public CellSize cellSize;
+
+    @Param({ "32", "256", "2048" })
+    public int maxAttempts;
+
+    @Param({ "false", "true" })
+    public boolean legacyPlacement;
+
+    private TreesGrid grid;
+    private GridPos2i[] cells;
+    private int index;
+
+    @Setup
+    public void setup(BenchmarkWorld world) {
+
+        grid = (TreesGrid) world.getGrid("Trees");
+        grid.getGridSettings().setCellSize(cellSize);
+        grid.setLegacyPlacement(legacyPlacement);
+
+        for (PlottedModel tree : grid.getTrees()) {
+            tree.setMaxAttempts(maxAttempts);
+        }
+
+        cells = BenchmarkWorld.createCells(grid);
+    }
+
+    private GridPos2i nextCell() {
+        GridPos2i cell = cells[index];
+        index = (index + 1) % cells.length;
+        return cell;
+    }
+
+    @Benchmark
+    public Object plotTrees() {
+        return grid.plotTrees(nextCell());
+    }
+
+    @Benchmark
+    public Object[] buildCell() {
+        return BenchmarkWorld.buildCell(grid, nextCell());
+    }
+
+}
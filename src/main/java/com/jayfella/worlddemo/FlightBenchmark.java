@@ -0,0 +1,580 @@
+package com.jayfella.worlddemo;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jayfella.worlddemo.metrics.MemorySampler;
+import com.jayfella.worlddemo.metrics.MetricsRegistry;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Flies a scripted path through the same world as the demo without a window, and reports how well the grids keep up.
+ *
+ * The world is started headless and left to complete its startup around the start of the path. The camera then flies
+ * the path at a set speed, and each frame records the time the main thread spent on the frame, the time the world
+ * spent updating, and how many cells within the view distance of each grid are not attached yet. The build and ring
+ * times of each grid and the peak heap and direct memory are recorded over the flight. e.g:
+ * FlightBenchmark --path circle --speed 200 --duration 60 --baseline flight-report/summary.json
+ *
+ * The report is written to the output directory: a row per frame in frames.csv, the metrics of each grid sampled each
+ * second in grids.csv, and the summary in summary.json. Given the summary of an earlier run, every metric is compared
+ * with it, and the run fails if any of them is worse by more than the tolerance.
+ */
+public class FlightBenchmark {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: FlightBenchmark [options]",
+            "  --seed <seed>                      the seed of the world. Default: 123",
+            "  --path <line|circle|shuttle>       the path the camera flies. Default: line",
+            "  --speed <units>                    the speed of the camera in world units per second. Default: 100",
+            "  --radius <units>                   the radius of the circle, or the length of the shuttle. Default: 512",
+            "  --duration <seconds>               how long the camera flies for. Default: 60",
+            "  --warmup <seconds>                 the longest to wait for the startup before flying. Default: 120",
+            "  --out <directory>                  where the report is written. Default: flight-report",
+            "  --baseline <file>                  the summary of an earlier run to compare with.",
+            "  --tolerance <percent>              how much worse a metric may be than the baseline. Default: 10",
+            "  --min-delta <value>                the smallest change in ms, MB or cells that counts. Default: 1");
+
+    // the height the demo camera starts at.
+    private static final float ALTITUDE = 30;
+
+    // the exit code of a run that is worse than the baseline.
+    private static final int REGRESSION = 2;
+
+    private static final Pattern METRIC = Pattern.compile("\"([^\"]+)\"\\s*:\\s*(-?[0-9][0-9.eE+-]*)");
+
+    /**
+     * The paths the camera can fly. Each starts at the same place whatever the speed, so the startup is the same.
+     */
+    public enum Path {
+
+        /** Straight along the x axis. */
+        LINE,
+
+        /** Around the origin, starting on the x axis. */
+        CIRCLE,
+
+        /** Back and forth along the x axis between the origin and the radius, turning back on the cells it just left. */
+        SHUTTLE;
+
+        /**
+         * Returns where the camera is after flying for a time.
+         * @param time   the time since the start of the flight in seconds.
+         * @param speed  the speed in world units per second.
+         * @param radius the radius of the circle, or the length of the shuttle.
+         * @param store  the vector to store the location in.
+         * @return the location.
+         */
+        public Vector3f getLocation(float time, float speed, float radius, Vector3f store) {
+
+            float distance = time * speed;
+
+            switch (this) {
+
+                case CIRCLE:
+                    float angle = distance / radius;
+                    return store.set(FastMath.cos(angle) * radius, ALTITUDE, FastMath.sin(angle) * radius);
+
+                case SHUTTLE:
+                    return store.set(radius - Math.abs(radius - distance % (2 * radius)), ALTITUDE, 0);
+
+                default:
+                    return store.set(distance, ALTITUDE, 0);
+            }
+        }
+    }
+
+    private long seed = 123;
+    private Path path = Path.LINE;
+    private float speed = 100;
+    private float radius = 512;
+    private float duration = 60;
+    private float warmup = 120;
+    private File outputDir = new File("flight-report");
+    private File baseline;
+    private float tolerance = 10;
+    private float minDelta = 1;
+
+    public static void main(String[] args) {
+
+        FlightBenchmark benchmark = new FlightBenchmark();
+
+        try {
+            benchmark.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        try {
+            if (!benchmark.run()) {
+                System.exit(REGRESSION);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to write the report: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private void parseArgs(String[] args) {
+
+        for (int i = 0; i < args.length; i++) {
+
+            String arg = args[i];
+
+            if (arg.equals("--help")) {
+                throw new IllegalArgumentException("");
+            }
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+
+            String value = args[++i];
+
+            try {
+                switch (arg) {
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--path": path = parsePath(value); break;
+                    case "--speed": speed = Float.parseFloat(value); break;
+                    case "--radius": radius = Float.parseFloat(value); break;
+                    case "--duration": duration = Float.parseFloat(value); break;
+                    case "--warmup": warmup = Float.parseFloat(value); break;
+                    case "--out": outputDir = new File(value); break;
+                    case "--baseline": baseline = new File(value); break;
+                    case "--tolerance": tolerance = Float.parseFloat(value); break;
+                    case "--min-delta": minDelta = Float.parseFloat(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+
+        if (speed <= 0 || radius <= 0 || duration <= 0) {
+            throw new IllegalArgumentException("The speed, radius and duration must be positive.");
+        }
+
+        if (baseline != null && !baseline.isFile()) {
+            throw new IllegalArgumentException("The baseline does not exist: " + baseline);
+        }
+    }
+
+    private static Path parsePath(String value) {
+
+        for (Path path : Path.values()) {
+            if (path.name().equalsIgnoreCase(value)) {
+                return path;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown path: " + value);
+    }
+
+    // returns false if the run is worse than the baseline.
+    private boolean run() throws IOException {
+
+        HeadlessWorld world = HeadlessWorld.start(seed, true);
+        Flight flight = new Flight(world);
+        MemorySampler memory = flight.memory;
+
+        memory.start(100);
+        world.getStateManager().attach(flight);
+
+        // the headless world runs at 60 frames per second, so a slow flight still finishes well within this.
+        long timeout = (long) ((warmup + duration) * 4) + 60;
+
+        try {
+            if (!flight.done.await(timeout, TimeUnit.SECONDS)) {
+                System.err.println("The flight did not finish within " + timeout + " seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            memory.stop();
+            world.stop();
+        }
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + outputDir);
+        }
+
+        Map<String, Double> metrics = flight.summarize();
+
+        flight.writeFrames(new File(outputDir, "frames.csv"));
+        world.getWorldContext().getMetrics().exportCsv(new File(outputDir, "grids.csv"));
+        writeSummary(new File(outputDir, "summary.json"), flight, metrics);
+
+        printSummary(flight, metrics);
+
+        return baseline == null || compare(metrics, readMetrics(baseline));
+    }
+
+    private void writeSummary(File file, Flight flight, Map<String, Double> metrics) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+
+            writer.println("{");
+            writer.println("  \"scenario\": {");
+            writer.println(String.format(Locale.ROOT, "    \"seed\": %d,", seed));
+            writer.println(String.format(Locale.ROOT, "    \"path\": \"%s\",", path.name().toLowerCase(Locale.ROOT)));
+            writer.println(String.format(Locale.ROOT, "    \"speed\": %.1f,", speed));
+            writer.println(String.format(Locale.ROOT, "    \"radius\": %.1f,", radius));
+            writer.println(String.format(Locale.ROOT, "    \"duration\": %.1f,", duration));
+            writer.println(String.format(Locale.ROOT, "    \"frames\": %d,", flight.samples.size()));
+            writer.println(String.format(Locale.ROOT, "    \"startup_complete\": %b", flight.startupComplete));
+            writer.println("  },");
+            writer.println("  \"metrics\": {");
+
+            int i = 0;
+
+            for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+                writer.print(String.format(Locale.ROOT, "    \"%s\": %.3f", entry.getKey(), entry.getValue()));
+                writer.println(++i < metrics.size() ? "," : "");
+            }
+
+            writer.println("  }");
+            writer.println("}");
+        }
+    }
+
+    // only the metrics of a summary written by this tool are read, so a full json parser isn't needed.
+    private static Map<String, Double> readMetrics(File file) throws IOException {
+
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        int start = json.indexOf("\"metrics\"");
+
+        Map<String, Double> metrics = new LinkedHashMap<>();
+
+        if (start < 0) {
+            return metrics;
+        }
+
+        Matcher matcher = METRIC.matcher(json.substring(start + "\"metrics\"".length()));
+
+        while (matcher.find()) {
+            metrics.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+        }
+
+        return metrics;
+    }
+
+    private void printSummary(Flight flight, Map<String, Double> metrics) {
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Flight: %s at %.0f units/s for %.0f s, seed %d, %d frames",
+                path.name().toLowerCase(Locale.ROOT), speed, duration, seed, flight.samples.size()));
+
+        if (!flight.startupComplete) {
+            System.out.println("The startup did not complete within the warm-up, so the flight started early.");
+        }
+
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            System.out.println(String.format(Locale.ROOT, "  %-28s %10.2f", entry.getKey(), entry.getValue()));
+        }
+
+        System.out.println("Report written to " + outputDir.getAbsolutePath());
+    }
+
+    // every metric is better when it is lower.
+    private boolean compare(Map<String, Double> metrics, Map<String, Double> baselineMetrics) throws IOException {
+
+        boolean passed = true;
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "Compared with %s (tolerance %.0f%%, min delta %.1f):",
+                baseline, tolerance, minDelta));
+
+        File file = new File(outputDir, "comparison.csv");
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+
+            writer.println("metric,baseline,current,change_percent,regression");
+
+            for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+
+                Double previous = baselineMetrics.get(entry.getKey());
+
+                if (previous == null) {
+                    continue;
+                }
+
+                double current = entry.getValue();
+                double delta = current - previous;
+                double change = previous == 0 ? 0 : delta * 100 / previous;
+                boolean regression = delta > minDelta && delta > previous * tolerance / 100;
+
+                passed &= !regression;
+
+                writer.println(String.format(Locale.ROOT, "%s,%.3f,%.3f,%.1f,%b",
+                        entry.getKey(), previous, current, change, regression));
+
+                System.out.println(String.format(Locale.ROOT, "  %-28s %10.2f -> %10.2f %+7.1f%% %s",
+                        entry.getKey(), previous, current, change, regression ? "REGRESSION" : ""));
+            }
+        }
+
+        System.out.println(passed ? "No regressions." : "Regressions found.");
+        return passed;
+    }
+
+    private static double percentile(double[] values, double percentile) {
+
+        if (values.length == 0) {
+            return 0;
+        }
+
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static class FrameSample {
+
+        private final float time;
+        private final float x;
+        private final float z;
+        private final long worldUpdate;
+        private final int[] missing;
+
+        // the frame time of a frame is only known the frame after.
+        private long frameTime = -1;
+
+        private FrameSample(float time, Vector3f location, long worldUpdate, int[] missing) {
+            this.time = time;
+            this.x = location.x;
+            this.z = location.z;
+            this.worldUpdate = worldUpdate;
+            this.missing = missing;
+        }
+    }
+
+    // flies the camera along the path on the main thread and records each frame.
+    private class Flight extends BaseAppState {
+
+        private final HeadlessWorld world;
+        private final MemorySampler memory = new MemorySampler();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // the grids that report their cells, in the order of their columns.
+        private final List<GridMetrics> gridMetrics = new ArrayList<>();
+        private final List<SceneGrid> grids = new ArrayList<>();
+
+        private final List<FrameSample> samples = new ArrayList<>();
+        private final Vector3f location = new Vector3f();
+        private final Vector3f ahead = new Vector3f();
+
+        private Camera camera;
+        private float waited;
+        private boolean flying;
+        private boolean startupComplete;
+        private float time;
+
+        private Flight(HeadlessWorld world) {
+            this.world = world;
+        }
+
+        @Override
+        protected void initialize(Application app) {
+
+            camera = app.getCamera();
+            moveCamera(0);
+
+            for (GridMetrics metrics : world.getWorldContext().getMetrics().getGrids()) {
+
+                SceneGrid grid = world.getGrid(metrics.getName());
+
+                if (grid != null) {
+                    gridMetrics.add(metrics);
+                    grids.add(grid);
+                }
+            }
+        }
+
+        @Override
+        public void update(float tpf) {
+
+            if (!flying) {
+
+                waited += tpf;
+                startupComplete = world.getStartupState().isComplete();
+
+                if (!startupComplete && waited < warmup) {
+                    return;
+                }
+
+                // only the flight is measured.
+                flying = true;
+                world.getWorldContext().getMetrics().reset();
+                memory.reset();
+                return;
+            }
+
+            if (!samples.isEmpty()) {
+                samples.get(samples.size() - 1).frameTime = world.getLastFrameTime();
+            }
+
+            if (time >= duration) {
+                setEnabled(false);
+                done.countDown();
+                return;
+            }
+
+            time += tpf;
+            moveCamera(time);
+
+            int[] missing = new int[grids.size()];
+
+            for (int i = 0; i < grids.size(); i++) {
+
+                SceneGrid grid = grids.get(i);
+                int cellSize = grid.getGridSettings().getCellSize().getSize();
+
+                missing[i] = gridMetrics.get(i).countMissingCells(
+                        (int) Math.floor(location.x / cellSize),
+                        (int) Math.floor(location.z / cellSize),
+                        grid.getGridSettings().getViewDistance());
+            }
+
+            samples.add(new FrameSample(time, location, world.getWorldContext().getMetrics().getLastWorldUpdate(),
+                    missing));
+        }
+
+        private void moveCamera(float time) {
+
+            path.getLocation(time, speed, radius, location);
+            path.getLocation(time + 0.5f, speed, radius, ahead);
+
+            camera.setLocation(location);
+
+            // the camera looks where it is going, so the cells in view are the ones being approached.
+            if (ahead.distanceSquared(location) > FastMath.ZERO_TOLERANCE) {
+                camera.lookAt(ahead, Vector3f.UNIT_Y);
+            }
+        }
+
+        private Map<String, Double> summarize() {
+
+            List<Double> frameTimes = new ArrayList<>();
+            double[] worldUpdates = new double[samples.size()];
+
+            for (int i = 0; i < samples.size(); i++) {
+
+                FrameSample sample = samples.get(i);
+                worldUpdates[i] = sample.worldUpdate / 1e6;
+
+                if (sample.frameTime >= 0) {
+                    frameTimes.add(sample.frameTime / 1e6);
+                }
+            }
+
+            double[] frames = new double[frameTimes.size()];
+
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = frameTimes.get(i);
+            }
+
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            metrics.put("frame_p50_ms", percentile(frames, 0.5));
+            metrics.put("frame_p99_ms", percentile(frames, 0.99));
+            metrics.put("frame_max_ms", percentile(frames, 1));
+            metrics.put("world_update_p50_ms", percentile(worldUpdates, 0.5));
+            metrics.put("world_update_p99_ms", percentile(worldUpdates, 0.99));
+            metrics.put("world_update_max_ms", percentile(worldUpdates, 1));
+
+            for (int g = 0; g < gridMetrics.size(); g++) {
+
+                GridMetrics grid = gridMetrics.get(g);
+                String name = grid.getName().toLowerCase(Locale.ROOT);
+
+                double total = 0;
+                int max = 0;
+
+                for (FrameSample sample : samples) {
+                    total += sample.missing[g];
+                    max = Math.max(max, sample.missing[g]);
+                }
+
+                metrics.put(name + "_missing_mean", samples.isEmpty() ? 0 : total / samples.size());
+                metrics.put(name + "_missing_max", (double) max);
+                metrics.put(name + "_build_p50_ms", grid.getBuildTimes().getPercentile(0.5) / 1e6);
+                metrics.put(name + "_build_p99_ms", grid.getBuildTimes().getPercentile(0.99) / 1e6);
+                metrics.put(name + "_ring_p50_ms", grid.getRingTimes().getPercentile(0.5) / 1e6);
+                metrics.put(name + "_ring_p99_ms", grid.getRingTimes().getPercentile(0.99) / 1e6);
+            }
+
+            metrics.put("heap_peak_mb", memory.getPeakHeap() / (1024.0 * 1024.0));
+            metrics.put("direct_peak_mb", memory.getPeakDirect() / (1024.0 * 1024.0));
+
+            return metrics;
+        }
+
+        private void writeFrames(File file) throws IOException {
+
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+
+                StringBuilder header = new StringBuilder("frame,time_s,x,z,frame_ms,world_update_ms");
+
+                for (GridMetrics grid : gridMetrics) {
+                    header.append(',').append(grid.getName().toLowerCase(Locale.ROOT)).append("_missing");
+                }
+
+                writer.println(header);
+
+                for (int i = 0; i < samples.size(); i++) {
+
+                    FrameSample sample = samples.get(i);
+
+                    StringBuilder row = new StringBuilder(String.format(Locale.ROOT, "%d,%.3f,%.1f,%.1f,%.3f,%.3f",
+                            i, sample.time, sample.x, sample.z,
+                            sample.frameTime < 0 ? Double.NaN : sample.frameTime / 1e6,
+                            sample.worldUpdate / 1e6));
+
+                    for (int missing : sample.missing) {
+                        row.append(',').append(missing);
+                    }
+
+                    writer.println(row);
+                }
+            }
+        }
+
+        @Override
+        protected void cleanup(Application app) {
+
+        }
+
+        @Override
+        protected void onEnable() {
+
+        }
+
+        @Override
+        protected void onDisable() {
+
+        }
+    }
+
+}
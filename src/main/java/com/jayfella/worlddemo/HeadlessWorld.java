@@ -0,0 +1,241 @@
+package com.jayfella.worlddemo;
+
+import com.jayfella.jme.worldpager.core.CellSize;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.worlddemo.world.InstrumentedWorldState;
+import com.jayfella.worlddemo.world.StartupState;
+import com.jayfella.worlddemo.world.TerrainTracker;
+import com.jayfella.worlddemo.world.WorldContext;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.AppState;
+import com.jme3.system.AppSettings;
+import com.jme3.system.JmeContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the same world as the demo without a window or a GPU.
+ * The application runs in a headless context, so the world state is initialized and updated as usual, but nothing
+ * is rendered. Used by the benchmarks and the command line tools.
+ */
+public class HeadlessWorld extends SimpleApplication {
+
+    private final long seed;
+    private final boolean attachGrids;
+    private final boolean progressiveStartup;
+
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    // set on the main thread once the assets are loaded and the grids are created.
+    private boolean gridsCreated;
+    private final long start = System.nanoTime();
+
+    // the time the last frame took, not including the wait for the next frame.
+    private volatile long lastFrameTime;
+
+    private AbstractWorldState world;
+    private WorldContext worldContext;
+    private StartupState startupState;
+    private final Map<String, SceneGrid> grids = new LinkedHashMap<>();
+
+    /**
+     * Creates a headless world.
+     * @param seed        the seed of the world.
+     * @param attachGrids whether or not the grass, flowers and trees grids are added to the world. If they are not,
+     *                    cells are only built when requested.
+     */
+    public HeadlessWorld(long seed, boolean attachGrids) {
+        this(seed, attachGrids, true);
+    }
+
+    /**
+     * Creates a headless world.
+     * @param seed               the seed of the world.
+     * @param attachGrids        whether or not the grass, flowers and trees grids are added to the world.
+     * @param progressiveStartup whether or not the grids are brought up ring by ring, or all at once.
+     */
+    public HeadlessWorld(long seed, boolean attachGrids, boolean progressiveStartup) {
+        // none of the default states are needed without a window.
+        super(new AppState[0]);
+        this.seed = seed;
+        this.attachGrids = attachGrids;
+        this.progressiveStartup = progressiveStartup;
+    }
+
+    /**
+     * Starts a headless world and waits for it to be initialized.
+     * @param seed        the seed of the world.
+     * @param attachGrids whether or not the grids are added to the world and paged around the follower.
+     * @return the initialized world.
+     */
+    public static HeadlessWorld start(long seed, boolean attachGrids) {
+        return start(new HeadlessWorld(seed, attachGrids));
+    }
+
+    /**
+     * Starts a headless world and waits for it to be initialized.
+     * @param app the world to start.
+     * @return the initialized world.
+     */
+    public static HeadlessWorld start(HeadlessWorld app) {
+
+        AppSettings settings = new AppSettings(true);
+        settings.setFrameRate(60);
+        settings.setAudioRenderer(null);
+        settings.setUseInput(false);
+
+        app.setSettings(settings);
+        app.setShowSettings(false);
+        app.start(JmeContext.Type.Headless);
+
+        try {
+            if (!app.initialized.await(60, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("The headless world did not initialize in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        return app;
+    }
+
+    @Override
+    public void simpleInitApp() {
+
+        InstrumentedWorldState demoWorld = new InstrumentedWorldState(WorldFactory.createWorldSettings(seed));
+        world = demoWorld;
+        stateManager.attach(world);
+
+        worldContext = new WorldContext(world);
+        demoWorld.setMetrics(worldContext.getMetrics());
+        stateManager.attach(worldContext.getAttachScheduler());
+        stateManager.attach(worldContext.getShadowCasters());
+        stateManager.attach(worldContext.getPrefetcher());
+        stateManager.attach(worldContext.getWarmCells());
+        stateManager.attach(worldContext.getCellMerger());
+        stateManager.attach(worldContext.getMemoryGovernor());
+
+        // the terrain grid belongs to the world-pager, so its cells are counted from the scene.
+        stateManager.attach(new TerrainTracker(world, worldContext));
+
+        // the startup is only timed when the grids are paged.
+        startupState = new StartupState(world, worldContext, start);
+        startupState.setProgressive(progressiveStartup);
+        startupState.setEnabled(attachGrids);
+        stateManager.attach(startupState);
+
+        // the grids are created on the main thread once their assets are loaded, as the demo does.
+        WorldFactory worldFactory = new WorldFactory(assetManager, world, worldContext);
+
+        worldFactory.preloadAssets(Runtime.getRuntime().availableProcessors()).thenAccept(assetLoadTime -> enqueue(() -> {
+
+            addGrid(worldFactory.createFarTerrainGrid());
+            addGrid(worldFactory.createGrassGrid());
+            addGrid(worldFactory.createFlowersGrid());
+            addGrid(worldFactory.createTreesGrid());
+
+            worldFactory.releasePreloadedAssets();
+            startupState.setAssetLoadTime(assetLoadTime);
+            gridsCreated = true;
+        }));
+    }
+
+    private void addGrid(SceneGrid grid) {
+
+        grids.put(grid.getName(), grid);
+
+        if (attachGrids) {
+            world.addSceneGrid(grid);
+        }
+    }
+
+    @Override
+    public void simpleUpdate(float tpf) {
+
+        // app states are initialized during the first update, and the grids once their assets are loaded.
+        if (initialized.getCount() > 0 && world.isInitialized() && gridsCreated) {
+
+            SceneGrid terrain = world.getSceneGrid("Terrain");
+
+            if (terrain != null) {
+                grids.put(terrain.getName(), terrain);
+            }
+
+            initialized.countDown();
+        }
+
+        world.setFollower(cam.getLocation());
+        worldContext.getFollower().update(cam.getLocation(), tpf);
+    }
+
+    @Override
+    public void update() {
+
+        long frameStart = System.nanoTime();
+        super.update();
+        lastFrameTime = System.nanoTime() - frameStart;
+    }
+
+    @Override
+    public void destroy() {
+        worldContext.getGenerationExecutor().shutdown();
+        super.destroy();
+    }
+
+    /**
+     * Returns the time the main thread spent on the last frame: updating the states and the scene, and rendering it
+     * to nothing. The time spent waiting for the next frame is not included.
+     * @return the time in nanoseconds.
+     */
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    public AbstractWorldState getWorld() {
+        return world;
+    }
+
+    public WorldContext getWorldContext() {
+        return worldContext;
+    }
+
+    /**
+     * Returns the state that brings the grids up ring by ring and times the startup. It is only enabled if the grids
+     * are paged around the follower.
+     * @return the startup state.
+     */
+    public StartupState getStartupState() {
+        return startupState;
+    }
+
+    /**
+     * Returns the grid with the given name, including the terrain grid created by the world.
+     * @param name the name of the grid.
+     * @return the grid, or null if no grid has the given name.
+     */
+    public SceneGrid getGrid(String name) {
+        return grids.get(name);
+    }
+
+    public Map<String, SceneGrid> getGrids() {
+        return grids;
+    }
+
+    /**
+     * Creates the position of a cell.
+     * @param x        the x coordinate of the cell.
+     * @param z        the z coordinate of the cell.
+     * @param cellSize the size of the cells of the grid.
+     * @return the position of the cell.
+     */
+    public static GridPos2i gridPos(int x, int z, CellSize cellSize) {
+        return new GridPos2i(x, z, cellSize.getBitshift());
+    }
+
+}
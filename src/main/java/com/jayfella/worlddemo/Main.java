@@ -1,36 +1,29 @@
 package com.jayfella.worlddemo;
 
-import com.jayfella.fastnoise.NoiseLayer;
-import com.jayfella.jme.plotters.meshplotter.MeshPlotterSettings;
-import com.jayfella.jme.worldpager.DemoWorldState;
-import com.jayfella.jme.worldpager.core.CellSize;
-import com.jayfella.jme.worldpager.core.GridSettings;
 import com.jayfella.jme.worldpager.grid.SceneGrid;
-import com.jayfella.jme.worldpager.grid.SpriteGrid;
 import com.jayfella.jme.worldpager.world.AbstractWorldState;
 import com.jayfella.jme.worldpager.world.WorldSettings;
-import com.jayfella.worlddemo.grass.GrassPathsRule;
 import com.jayfella.worlddemo.gui.WorldSettingsState;
-import com.jayfella.worlddemo.tree.PlottedModel;
-import com.jayfella.worlddemo.tree.TreesGrid;
+import com.jayfella.worlddemo.world.CellStore;
+import com.jayfella.worlddemo.world.InstrumentedWorldState;
+import com.jayfella.worlddemo.world.StartupState;
+import com.jayfella.worlddemo.world.TerrainTracker;
+import com.jayfella.worlddemo.world.WorldContext;
 import com.jme3.app.SimpleApplication;
-import com.jme3.asset.AssetManager;
 import com.jme3.light.AmbientLight;
 import com.jme3.light.DirectionalLight;
-import com.jme3.material.Material;
 import com.jme3.math.ColorRGBA;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.post.FilterPostProcessor;
 import com.jme3.renderer.queue.RenderQueue;
-import com.jme3.scene.Geometry;
-import com.jme3.scene.Node;
 import com.jme3.shadow.DirectionalLightShadowFilter;
 import com.jme3.system.AppSettings;
 import com.jme3.water.WaterFilter;
 import com.simsilica.lemur.GuiGlobals;
 import com.simsilica.lemur.style.BaseStyles;
 
+import java.io.File;
+
 public class Main extends SimpleApplication {
 
     public static void main(String[] args) {
@@ -47,10 +40,13 @@ public class Main extends SimpleApplication {
     }
 
     private AbstractWorldState world;
+    private WorldContext worldContext;
 
     @Override
     public void simpleInitApp() {
 
+        long start = System.nanoTime();
+
         // initialize lemur
         GuiGlobals.initialize(this);
         BaseStyles.loadGlassStyle();
@@ -74,26 +70,65 @@ public class Main extends SimpleApplication {
         rootNode.addLight(new AmbientLight(ColorRGBA.White.mult(0.1f)));
 
         // create our world.
-        WorldSettings worldSettings = new WorldSettings();
-        worldSettings.setWorldName("Test World");
-        worldSettings.setSeed(123);
-        worldSettings.setNumThreads(3);
+        WorldSettings worldSettings = WorldFactory.createWorldSettings(123);
 
         // the demo world from the world-pager only creates terrain.
-        world = new DemoWorldState(worldSettings);
+        InstrumentedWorldState demoWorld = new InstrumentedWorldState(worldSettings);
+        world = demoWorld;
         stateManager.attach(world);
 
-        // add a grass layer.
-        SceneGrid grassGrid = createGrassGrid();
-        world.addSceneGrid(grassGrid);
+        // state shared between our own grids, such as the heightfield cache.
+        worldContext = new WorldContext(world);
+        demoWorld.setMetrics(worldContext.getMetrics());
+        stateManager.attach(worldContext.getAttachScheduler());
+        stateManager.attach(worldContext.getShadowCasters());
+        stateManager.attach(worldContext.getPrefetcher());
+        stateManager.attach(worldContext.getWarmCells());
+        stateManager.attach(worldContext.getCellMerger());
+        stateManager.attach(worldContext.getMemoryGovernor());
+
+        // the terrain grid belongs to the world-pager, so its cells are counted from the scene.
+        stateManager.attach(new TerrainTracker(world, worldContext));
+
+        // keep the generated cells on disk, so revisited areas and later runs don't generate them again. The store
+        // writes to the working directory and is never compacted, so it is only used once enabled in the settings.
+        CellStore cellStore = new CellStore(new File("cell-store"), worldSettings.getSeed());
+        cellStore.setEnabled(false);
+        worldContext.setCellStore(cellStore);
+
+        WorldFactory worldFactory = new WorldFactory(assetManager, world, worldContext);
+
+        // bring the grids up ring by ring around the camera, and log how long it took. The terrain is paged while the
+        // assets of the other grids load.
+        StartupState startupState = new StartupState(world, worldContext, start);
+        stateManager.attach(startupState);
+
+        // load the models, materials and textures of the grids at once instead of one after the other, without
+        // holding up the render thread, and create the grids on the render thread once they are loaded.
+        worldFactory.preloadAssets(Runtime.getRuntime().availableProcessors()).thenAccept(assetLoadTime -> enqueue(() -> {
 
-        // add a flowers layer
-        SceneGrid flowersGrid = createFlowersGrid();
-        world.addSceneGrid(flowersGrid);
+            // extend the terrain beyond its view distance at a lower resolution.
+            SceneGrid farTerrainGrid = worldFactory.createFarTerrainGrid();
+            world.addSceneGrid(farTerrainGrid);
 
-        // add trees layer
-        SceneGrid treesGrid = createTreesGrid();
-        world.addSceneGrid(treesGrid);
+            // add a grass layer.
+            SceneGrid grassGrid = worldFactory.createGrassGrid();
+            world.addSceneGrid(grassGrid);
+
+            // add a flowers layer
+            SceneGrid flowersGrid = worldFactory.createFlowersGrid();
+            world.addSceneGrid(flowersGrid);
+
+            // add trees layer
+            SceneGrid treesGrid = worldFactory.createTreesGrid();
+            world.addSceneGrid(treesGrid);
+
+            worldFactory.releasePreloadedAssets();
+            startupState.setAssetLoadTime(assetLoadTime);
+
+            // the settings are made for every grid, so they wait for the grids.
+            stateManager.attach(new WorldSettingsState(world, worldContext));
+        }));
 
         // Post-Processing
         FilterPostProcessor fpp = new FilterPostProcessor(assetManager);
@@ -107,7 +142,7 @@ public class Main extends SimpleApplication {
         // add some shadows
         DirectionalLightShadowFilter shadowFilter = new DirectionalLightShadowFilter(assetManager, 2048, 3);
         shadowFilter.setLight(directionalLight);
-        shadowFilter.setShadowZExtend(256);
+        shadowFilter.setShadowZExtend(WorldFactory.SHADOW_Z_EXTEND);
         shadowFilter.setShadowZFadeLength(128);
         fpp.addFilter(shadowFilter);
 
@@ -116,179 +151,6 @@ public class Main extends SimpleApplication {
 
 
         rootNode.setShadowMode(RenderQueue.ShadowMode.CastAndReceive);
-
-        stateManager.attach(new WorldSettingsState(world));
-    }
-
-    private SceneGrid createTreesGrid() {
-
-        GridSettings gridSettings = new GridSettings();
-        gridSettings.setCellSize(CellSize.Size_64);
-        gridSettings.setViewDistance(4);
-
-        // tree 1
-        PlottedModel tree_1 = new PlottedModel("Fir 1", assetManager.loadModel("Models/Fir1/fir1_androlo.j3o"));
-        tree_1.setMinRadius(10);
-        tree_1.setMaxRadius(12);
-        tree_1.setMinSpaceBetween(16);
-        tree_1.setMinScale(6);
-        tree_1.setMaxScale(10);
-        tree_1.setMinHeight(10);
-        tree_1.setMaxHeight(256);
-        tree_1.setLikelihood(0.1f);
-        tree_1.setMaxAttempts(32);
-
-        // tree 2
-        Node oakTree = (Node) assetManager.loadModel("Models/Oak/tree_oak.j3o");
-        Geometry oakTrunk = (Geometry) oakTree.getChild("oak trunk");
-        oakTrunk.setMaterial(assetManager.loadMaterial("Models/Oak/Oak_Trunk.j3m"));
-
-        Geometry oakLeaves = (Geometry) oakTree.getChild("oak leaves");
-        oakLeaves.setMaterial(assetManager.loadMaterial("Models/Oak/Oak_Leaves.j3m"));
-
-        PlottedModel tree_2 = new PlottedModel("Oak", oakTree);
-        tree_2.setMinRadius(12);
-        tree_2.setMaxRadius(18);
-        tree_2.setMinSpaceBetween(19);
-        tree_2.setMinScale(10);
-        tree_2.setMaxScale(16);
-        tree_2.setMinHeight(10);
-        tree_2.setMaxHeight(256);
-        tree_2.setLikelihood(0.3f);
-        tree_2.setMaxAttempts(32);
-
-        // tree 3
-        Node mapleTree = (Node) assetManager.loadModel("Models/Maple/tree_maple.j3o");
-        Geometry mapleTrunk = (Geometry) mapleTree.getChild("maple trunk");
-        mapleTrunk.setMaterial(assetManager.loadMaterial("Models/Maple/Maple_Trunk.j3m"));
-
-        Geometry mapleLeaves = (Geometry) mapleTree.getChild("maple leaves");
-        mapleLeaves.setMaterial(assetManager.loadMaterial("Models/Maple/Maple_Leaves.j3m"));
-
-        PlottedModel tree_3 = new PlottedModel("Maple", mapleTree);
-        tree_3.setMinRadius(16);
-        tree_3.setMaxRadius(22);
-        tree_3.setMinSpaceBetween(24);
-        tree_3.setMinScale(8);
-        tree_3.setMaxScale(14);
-        tree_3.setMinHeight(10);
-        tree_3.setMaxHeight(256);
-        tree_3.setLikelihood(0.4f);
-        tree_3.setMaxAttempts(32);
-
-        TreesGrid treesGrid = new TreesGrid(world, gridSettings, tree_1, tree_2, tree_3);
-        treesGrid.setName("Trees");
-
-        return treesGrid;
-    }
-
-    private SceneGrid createFlowersGrid() {
-
-        GridSettings gridSettings = new GridSettings();
-        gridSettings.setCellSize(CellSize.Size_32);
-        gridSettings.setViewDistance(3);
-        SpriteGrid flowersGrid = new SpriteGrid(world, gridSettings);
-        flowersGrid.setName("Flowers");
-
-        // create some plotter settings so we can customize the output
-        MeshPlotterSettings meshPlotterSettings = new MeshPlotterSettings();
-        meshPlotterSettings.setMinSize(0.2f); // the minimum size of a grass clump.
-        meshPlotterSettings.setMaxSize(1.3f); // the maximum size of a grass clump.
-        meshPlotterSettings.setDensity(3.6f); // how close together the grass will generate.
-        meshPlotterSettings.setMinWorldHeight(10.0f); // the lowest height grass will grow (above sea level).
-        meshPlotterSettings.setMinWorldHeightDeviation(1.5f); // add a bit of deviation to the min height.
-        meshPlotterSettings.setMaxWorldHeight(256); // the maximum height grass will grow.
-        meshPlotterSettings.setMaxWorldHeightDeviation(0.5f); // add a bit of deviation to the max height.
-        flowersGrid.setPlotterSettings(meshPlotterSettings);
-
-        flowersGrid.setMaterial(createFlowersMaterial(assetManager));
-
-        // add some noise to the grass layer.
-        NoiseLayer grassLayer_1 = new NoiseLayer("layer 1", 7654);
-        grassLayer_1.setScale(new Vector2f(0.5f, 1.5f));
-
-        NoiseLayer grassLayer_2 = new NoiseLayer("layer 1", 2345);
-        grassLayer_2.setScale(new Vector2f(1.5f, 0.5f));
-
-        flowersGrid.getNoiseGenerator().addLayer(grassLayer_1);
-        flowersGrid.getNoiseGenerator().addLayer(grassLayer_2);
-
-        // add some rules to the generator
-        GrassPathsRule grassPathsRule = new GrassPathsRule(flowersGrid);
-        grassPathsRule.setThreshold(0.1f);
-        grassPathsRule.setSecondChance(0.1f);
-        flowersGrid.setPlotterRules(grassPathsRule);
-
-        return flowersGrid;
-
-    }
-
-    private Material createFlowersMaterial(AssetManager assetManager) {
-
-        Material flowersMaterial = new Material(assetManager, "MatDefs/Vegetation-Sprite.j3md");
-        flowersMaterial.setTexture("DiffuseMap", assetManager.loadTexture("Textures/Sprite-Vegetation/sprite-flowers.png"));
-        flowersMaterial.setTexture("Noise", assetManager.loadTexture("Textures/Noise/noise-x3-512.png"));
-        flowersMaterial.setFloat("AlphaDiscardThreshold", 0.65f);
-        flowersMaterial.setFloat("DistanceFalloff", 320);
-
-        return flowersMaterial;
-
-    }
-
-    private SceneGrid createGrassGrid() {
-
-        GridSettings gridSettings = new GridSettings();
-        gridSettings.setCellSize(CellSize.Size_32);
-        gridSettings.setViewDistance(8);
-        SpriteGrid grassGrid = new SpriteGrid(world, gridSettings);
-        grassGrid.setName("Grass");
-
-        // create some plotter settings so we can customize the output
-        MeshPlotterSettings meshPlotterSettings = new MeshPlotterSettings();
-
-        meshPlotterSettings.setMinSize(0.2f); // the minimum size of a grass clump.
-        meshPlotterSettings.setMaxSize(1.3f); // the maximum size of a grass clump.
-
-        meshPlotterSettings.setDensity(0.2f); // how close together the grass will generate.
-
-        meshPlotterSettings.setMinWorldHeight(10.0f); // the lowest height grass will grow (above sea level).
-        meshPlotterSettings.setMinWorldHeightDeviation(1.5f); // add a bit of deviation to the min height.
-
-        meshPlotterSettings.setMaxWorldHeight(256); // the maximum height grass will grow.
-        meshPlotterSettings.setMaxWorldHeightDeviation(0.5f); // add a bit of deviation to the max height.
-
-        grassGrid.setPlotterSettings(meshPlotterSettings);
-
-        grassGrid.setMaterial(createGrassMaterial(assetManager));
-
-        // add some noise to the grass layer.
-        NoiseLayer grassLayer_1 = new NoiseLayer("layer 1", 543);
-        grassLayer_1.setScale(new Vector2f(2.5f, 1.5f));
-
-        NoiseLayer grassLayer_2 = new NoiseLayer("layer 1", 432);
-        grassLayer_2.setScale(new Vector2f(1.5f, 2.5f));
-
-        grassGrid.getNoiseGenerator().addLayer(grassLayer_1);
-        grassGrid.getNoiseGenerator().addLayer(grassLayer_2);
-
-        // add some rules to the generator
-        GrassPathsRule grassPathsRule = new GrassPathsRule(grassGrid);
-        grassPathsRule.setThreshold(0.2f);
-        grassPathsRule.setSecondChance(0.2f);
-        grassGrid.setPlotterRules(grassPathsRule);
-
-        return grassGrid;
-    }
-
-    private Material createGrassMaterial(AssetManager assetManager) {
-
-        Material grassMaterial = new Material(assetManager, "MatDefs/Vegetation-Sprite.j3md");
-        grassMaterial.setTexture("DiffuseMap", assetManager.loadTexture("Textures/Sprite-Vegetation/sprite-grass.png"));
-        grassMaterial.setTexture("Noise", assetManager.loadTexture("Textures/Noise/noise-x3-512.png"));
-        grassMaterial.setFloat("AlphaDiscardThreshold", 0.65f);
-        grassMaterial.setFloat("DistanceFalloff", 512);
-
-        return grassMaterial;
     }
 
     @Override
@@ -296,6 +158,14 @@ public class Main extends SimpleApplication {
 
         // update the world with our location.
         world.setFollower(cam.getLocation());
+        worldContext.getFollower().update(cam.getLocation(), tpf);
+    }
+
+    @Override
+    public void destroy() {
+        worldContext.getGenerationExecutor().shutdown();
+        worldContext.getCellStore().close();
+        super.destroy();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,323 @@
+package com.jayfella.worlddemo;
+
+import com.jayfella.jme.worldpager.core.CellSize;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.MemorySampler;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jme3.export.binary.BinaryExporter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.Control;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a region of the world without a window and writes every cell to disk.
+ * Each cell is built with the same grids as the demo and saved as a j3o file in a directory for each grid.
+ *
+ * The region can be split into shards so that several processes can each generate a part of it, e.g:
+ * PreGenerate --region -1024,-1024,1024,1024 --shards 4 --shard 0
+ */
+public class PreGenerate {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: PreGenerate [options]",
+            "  --seed <seed>                      the seed of the world. Default: 123",
+            "  --region <minX,minZ,maxX,maxZ>     the region to generate in world units. Default: -512,-512,512,512",
+            "  --grids <name,name,...>            the grids to generate. Default: Terrain,Grass,Flowers,Trees",
+            "  --shards <count>                   the amount of shards the region is split into. Default: 1",
+            "  --shard <index>                    the shard this process generates, from 0. Default: 0",
+            "  --threads <count>                  the amount of threads to build cells with. Default: all cores",
+            "  --out <directory>                  where the cells are written. Default: pregen");
+
+    private long seed = 123;
+    private int[] region = { -512, -512, 512, 512 };
+    private List<String> gridNames = Arrays.asList("Terrain", "Grass", "Flowers", "Trees");
+    private int shards = 1;
+    private int shard = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File outputDir = new File("pregen");
+
+    // the highest heap and direct memory use seen while generating.
+    private final MemorySampler memory = new MemorySampler();
+
+    public static void main(String[] args) {
+
+        PreGenerate preGenerate = new PreGenerate();
+
+        try {
+            preGenerate.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        preGenerate.run();
+    }
+
+    private void parseArgs(String[] args) {
+
+        for (int i = 0; i < args.length; i++) {
+
+            String arg = args[i];
+
+            if (arg.equals("--help")) {
+                throw new IllegalArgumentException("");
+            }
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+
+            String value = args[++i];
+
+            try {
+                switch (arg) {
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--region": region = parseRegion(value); break;
+                    case "--grids": gridNames = Arrays.asList(value.split(",")); break;
+                    case "--shards": shards = Integer.parseInt(value); break;
+                    case "--shard": shard = Integer.parseInt(value); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    case "--out": outputDir = new File(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+
+        if (shards < 1 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("The shard must be between 0 and " + (shards - 1));
+        }
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required.");
+        }
+    }
+
+    private static int[] parseRegion(String value) {
+
+        String[] parts = value.split(",");
+
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("The region must be minX,minZ,maxX,maxZ");
+        }
+
+        int[] region = new int[4];
+
+        for (int i = 0; i < 4; i++) {
+            region[i] = Integer.parseInt(parts[i].trim());
+        }
+
+        if (region[2] <= region[0] || region[3] <= region[1]) {
+            throw new IllegalArgumentException("The region must have a positive width and depth.");
+        }
+
+        return region;
+    }
+
+    private void run() {
+
+        HeadlessWorld world = HeadlessWorld.start(seed, false);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        memory.start(100);
+
+        Map<String, GridResult> results = new LinkedHashMap<>();
+        long start = System.nanoTime();
+
+        try {
+
+            for (String gridName : gridNames) {
+
+                SceneGrid grid = world.getGrid(gridName);
+
+                if (grid == null) {
+                    System.err.println("Unknown grid: " + gridName + ". Available grids: " + world.getGrids().keySet());
+                    continue;
+                }
+
+                results.put(gridName, generate(grid, executor));
+            }
+
+        } finally {
+            executor.shutdownNow();
+            memory.stop();
+            world.stop();
+        }
+
+        printReport(results, System.nanoTime() - start);
+    }
+
+    private GridResult generate(SceneGrid grid, ExecutorService executor) {
+
+        List<GridPos2i> cells = getShardCells(grid.getGridSettings().getCellSize());
+
+        File gridDir = new File(outputDir, grid.getName());
+
+        if (!gridDir.isDirectory() && !gridDir.mkdirs()) {
+            throw new IllegalStateException("Unable to create directory: " + gridDir);
+        }
+
+        System.out.println("Generating " + cells.size() + " " + grid.getName() + " cells...");
+
+        GridResult result = new GridResult(cells.size());
+        long start = System.nanoTime();
+
+        List<Future<Long>> futures = new ArrayList<>(cells.size());
+
+        for (GridPos2i gridPos : cells) {
+            futures.add(executor.submit(() -> buildCell(grid, gridPos, gridDir)));
+        }
+
+        for (Future<Long> future : futures) {
+
+            try {
+                result.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to generate a " + grid.getName() + " cell.", e.getCause());
+            }
+        }
+
+        result.duration = System.nanoTime() - start;
+        return result;
+    }
+
+    // returns the time taken to build the cell, not including writing it.
+    private long buildCell(SceneGrid grid, GridPos2i gridPos, File gridDir) throws IOException, InterruptedException {
+
+        long start = System.nanoTime();
+        Object[] data = grid.buildCell(gridPos);
+
+        // the demo grids build their content on the generation executor. Build it here if it has not started.
+        if (data != null && data.length > 0 && data[0] instanceof CellNode) {
+            ((CellNode) data[0]).awaitContent();
+        }
+
+        long buildTime = System.nanoTime() - start;
+
+        if (data != null && data.length > 0 && data[0] instanceof Spatial) {
+
+            Spatial cell = (Spatial) data[0];
+
+            // the content of the demo grids is only attached once the cell is in the scene.
+            if (cell instanceof CellNode) {
+                ((CellNode) cell).attachContent();
+            }
+
+            // controls belong to the grid that built the cell, they are not part of the content.
+            cell.depthFirstTraversal(spatial -> {
+                for (int i = spatial.getNumControls() - 1; i >= 0; i--) {
+                    Control control = spatial.getControl(i);
+                    spatial.removeControl(control);
+                }
+            });
+
+            File file = new File(gridDir, gridPos.getX() + "_" + gridPos.getZ() + ".j3o");
+            BinaryExporter.getInstance().save(cell, file);
+        }
+
+        return buildTime;
+    }
+
+    /**
+     * Returns the cells of the region that belong to this shard. The cells are ordered row by row, and each shard
+     * takes a consecutive run of them so that the cells a process builds are next to each other.
+     */
+    private List<GridPos2i> getShardCells(CellSize cellSize) {
+
+        int size = cellSize.getSize();
+
+        int minX = Math.floorDiv(region[0], size);
+        int minZ = Math.floorDiv(region[1], size);
+        int maxX = Math.floorDiv(region[2] - 1, size);
+        int maxZ = Math.floorDiv(region[3] - 1, size);
+
+        long total = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+        long first = total * shard / shards;
+        long last = total * (shard + 1) / shards;
+
+        int width = maxX - minX + 1;
+        List<GridPos2i> cells = new ArrayList<>((int) (last - first));
+
+        for (long i = first; i < last; i++) {
+            int x = minX + (int) (i % width);
+            int z = minZ + (int) (i / width);
+            cells.add(HeadlessWorld.gridPos(x, z, cellSize));
+        }
+
+        return cells;
+    }
+
+    private void printReport(Map<String, GridResult> results, long duration) {
+
+        System.out.println();
+        System.out.println(String.format("Shard %d of %d, seed %d, region %s, %d threads",
+                shard, shards, seed, Arrays.toString(region), threads));
+        System.out.println(String.format("%-10s %8s %10s %10s %10s", "Grid", "Cells", "Cells/s", "p50 ms", "p99 ms"));
+
+        int totalCells = 0;
+
+        for (Map.Entry<String, GridResult> entry : results.entrySet()) {
+
+            GridResult result = entry.getValue();
+            totalCells += result.count;
+
+            System.out.println(String.format("%-10s %8d %10.1f %10.2f %10.2f",
+                    entry.getKey(),
+                    result.count,
+                    result.count / (result.duration / 1e9),
+                    result.percentile(0.5) / 1e6,
+                    result.percentile(0.99) / 1e6));
+        }
+
+        System.out.println(String.format("Total: %d cells in %.1f s (%.1f cells/s)",
+                totalCells, duration / 1e9, totalCells / (duration / 1e9)));
+        System.out.println(String.format("Peak memory: heap %d MB, direct %d MB",
+                memory.getPeakHeap() / (1024 * 1024), memory.getPeakDirect() / (1024 * 1024)));
+    }
+
+    private static class GridResult {
+
+        private final long[] buildTimes;
+        private int count;
+        private long duration;
+
+        private GridResult(int capacity) {
+            this.buildTimes = new long[capacity];
+        }
+
+        private void add(long buildTime) {
+            buildTimes[count++] = buildTime;
+        }
+
+        private long percentile(double percentile) {
+
+            if (count == 0) {
+                return 0;
+            }
+
+            long[] sorted = Arrays.copyOf(buildTimes, count);
+            Arrays.sort(sorted);
+
+            int index = (int) Math.ceil(percentile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+}
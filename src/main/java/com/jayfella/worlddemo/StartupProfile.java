@@ -0,0 +1,97 @@
+package com.jayfella.worlddemo;
+
+/**
+ * Starts the world without a window and prints how long each stage of the startup took, e.g:
+ * StartupProfile --seed 123 --timeout 120
+ *
+ * Run it with --instant to compare against every grid asking for its whole view at once.
+ */
+public class StartupProfile {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: StartupProfile [options]",
+            "  --seed <seed>                      the seed of the world. Default: 123",
+            "  --timeout <seconds>                how long to wait for the startup to complete. Default: 120",
+            "  --instant                          page every grid at its whole view distance from the start");
+
+    private long seed = 123;
+    private long timeout = 120;
+    private boolean progressive = true;
+
+    public static void main(String[] args) {
+
+        StartupProfile profile = new StartupProfile();
+
+        try {
+            profile.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        profile.run();
+    }
+
+    private void parseArgs(String[] args) {
+
+        for (int i = 0; i < args.length; i++) {
+
+            String arg = args[i];
+
+            if (arg.equals("--help")) {
+                throw new IllegalArgumentException("");
+            }
+
+            if (arg.equals("--instant")) {
+                progressive = false;
+                continue;
+            }
+
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+
+            String value = args[++i];
+
+            try {
+                switch (arg) {
+                    case "--seed": seed = Long.parseLong(value); break;
+                    case "--timeout": timeout = Long.parseLong(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+
+        if (timeout < 1) {
+            throw new IllegalArgumentException("The timeout must be at least one second.");
+        }
+    }
+
+    private void run() {
+
+        HeadlessWorld world = HeadlessWorld.start(new HeadlessWorld(seed, true, progressive));
+        long deadline = System.nanoTime() + timeout * 1_000_000_000L;
+
+        try {
+
+            while (!world.getStartupState().isComplete() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            world.stop();
+        }
+
+        if (!world.getStartupState().isComplete()) {
+            System.out.println("The startup did not complete within " + timeout + " seconds.");
+        }
+
+        System.out.println(world.getStartupState().getReport());
+    }
+
+}
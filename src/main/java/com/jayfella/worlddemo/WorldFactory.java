@@ -0,0 +1,383 @@
+package com.jayfella.worlddemo;
+
+import com.jayfella.fastnoise.NoiseLayer;
+import com.jayfella.jme.plotters.meshplotter.MeshPlotterSettings;
+import com.jayfella.jme.worldpager.core.CellSize;
+import com.jayfella.jme.worldpager.core.GridSettings;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.jme.worldpager.world.WorldSettings;
+import com.jayfella.worlddemo.grass.GrassPathsRule;
+import com.jayfella.worlddemo.grass.VegetationGrid;
+import com.jayfella.worlddemo.terrain.FarTerrainGrid;
+import com.jayfella.worlddemo.tree.PlottedModel;
+import com.jayfella.worlddemo.tree.TreesGrid;
+import com.jayfella.worlddemo.world.MemoryPolicy;
+import com.jayfella.worlddemo.world.MergePolicy;
+import com.jayfella.worlddemo.world.ShadowPolicy;
+import com.jayfella.worlddemo.world.WorldContext;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetManager;
+import com.jme3.material.Material;
+import com.jme3.math.Vector2f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the grids of the demo world. Used by the demo itself and anything that needs to generate the same world
+ * without a window, such as the benchmarks.
+ */
+public class WorldFactory {
+
+    private static final Logger log = Logger.getLogger(WorldFactory.class.getName());
+
+    /**
+     * How far from the camera the shadows of the demo reach. Trees only cast shadows within this distance.
+     */
+    public static final float SHADOW_Z_EXTEND = 256;
+
+    private static final String FIR_MODEL = "Models/Fir1/fir1_androlo.j3o";
+    private static final String OAK_MODEL = "Models/Oak/tree_oak.j3o";
+    private static final String MAPLE_MODEL = "Models/Maple/tree_maple.j3o";
+
+    private static final String OAK_TRUNK_MATERIAL = "Models/Oak/Oak_Trunk.j3m";
+    private static final String OAK_LEAVES_MATERIAL = "Models/Oak/Oak_Leaves.j3m";
+    private static final String MAPLE_TRUNK_MATERIAL = "Models/Maple/Maple_Trunk.j3m";
+    private static final String MAPLE_LEAVES_MATERIAL = "Models/Maple/Maple_Leaves.j3m";
+    private static final String SPRITE_MATDEF = "MatDefs/Vegetation-Sprite.j3md";
+
+    private static final String FLOWERS_TEXTURE = "Textures/Sprite-Vegetation/sprite-flowers.png";
+    private static final String GRASS_TEXTURE = "Textures/Sprite-Vegetation/sprite-grass.png";
+    private static final String NOISE_TEXTURE = "Textures/Noise/noise-x3-512.png";
+
+    private final AssetManager assetManager;
+    private final AbstractWorldState world;
+    private final WorldContext worldContext;
+
+    // keeps the preloaded assets alive until the grids have been created. The asset cache only holds weak references.
+    // Guarded by itself, since the assets are added by the threads that load them.
+    private final List<Object> preloaded = new ArrayList<>();
+
+    public WorldFactory(AssetManager assetManager, AbstractWorldState world, WorldContext worldContext) {
+        this.assetManager = assetManager;
+        this.world = world;
+        this.worldContext = worldContext;
+    }
+
+    /**
+     * Starts loading every model, material and texture the grids use on several threads, so creating the grids once
+     * they are loaded only takes them from the asset cache instead of loading each one after the other on the render
+     * thread. Returns at once, so the render thread keeps drawing the terrain while the assets load.
+     * @param threads the amount of threads to load with.
+     * @return a future completed on a loading thread with the time taken in nanoseconds, once every asset is loaded or
+     * has failed to load.
+     */
+    public CompletableFuture<Long> preloadAssets(int threads) {
+
+        long start = System.nanoTime();
+
+        List<Supplier<Object>> loads = new ArrayList<>();
+
+        for (String model : new String[] { FIR_MODEL, OAK_MODEL, MAPLE_MODEL }) {
+            loads.add(() -> assetManager.loadModel(model));
+        }
+
+        for (String material : new String[] { OAK_TRUNK_MATERIAL, OAK_LEAVES_MATERIAL, MAPLE_TRUNK_MATERIAL, MAPLE_LEAVES_MATERIAL }) {
+            loads.add(() -> assetManager.loadMaterial(material));
+        }
+
+        loads.add(() -> assetManager.loadAsset(new AssetKey<>(SPRITE_MATDEF)));
+
+        for (String texture : new String[] { FLOWERS_TEXTURE, GRASS_TEXTURE, NOISE_TEXTURE }) {
+            loads.add(() -> assetManager.loadTexture(texture));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, loads.size())));
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[loads.size()];
+
+        for (int i = 0; i < futures.length; i++) {
+
+            futures[i] = CompletableFuture.supplyAsync(loads.get(i), executor).handle((asset, e) -> {
+
+                if (e != null) {
+                    // the asset is loaded again when the grid is created, which reports the error properly.
+                    log.log(Level.WARNING, "Unable to preload an asset.", e.getCause());
+                } else {
+                    synchronized (preloaded) {
+                        preloaded.add(asset);
+                    }
+                }
+
+                return null;
+            });
+        }
+
+        // the submitted loads still run, and the threads end once they are done.
+        executor.shutdown();
+
+        return CompletableFuture.allOf(futures).thenApply(done -> System.nanoTime() - start);
+    }
+
+    /**
+     * Releases the assets kept by {@link #preloadAssets(int)}, once every grid has been created.
+     */
+    public void releasePreloadedAssets() {
+
+        synchronized (preloaded) {
+            preloaded.clear();
+        }
+    }
+
+    public static WorldSettings createWorldSettings(long seed) {
+
+        WorldSettings worldSettings = new WorldSettings();
+        worldSettings.setWorldName("Test World");
+        worldSettings.setSeed(seed);
+        worldSettings.setNumThreads(3);
+
+        return worldSettings;
+    }
+
+    /**
+     * Creates the terrain beyond the view distance of the terrain grid, at a lower resolution the further away it is.
+     * @return the far terrain grid.
+     */
+    public SceneGrid createFarTerrainGrid() {
+
+        GridSettings gridSettings = new GridSettings();
+        // the same size as the cells of the terrain grid, so the far cells line up with them.
+        gridSettings.setCellSize(CellSize.Size_32);
+        gridSettings.setViewDistance(20);
+
+        FarTerrainGrid farTerrainGrid = new FarTerrainGrid(world, worldContext, gridSettings);
+        farTerrainGrid.setName("Far Terrain");
+        farTerrainGrid.setDetailRings(4);
+        farTerrainGrid.setSkirtDepth(8);
+
+        // the far terrain is well beyond the reach of the shadows.
+        worldContext.getShadowCasters().setPolicy(farTerrainGrid, ShadowPolicy.noCasters(false));
+        worldContext.getCellMerger().setPolicy(farTerrainGrid, new MergePolicy(12, 16));
+
+        // the far terrain is cheap for its size, so it is the last to give up memory.
+        worldContext.getMemoryGovernor().setPolicy(farTerrainGrid, new MemoryPolicy(3, 12));
+
+        return farTerrainGrid;
+    }
+
+    public SceneGrid createTreesGrid() {
+
+        GridSettings gridSettings = new GridSettings();
+        gridSettings.setCellSize(CellSize.Size_64);
+        gridSettings.setViewDistance(4);
+
+        // tree 1
+        PlottedModel tree_1 = new PlottedModel("Fir 1", assetManager.loadModel(FIR_MODEL));
+        tree_1.setMinRadius(10);
+        tree_1.setMaxRadius(12);
+        tree_1.setMinSpaceBetween(16);
+        tree_1.setMinScale(6);
+        tree_1.setMaxScale(10);
+        tree_1.setMinHeight(10);
+        tree_1.setMaxHeight(256);
+        tree_1.setLikelihood(0.1f);
+        tree_1.setMaxAttempts(32);
+
+        // tree 2
+        Node oakTree = (Node) assetManager.loadModel(OAK_MODEL);
+        Geometry oakTrunk = (Geometry) oakTree.getChild("oak trunk");
+        oakTrunk.setMaterial(assetManager.loadMaterial(OAK_TRUNK_MATERIAL));
+
+        Geometry oakLeaves = (Geometry) oakTree.getChild("oak leaves");
+        oakLeaves.setMaterial(assetManager.loadMaterial(OAK_LEAVES_MATERIAL));
+
+        PlottedModel tree_2 = new PlottedModel("Oak", oakTree);
+        tree_2.setMinRadius(12);
+        tree_2.setMaxRadius(18);
+        tree_2.setMinSpaceBetween(19);
+        tree_2.setMinScale(10);
+        tree_2.setMaxScale(16);
+        tree_2.setMinHeight(10);
+        tree_2.setMaxHeight(256);
+        tree_2.setLikelihood(0.3f);
+        tree_2.setMaxAttempts(32);
+
+        // tree 3
+        Node mapleTree = (Node) assetManager.loadModel(MAPLE_MODEL);
+        Geometry mapleTrunk = (Geometry) mapleTree.getChild("maple trunk");
+        mapleTrunk.setMaterial(assetManager.loadMaterial(MAPLE_TRUNK_MATERIAL));
+
+        Geometry mapleLeaves = (Geometry) mapleTree.getChild("maple leaves");
+        mapleLeaves.setMaterial(assetManager.loadMaterial(MAPLE_LEAVES_MATERIAL));
+
+        PlottedModel tree_3 = new PlottedModel("Maple", mapleTree);
+        tree_3.setMinRadius(16);
+        tree_3.setMaxRadius(22);
+        tree_3.setMinSpaceBetween(24);
+        tree_3.setMinScale(8);
+        tree_3.setMaxScale(14);
+        tree_3.setMinHeight(10);
+        tree_3.setMaxHeight(256);
+        tree_3.setLikelihood(0.4f);
+        tree_3.setMaxAttempts(32);
+
+        TreesGrid treesGrid = new TreesGrid(world, worldContext, gridSettings, tree_1, tree_2, tree_3);
+        treesGrid.setName("Trees");
+        treesGrid.setInstanced(true);
+        // no billboards: the models have no impostors to draw them with yet, so every ring draws the meshes.
+        treesGrid.setReducedDistance(2);
+
+        // trees beyond the shadow distance would be rendered into the shadow map for nothing.
+        worldContext.getShadowCasters().setPolicy(treesGrid, ShadowPolicy.castWithin(SHADOW_Z_EXTEND));
+
+        worldContext.getMemoryGovernor().setPolicy(treesGrid, new MemoryPolicy(2, 3));
+
+        return treesGrid;
+    }
+
+    public SceneGrid createFlowersGrid() {
+
+        GridSettings gridSettings = new GridSettings();
+        gridSettings.setCellSize(CellSize.Size_32);
+        gridSettings.setViewDistance(3);
+        VegetationGrid flowersGrid = new VegetationGrid(world, worldContext, gridSettings);
+        flowersGrid.setName("Flowers");
+
+        // create some plotter settings so we can customize the output
+        MeshPlotterSettings meshPlotterSettings = new MeshPlotterSettings();
+        meshPlotterSettings.setMinSize(0.2f); // the minimum size of a grass clump.
+        meshPlotterSettings.setMaxSize(1.3f); // the maximum size of a grass clump.
+        meshPlotterSettings.setDensity(3.6f); // how close together the grass will generate.
+        meshPlotterSettings.setMinWorldHeight(10.0f); // the lowest height grass will grow (above sea level).
+        meshPlotterSettings.setMinWorldHeightDeviation(1.5f); // add a bit of deviation to the min height.
+        meshPlotterSettings.setMaxWorldHeight(256); // the maximum height grass will grow.
+        meshPlotterSettings.setMaxWorldHeightDeviation(0.5f); // add a bit of deviation to the max height.
+        flowersGrid.setPlotterSettings(meshPlotterSettings);
+
+        flowersGrid.setMaterial(createFlowersMaterial(assetManager));
+
+        // add some noise to the grass layer.
+        NoiseLayer grassLayer_1 = new NoiseLayer("layer 1", 7654);
+        grassLayer_1.setScale(new Vector2f(0.5f, 1.5f));
+
+        NoiseLayer grassLayer_2 = new NoiseLayer("layer 1", 2345);
+        grassLayer_2.setScale(new Vector2f(1.5f, 0.5f));
+
+        flowersGrid.getNoiseGenerator().addLayer(grassLayer_1);
+        flowersGrid.getNoiseGenerator().addLayer(grassLayer_2);
+
+        // add some rules to the generator
+        GrassPathsRule grassPathsRule = new GrassPathsRule(flowersGrid);
+        grassPathsRule.setThreshold(0.1f);
+        grassPathsRule.setSecondChance(0.1f);
+        grassPathsRule.setSeed(2);
+        grassPathsRule.setGridSeed(worldContext.getGridSeed(flowersGrid));
+        // discard cells of the mask that can never grow so the plotter can skip them early.
+        grassPathsRule.setHeightfields(worldContext.getHeightfields());
+        grassPathsRule.setMinHeight(meshPlotterSettings.getMinWorldHeight() - meshPlotterSettings.getMinWorldHeightDeviation());
+        grassPathsRule.setMaxHeight(meshPlotterSettings.getMaxWorldHeight() + meshPlotterSettings.getMaxWorldHeightDeviation());
+        flowersGrid.setPlotterRules(grassPathsRule);
+        flowersGrid.addSettings(grassPathsRule);
+
+        // the sprites are too small to cast a shadow worth the cost of rendering them into the shadow map.
+        worldContext.getShadowCasters().setPolicy(flowersGrid, ShadowPolicy.noCasters(true));
+        worldContext.getCellMerger().setPolicy(flowersGrid, new MergePolicy(2, 4));
+
+        // the flowers are only decoration, so they give up memory first.
+        worldContext.getMemoryGovernor().setPolicy(flowersGrid, new MemoryPolicy(0, 1));
+
+        return flowersGrid;
+
+    }
+
+    private Material createFlowersMaterial(AssetManager assetManager) {
+
+        Material flowersMaterial = new Material(assetManager, SPRITE_MATDEF);
+        flowersMaterial.setTexture("DiffuseMap", assetManager.loadTexture(FLOWERS_TEXTURE));
+        flowersMaterial.setTexture("Noise", assetManager.loadTexture(NOISE_TEXTURE));
+        flowersMaterial.setFloat("AlphaDiscardThreshold", 0.65f);
+        flowersMaterial.setFloat("DistanceFalloff", 320);
+
+        return flowersMaterial;
+
+    }
+
+    public SceneGrid createGrassGrid() {
+
+        GridSettings gridSettings = new GridSettings();
+        gridSettings.setCellSize(CellSize.Size_32);
+        gridSettings.setViewDistance(8);
+        VegetationGrid grassGrid = new VegetationGrid(world, worldContext, gridSettings);
+        grassGrid.setName("Grass");
+
+        // create some plotter settings so we can customize the output
+        MeshPlotterSettings meshPlotterSettings = new MeshPlotterSettings();
+
+        meshPlotterSettings.setMinSize(0.2f); // the minimum size of a grass clump.
+        meshPlotterSettings.setMaxSize(1.3f); // the maximum size of a grass clump.
+
+        meshPlotterSettings.setDensity(0.2f); // how close together the grass will generate.
+
+        meshPlotterSettings.setMinWorldHeight(10.0f); // the lowest height grass will grow (above sea level).
+        meshPlotterSettings.setMinWorldHeightDeviation(1.5f); // add a bit of deviation to the min height.
+
+        meshPlotterSettings.setMaxWorldHeight(256); // the maximum height grass will grow.
+        meshPlotterSettings.setMaxWorldHeightDeviation(0.5f); // add a bit of deviation to the max height.
+
+        grassGrid.setPlotterSettings(meshPlotterSettings);
+
+        grassGrid.setMaterial(createGrassMaterial(assetManager));
+
+        // add some noise to the grass layer.
+        NoiseLayer grassLayer_1 = new NoiseLayer("layer 1", 543);
+        grassLayer_1.setScale(new Vector2f(2.5f, 1.5f));
+
+        NoiseLayer grassLayer_2 = new NoiseLayer("layer 1", 432);
+        grassLayer_2.setScale(new Vector2f(1.5f, 2.5f));
+
+        grassGrid.getNoiseGenerator().addLayer(grassLayer_1);
+        grassGrid.getNoiseGenerator().addLayer(grassLayer_2);
+
+        // add some rules to the generator
+        GrassPathsRule grassPathsRule = new GrassPathsRule(grassGrid);
+        grassPathsRule.setThreshold(0.2f);
+        grassPathsRule.setSecondChance(0.2f);
+        grassPathsRule.setSeed(1);
+        grassPathsRule.setGridSeed(worldContext.getGridSeed(grassGrid));
+        // discard cells of the mask that can never grow so the plotter can skip them early.
+        grassPathsRule.setHeightfields(worldContext.getHeightfields());
+        grassPathsRule.setMinHeight(meshPlotterSettings.getMinWorldHeight() - meshPlotterSettings.getMinWorldHeightDeviation());
+        grassPathsRule.setMaxHeight(meshPlotterSettings.getMaxWorldHeight() + meshPlotterSettings.getMaxWorldHeightDeviation());
+        grassGrid.setPlotterRules(grassPathsRule);
+        grassGrid.addSettings(grassPathsRule);
+
+        worldContext.getShadowCasters().setPolicy(grassGrid, ShadowPolicy.noCasters(true));
+
+        // most of the cells are far from the camera, so they are drawn in blocks of 2 x 2 and 4 x 4 cells.
+        worldContext.getCellMerger().setPolicy(grassGrid, new MergePolicy(3, 5));
+        worldContext.getMemoryGovernor().setPolicy(grassGrid, new MemoryPolicy(1, 3));
+
+        return grassGrid;
+    }
+
+    private Material createGrassMaterial(AssetManager assetManager) {
+
+        Material grassMaterial = new Material(assetManager, SPRITE_MATDEF);
+        grassMaterial.setTexture("DiffuseMap", assetManager.loadTexture(GRASS_TEXTURE));
+        grassMaterial.setTexture("Noise", assetManager.loadTexture(NOISE_TEXTURE));
+        grassMaterial.setFloat("AlphaDiscardThreshold", 0.65f);
+        grassMaterial.setFloat("DistanceFalloff", 512);
+
+        return grassMaterial;
+    }
+
+}
@@ -0,0 +1,308 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jme3.material.Material;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Encodes meshes using the vertex layout of the Vegetation-Sprite material in a compact format, and decodes them
+ * again. The float layout uses 32 bytes a vertex, and the compact layout uses 14:
+ *
+ * - the position is three shorts. X and Z are quantized to 1/256 of a unit over 256 units, which holds any cell up to
+ *   256 units wide, and Y is quantized to 1/32 of a unit from -1024 to 1024. The positions stay local to the cell,
+ *   since the world matrix of the geometry still moves the cell into place.
+ * - the normal is two normalized shorts, an octahedral projection of the unit vector with Y up.
+ * - the texture coordinate is two half floats. The corner fractions of 0, 0.25 and 0.5 are exact for any atlas index
+ *   below 512.
+ *
+ * The scale and offset of the positions are the same for every cell, so every compact cell of a grid shares one
+ * material set up by {@link #setupMaterial(Material)}. Other buffers of the mesh, such as an index buffer, are kept.
+ */
+public final class CompactSpriteMesh {
+
+    private static final Vector3f POSITION_SCALE = new Vector3f(1 / 256f, 1 / 32f, 1 / 256f);
+    private static final Vector3f POSITION_OFFSET = new Vector3f(128, 0, 128);
+
+    private static final float NORMAL_SCALE = Short.MAX_VALUE;
+
+    private CompactSpriteMesh() {
+    }
+
+    /**
+     * Enables the compact vertex format on a Vegetation-Sprite material. A material with the format enabled can only
+     * render meshes encoded by this class.
+     * @param material the material to set up.
+     */
+    public static void setupMaterial(Material material) {
+        material.setBoolean("CompactVertices", true);
+        material.setVector3("PositionScale", POSITION_SCALE);
+        material.setVector3("PositionOffset", POSITION_OFFSET);
+    }
+
+    /**
+     * Encodes a mesh in the compact format. The mesh is not changed, and buffers other than the position, normal and
+     * texture coordinate are shared with the new mesh. The bounds of the mesh are computed from the float positions
+     * and given to the new mesh, since they can't be computed from the quantized positions.
+     * @param mesh the mesh to encode.
+     * @return the encoded mesh, or null if the mesh doesn't use the sprite layout or a position is out of range.
+     */
+    public static Mesh encode(Mesh mesh) {
+
+        VertexBuffer positions = mesh.getBuffer(VertexBuffer.Type.Position);
+        VertexBuffer normals = mesh.getBuffer(VertexBuffer.Type.Normal);
+        VertexBuffer texCoords = mesh.getBuffer(VertexBuffer.Type.TexCoord);
+
+        if (!isFloat(positions, 3) || !isFloat(normals, 3) || !isFloat(texCoords, 2)) {
+            return null;
+        }
+
+        FloatBuffer positionData = (FloatBuffer) positions.getData();
+        FloatBuffer normalData = (FloatBuffer) normals.getData();
+        FloatBuffer texCoordData = (FloatBuffer) texCoords.getData();
+
+        int vertexCount = positions.getNumElements();
+
+        ShortBuffer packedPositions = BufferUtils.createShortBuffer(vertexCount * 3);
+        ShortBuffer packedNormals = BufferUtils.createShortBuffer(vertexCount * 2);
+        ByteBuffer packedTexCoords = BufferUtils.createByteBuffer(vertexCount * 2 * 2);
+
+        for (int i = 0; i < vertexCount; i++) {
+
+            if (!encodePosition(positionData, i, packedPositions)) {
+                BufferUtils.destroyDirectBuffer(packedPositions);
+                BufferUtils.destroyDirectBuffer(packedNormals);
+                BufferUtils.destroyDirectBuffer(packedTexCoords);
+                return null;
+            }
+
+            encodeNormal(normalData.get(i * 3), normalData.get(i * 3 + 1), normalData.get(i * 3 + 2), packedNormals);
+
+            packedTexCoords.putShort(toHalf(texCoordData.get(i * 2)));
+            packedTexCoords.putShort(toHalf(texCoordData.get(i * 2 + 1)));
+        }
+
+        packedPositions.flip();
+        packedNormals.flip();
+        packedTexCoords.flip();
+
+        Mesh compact = new Mesh();
+        compact.setMode(mesh.getMode());
+        compact.setBuffer(createBuffer(VertexBuffer.Type.Position, 3, VertexBuffer.Format.Short, packedPositions, false));
+        compact.setBuffer(createBuffer(VertexBuffer.Type.Normal, 2, VertexBuffer.Format.Short, packedNormals, true));
+        compact.setBuffer(createBuffer(VertexBuffer.Type.TexCoord, 2, VertexBuffer.Format.Half, packedTexCoords, false));
+
+        for (VertexBuffer vertexBuffer : mesh.getBufferList()) {
+
+            VertexBuffer.Type type = vertexBuffer.getBufferType();
+
+            if (type != VertexBuffer.Type.Position && type != VertexBuffer.Type.Normal && type != VertexBuffer.Type.TexCoord) {
+                compact.setBuffer(vertexBuffer);
+            }
+        }
+
+        mesh.updateBound();
+        compact.setBound(mesh.getBound().clone());
+        compact.updateCounts();
+
+        return compact;
+    }
+
+    static boolean isFloat(VertexBuffer vertexBuffer, int components) {
+        return vertexBuffer != null
+                && vertexBuffer.getFormat() == VertexBuffer.Format.Float
+                && vertexBuffer.getNumComponents() == components
+                && vertexBuffer.getData() != null;
+    }
+
+    private static VertexBuffer createBuffer(VertexBuffer.Type type, int components, VertexBuffer.Format format,
+                                             Buffer data, boolean normalized) {
+
+        VertexBuffer vertexBuffer = new VertexBuffer(type);
+        vertexBuffer.setupData(VertexBuffer.Usage.Static, components, format, data);
+        vertexBuffer.setNormalized(normalized);
+
+        return vertexBuffer;
+    }
+
+    private static boolean encodePosition(FloatBuffer positions, int vertex, ShortBuffer store) {
+
+        for (int axis = 0; axis < 3; axis++) {
+
+            float value = positions.get(vertex * 3 + axis);
+            int quantized = Math.round((value - POSITION_OFFSET.get(axis)) / POSITION_SCALE.get(axis));
+
+            if (quantized < Short.MIN_VALUE || quantized > Short.MAX_VALUE) {
+                return false;
+            }
+
+            store.put((short) quantized);
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the octahedral projection of a normal as two shorts, to be read as normalized values.
+     */
+    static void encodeNormal(float x, float y, float z, ShortBuffer store) {
+
+        float length = FastMath.abs(x) + FastMath.abs(y) + FastMath.abs(z);
+
+        if (length == 0) {
+            // a missing normal points up, the same as a sprite on flat ground.
+            store.put((short) 0).put((short) 0);
+            return;
+        }
+
+        float u = x / length;
+        float v = z / length;
+
+        // the lower half of the octahedron is folded over the upper half.
+        if (y < 0) {
+            float foldedU = (1 - FastMath.abs(v)) * signNotZero(u);
+            float foldedV = (1 - FastMath.abs(u)) * signNotZero(v);
+            u = foldedU;
+            v = foldedV;
+        }
+
+        store.put((short) Math.round(u * NORMAL_SCALE));
+        store.put((short) Math.round(v * NORMAL_SCALE));
+    }
+
+    private static float signNotZero(float value) {
+        return value >= 0 ? 1 : -1;
+    }
+
+    /**
+     * Returns the position of a vertex of an encoded mesh.
+     * @param mesh   the encoded mesh.
+     * @param vertex the index of the vertex.
+     * @param store  the vector to store the position in.
+     * @return the position of the vertex.
+     */
+    public static Vector3f decodePosition(Mesh mesh, int vertex, Vector3f store) {
+
+        ShortBuffer positions = (ShortBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+
+        return store.set(
+                positions.get(vertex * 3) * POSITION_SCALE.x + POSITION_OFFSET.x,
+                positions.get(vertex * 3 + 1) * POSITION_SCALE.y + POSITION_OFFSET.y,
+                positions.get(vertex * 3 + 2) * POSITION_SCALE.z + POSITION_OFFSET.z);
+    }
+
+    /**
+     * Returns the normal of a vertex of an encoded mesh, the same way the shader decodes it.
+     * @param mesh   the encoded mesh.
+     * @param vertex the index of the vertex.
+     * @param store  the vector to store the normal in.
+     * @return the unit normal of the vertex.
+     */
+    public static Vector3f decodeNormal(Mesh mesh, int vertex, Vector3f store) {
+
+        ShortBuffer normals = (ShortBuffer) mesh.getBuffer(VertexBuffer.Type.Normal).getData();
+
+        float u = Math.max(normals.get(vertex * 2) / NORMAL_SCALE, -1);
+        float v = Math.max(normals.get(vertex * 2 + 1) / NORMAL_SCALE, -1);
+
+        store.set(u, 1 - FastMath.abs(u) - FastMath.abs(v), v);
+
+        if (store.y < 0) {
+            store.x = (1 - FastMath.abs(v)) * signNotZero(u);
+            store.z = (1 - FastMath.abs(u)) * signNotZero(v);
+        }
+
+        return store.normalizeLocal();
+    }
+
+    /**
+     * Returns the texture coordinate of a vertex of an encoded mesh.
+     * @param mesh   the encoded mesh.
+     * @param vertex the index of the vertex.
+     * @param store  the vector to store the texture coordinate in.
+     * @return the texture coordinate of the vertex.
+     */
+    public static Vector2f decodeTexCoord(Mesh mesh, int vertex, Vector2f store) {
+
+        ByteBuffer texCoords = (ByteBuffer) mesh.getBuffer(VertexBuffer.Type.TexCoord).getData();
+
+        return store.set(fromHalf(texCoords.getShort(vertex * 4)), fromHalf(texCoords.getShort(vertex * 4 + 2)));
+    }
+
+    /**
+     * Converts a float to the nearest half float. Values too large for a half float become infinite.
+     * @param value the value to convert.
+     * @return the bits of the half float.
+     */
+    static short toHalf(float value) {
+
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if (exponent >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+
+        if (exponent <= 0) {
+
+            // too small for a subnormal half float.
+            if (exponent < -10) {
+                return (short) sign;
+            }
+
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+
+            if (((mantissa >> (shift - 1)) & 1) != 0) {
+                half++;
+            }
+
+            return (short) (sign | half);
+        }
+
+        int half = sign | exponent << 10 | mantissa >> 13;
+
+        // a carry out of the mantissa correctly moves the value to the next exponent.
+        if ((mantissa & 0x1000) != 0) {
+            half++;
+        }
+
+        return (short) half;
+    }
+
+    /**
+     * Converts a half float to a float.
+     * @param half the bits of the half float.
+     * @return the value of the half float.
+     */
+    static float fromHalf(short half) {
+
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+
+        if (exponent == 0) {
+            float value = mantissa / (float) (1 << 24);
+            return sign != 0 ? -value : value;
+        }
+
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+        }
+
+        return Float.intBitsToFloat(sign | (exponent - 15 + 127) << 23 | mantissa << 13);
+    }
+
+}
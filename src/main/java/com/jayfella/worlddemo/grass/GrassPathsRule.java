@@ -3,15 +3,34 @@ package com.jayfella.worlddemo.grass;
 import com.jayfella.jme.plotters.meshplotter.MeshPlotterRule;
 import com.jayfella.jme.plotters.meshplotter.tri.Triangle;
 import com.jayfella.jme.worldpager.grid.PlottedGrid;
-import com.jme3.math.FastMath;
+import com.jayfella.worlddemo.world.CellRandom;
+import com.jayfella.worlddemo.world.HeightfieldCache;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Mesh;
 
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * Creates areas where grass will not grow using noise. It generally looks like "paths".
  * It also gives the grass another chance to grow in areas it shouldn't to "fill it out a bit".
  * Very useful rules for removing grass without affecting the overall look.
+ *
+ * By default the rule is compiled into a mask for each cell the first time the cell is validated. The noise,
+ * second chance and height limits are evaluated once per texel, so validating a triangle is a bitmap lookup.
+ *
+ * The second chance is drawn from a random stream of the cell, derived from the seed of the grid, the cell and the
+ * seed of the rule, so the decisions of the rule don't depend on the thread that plots the cell or on what was plotted
+ * before it. A mask draws once per texel, so its decisions only depend on the position. Without a mask, each time a
+ * triangle of the mesh being plotted on is validated draws its own element, since the plotter validates a triangle
+ * once for each sprite it tries to place on it. The rule isn't told which model is being placed, so the draws are
+ * keyed by the triangle and how many times it has been validated.
+ *
+ * The positions the sprites are tried at are chosen by the plotter of the world-pager, whose random numbers can't be
+ * seeded from here, so the grass of a cell is only the same each time it is plotted where that plotter is.
  */
 public class GrassPathsRule implements MeshPlotterRule {
 
@@ -19,10 +38,53 @@ public class GrassPathsRule implements MeshPlotterRule {
     private float threshold = 0.2f;
     private float secondChance = 0.2f;
 
+    private float minHeight = Float.NEGATIVE_INFINITY;
+    private float maxHeight = Float.POSITIVE_INFINITY;
+    private HeightfieldCache heightfields;
+
+    private boolean rasterized = true;
+    private float maskResolution = 2.0f;
+    private long seed = 0;
+    private long gridSeed = 0;
+
+    // incremented whenever a setting changes so that masks built with the old settings are not used.
+    private volatile int version;
+    private final Map<Long, PathMask> masks = new LinkedHashMap<>(64, 0.75f, true);
+    private int maxMasks = 256;
+
+    // the last mask each thread used. A plotter validates every triangle of a cell in turn.
+    private final ThreadLocal<PathMask> lastMask = new ThreadLocal<>();
+    private final ThreadLocal<Vector2f> scratch = ThreadLocal.withInitial(Vector2f::new);
+
+    // how many times each triangle of the mesh a thread is plotting on has been validated.
+    private final ThreadLocal<Validations> validations = ThreadLocal.withInitial(Validations::new);
+
     public GrassPathsRule(PlottedGrid grassGrid) {
         this.grassGrid = grassGrid;
     }
 
+    private static final class Validations {
+
+        // weak, so the last mesh a thread plotted on isn't kept.
+        private WeakReference<Mesh> mesh = new WeakReference<>(null);
+        private int[] counts = new int[0];
+
+        // returns how many times the triangle was validated before, counting from the first time the mesh was seen.
+        private int next(Mesh mesh, int index) {
+
+            if (this.mesh.get() != mesh) {
+                this.mesh = new WeakReference<>(mesh);
+                Arrays.fill(counts, 0);
+            }
+
+            if (index >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+            }
+
+            return counts[index]++;
+        }
+    }
+
     public float getThreshold() {
         return threshold;
     }
@@ -33,6 +95,7 @@ public class GrassPathsRule implements MeshPlotterRule {
      */
     public void setThreshold(float threshold) {
         this.threshold = threshold;
+        invalidate();
     }
 
     public float getSecondChance() {
@@ -45,26 +108,269 @@ public class GrassPathsRule implements MeshPlotterRule {
      */
     public void setSecondChance(float secondChance) {
         this.secondChance = secondChance;
+        invalidate();
+    }
+
+    public float getMinHeight() {
+        return minHeight;
+    }
+
+    /**
+     * Sets the lowest world height grass will grow. Only used by the mask, and only if a heightfield cache is set.
+     * @param minHeight the minimum world height.
+     */
+    public void setMinHeight(float minHeight) {
+        this.minHeight = minHeight;
+        invalidate();
+    }
+
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Sets the highest world height grass will grow. Only used by the mask, and only if a heightfield cache is set.
+     * @param maxHeight the maximum world height.
+     */
+    public void setMaxHeight(float maxHeight) {
+        this.maxHeight = maxHeight;
+        invalidate();
+    }
+
+    public HeightfieldCache getHeightfields() {
+        return heightfields;
+    }
+
+    /**
+     * Sets the heightfield cache used to apply the height limits when building a mask.
+     * @param heightfields the world heightfield cache.
+     */
+    public void setHeightfields(HeightfieldCache heightfields) {
+        this.heightfields = heightfields;
+        invalidate();
+    }
+
+    public boolean isRasterized() {
+        return rasterized;
+    }
+
+    /**
+     * Compiles the rule into a mask for each cell instead of evaluating the noise for every triangle.
+     * @param rasterized whether or not to use masks.
+     */
+    public void setRasterized(boolean rasterized) {
+        this.rasterized = rasterized;
+    }
+
+    public float getMaskResolution() {
+        return maskResolution;
+    }
+
+    /**
+     * Sets the resolution of the masks.
+     * @param maskResolution the amount of texels per world unit.
+     */
+    public void setMaskResolution(float maskResolution) {
+        this.maskResolution = maskResolution;
+        invalidate();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Sets the seed of the second chance of the masks, so grids that use the same noise don't grow in the same places.
+     * @param seed the seed.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        invalidate();
+    }
+
+    public long getGridSeed() {
+        return gridSeed;
+    }
+
+    /**
+     * Sets the seed of the grid, from which the random stream of each cell is derived.
+     * @param gridSeed the seed of the grid, usually {@link com.jayfella.worlddemo.world.WorldContext#getGridSeed}.
+     */
+    public void setGridSeed(long gridSeed) {
+        this.gridSeed = gridSeed;
+        invalidate();
+    }
+
+    /**
+     * Removes every mask. Masks must be rebuilt if the noise generator of the grid changes.
+     */
+    public void invalidate() {
+
+        synchronized (masks) {
+            masks.clear();
+            version++;
+        }
     }
 
     @Override
     public boolean validate(Vector3f worldPosition, Mesh mesh, int index, Triangle tri) {
 
-        // create areas where the grass will not grow.
-        float threshold = 0.2f;
+        int cellSize = getCellSize();
+        int cellX = (int) Math.floor(worldPosition.x / cellSize);
+        int cellZ = (int) Math.floor(worldPosition.z / cellSize);
 
-        Vector2f worldPos = new Vector2f(worldPosition.x, worldPosition.z)
-                .addLocal(new Vector2f(tri.verts[0].x, tri.verts[0].z));
+        if (!rasterized) {
+            return validateTriangle(worldPosition, mesh, index, tri, cellX, cellZ);
+        }
+
+        PathMask mask = getMask(cellX, cellZ, cellSize);
+
+        return mask.get(
+                worldPosition.x - cellX * cellSize + tri.verts[0].x,
+                worldPosition.z - cellZ * cellSize + tri.verts[0].z);
+    }
 
+    private boolean validateTriangle(Vector3f worldPosition, Mesh mesh, int index, Triangle tri, int cellX, int cellZ) {
+
+        // counted whether or not the noise passes, so the draws don't depend on the noise.
+        int validation = validations.get().next(mesh, index);
+
+        Vector2f worldPos = scratch.get().set(worldPosition.x, worldPosition.z)
+                .addLocal(tri.verts[0].x, tri.verts[0].z);
+
+        // each validation of a triangle draws its own element of a stream of that triangle, so the order the triangles
+        // are validated in doesn't matter.
+        return grows(worldPos, CellRandom.random(CellRandom.split(getCellSeed(cellX, cellZ), index), validation));
+    }
+
+    // whether the grass grows at a world position, given the second chance drawn for it. Masks and triangles both
+    // decide here.
+    private boolean grows(Vector2f worldPos, float draw) {
+
+        // create areas where the grass will not grow.
         if (grassGrid.getNoiseGenerator().evaluate(worldPos) < threshold) {
             return true;
         }
 
         // if the grass will not grow, give it another "chance" of growing, so that the "dead" areas
         // don't look so contrasting.
-        float secondChance = 0.2f;
-        return (FastMath.nextRandomFloat() <= secondChance);
+        return draw <= secondChance;
+    }
+
+    // whether the ground at a world position is within the height limits. Only masks apply them.
+    private boolean isWithinHeights(float wx, float wz) {
+
+        if (heightfields == null || (minHeight == Float.NEGATIVE_INFINITY && maxHeight == Float.POSITIVE_INFINITY)) {
+            return true;
+        }
+
+        float height = heightfields.getHeightAt(wx, wz);
+        return height >= minHeight && height <= maxHeight;
+    }
+
+    // the seed of the random stream of a cell for this rule.
+    private long getCellSeed(int cellX, int cellZ) {
+        return CellRandom.split(CellRandom.seed(gridSeed, cellX, cellZ), seed);
+    }
+
+    private int getCellSize() {
+        return grassGrid.getGridSettings().getCellSize().getSize();
+    }
+
+    /**
+     * Returns the mask of the given cell, building it if it does not exist.
+     * @param cellX    the x coordinate of the cell.
+     * @param cellZ    the z coordinate of the cell.
+     * @param cellSize the size of the cell.
+     * @return the mask of the cell.
+     */
+    public PathMask getMask(int cellX, int cellZ, int cellSize) {
+
+        int version = this.version;
+        PathMask mask = lastMask.get();
+
+        if (mask != null && mask.matches(cellX, cellZ, version)) {
+            return mask;
+        }
+
+        long key = ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+
+        synchronized (masks) {
+            mask = masks.get(key);
+        }
+
+        if (mask == null || !mask.matches(cellX, cellZ, version)) {
+
+            mask = buildMask(cellX, cellZ, cellSize, version);
+
+            synchronized (masks) {
+
+                if (version == this.version) {
+                    masks.put(key, mask);
+
+                    while (masks.size() > maxMasks) {
+                        masks.remove(masks.keySet().iterator().next());
+                    }
+                }
+            }
+        }
+
+        lastMask.set(mask);
+        return mask;
+    }
+
+    private PathMask buildMask(int cellX, int cellZ, int cellSize, int version) {
+
+        PathMask mask = new PathMask(cellX, cellZ, version, cellSize, maskResolution);
+
+        Vector2f worldPos = scratch.get();
+        float texelSize = 1.0f / mask.getTexelsPerUnit();
+        float originX = cellX * cellSize;
+        float originZ = cellZ * cellSize;
+        long cellSeed = getCellSeed(cellX, cellZ);
+
+        for (int z = 0; z < mask.getTexels(); z++) {
+            for (int x = 0; x < mask.getTexels(); x++) {
+
+                // sample the centre of the texel.
+                float wx = originX + (x + 0.5f) * texelSize;
+                float wz = originZ + (z + 0.5f) * texelSize;
+
+                if (isWithinHeights(wx, wz)
+                        && grows(worldPos.set(wx, wz), CellRandom.random(cellSeed, z * mask.getTexels() + x))) {
+                    mask.set(x, z);
+                }
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Compares the mask of a cell against deciding each position the way the rule does without a mask, at random
+     * positions in the cell. Positions where only the mask grows grass and positions where only the rule does both
+     * count as disagreements. The second chance is random either way, so the rule draws it the way the mask does for
+     * the texel of the position, and applies the height limits like the mask does, which leaves the error of deciding
+     * a whole texel from its centre.
+     * @param cellX   the x coordinate of the cell.
+     * @param cellZ   the z coordinate of the cell.
+     * @param samples the amount of positions to compare.
+     * @return the fraction of positions where the mask and the rule agree, from 0 to 1.
+     */
+    public float measureMaskAccuracy(int cellX, int cellZ, int samples) {
+
+        int cellSize = getCellSize();
+        PathMask mask = getMask(cellX, cellZ, cellSize);
+
+        float originX = cellX * cellSize;
+        float originZ = cellZ * cellSize;
+        long cellSeed = getCellSeed(cellX, cellZ);
+        Vector2f worldPos = new Vector2f();
+
+        PathMask.Placement rule = (x, z) -> isWithinHeights(originX + x, originZ + z)
+                && grows(worldPos.set(originX + x, originZ + z), CellRandom.random(cellSeed, mask.getTexel(x, z)));
 
+        return mask.measureAgreement(rule, samples, new CellRandom(CellRandom.seed(gridSeed, cellX, cellZ)));
     }
 
 }
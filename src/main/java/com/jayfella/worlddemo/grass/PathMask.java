@@ -0,0 +1,117 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jayfella.worlddemo.world.CellRandom;
+
+/**
+ * A bitmap over a single cell that says where vegetation may grow.
+ * Each texel is evaluated once when the mask is built, so checking a position is a single bit lookup.
+ */
+public class PathMask {
+
+    private final int cellX;
+    private final int cellZ;
+    private final int version;
+
+    private final int cellSize;
+    private final int texels;
+    private final float texelsPerUnit;
+    private final long[] bits;
+
+    PathMask(int cellX, int cellZ, int version, int cellSize, float texelsPerUnit) {
+        this.cellX = cellX;
+        this.cellZ = cellZ;
+        this.version = version;
+        this.cellSize = cellSize;
+        this.texelsPerUnit = texelsPerUnit;
+        this.texels = Math.max(1, (int) Math.ceil(cellSize * texelsPerUnit));
+        this.bits = new long[(texels * texels + 63) >> 6];
+    }
+
+    boolean matches(int cellX, int cellZ, int version) {
+        return this.cellX == cellX && this.cellZ == cellZ && this.version == version;
+    }
+
+    public int getTexels() {
+        return texels;
+    }
+
+    public float getTexelsPerUnit() {
+        return texelsPerUnit;
+    }
+
+    void set(int x, int z) {
+        int i = z * texels + x;
+        bits[i >> 6] |= 1L << i;
+    }
+
+    /**
+     * Returns whether or not vegetation may grow at the given cell-local position.
+     * @param x the x position inside the cell.
+     * @param z the z position inside the cell.
+     * @return true if vegetation may grow.
+     */
+    public boolean get(float x, float z) {
+        int i = getTexel(x, z);
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    // the index of the texel at a cell-local position, clamped to the cell.
+    int getTexel(float x, float z) {
+
+        int tx = Math.max(0, Math.min(texels - 1, (int) (x * texelsPerUnit)));
+        int tz = Math.max(0, Math.min(texels - 1, (int) (z * texelsPerUnit)));
+
+        return tz * texels + tx;
+    }
+
+    /**
+     * Returns the amount of texels in the mask where vegetation may grow.
+     */
+    public int count() {
+
+        int count = 0;
+
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * Whether vegetation grows at a cell-local position, decided without a mask.
+     */
+    interface Placement {
+        boolean grows(float x, float z);
+    }
+
+    /**
+     * Returns the fraction of random positions of the cell where the mask and a placement agree. Positions where only
+     * the mask grows vegetation and positions where only the placement does both count as disagreements.
+     * @param placement where vegetation should grow.
+     * @param samples   the amount of positions to compare.
+     * @param random    the random stream the positions are drawn from.
+     * @return the fraction of positions where the mask and the placement agree, from 0 to 1.
+     */
+    float measureAgreement(Placement placement, int samples, CellRandom random) {
+
+        if (samples <= 0) {
+            return 1.0f;
+        }
+
+        int agreed = 0;
+
+        for (int i = 0; i < samples; i++) {
+
+            float x = random.nextFloat() * cellSize;
+            float z = random.nextFloat() * cellSize;
+
+            if (get(x, z) == placement.grows(x, z)) {
+                agreed++;
+            }
+        }
+
+        return agreed / (float) samples;
+    }
+
+}
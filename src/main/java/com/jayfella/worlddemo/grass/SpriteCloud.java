@@ -0,0 +1,189 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Renders the clumps of a sprite cell as instances of a single sprite, with one record per clump instead of three
+ * vertices. The mesh is the shape of the sprite and is shared by every cloud. The Vegetation-Sprite material expands
+ * each record into the shape when "PointCloud" is enabled. The records are placed by a {@link SpritePlotter}, so the
+ * clumps are never built as triangles.
+ *
+ * Each record is the cell-local position and size of the clump as four floats, and the sprite index, a random phase
+ * and the octahedral normal as four shorts, so a clump uses 24 bytes instead of 96. The phase turns crossed sprites
+ * and offsets the wind, so neighbouring clumps don't sway together.
+ *
+ * Unlike the instanced trees the records are local to the cell, so the cloud keeps the transform of its cell.
+ */
+public class SpriteCloud extends InstancedGeometry {
+
+    /**
+     * The shape each clump is expanded into.
+     */
+    public enum Shape {
+
+        /** A triangle that faces the camera, the same shape as the plotted sprites. */
+        CAMERA_FACING,
+
+        /** Two quads crossed at right angles, turned by the phase of the clump. */
+        CROSSED
+    }
+
+    // the position and size of each clump.
+    public static final int POSITION_SIZE = 4;
+
+    // the sprite index, the phase and the normal of each clump.
+    public static final int ATTRIBUTE_SIZE = 4;
+
+    // the offset across the sprite, the height on the texture and the plane of each corner. Plane 0 faces the camera.
+    private static final Mesh CAMERA_FACING_MESH = createShapeMesh(
+            -0.5f, 1, 0,    0, 0, 0,    0.5f, 1, 0);
+
+    private static final Mesh CROSSED_MESH = createShapeMesh(
+            -0.5f, 0, 1,    0.5f, 0, 1,    0.5f, 1, 1,
+            -0.5f, 0, 1,    0.5f, 1, 1,    -0.5f, 1, 1,
+            -0.5f, 0, 2,    0.5f, 0, 2,    0.5f, 1, 2,
+            -0.5f, 0, 2,    0.5f, 1, 2,    -0.5f, 1, 2);
+
+    private Shape shape;
+    private VertexBuffer[] instanceData;
+    private int numInstances;
+    private BoundingBox bounds;
+
+    /**
+     * Serialization only. Do not use.
+     */
+    public SpriteCloud() {
+        super();
+    }
+
+    public SpriteCloud(String name, Shape shape, FloatBuffer positions, ShortBuffer attributes, int numInstances,
+                       BoundingBox bounds) {
+        super(name);
+
+        // the records are local to the cell.
+        setIgnoreTransform(false);
+
+        this.shape = shape;
+        this.instanceData = createInstanceData(positions, attributes);
+        this.numInstances = numInstances;
+        this.bounds = bounds;
+
+        setMesh(getShapeMesh(shape));
+    }
+
+    // every corner of the shape is at the origin, so techniques that don't expand the sprites draw nothing.
+    private static Mesh createShapeMesh(float... corners) {
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, new float[corners.length]);
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 3, corners);
+        mesh.setStatic();
+        mesh.updateBound();
+
+        return mesh;
+    }
+
+    private static Mesh getShapeMesh(Shape shape) {
+        return shape == Shape.CROSSED ? CROSSED_MESH : CAMERA_FACING_MESH;
+    }
+
+    private static VertexBuffer[] createInstanceData(FloatBuffer positions, ShortBuffer attributes) {
+
+        VertexBuffer positionData = new VertexBuffer(VertexBuffer.Type.InstanceData);
+        positionData.setInstanced(true);
+        positionData.setupData(VertexBuffer.Usage.Static, POSITION_SIZE, VertexBuffer.Format.Float, positions);
+
+        VertexBuffer attributeData = new VertexBuffer(VertexBuffer.Type.TexCoord3);
+        attributeData.setInstanced(true);
+        attributeData.setupData(VertexBuffer.Usage.Static, ATTRIBUTE_SIZE, VertexBuffer.Format.Short, attributes);
+
+        return new VertexBuffer[] { positionData, attributeData };
+    }
+
+    // a random phase from the position of the clump, so rebuilding a cell doesn't change it.
+    static short phase(float x, float z) {
+
+        int hash = Float.floatToIntBits(x) * 73856093 ^ Float.floatToIntBits(z) * 19349663;
+        hash ^= hash >>> 15;
+        hash *= 0x2c1b3c6d;
+        hash ^= hash >>> 12;
+
+        return (short) (hash & Short.MAX_VALUE);
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    @Override
+    public int getActualNumInstances() {
+        return numInstances;
+    }
+
+    @Override
+    public VertexBuffer[] getAllInstanceData() {
+        return instanceData;
+    }
+
+    /**
+     * Returns the positions to the pool and frees the attributes. The cloud must not be rendered afterwards.
+     * @param bufferPool the pool to return the positions to.
+     */
+    public void releaseInstanceData(BufferPool bufferPool) {
+
+        for (VertexBuffer vertexBuffer : instanceData) {
+            bufferPool.release(vertexBuffer);
+        }
+    }
+
+    @Override
+    protected void updateWorldBound() {
+        super.updateWorldBound();
+        worldBound = bounds.transform(worldTransform, worldBound);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+
+        FloatBuffer positions = (FloatBuffer) instanceData[0].getData();
+        ShortBuffer attributes = (ShortBuffer) instanceData[1].getData();
+        positions.rewind();
+        attributes.rewind();
+
+        OutputCapsule capsule = ex.getCapsule(this);
+        capsule.write(shape, "shape", Shape.CAMERA_FACING);
+        capsule.write(positions, "positions", null);
+        capsule.write(attributes, "attributes", null);
+        capsule.write(numInstances, "numInstances", 0);
+        capsule.write(bounds, "bounds", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+
+        InputCapsule capsule = im.getCapsule(this);
+        shape = capsule.readEnum("shape", Shape.class, Shape.CAMERA_FACING);
+        instanceData = createInstanceData(capsule.readFloatBuffer("positions", null),
+                capsule.readShortBuffer("attributes", null));
+        numInstances = capsule.readInt("numInstances", 0);
+        bounds = (BoundingBox) capsule.readSavable("bounds", null);
+
+        // the shape meshes are shared by every cloud, so the copy that was read is not used.
+        setMesh(getShapeMesh(shape));
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jayfella.jme.plotters.meshplotter.MeshPlotterRule;
+import com.jayfella.jme.plotters.meshplotter.MeshPlotterSettings;
+import com.jayfella.jme.plotters.meshplotter.tri.Triangle;
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jayfella.worlddemo.world.CellRandom;
+import com.jayfella.worlddemo.world.Heightfield;
+import com.jayfella.worlddemo.world.HeightfieldCache;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Places the clumps of a sprite cell as the records of a {@link SpriteCloud}, without plotting any triangles.
+ *
+ * The cell is split into a square of strata, one for each clump the density asks for, and each clump is placed at a
+ * random position in its stratum, so the clumps are spread evenly without being in rows. The density of the plotter
+ * settings is read as the amount of clumps per square world unit. The height and normal of each clump are read from
+ * the heightfields of the world, the same ground the masks of the rules are built from, and a clump is only kept
+ * within the height limits of the settings, each moved by a random deviation, and where every rule validates it. The
+ * size is drawn between the sizes of the settings, and the sprite from the 4x4 atlas of the material.
+ *
+ * The clumps are drawn from the random stream of the cell, so a cell is the same each time it is placed. The world-pager
+ * plots its own sprites with random numbers that can't be seeded from here, so a cell placed as a point cloud doesn't
+ * have the clumps the plotted mesh of the cell has, only the same density.
+ *
+ * A plotter is reused for every cell built on a thread, so placing a cell only allocates the buffers of its cloud once
+ * the arrays have grown to fit.
+ */
+public class SpritePlotter {
+
+    // the sprites of the 4x4 atlas of the Vegetation-Sprite material.
+    private static final int SPRITES = 16;
+
+    private final CellRandom random = new CellRandom();
+
+    // the rules are told where a clump is through the first corner of a triangle.
+    private final Triangle triangle = new Triangle();
+    private final Vector3f cellOrigin = new Vector3f();
+    private final Vector3f normal = new Vector3f();
+
+    private float[] records = new float[SpriteCloud.POSITION_SIZE * 256];
+    private float[] normals = new float[3 * 256];
+    private int[] sprites = new int[256];
+    private int count;
+
+    public SpritePlotter() {
+        triangle.verts[0] = new Vector3f();
+    }
+
+    /**
+     * Places the clumps of a cell, replacing those placed before.
+     * @param seed         the seed of the random stream of the cell.
+     * @param cellX        the x coordinate of the cell.
+     * @param cellZ        the z coordinate of the cell.
+     * @param cellSize     the size of the cell in world units.
+     * @param settings     the sizes, density and height limits of the clumps.
+     * @param rules        the rules a clump must pass.
+     * @param heightfields the heightfields of the world.
+     * @return the amount of clumps placed.
+     */
+    public int plot(long seed, int cellX, int cellZ, int cellSize, MeshPlotterSettings settings,
+                    List<MeshPlotterRule> rules, HeightfieldCache heightfields) {
+
+        random.reset(seed);
+        count = 0;
+
+        float originX = cellX * cellSize;
+        float originZ = cellZ * cellSize;
+        cellOrigin.set(originX, 0, originZ);
+
+        int strata = Math.max(0, Math.round(cellSize * (float) Math.sqrt(Math.max(0, settings.getDensity()))));
+        float stratumSize = strata == 0 ? 0 : cellSize / (float) strata;
+
+        float minSize = settings.getMinSize();
+        float sizeRange = settings.getMaxSize() - minSize;
+
+        // a new object for each cell, so the rules that count the validations of a mesh start again.
+        Mesh validated = new Mesh();
+
+        int heightfieldSize = heightfields.getCellSize();
+        Heightfield heightfield = null;
+
+        for (int sz = 0; sz < strata; sz++) {
+            for (int sx = 0; sx < strata; sx++) {
+
+                // drawn whether or not the clump is kept, so a clump doesn't depend on the ones before it.
+                float x = (sx + random.nextFloat()) * stratumSize;
+                float z = (sz + random.nextFloat()) * stratumSize;
+                float minDeviation = (random.nextFloat() * 2 - 1) * settings.getMinWorldHeightDeviation();
+                float maxDeviation = (random.nextFloat() * 2 - 1) * settings.getMaxWorldHeightDeviation();
+                float size = minSize + random.nextFloat() * sizeRange;
+                int sprite = random.nextInt(SPRITES);
+
+                float worldX = originX + x;
+                float worldZ = originZ + z;
+                int heightfieldX = (int) Math.floor(worldX / heightfieldSize);
+                int heightfieldZ = (int) Math.floor(worldZ / heightfieldSize);
+
+                // the heightfield is only looked up again when the clump is in another one.
+                if (heightfield == null || heightfield.getCellX() != heightfieldX || heightfield.getCellZ() != heightfieldZ) {
+                    heightfield = heightfields.get(heightfieldX, heightfieldZ);
+                }
+
+                float localX = worldX - heightfieldX * heightfieldSize;
+                float localZ = worldZ - heightfieldZ * heightfieldSize;
+                float y = heightfield.getHeightAt(localX, localZ);
+
+                if (y < settings.getMinWorldHeight() + minDeviation || y > settings.getMaxWorldHeight() + maxDeviation) {
+                    continue;
+                }
+
+                triangle.verts[0].set(x, y, z);
+
+                if (!validate(rules, validated, sz * strata + sx)) {
+                    continue;
+                }
+
+                heightfield.getNormalAt(localX, localZ, normal);
+                add(x, y, z, size, sprite, normal);
+            }
+        }
+
+        return count;
+    }
+
+    private boolean validate(List<MeshPlotterRule> rules, Mesh validated, int index) {
+
+        for (int i = 0; i < rules.size(); i++) {
+            if (!rules.get(i).validate(cellOrigin, validated, index, triangle)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void add(float x, float y, float z, float size, int sprite, Vector3f normal) {
+
+        if (count == sprites.length) {
+            int capacity = count * 2;
+            records = Arrays.copyOf(records, capacity * SpriteCloud.POSITION_SIZE);
+            normals = Arrays.copyOf(normals, capacity * 3);
+            sprites = Arrays.copyOf(sprites, capacity);
+        }
+
+        int r = count * SpriteCloud.POSITION_SIZE;
+        records[r] = x;
+        records[r + 1] = y;
+        records[r + 2] = z;
+        records[r + 3] = size;
+
+        int n = count * 3;
+        normals[n] = normal.x;
+        normals[n + 1] = normal.y;
+        normals[n + 2] = normal.z;
+
+        sprites[count] = sprite;
+        count++;
+    }
+
+    /**
+     * Creates a cloud of the clumps placed last.
+     * @param name       the name of the cloud.
+     * @param shape      the shape each clump is expanded into.
+     * @param bufferPool the pool the positions are allocated from.
+     * @return the cloud, or null if no clumps were placed.
+     */
+    public SpriteCloud createCloud(String name, SpriteCloud.Shape shape, BufferPool bufferPool) {
+
+        if (count == 0) {
+            return null;
+        }
+
+        FloatBuffer positions = bufferPool.allocateFloats(count * SpriteCloud.POSITION_SIZE);
+        ShortBuffer attributes = BufferUtils.createShortBuffer(count * SpriteCloud.ATTRIBUTE_SIZE);
+
+        positions.put(records, 0, count * SpriteCloud.POSITION_SIZE);
+
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+
+        for (int i = 0; i < count; i++) {
+
+            float x = records[i * SpriteCloud.POSITION_SIZE];
+            float y = records[i * SpriteCloud.POSITION_SIZE + 1];
+            float z = records[i * SpriteCloud.POSITION_SIZE + 2];
+            float size = records[i * SpriteCloud.POSITION_SIZE + 3];
+
+            attributes.put((short) sprites[i]).put(SpriteCloud.phase(x, z));
+            CompactSpriteMesh.encodeNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2], attributes);
+
+            // a tilted sprite can lean up to its size in any direction.
+            min.set(Math.min(min.x, x - size), Math.min(min.y, y - size), Math.min(min.z, z - size));
+            max.set(Math.max(max.x, x + size), Math.max(max.y, y + size), Math.max(max.z, z + size));
+        }
+
+        positions.flip();
+        attributes.flip();
+
+        return new SpriteCloud(name, shape, positions, attributes, count, new BoundingBox(min, max));
+    }
+
+    /**
+     * Returns the amount of clumps placed last.
+     * @return the amount of clumps.
+     */
+    public int size() {
+        return count;
+    }
+
+}
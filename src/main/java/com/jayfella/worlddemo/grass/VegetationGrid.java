@@ -0,0 +1,314 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jayfella.jme.plotters.meshplotter.MeshPlotterRule;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.GridSettings;
+import com.jayfella.jme.worldpager.grid.SpriteGrid;
+import com.jayfella.jme.worldpager.world.World;
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jayfella.worlddemo.world.CellJob;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jayfella.worlddemo.world.CellRandom;
+import com.jayfella.worlddemo.world.CellStore;
+import com.jayfella.worlddemo.world.SettingsHash;
+import com.jayfella.worlddemo.world.SpatialCodec;
+import com.jayfella.worlddemo.world.WorldContext;
+import com.jme3.material.Material;
+import com.jme3.material.RenderState;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A sprite grid whose cells are wrapped in a {@link CellNode} so they can be built and attached like the other
+ * demo grids. The sprites themselves are still plotted by the world-pager, on the generation executor.
+ *
+ * If compact vertices are enabled, the plotted meshes are encoded by {@link CompactSpriteMesh} before they are
+ * attached, and rendered with a copy of the grid material that decodes them. In point cloud mode the world-pager
+ * doesn't plot the cell at all. A {@link SpritePlotter} places one record per clump instead, which a {@link SpriteCloud}
+ * expands on the GPU, so a cell costs neither the triangles of its clumps to build nor their memory. The clumps are
+ * placed at the density, sizes and height limits of the plotter settings, and must pass the plotter rules added with
+ * {@link #addSettings(Object)}, but are not the clumps the world-pager would plot. Both are off by default.
+ *
+ * If the world has a {@link CellStore}, the plotted meshes are stored before they are compacted, so a stored cell can
+ * be built in either vertex format without plotting it again. Point clouds are placed again rather than stored, which
+ * costs less than reading them back.
+ */
+public class VegetationGrid extends SpriteGrid {
+
+    private final WorldContext context;
+
+    private volatile boolean compactVertices = false;
+    private Material compactMaterial;
+
+    private volatile boolean pointCloud = false;
+    private volatile SpriteCloud.Shape spriteShape = SpriteCloud.Shape.CAMERA_FACING;
+    private Material pointCloudMaterial;
+
+    // objects whose settings change the plotted sprites, such as plotter rules. Hashed to key the stored cells.
+    private final List<Object> settings = new CopyOnWriteArrayList<>();
+
+    // the settings that are plotter rules, which the clumps of point clouds must pass.
+    private final List<MeshPlotterRule> rules = new CopyOnWriteArrayList<>();
+
+    // each generation thread places the point clouds of its cells with its own plotter.
+    private final ThreadLocal<SpritePlotter> spritePlotter = ThreadLocal.withInitial(SpritePlotter::new);
+
+    public VegetationGrid(World world, WorldContext context, GridSettings gridSettings) {
+        super(world, gridSettings);
+        this.context = context;
+
+        context.getPrefetcher().register(this, this::createJob);
+    }
+
+    public WorldContext getContext() {
+        return context;
+    }
+
+    @Override
+    public Object[] buildCell(GridPos2i gridPos) {
+
+        // a cell that was removed a moment ago is attached again with its content.
+        CellNode cell = context.getWarmCells().take(this, gridPos);
+
+        if (cell == null) {
+            cell = context.getPrefetcher().take(this, gridPos);
+        }
+
+        if (cell == null) {
+            CellJob job = createJob(gridPos);
+            cell = job.getCell();
+
+            // the pager only waits for the empty cell. The sprites are plotted on the generation executor.
+            context.getGenerationExecutor().submit(job);
+        }
+
+        return new Object[] { cell };
+    }
+
+    private CellJob createJob(GridPos2i gridPos) {
+
+        CellNode cell = new CellNode(getName(), gridPos, getGridSettings().getCellSize().getSize());
+        cell.setScheduler(context.getAttachScheduler());
+        cell.setWarmCache(context.getWarmCells());
+
+        return new CellJob(context.getCells(this), cell, context.getMetrics().getGrid(this), new SpriteCellBuilder());
+    }
+
+    /**
+     * Adds an object whose bean properties change the plotted sprites, such as a plotter rule. The stored cells of the
+     * grid are only used while these settings, the plotter settings and the noise are unchanged. Plotter rules added
+     * here are also applied to the clumps of point clouds, which the world-pager doesn't plot.
+     * @param bean the settings.
+     */
+    public void addSettings(Object bean) {
+        settings.add(bean);
+
+        if (bean instanceof MeshPlotterRule) {
+            rules.add((MeshPlotterRule) bean);
+        }
+    }
+
+    // every setting the sprites of a cell are plotted with. Hashed for each cell, since the settings can change.
+    private long getSettingsHash() {
+
+        SettingsHash hash = new SettingsHash()
+                .add(getGridSettings().getCellSize().getSize())
+                .addBean(getPlotterSettings())
+                .addBean(getNoiseGenerator());
+
+        for (Object bean : settings) {
+            hash.addBean(bean);
+        }
+
+        return context.hashWorldNoise(hash).get();
+    }
+
+    private Spatial loadOrPlot(GridPos2i gridPos) {
+
+        CellStore store = context.getCellStore();
+
+        if (store == null) {
+            return plot(gridPos);
+        }
+
+        long settingsHash = getSettingsHash();
+        SpatialCodec codec = new SpatialCodec(getMaterial());
+
+        Spatial content = store.load(getName(), settingsHash, gridPos.getX(), gridPos.getZ(), codec);
+
+        if (content != null) {
+            return SpatialCodec.isEmpty(content) ? null : content;
+        }
+
+        // empty cells are stored too, so they aren't plotted again.
+        content = plot(gridPos);
+        store.save(getName(), settingsHash, gridPos.getX(), gridPos.getZ(), content, codec);
+
+        return content;
+    }
+
+    private Spatial plot(GridPos2i gridPos) {
+        Object[] data = super.buildCell(gridPos);
+        return data != null && data.length > 0 && data[0] instanceof Spatial ? (Spatial) data[0] : null;
+    }
+
+    private void compact(Spatial content) {
+
+        Material material = getCompactMaterial();
+
+        content.depthFirstTraversal(spatial -> {
+
+            if (spatial instanceof Geometry) {
+
+                Geometry geometry = (Geometry) spatial;
+                Mesh mesh = CompactSpriteMesh.encode(geometry.getMesh());
+
+                // meshes that can't be encoded keep the float layout and the grid material.
+                if (mesh != null) {
+                    geometry.setMesh(mesh);
+                    geometry.setMaterial(material);
+                }
+            }
+        });
+    }
+
+    private Spatial placePointCloud(GridPos2i gridPos) {
+
+        SpritePlotter plotter = spritePlotter.get();
+        long seed = CellRandom.seed(context.getGridSeed(this), gridPos.getX(), gridPos.getZ());
+
+        plotter.plot(seed, gridPos.getX(), gridPos.getZ(), getGridSettings().getCellSize().getSize(),
+                getPlotterSettings(), rules, context.getHeightfields());
+
+        SpriteCloud cloud = plotter.createCloud(getName(), spriteShape, context.getBufferPool());
+
+        if (cloud != null) {
+            cloud.setMaterial(getPointCloudMaterial());
+        }
+
+        return cloud;
+    }
+
+    public boolean isCompactVertices() {
+        return compactVertices;
+    }
+
+    /**
+     * Sets whether or not the cells are built with the compact vertex format, which uses less than half the memory of
+     * the float layout. Only cells built afterwards are affected. Ignored in point cloud mode.
+     * @param compactVertices whether or not to use the compact vertex format.
+     */
+    public void setCompactVertices(boolean compactVertices) {
+        this.compactVertices = compactVertices;
+    }
+
+    public boolean isPointCloud() {
+        return pointCloud;
+    }
+
+    /**
+     * Sets whether or not the cells are built as point clouds, with one record per clump that the GPU expands into
+     * a sprite. The clumps are placed without plotting the cell, see {@link SpritePlotter}. Disabled by default. Only
+     * cells built afterwards are affected.
+     * @param pointCloud whether or not to build point clouds.
+     */
+    public void setPointCloud(boolean pointCloud) {
+        this.pointCloud = pointCloud;
+    }
+
+    public SpriteCloud.Shape getSpriteShape() {
+        return spriteShape;
+    }
+
+    /**
+     * Sets the shape each clump of a point cloud is expanded into. Only cells built afterwards are affected.
+     * @param spriteShape the shape of the sprites.
+     */
+    public void setSpriteShape(SpriteCloud.Shape spriteShape) {
+        this.spriteShape = spriteShape;
+    }
+
+    /**
+     * Returns the material of the cells built with compact vertices, a copy of the grid material that decodes them.
+     * Parameters changed on the grid material must be changed on this material too. The copy is made the first time
+     * it is requested, so request it from the main thread before compact cells are built.
+     * @return the material of compact cells.
+     */
+    public synchronized Material getCompactMaterial() {
+
+        if (compactMaterial == null) {
+            compactMaterial = getMaterial().clone();
+            CompactSpriteMesh.setupMaterial(compactMaterial);
+        }
+
+        return compactMaterial;
+    }
+
+    /**
+     * Returns the material of the cells built as point clouds, a copy of the grid material that expands them. Like the
+     * compact material, request it from the main thread before point clouds are built.
+     * @return the material of point cloud cells.
+     */
+    public synchronized Material getPointCloudMaterial() {
+
+        if (pointCloudMaterial == null) {
+            pointCloudMaterial = getMaterial().clone();
+            pointCloudMaterial.setBoolean("PointCloud", true);
+
+            // crossed sprites are seen from both sides.
+            pointCloudMaterial.getAdditionalRenderState().setFaceCullMode(RenderState.FaceCullMode.Off);
+        }
+
+        return pointCloudMaterial;
+    }
+
+    /**
+     * Returns every material the cells of the grid can be rendered with, so a parameter can be changed on all of them.
+     * @return the grid material and its copies.
+     */
+    public List<Material> getMaterials() {
+        return Arrays.asList(getMaterial(), getCompactMaterial(), getPointCloudMaterial());
+    }
+
+    private class SpriteCellBuilder implements CellJob.Builder {
+
+        @Override
+        public Spatial build(CellNode cell) {
+
+            if (pointCloud) {
+                return placePointCloud(cell.getGridPos());
+            }
+
+            Spatial content = loadOrPlot(cell.getGridPos());
+
+            if (content == null) {
+                return null;
+            }
+
+            if (compactVertices) {
+                compact(content);
+            }
+
+            return content;
+        }
+
+        @Override
+        public void release(Spatial content) {
+
+            // the plotted meshes are created by the world-pager, so only the records of point clouds are pooled.
+            BufferPool bufferPool = context.getBufferPool();
+
+            content.depthFirstTraversal(spatial -> {
+                if (spatial instanceof SpriteCloud) {
+                    ((SpriteCloud) spatial).releaseInstanceData(bufferPool);
+                }
+            });
+        }
+    }
+
+}
@@ -9,28 +9,89 @@ import com.jayfella.jme.worldpager.grid.SceneGrid;
 import com.jayfella.jme.worldpager.grid.SpriteGrid;
 import com.jayfella.jme.worldpager.grid.TerrainGrid;
 import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.worlddemo.grass.VegetationGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jayfella.worlddemo.metrics.MergeMetrics;
+import com.jayfella.worlddemo.metrics.MetricsRegistry;
+import com.jayfella.worlddemo.metrics.PrefetchMetrics;
+import com.jayfella.worlddemo.metrics.WarmCellMetrics;
+import com.jayfella.worlddemo.terrain.FarTerrainGrid;
 import com.jayfella.worlddemo.tree.PlottedModel;
 import com.jayfella.worlddemo.tree.TreesGrid;
+import com.jayfella.worlddemo.world.AttachScheduler;
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jayfella.worlddemo.world.CellStore;
+import com.jayfella.worlddemo.world.GenerationExecutor;
+import com.jayfella.worlddemo.world.GridRefresher;
+import com.jayfella.worlddemo.world.GridRefresher.Refresh;
+import com.jayfella.worlddemo.world.MemoryGovernor;
+import com.jayfella.worlddemo.world.MergePolicy;
+import com.jayfella.worlddemo.world.ShadowPolicy;
+import com.jayfella.worlddemo.world.WarmCellCache;
+import com.jayfella.worlddemo.world.WorldContext;
 import com.jme3.app.Application;
 import com.jme3.app.SimpleApplication;
 import com.jme3.app.state.BaseAppState;
 import com.jme3.material.Material;
 import com.simsilica.lemur.Button;
 import com.simsilica.lemur.Container;
+import com.simsilica.lemur.Label;
 import com.simsilica.lemur.TabbedPanel;
 import com.simsilica.lemur.props.PropertyPanel;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
 public class WorldSettingsState extends BaseAppState {
 
     private final AbstractWorldState world;
+    private final WorldContext worldContext;
+    private final GridRefresher refresher;
     private TabbedPanel tabbedPanel;
 
     private Material terrainMaterial;
-    private Material grassMaterial;
-    private Material flowersMaterial;
+    private List<Material> grassMaterials;
+    private List<Material> flowersMaterials;
 
-    public WorldSettingsState(AbstractWorldState world) {
+    public WorldSettingsState(AbstractWorldState world, WorldContext worldContext) {
         this.world = world;
+        this.worldContext = worldContext;
+        this.refresher = new GridRefresher(worldContext);
+    }
+
+    /**
+     * Adds a button that refreshes the given grids if any of their tracked settings have changed.
+     */
+    private void addRefreshButton(Container container, String text, SceneGrid... grids) {
+
+        Button refreshButton = container.addChild(new Button(text));
+        Label refreshLabel = container.addChild(new Label(""));
+
+        refreshButton.addClickCommands(source -> {
+            int refreshed = refresher.refresh(grids);
+            refreshLabel.setText(refreshed == 0 ? "Nothing has changed." : "Refreshing " + refreshed + " grid(s).");
+        });
+    }
+
+    /**
+     * Tracks the settings of a grid that are used when its cells are built.
+     */
+    private void trackGridSettings(SceneGrid grid) {
+        // the pager must rebuild every cell if their size changes.
+        refresher.track(grid.getGridSettings(), "cellSize", Refresh.GRID, grid);
+    }
+
+    private void trackPlotterSettings(SpriteGrid grid) {
+
+        MeshPlotterSettings plotterSettings = grid.getPlotterSettings();
+
+        for (String property : new String[] { "minSize", "maxSize", "density", "minWorldHeight",
+                "minWorldHeightDeviation", "maxWorldHeight", "maxWorldHeightDeviation" }) {
+
+            refresher.track(plotterSettings, property, Refresh.CELLS, grid);
+        }
     }
 
     private Container createWorldNoiseContainer() {
@@ -56,14 +117,39 @@ public class WorldSettingsState extends BaseAppState {
             tabbedPanel.addTab(layer.getName(), layerProps);
         }
 
-        Button refreshButton = container.addChild(new Button("Refresh World"));
-        refreshButton.addClickCommands(source -> {
-            world.getSceneGrids().forEach(SceneGrid::refreshGrid);
-        });
+        // the terrain belongs to the pager, so it can only be refreshed by removing every cell. The other grids are
+        // rebuilt in place. The cached heights and the trees are no longer valid if the world noise has changed.
+        SceneGrid[] grids = world.getSceneGrids().toArray(new SceneGrid[0]);
+        TreesGrid treesGrid = (TreesGrid) world.getSceneGrid("Trees");
+
+        Runnable onChange = () -> {
+            worldContext.getHeightfields().clear();
+            treesGrid.invalidatePlacements();
+        };
+
+        for (String property : new String[] { "hardFloor", "hardFloorHeight", "hardFloorStrength" }) {
+            trackWorldNoise(layeredNoise, property, onChange, grids);
+        }
+
+        for (NoiseLayer layer : layeredNoise.getLayers()) {
+            for (String property : new String[] { "seed", "strength", "fractalOctaves" }) {
+                trackWorldNoise(layer, property, onChange, grids);
+            }
+        }
+
+        addRefreshButton(container, "Refresh World", grids);
 
         return container;
     }
 
+    private void trackWorldNoise(Object bean, String property, Runnable onChange, SceneGrid[] grids) {
+
+        // the change runs once, when the first of the grids is refreshed.
+        for (SceneGrid grid : grids) {
+            refresher.track(bean, property, grid instanceof TerrainGrid ? Refresh.GRID : Refresh.CELLS, onChange, grid);
+        }
+    }
+
     private Container createTerrainContainer() {
 
         Container container = new Container();
@@ -85,10 +171,22 @@ public class WorldSettingsState extends BaseAppState {
         materialProps.addFloatProperty("Low Res Distance", this, "lowResDistance", 0, 512, 0.1f);
         materialProps.addFloatProperty("Noise Scale", this, "noiseScale", 0, 2, 0.01f);
 
-        Button refreshButton = container.addChild(new Button("Refresh Grid"));
-        refreshButton.addClickCommands(source -> {
-            terrainGrid.refreshGrid();
-        });
+        trackGridSettings(terrainGrid);
+        addRefreshButton(container, "Refresh Grid", terrainGrid);
+
+        FarTerrainGrid farTerrainGrid = (FarTerrainGrid) world.getSceneGrid("Far Terrain");
+
+        if (farTerrainGrid != null) {
+
+            // the cells are rebuilt at their new detail as the settings change, so only the skirts need a refresh.
+            PropertyPanel farProps = container.addChild(new PropertyPanel("glass"));
+            farProps.addIntProperty("Far View Distance", farTerrainGrid.getGridSettings(), "viewDistance", 1, 40, 1);
+            farProps.addIntProperty("Far Detail Rings", farTerrainGrid, "detailRings", 1, 16, 1);
+            farProps.addFloatProperty("Far Skirt Depth", farTerrainGrid, "skirtDepth", 0, 64, 0.5f);
+
+            trackGridSettings(farTerrainGrid);
+            refresher.track(farTerrainGrid, "skirtDepth", Refresh.CELLS, farTerrainGrid);
+        }
 
         return container;
     }
@@ -112,10 +210,10 @@ public class WorldSettingsState extends BaseAppState {
 
         Container container = new Container();
 
-        SpriteGrid grassGrid = (SpriteGrid) world.getSceneGrid("Grass");
+        VegetationGrid grassGrid = (VegetationGrid) world.getSceneGrid("Grass");
         GridSettings gridSettings = grassGrid.getGridSettings();
 
-        grassMaterial = grassGrid.getMaterial();
+        grassMaterials = grassGrid.getMaterials();
 
         // grid Settings
         PropertyPanel gridProps = container.addChild(new PropertyPanel("glass"));
@@ -135,17 +233,26 @@ public class WorldSettingsState extends BaseAppState {
         plotterProps.addFloatProperty("Max World Height", plotterSettings, "maxWorldHeight", 0, 256, 0.1f);
         plotterProps.addFloatProperty("Max Height Deviation", plotterSettings, "maxWorldHeightDeviation", 0, 10, 0.01f);
 
+        PropertyPanel renderProps = container.addChild(new PropertyPanel("glass"));
+        renderProps.addBooleanProperty("Compact Vertices", grassGrid, "compactVertices");
+        renderProps.addBooleanProperty("Point Cloud", grassGrid, "pointCloud");
+        renderProps.addEnumProperty("Sprite Shape", grassGrid, "spriteShape");
 
-        Button refreshButton = container.addChild(new Button("Refresh Grid"));
-        refreshButton.addClickCommands(source -> {
-            grassGrid.refreshGrid();
-        });
+        trackGridSettings(grassGrid);
+        trackPlotterSettings(grassGrid);
+        refresher.track(grassGrid, "compactVertices", Refresh.CELLS, grassGrid);
+        refresher.track(grassGrid, "pointCloud", Refresh.CELLS, grassGrid);
+        refresher.track(grassGrid, "spriteShape", Refresh.CELLS, grassGrid);
+        addRefreshButton(container, "Refresh Grid", grassGrid);
 
         // these settings aren't affected by the refresh button.
 
         PropertyPanel materialProps = container.addChild(new PropertyPanel("glass"));
         materialProps.addFloatProperty("Distance Falloff", this, "grassDistanceFalloff", 0, 10000, 0.1f);
 
+        addShadowProperties(container, grassGrid);
+        addMergeProperties(container, grassGrid);
+
 
 
         return container;
@@ -157,17 +264,17 @@ public class WorldSettingsState extends BaseAppState {
     public float getGrassDistanceFalloff() { return grassDistanceFalloff; }
     public void setGrassDistanceFalloff(float distanceFalloff) {
         this.grassDistanceFalloff = distanceFalloff;
-        grassMaterial.setFloat("DistanceFalloff", distanceFalloff);
+        grassMaterials.forEach(material -> material.setFloat("DistanceFalloff", distanceFalloff));
     }
 
     private Container createFlowersContainer() {
 
         Container container = new Container();
 
-        SpriteGrid flowersGrid = (SpriteGrid) world.getSceneGrid("Flowers");
+        VegetationGrid flowersGrid = (VegetationGrid) world.getSceneGrid("Flowers");
         GridSettings gridSettings = flowersGrid.getGridSettings();
 
-        flowersMaterial = flowersGrid.getMaterial();
+        flowersMaterials = flowersGrid.getMaterials();
 
         PropertyPanel propertyPanel = container.addChild(new PropertyPanel("glass"));
 
@@ -188,16 +295,26 @@ public class WorldSettingsState extends BaseAppState {
         plotterProps.addFloatProperty("Max World Height", plotterSettings, "maxWorldHeight", 0, 256, 0.1f);
         plotterProps.addFloatProperty("Max Height Deviation", plotterSettings, "maxWorldHeightDeviation", 0, 10, 0.01f);
 
-        Button refreshButton = container.addChild(new Button("Refresh Grid"));
-        refreshButton.addClickCommands(source -> {
-            flowersGrid.refreshGrid();
-        });
+        PropertyPanel renderProps = container.addChild(new PropertyPanel("glass"));
+        renderProps.addBooleanProperty("Compact Vertices", flowersGrid, "compactVertices");
+        renderProps.addBooleanProperty("Point Cloud", flowersGrid, "pointCloud");
+        renderProps.addEnumProperty("Sprite Shape", flowersGrid, "spriteShape");
+
+        trackGridSettings(flowersGrid);
+        trackPlotterSettings(flowersGrid);
+        refresher.track(flowersGrid, "compactVertices", Refresh.CELLS, flowersGrid);
+        refresher.track(flowersGrid, "pointCloud", Refresh.CELLS, flowersGrid);
+        refresher.track(flowersGrid, "spriteShape", Refresh.CELLS, flowersGrid);
+        addRefreshButton(container, "Refresh Grid", flowersGrid);
 
         // these settings aren't affected by the refresh button.
 
         PropertyPanel materialProps = container.addChild(new PropertyPanel("glass"));
         materialProps.addFloatProperty("Distance Falloff", this, "flowersDistanceFalloff", 0, 10000, 0.1f);
 
+        addShadowProperties(container, flowersGrid);
+        addMergeProperties(container, flowersGrid);
+
         return container;
 
     }
@@ -207,7 +324,7 @@ public class WorldSettingsState extends BaseAppState {
     public float getFlowersDistanceFalloff() { return flowersDistanceFalloff; }
     public void setFlowersDistanceFalloff(float flowersDistanceFalloff) {
         this.flowersDistanceFalloff = flowersDistanceFalloff;
-        flowersMaterial.setFloat("DistanceFalloff", flowersDistanceFalloff);
+        flowersMaterials.forEach(material -> material.setFloat("DistanceFalloff", flowersDistanceFalloff));
     }
 
     private Container createTreesContainer() {
@@ -225,8 +342,15 @@ public class WorldSettingsState extends BaseAppState {
         propertyPanel.addIntProperty("Additions Per Frame", gridSettings, "additionsPerFrame", 1, 32, 1);
         propertyPanel.addIntProperty("Removals Per Frame", gridSettings, "removalsPerFrame", 1, 32, 1);
 
+        PropertyPanel renderProps = container.addChild(new PropertyPanel("glass"));
+        renderProps.addBooleanProperty("Instanced", treesGrid, "instanced");
+        renderProps.addIntProperty("Reduced Mesh Distance", treesGrid, "reducedDistance", 0, 20, 1);
+        renderProps.addIntProperty("Billboard Distance", treesGrid, "billboardDistance", 0, 20, 1);
+
         TabbedPanel tabbedPanel = container.addChild(new TabbedPanel());
 
+        Runnable invalidatePlacements = treesGrid::invalidatePlacements;
+
         for (PlottedModel tree : treesGrid.getTrees()) {
 
             PropertyPanel treeProps = new PropertyPanel("glass");
@@ -247,15 +371,210 @@ public class WorldSettingsState extends BaseAppState {
             treeProps.addIntProperty("Max Attempts", tree, "maxAttempts", 1, 5000, 1);
 
             tabbedPanel.addTab(tree.getName(), treeProps);
+
+            // each model draws its own random numbers, but the models share the plotter and keep their distance from
+            // the trees of the models plotted before them. The trees of a cell are plotted again together, once.
+            for (String property : new String[] { "minRadius", "maxRadius", "minSpaceBetween", "minScale", "maxScale",
+                    "minHeight", "maxHeight", "likelihood", "maxAttempts" }) {
+
+                refresher.track(tree, property, Refresh.CELLS, invalidatePlacements, treesGrid);
+            }
         }
 
-        Button refreshButton = container.addChild(new Button("Refresh Grid"));
-        refreshButton.addClickCommands(source -> {
-            treesGrid.refreshGrid();
+        // the trees don't need to be plotted again to switch between instancing and batching.
+        trackGridSettings(treesGrid);
+        refresher.track(treesGrid, "instanced", Refresh.CELLS, treesGrid);
+        addRefreshButton(container, "Refresh Grid", treesGrid);
+
+        // these settings aren't affected by the refresh button.
+        addShadowProperties(container, treesGrid);
+        addMergeProperties(container, treesGrid);
+
+        return container;
+
+    }
+
+    // the shadow policy is applied to the cells each frame, so it doesn't need a refresh.
+    private void addShadowProperties(Container container, SceneGrid grid) {
+
+        ShadowPolicy policy = worldContext.getShadowCasters().getPolicy(grid);
+
+        if (policy == null) {
+            return;
+        }
+
+        PropertyPanel shadowProps = container.addChild(new PropertyPanel("glass"));
+        shadowProps.addBooleanProperty("Cast Shadows", policy, "cast");
+        shadowProps.addFloatProperty("Shadow Distance", policy, "castDistance", 0, 2048, 1);
+        shadowProps.addIntProperty("Max Shadow Cells", policy, "maxCasters", 0, 1024, 1);
+    }
+
+    // distant cells are merged and split each frame, so it doesn't need a refresh either.
+    private void addMergeProperties(Container container, SceneGrid grid) {
+
+        MergePolicy policy = worldContext.getCellMerger().getPolicy(grid);
+
+        if (policy == null) {
+            return;
+        }
+
+        PropertyPanel mergeProps = container.addChild(new PropertyPanel("glass"));
+        mergeProps.addBooleanProperty("Merge Distant Cells", policy, "enabled");
+        mergeProps.addIntProperty("Merge Ring (2x2)", policy, "mergeRing", 1, 16, 1);
+        mergeProps.addIntProperty("Merge Ring (4x4)", policy, "wideMergeRing", 1, 16, 1);
+    }
+
+    private Label metricsLabel;
+    private Label exportLabel;
+    private float metricsTime;
+
+    private Container createMetricsContainer() {
+
+        Container container = new Container();
+
+        // cells are attached within a time budget each frame instead of the fixed additions per frame.
+        PropertyPanel schedulerProps = container.addChild(new PropertyPanel("glass"));
+        schedulerProps.addBooleanProperty("Time Budgeted Attach", worldContext.getAttachScheduler(), "budgeted");
+        schedulerProps.addFloatProperty("Attach Budget (ms)", worldContext.getAttachScheduler(), "budget", 0.1f, 16, 0.1f);
+
+        // cells are built ahead of the camera along the path it is flying.
+        PropertyPanel prefetchProps = container.addChild(new PropertyPanel("glass"));
+        prefetchProps.addBooleanProperty("Prefetch Cells", worldContext.getPrefetcher(), "enabled");
+        prefetchProps.addFloatProperty("Prefetch Look-Ahead (s)", worldContext.getPrefetcher(), "lookAhead", 0, 5, 0.1f);
+        prefetchProps.addIntProperty("Max Prefetched Cells", worldContext.getPrefetcher(), "maxCells", 0, 512, 1);
+
+        // cells that leave the view are kept for a while, so they are attached again instead of rebuilt.
+        PropertyPanel warmProps = container.addChild(new PropertyPanel("glass"));
+        warmProps.addBooleanProperty("Keep Warm Cells", worldContext.getWarmCells(), "enabled");
+        warmProps.addIntProperty("Warm Rings", worldContext.getWarmCells(), "hysteresis", 0, 8, 1);
+        warmProps.addIntProperty("Warm Budget (MB)", worldContext.getWarmCells(), "maxMegabytes", 0, 1024, 16);
+
+        // generated cells are loaded from disk instead of being generated again.
+        if (worldContext.getCellStore() != null) {
+            PropertyPanel storeProps = container.addChild(new PropertyPanel("glass"));
+            storeProps.addBooleanProperty("Use Cell Store", worldContext.getCellStore(), "enabled");
+        }
+
+        metricsLabel = container.addChild(new Label(""));
+
+        MetricsRegistry metrics = worldContext.getMetrics();
+
+        Button exportButton = container.addChild(new Button("Export CSV"));
+        exportButton.addClickCommands(source -> {
+
+            File file = new File("metrics-" + System.currentTimeMillis() + ".csv");
+
+            try {
+                metrics.exportCsv(file);
+                exportLabel.setText("Exported to " + file.getAbsolutePath());
+            } catch (IOException e) {
+                exportLabel.setText("Unable to export: " + e.getMessage());
+            }
         });
 
+        Button resetButton = container.addChild(new Button("Reset"));
+        resetButton.addClickCommands(source -> metrics.reset());
+
+        exportLabel = container.addChild(new Label(""));
+
+        updateMetrics();
+
         return container;
+    }
+
+    private void updateMetrics() {
+
+        MetricsRegistry metrics = worldContext.getMetrics();
+        StringBuilder text = new StringBuilder();
+
+        text.append(String.format(Locale.ROOT, "World Update: %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                metrics.getLastWorldUpdate() / 1e6,
+                metrics.getWorldUpdates().getPercentile(0.99) / 1e6,
+                metrics.getWorldUpdates().getMax() / 1e6));
+
+        AttachScheduler scheduler = worldContext.getAttachScheduler();
+        text.append(String.format(Locale.ROOT, "Attach Scheduler: %d waiting, %d attached in %.2f ms last frame%n",
+                scheduler.getPendingCount(), scheduler.getAttachedLastFrame(), scheduler.getUsedLastFrame() / 1e6));
+
+        GenerationExecutor executor = worldContext.getGenerationExecutor();
+        text.append(String.format(Locale.ROOT, "Generation: %d threads, %d queued, %d built, %d cancelled%n",
+                executor.getThreads(), executor.getQueued(), executor.getCompleted(), executor.getCancelled()));
+
+        BufferPool bufferPool = worldContext.getBufferPool();
+        text.append(String.format(Locale.ROOT, "Buffer Pool: %.1f / %.1f MB retained, %.1f%% hits, %d released, %d freed%n",
+                bufferPool.getRetainedBytes() / (1024.0 * 1024.0), bufferPool.getMaxBytes() / (1024.0 * 1024.0),
+                bufferPool.getHitRate() * 100, bufferPool.getReleased(), bufferPool.getFreed()));
+
+        WarmCellCache warmCells = worldContext.getWarmCells();
+        text.append(String.format(Locale.ROOT, "Warm Cells: %d cells, %.1f / %.1f MB, %d hits, %d misses, %d evicted%n",
+                warmCells.getCellCount(), warmCells.getBytes() / (1024.0 * 1024.0),
+                warmCells.getMaxBytes() / (1024.0 * 1024.0), warmCells.getHits(), warmCells.getMisses(),
+                warmCells.getEvicted()));
 
+        MemoryGovernor governor = worldContext.getMemoryGovernor();
+        text.append(String.format(Locale.ROOT, "Memory Governor: %s, heap %.0f / %.0f MB, direct %.0f / %.0f MB, %d rings reduced%n",
+                governor.isEnabled() ? "on" : "off",
+                governor.getHeapUsed() / (1024.0 * 1024.0), governor.getHeapLimit() / (1024.0 * 1024.0),
+                governor.getDirectUsed() / (1024.0 * 1024.0), governor.getDirectLimit() / (1024.0 * 1024.0),
+                governor.getReducedRings()));
+
+        CellStore cellStore = worldContext.getCellStore();
+
+        if (cellStore != null) {
+            text.append(String.format(Locale.ROOT, "Cell Store: %d hits, %d misses, %d writes, %.1f MB written, load %.2f ms%n",
+                    cellStore.getHits(), cellStore.getMisses(), cellStore.getWrites(),
+                    cellStore.getBytesWritten() / (1024.0 * 1024.0), cellStore.getMeanLoadTime() / 1e6));
+        }
+
+        for (GridMetrics grid : metrics.getGrids()) {
+
+            text.append(String.format(Locale.ROOT, "%n%s%n", grid.getName()));
+            text.append(String.format(Locale.ROOT, "  Queued: %d, Building: %d, Built: %d, Cancelled: %d%n",
+                    grid.getQueued(), grid.getBuilding(), grid.getBuilt(), grid.getCancelled()));
+            text.append(String.format(Locale.ROOT, "  Build: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                    grid.getBuildTimes().getPercentile(0.5) / 1e6,
+                    grid.getBuildTimes().getPercentile(0.99) / 1e6,
+                    grid.getBuildTimes().getMax() / 1e6));
+            text.append(String.format(Locale.ROOT, "  Cells: %d (+%d / -%d last frame), Attach: p99 %.2f ms%n",
+                    grid.getAttachedCells(), grid.getAttachedLastFrame(), grid.getDetachedLastFrame(),
+                    grid.getAttachTimes().getPercentile(0.99) / 1e6));
+            text.append(String.format(Locale.ROOT, "  Ring: p50 %.2f ms, p99 %.2f ms%n",
+                    grid.getRingTimes().getPercentile(0.5) / 1e6,
+                    grid.getRingTimes().getPercentile(0.99) / 1e6));
+            text.append(String.format(Locale.ROOT, "  Triangles: %,d, Vertices: %,d, Memory: %.1f MB%n",
+                    grid.getTriangles(), grid.getVertices(), grid.getBytes() / (1024.0 * 1024.0)));
+            text.append(String.format(Locale.ROOT, "  Shadow Casters: %d cells, %d geometries%n",
+                    grid.getShadows().getCasterCells(), grid.getShadows().getCasterGeometries()));
+
+            PrefetchMetrics prefetch = grid.getPrefetch();
+            text.append(String.format(Locale.ROOT, "  Prefetch: %d requested, %d hits (%d ready), %d wasted, %.1f%% hit rate%n",
+                    prefetch.getPrefetched(), prefetch.getHits(), prefetch.getReadyHits(), prefetch.getWasted(),
+                    prefetch.getHitRate() * 100));
+
+            WarmCellMetrics warm = grid.getWarmCells();
+            text.append(String.format(Locale.ROOT, "  Warm: %d cells, %.1f MB, %d hits, %d misses, %d evicted%n",
+                    warm.getCells(), warm.getBytes() / (1024.0 * 1024.0), warm.getHits(), warm.getMisses(),
+                    warm.getEvicted()));
+
+            MergeMetrics merge = grid.getMerge();
+            text.append(String.format(Locale.ROOT, "  Geometries: %d drawn, %d in view, %d super cells of %d cells, merge p99 %.2f ms%n",
+                    merge.getGeometries(), merge.getQueuedGeometries(), merge.getSuperCells(), merge.getMergedCells(),
+                    merge.getMergeTimes().getPercentile(0.99) / 1e6));
+        }
+
+        metricsLabel.setText(text.toString());
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        metricsTime += tpf;
+
+        // twice a second is enough to read.
+        if (metricsTime >= 0.5f) {
+            metricsTime = 0;
+            updateMetrics();
+        }
     }
 
     @Override
@@ -269,6 +588,7 @@ public class WorldSettingsState extends BaseAppState {
         tabbedPanel.addTab("Grass", createGrassContainer());
         tabbedPanel.addTab("Flowers", createFlowersContainer());
         tabbedPanel.addTab("Trees", createTreesContainer());
+        tabbedPanel.addTab("Metrics", createMetricsContainer());
     }
 
     @Override
@@ -0,0 +1,32 @@
+package com.jayfella.worlddemo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded when a cell is attached to or detached from the scene.
+ * Only used through {@link JfrEvents}.
+ */
+@Name("com.jayfella.worlddemo.CellAttach")
+@Label("Cell Attach")
+@Category({ "World Demo", "Pager" })
+@Description("A cell was attached to or detached from the scene.")
+@StackTrace(false)
+class CellAttachEvent extends jdk.jfr.Event {
+
+    @Label("Grid")
+    String grid;
+
+    @Label("Cell X")
+    int cellX;
+
+    @Label("Cell Z")
+    int cellZ;
+
+    @Label("Attached")
+    boolean attached;
+
+}
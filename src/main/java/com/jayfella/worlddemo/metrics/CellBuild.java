@@ -0,0 +1,60 @@
+package com.jayfella.worlddemo.metrics;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jme3.scene.Spatial;
+
+/**
+ * A cell that is being built. Created by {@link GridMetrics#startBuild(GridPos2i)} on the thread that builds the
+ * cell, and either finished or cancelled on the same thread.
+ */
+public final class CellBuild {
+
+    private final GridMetrics metrics;
+    private final GridPos2i gridPos;
+    private final long start;
+    private final Object event;
+
+    private boolean done;
+
+    CellBuild(GridMetrics metrics, GridPos2i gridPos) {
+        this.metrics = metrics;
+        this.gridPos = gridPos;
+        this.start = System.nanoTime();
+        this.event = JfrEvents.beginCellBuild();
+    }
+
+    /**
+     * Records the time taken to build the cell and measures its content.
+     * @param content the content of the built cell.
+     * @return the size of the content.
+     */
+    public CellStats finish(Spatial content) {
+
+        CellStats stats = CellStats.of(content);
+
+        if (done) {
+            return stats;
+        }
+
+        done = true;
+
+        metrics.buildFinished(System.nanoTime() - start);
+        JfrEvents.commitCellBuild(event, metrics.getName(), gridPos.getX(), gridPos.getZ(), stats);
+
+        return stats;
+    }
+
+    /**
+     * Ends the build without recording it, e.g. if the cell is empty or the build failed.
+     */
+    public void cancel() {
+
+        if (done) {
+            return;
+        }
+
+        done = true;
+        metrics.buildCancelled();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.jayfella.worlddemo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded when a grid builds a cell. The duration of the event is the time taken to build it.
+ * Only used through {@link JfrEvents}.
+ */
+@Name("com.jayfella.worlddemo.CellBuild")
+@Label("Cell Build")
+@Category({ "World Demo", "Pager" })
+@Description("A grid built the content of a cell.")
+@StackTrace(false)
+class CellBuildEvent extends jdk.jfr.Event {
+
+    @Label("Grid")
+    String grid;
+
+    @Label("Cell X")
+    int cellX;
+
+    @Label("Cell Z")
+    int cellZ;
+
+    @Label("Triangles")
+    long triangles;
+
+    @Label("Vertices")
+    long vertices;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+}
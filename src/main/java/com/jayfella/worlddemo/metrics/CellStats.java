@@ -0,0 +1,108 @@
+package com.jayfella.worlddemo.metrics;
+
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * The size of the content of a cell.
+ * Instanced geometries count the triangles and vertices of every instance, but only the memory of the instance data,
+ * since the mesh is shared with every other cell.
+ */
+public final class CellStats {
+
+    public static final CellStats EMPTY = new CellStats(0, 0, 0);
+
+    private final long triangles;
+    private final long vertices;
+    private final long bytes;
+
+    public CellStats(long triangles, long vertices, long bytes) {
+        this.triangles = triangles;
+        this.vertices = vertices;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Measures every geometry of the given spatial, including geometries that are currently culled.
+     * @param spatial the content of a cell.
+     * @return the size of the content.
+     */
+    public static CellStats of(Spatial spatial) {
+
+        long[] totals = new long[3];
+
+        spatial.depthFirstTraversal(child -> {
+
+            if (!(child instanceof Geometry)) {
+                return;
+            }
+
+            Geometry geometry = (Geometry) child;
+            Mesh mesh = geometry.getMesh();
+
+            if (mesh == null) {
+                return;
+            }
+
+            if (geometry instanceof InstancedGeometry) {
+
+                InstancedGeometry instanced = (InstancedGeometry) geometry;
+                int instances = instanced.getActualNumInstances();
+
+                totals[0] += (long) mesh.getTriangleCount() * instances;
+                totals[1] += (long) mesh.getVertexCount() * instances;
+
+                for (VertexBuffer vb : instanced.getAllInstanceData()) {
+                    totals[2] += getSizeInBytes(vb);
+                }
+
+            } else {
+
+                totals[0] += mesh.getTriangleCount();
+                totals[1] += mesh.getVertexCount();
+
+                for (VertexBuffer vb : mesh.getBufferList()) {
+                    totals[2] += getSizeInBytes(vb);
+                }
+            }
+
+        });
+
+        return new CellStats(totals[0], totals[1], totals[2]);
+    }
+
+    private static long getSizeInBytes(VertexBuffer vb) {
+
+        Buffer data = vb == null ? null : vb.getData();
+
+        if (data == null) {
+            return 0;
+        }
+
+        // byte buffers hold their size in bytes whatever the format, such as half floats.
+        if (data instanceof ByteBuffer) {
+            return data.capacity();
+        }
+
+        return (long) data.capacity() * vb.getFormat().getComponentSize();
+    }
+
+    public long getTriangles() {
+        return triangles;
+    }
+
+    public long getVertices() {
+        return vertices;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+}
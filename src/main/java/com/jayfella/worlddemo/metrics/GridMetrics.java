@@ -0,0 +1,425 @@
+package com.jayfella.worlddemo.metrics;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jayfella.worlddemo.world.Follower;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The generation metrics of a single grid.
+ * Builds are recorded from the generation threads. Attaches and detaches are recorded from the main thread by the
+ * cells themselves.
+ *
+ * Each time the follower moves into another cell, the time until the cells around it have their content attached is
+ * recorded as the ring time. This is how long it takes the grid to catch up after the camera moves.
+ */
+public class GridMetrics {
+
+    private final SceneGrid grid;
+
+    private final LatencyHistogram buildTimes = new LatencyHistogram();
+    private final LatencyHistogram attachTimes = new LatencyHistogram();
+    private final LatencyHistogram ringTimes = new LatencyHistogram();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong built = new AtomicLong();
+    private final AtomicLong building = new AtomicLong();
+
+    private final AtomicLong attachedCells = new AtomicLong();
+    private final AtomicLong triangles = new AtomicLong();
+    private final AtomicLong vertices = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final PrefetchMetrics prefetch = new PrefetchMetrics();
+    private final WarmCellMetrics warmCells = new WarmCellMetrics();
+    private final MergeMetrics merge = new MergeMetrics();
+    private final ShadowMetrics shadows = new ShadowMetrics();
+
+    // main thread only.
+    private int attachedThisFrame;
+    private int detachedThisFrame;
+    private int attachedLastFrame;
+    private int detachedLastFrame;
+
+    // the attaches and detaches since the last sample.
+    private int attachedSinceSample;
+    private int detachedSinceSample;
+
+    // the cells in the scene whose content is attached, or that have no content.
+    private final Set<Long> readyCells = ConcurrentHashMap.newKeySet();
+
+    // the cells around the follower that must be ready to complete the ring.
+    private int ringRadius = 1;
+    private int ringX = Integer.MIN_VALUE;
+    private int ringZ = Integer.MIN_VALUE;
+    private long ringStart;
+    private boolean ringPending;
+
+    GridMetrics(SceneGrid grid) {
+        this.grid = grid;
+    }
+
+    public String getName() {
+        return grid.getName();
+    }
+
+    /**
+     * Starts timing the build of a cell. Call this from the thread that builds the cell.
+     * @param gridPos the position of the cell.
+     * @return the build, which must be finished or cancelled.
+     */
+    public CellBuild startBuild(GridPos2i gridPos) {
+        building.incrementAndGet();
+        return new CellBuild(this, gridPos);
+    }
+
+    public void jobQueued() {
+        queued.incrementAndGet();
+    }
+
+    public void jobStarted() {
+        queued.decrementAndGet();
+    }
+
+    public void jobCancelled() {
+        queued.decrementAndGet();
+        cancelled.incrementAndGet();
+    }
+
+    void buildFinished(long nanos) {
+        building.decrementAndGet();
+        built.incrementAndGet();
+        buildTimes.record(nanos);
+    }
+
+    void buildCancelled() {
+        building.decrementAndGet();
+    }
+
+    /**
+     * Called by a cell when the pager attaches it to the scene. The content may not be built or attached yet.
+     * @param cell the cell that was attached.
+     */
+    public void cellAttached(CellNode cell) {
+        cellAttached(cell.getGridPos().getX(), cell.getGridPos().getZ());
+    }
+
+    /**
+     * Called when the pager attaches a cell to the scene, for grids whose cells are not {@link CellNode cell nodes}.
+     * @param x the x coordinate of the cell.
+     * @param z the z coordinate of the cell.
+     */
+    public void cellAttached(int x, int z) {
+
+        attachedCells.incrementAndGet();
+
+        attachedThisFrame++;
+        attachedSinceSample++;
+
+        JfrEvents.cellAttached(getName(), x, z, true);
+    }
+
+    /**
+     * Called by a cell when its content is attached, or when it turns out to have no content.
+     * @param cell the cell whose content was attached.
+     */
+    public void contentAttached(CellNode cell) {
+        contentAttached(cell.getGridPos().getX(), cell.getGridPos().getZ(), cell.getStats());
+    }
+
+    /**
+     * Called when the content of a cell is attached, for grids whose cells are not {@link CellNode cell nodes}.
+     * @param x     the x coordinate of the cell.
+     * @param z     the z coordinate of the cell.
+     * @param stats the size of the content.
+     */
+    public void contentAttached(int x, int z, CellStats stats) {
+
+        triangles.addAndGet(stats.getTriangles());
+        vertices.addAndGet(stats.getVertices());
+        bytes.addAndGet(stats.getBytes());
+
+        readyCells.add(key(x, z));
+    }
+
+    /**
+     * Called by a cell in the scene when it has been rebuilt and its new content has replaced the old content.
+     * @param cell     the cell that was rebuilt.
+     * @param previous the size of the old content.
+     */
+    public void contentReplaced(CellNode cell, CellStats previous) {
+
+        CellStats stats = cell.getStats();
+
+        triangles.addAndGet(stats.getTriangles() - previous.getTriangles());
+        vertices.addAndGet(stats.getVertices() - previous.getVertices());
+        bytes.addAndGet(stats.getBytes() - previous.getBytes());
+    }
+
+    /**
+     * Called by a cell when the pager detaches it from the scene.
+     * @param cell            the cell that was detached.
+     * @param contentAttached whether or not the content of the cell was attached.
+     */
+    public void cellDetached(CellNode cell, boolean contentAttached) {
+        cellDetached(cell.getGridPos().getX(), cell.getGridPos().getZ(), contentAttached ? cell.getStats() : null);
+    }
+
+    /**
+     * Called when the pager detaches a cell from the scene, for grids whose cells are not {@link CellNode cell nodes}.
+     * @param x     the x coordinate of the cell.
+     * @param z     the z coordinate of the cell.
+     * @param stats the size of the content of the cell, or null if its content was not attached.
+     */
+    public void cellDetached(int x, int z, CellStats stats) {
+
+        attachedCells.decrementAndGet();
+
+        if (stats != null) {
+
+            triangles.addAndGet(-stats.getTriangles());
+            vertices.addAndGet(-stats.getVertices());
+            bytes.addAndGet(-stats.getBytes());
+
+            readyCells.remove(key(x, z));
+        }
+
+        detachedThisFrame++;
+        detachedSinceSample++;
+
+        JfrEvents.cellAttached(getName(), x, z, false);
+    }
+
+    /**
+     * Returns whether or not every cell within a radius of a cell is in the scene with its content attached.
+     * @param centerX the x coordinate of the center cell.
+     * @param centerZ the z coordinate of the center cell.
+     * @param radius  the radius in cells. 0 is only the center cell.
+     * @return true if every cell is ready.
+     */
+    public boolean isRingReady(int centerX, int centerZ, int radius) {
+
+        for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                if (!readyCells.contains(key(x, z))) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the amount of cells within a radius of a cell that are not in the scene with their content attached,
+     * which is how far the grid is behind the follower.
+     * @param centerX the x coordinate of the center cell.
+     * @param centerZ the z coordinate of the center cell.
+     * @param radius  the radius in cells, usually the view distance of the grid.
+     * @return the amount of cells that are not ready.
+     */
+    public int countMissingCells(int centerX, int centerZ, int radius) {
+
+        int missing = 0;
+
+        for (int z = centerZ - radius; z <= centerZ + radius; z++) {
+            for (int x = centerX - radius; x <= centerX + radius; x++) {
+                if (!readyCells.contains(key(x, z))) {
+                    missing++;
+                }
+            }
+        }
+
+        return missing;
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Records the time taken on the main thread to attach the content of a cell.
+     * @param nanos the time in nanoseconds.
+     */
+    public void recordAttachTime(long nanos) {
+        attachTimes.record(nanos);
+    }
+
+    void endFrame(Follower follower) {
+
+        attachedLastFrame = attachedThisFrame;
+        detachedLastFrame = detachedThisFrame;
+        attachedThisFrame = 0;
+        detachedThisFrame = 0;
+
+        updateRing(follower);
+    }
+
+    private void updateRing(Follower follower) {
+
+        int cellSize = grid.getGridSettings().getCellSize().getSize();
+        int x = follower.getCellX(cellSize);
+        int z = follower.getCellZ(cellSize);
+
+        // an unfinished ring is abandoned if the follower moves on before it is complete.
+        if (x != ringX || z != ringZ) {
+            ringX = x;
+            ringZ = z;
+            ringStart = System.nanoTime();
+            ringPending = true;
+        }
+
+        if (!ringPending) {
+            return;
+        }
+
+        for (int cz = z - ringRadius; cz <= z + ringRadius; cz++) {
+            for (int cx = x - ringRadius; cx <= x + ringRadius; cx++) {
+                if (!readyCells.contains(key(cx, cz))) {
+                    return;
+                }
+            }
+        }
+
+        ringTimes.record(System.nanoTime() - ringStart);
+        ringPending = false;
+    }
+
+    /**
+     * Returns how well the cells of the grid that were requested ahead of the pager were used.
+     * @return the prefetch metrics of the grid.
+     */
+    public PrefetchMetrics getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Returns the cells of the grid that are kept warm out of view.
+     * @return the warm cell metrics of the grid.
+     */
+    public WarmCellMetrics getWarmCells() {
+        return warmCells;
+    }
+
+    /**
+     * Returns the geometries of the grid and its merged blocks of cells.
+     * @return the merge metrics of the grid.
+     */
+    public MergeMetrics getMerge() {
+        return merge;
+    }
+
+    /**
+     * Returns the cells and geometries of the grid that cast shadows.
+     * @return the shadow metrics of the grid.
+     */
+    public ShadowMetrics getShadows() {
+        return shadows;
+    }
+
+    int takeAttachedSinceSample() {
+        int attached = attachedSinceSample;
+        attachedSinceSample = 0;
+        return attached;
+    }
+
+    int takeDetachedSinceSample() {
+        int detached = detachedSinceSample;
+        detachedSinceSample = 0;
+        return detached;
+    }
+
+    /**
+     * Returns the amount of cells waiting on the generation executor.
+     * @return the amount of queued cells.
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the amount of cells that were not built because they left the view before their job started.
+     * @return the amount of builds that were avoided.
+     */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Returns the time taken for the cells around the follower to be ready after it moves into a new cell.
+     * @return the ring times.
+     */
+    public LatencyHistogram getRingTimes() {
+        return ringTimes;
+    }
+
+    public int getRingRadius() {
+        return ringRadius;
+    }
+
+    /**
+     * Sets the radius of the ring of cells that must be ready around the follower to complete a ring.
+     * @param ringRadius the radius in cells. 0 is only the cell the follower is in.
+     */
+    public void setRingRadius(int ringRadius) {
+        this.ringRadius = ringRadius;
+    }
+
+    public LatencyHistogram getBuildTimes() {
+        return buildTimes;
+    }
+
+    public LatencyHistogram getAttachTimes() {
+        return attachTimes;
+    }
+
+    public long getBuilt() {
+        return built.get();
+    }
+
+    public long getBuilding() {
+        return building.get();
+    }
+
+    public long getAttachedCells() {
+        return attachedCells.get();
+    }
+
+    public long getTriangles() {
+        return triangles.get();
+    }
+
+    public long getVertices() {
+        return vertices.get();
+    }
+
+    /**
+     * Returns the memory of the content of the cells of the grid in the scene, and of the super cells they are merged
+     * into, see {@link MergeMetrics#getBytes()}.
+     * @return the memory of the grid in bytes.
+     */
+    public long getBytes() {
+        return bytes.get() + merge.getBytes();
+    }
+
+    public int getAttachedLastFrame() {
+        return attachedLastFrame;
+    }
+
+    public int getDetachedLastFrame() {
+        return detachedLastFrame;
+    }
+
+    int getAttachedThisFrame() {
+        return attachedThisFrame;
+    }
+
+    int getDetachedThisFrame() {
+        return detachedThisFrame;
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.jayfella.worlddemo.metrics;
+
+/**
+ * Emits the Flight Recorder events of the pager.
+ * The events are only loaded if the running JVM has the Flight Recorder API (Java 11, or Java 8 update 262 and
+ * later), otherwise every method does nothing. Events in progress are passed around as plain objects so that nothing
+ * outside this class refers to the event classes.
+ */
+final class JfrEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isAvailable() {
+
+        try {
+            Class.forName("jdk.jfr.Event", false, JfrEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginCellBuild() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        CellBuildEvent event = new CellBuildEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitCellBuild(Object token, String grid, int cellX, int cellZ, CellStats stats) {
+
+        if (token == null) {
+            return;
+        }
+
+        CellBuildEvent event = (CellBuildEvent) token;
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.grid = grid;
+            event.cellX = cellX;
+            event.cellZ = cellZ;
+            event.triangles = stats.getTriangles();
+            event.vertices = stats.getVertices();
+            event.bytes = stats.getBytes();
+            event.commit();
+        }
+    }
+
+    static void cellAttached(String grid, int cellX, int cellZ, boolean attached) {
+
+        if (!AVAILABLE) {
+            return;
+        }
+
+        CellAttachEvent event = new CellAttachEvent();
+
+        if (event.shouldCommit()) {
+            event.grid = grid;
+            event.cellX = cellX;
+            event.cellZ = cellZ;
+            event.attached = attached;
+            event.commit();
+        }
+    }
+
+    static Object beginWorldUpdate() {
+
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        WorldUpdateEvent event = new WorldUpdateEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitWorldUpdate(Object token, int attached, int detached) {
+
+        if (token == null) {
+            return;
+        }
+
+        WorldUpdateEvent event = (WorldUpdateEvent) token;
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.attached = attached;
+            event.detached = detached;
+            event.commit();
+        }
+    }
+
+}
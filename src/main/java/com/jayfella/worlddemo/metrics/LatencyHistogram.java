@@ -0,0 +1,122 @@
+package com.jayfella.worlddemo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of durations that can be recorded from any thread without locking.
+ * Durations are bucketed by microsecond with four buckets per power of two, so a percentile is accurate to within
+ * 25%. Anything longer than about 70 minutes is counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_POWER = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(MAX_POWER * SUB_BUCKETS + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration.
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+
+        buckets.incrementAndGet(bucketOf(Math.max(0, nanos) / 1000));
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static int bucketOf(long micros) {
+
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+
+        if (power >= MAX_POWER) {
+            return MAX_POWER * SUB_BUCKETS;
+        }
+
+        // the two bits after the highest bit select the sub bucket.
+        int sub = (int) (micros >>> (power - 2)) & (SUB_BUCKETS - 1);
+        return (power - 1) * SUB_BUCKETS + sub;
+    }
+
+    // the highest duration in microseconds that falls into the given bucket.
+    private static long upperBoundOf(int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int power = bucket / SUB_BUCKETS + 1;
+        int sub = bucket % SUB_BUCKETS;
+
+        return ((long) (SUB_BUCKETS + sub + 1) << (power - 2)) - 1;
+    }
+
+    /**
+     * Returns the duration below which the given fraction of recorded durations fall.
+     * @param percentile a value between 0 and 1.
+     * @return the duration in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+
+        long count = this.count.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+
+        for (int i = 0; i < buckets.length(); i++) {
+
+            seen += buckets.get(i);
+
+            if (seen >= target) {
+                return Math.min(upperBoundOf(i) * 1000, max.get());
+            }
+        }
+
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     * @return the mean in nanoseconds, or 0 if nothing has been recorded.
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : total.get() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Removes every recorded duration. Durations recorded at the same time may or may not be kept.
+     */
+    public void reset() {
+
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+}
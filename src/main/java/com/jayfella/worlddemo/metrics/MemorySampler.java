@@ -0,0 +1,209 @@
+package com.jayfella.worlddemo.metrics;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples the heap and direct memory in use on a thread of its own, and keeps the highest use seen.
+ * Direct memory holds the buffers of the meshes, so it grows with the cells in the scene even when the heap doesn't.
+ * Mapped files are not direct memory, and are not counted.
+ */
+public class MemorySampler {
+
+    private static final String MAX_DIRECT_MEMORY = "-XX:MaxDirectMemorySize=";
+
+    // the buffer pool of the direct buffers. The other pool, "mapped", holds memory mapped files.
+    private static final String DIRECT_POOL = "direct";
+
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final AtomicLong peakDirect = new AtomicLong();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Starts sampling the memory.
+     * @param interval the time between samples in milliseconds.
+     */
+    public synchronized void start(long interval) {
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor();
+            executor.scheduleAtFixedRate(this::sample, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops sampling and takes a last sample.
+     */
+    public synchronized void stop() {
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        sample();
+    }
+
+    /**
+     * Samples the memory in use now.
+     */
+    public void sample() {
+        peakHeap.accumulateAndGet(readHeapUsed(), Math::max);
+        peakDirect.accumulateAndGet(readDirectUsed(), Math::max);
+    }
+
+    /**
+     * Returns the heap in use now, including garbage that has not been collected yet.
+     * @return the size in bytes.
+     */
+    public static long readHeapUsed() {
+
+        long heap = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += pool.getUsage().getUsed();
+            }
+        }
+
+        return heap;
+    }
+
+    /**
+     * Returns the heap that was in use after the last garbage collection of each pool, which is the memory that is
+     * actually kept alive. Pools that don't report it are counted as they are now.
+     * @return the size in bytes.
+     */
+    public static long readHeapLive() {
+
+        long heap = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+
+            MemoryUsage usage = pool.getCollectionUsage();
+            heap += (usage != null ? usage : pool.getUsage()).getUsed();
+        }
+
+        return heap;
+    }
+
+    /**
+     * Returns the amount of garbage collections so far by the collectors that collect every heap pool, which are the
+     * collections after which {@link #readHeapLive()} reflects the memory that is kept alive.
+     * @return the amount of collections.
+     */
+    public static long readHeapCollections() {
+
+        List<String> heapPools = new ArrayList<>();
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+
+        long collections = 0;
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (Arrays.asList(collector.getMemoryPoolNames()).containsAll(heapPools)) {
+                collections += Math.max(0, collector.getCollectionCount());
+            }
+        }
+
+        return collections;
+    }
+
+    /**
+     * Returns the direct buffers in use now, which hold the buffers of the meshes. Memory mapped files are not counted,
+     * since they are backed by the files rather than the direct memory limit of the JVM.
+     * @return the size in bytes.
+     */
+    public static long readDirectUsed() {
+
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (DIRECT_POOL.equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the most direct memory the JVM allows. This is -XX:MaxDirectMemorySize if it is set, and otherwise the
+     * maximum heap size, which is the default of the JVM.
+     * @return the size in bytes.
+     */
+    public static long getMaxDirectMemory() {
+
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+
+            if (arg.startsWith(MAX_DIRECT_MEMORY)) {
+
+                try {
+                    return parseSize(arg.substring(MAX_DIRECT_MEMORY.length()));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private static long parseSize(String size) {
+
+        String lower = size.toLowerCase(Locale.ROOT);
+        char unit = lower.charAt(lower.length() - 1);
+
+        switch (unit) {
+            case 'k': return Long.parseLong(lower.substring(0, lower.length() - 1)) << 10;
+            case 'm': return Long.parseLong(lower.substring(0, lower.length() - 1)) << 20;
+            case 'g': return Long.parseLong(lower.substring(0, lower.length() - 1)) << 30;
+            case 't': return Long.parseLong(lower.substring(0, lower.length() - 1)) << 40;
+            default: return Long.parseLong(lower);
+        }
+    }
+
+    /**
+     * Forgets the peaks seen so far, such as once a warm-up has finished.
+     */
+    public void reset() {
+        peakHeap.set(0);
+        peakDirect.set(0);
+    }
+
+    /**
+     * Returns the highest heap use seen.
+     * @return the size in bytes.
+     */
+    public long getPeakHeap() {
+        return peakHeap.get();
+    }
+
+    /**
+     * Returns the highest direct memory use seen.
+     * @return the size in bytes.
+     */
+    public long getPeakDirect() {
+        return peakDirect.get();
+    }
+
+}
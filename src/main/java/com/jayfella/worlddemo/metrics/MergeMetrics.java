@@ -0,0 +1,85 @@
+package com.jayfella.worlddemo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The geometries of a grid and its merged blocks of cells, as counted by the cell merger.
+ */
+public class MergeMetrics {
+
+    private final LatencyHistogram mergeTimes = new LatencyHistogram();
+    private final AtomicLong bytes = new AtomicLong();
+
+    // main thread only.
+    private int geometries;
+    private int queuedGeometries;
+    private int superCells;
+    private int mergedCells;
+
+    MergeMetrics() {
+    }
+
+    /**
+     * Records the time taken to merge a block of cells into a super cell. Called from the thread that merged them.
+     * @param nanos the time taken.
+     */
+    public void recordMergeTime(long nanos) {
+        mergeTimes.record(nanos);
+    }
+
+    /**
+     * Records the geometries of the grid this frame, including the geometries of its merged blocks of cells. Call from
+     * the main thread.
+     * @param geometries the amount of geometries that are not culled by their cull hint.
+     * @param queued     the amount of those geometries within the view of the camera, which reach the render queue.
+     */
+    public void setGeometries(int geometries, int queued) {
+        this.geometries = geometries;
+        this.queuedGeometries = queued;
+    }
+
+    /**
+     * Records the blocks of cells of the grid that are merged this frame. Call from the main thread.
+     * @param superCells  the amount of merged blocks.
+     * @param mergedCells the amount of cells in those blocks.
+     */
+    public void setSuperCells(int superCells, int mergedCells) {
+        this.superCells = superCells;
+        this.mergedCells = mergedCells;
+    }
+
+    /**
+     * Records the buffers of a super cell that was attached, or with a negative amount, of one that was split. The
+     * cells of a merged block keep their own buffers, so these bytes are held on top of theirs. Call from the main
+     * thread.
+     * @param bytes the size of the merged buffers.
+     */
+    public void addBytes(long bytes) {
+        this.bytes.addAndGet(bytes);
+    }
+
+    public LatencyHistogram getMergeTimes() {
+        return mergeTimes;
+    }
+
+    public int getGeometries() {
+        return geometries;
+    }
+
+    public int getQueuedGeometries() {
+        return queuedGeometries;
+    }
+
+    public int getSuperCells() {
+        return superCells;
+    }
+
+    public int getMergedCells() {
+        return mergedCells;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+}
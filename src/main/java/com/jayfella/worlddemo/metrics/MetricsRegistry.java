@@ -0,0 +1,246 @@
+package com.jayfella.worlddemo.metrics;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.world.Follower;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the generation metrics of every instrumented grid and the time the world spends on the main thread.
+ * The metrics of each grid are sampled once per interval and kept so they can be exported as CSV.
+ */
+public class MetricsRegistry {
+
+    private static final String CSV_HEADER = "time_ms,grid,queued,building,built,cancelled,build_p50_ms,build_p99_ms,attach_p99_ms,"
+            + "ring_p50_ms,ring_p99_ms,attached_cells,attached,detached,triangles,vertices,bytes,shadow_cells,shadow_geometries,prefetched,prefetch_hits,prefetch_ready_hits,prefetch_wasted,warm_hits,warm_misses,warm_evicted,warm_cells,warm_bytes,geometries,queued_geometries,super_cells,merged_cells,merged_bytes,merge_p99_ms,world_update_mean_ms,world_update_max_ms";
+
+    private final Follower follower;
+    private final List<GridMetrics> grids = new CopyOnWriteArrayList<>();
+    private final LatencyHistogram worldUpdates = new LatencyHistogram();
+
+    // main thread only.
+    private long updateStart;
+    private Object updateEvent;
+    private long lastWorldUpdate;
+
+    private long sampleInterval = 1000;
+    private int maxSamples = 3600;
+    private final long startTime = System.currentTimeMillis();
+    private long lastSampleTime = startTime;
+
+    // the world update times since the last sample.
+    private long intervalUpdateTotal;
+    private long intervalUpdateMax;
+    private int intervalUpdates;
+
+    private final ArrayDeque<String> samples = new ArrayDeque<>();
+
+    public MetricsRegistry(Follower follower) {
+        this.follower = follower;
+    }
+
+    /**
+     * Returns the metrics of the given grid, creating them the first time the grid is requested.
+     * @param grid the grid.
+     * @return the metrics of the grid.
+     */
+    public synchronized GridMetrics getGrid(SceneGrid grid) {
+
+        for (GridMetrics metrics : grids) {
+            if (metrics.getName().equals(grid.getName())) {
+                return metrics;
+            }
+        }
+
+        GridMetrics metrics = new GridMetrics(grid);
+        grids.add(metrics);
+        return metrics;
+    }
+
+    public List<GridMetrics> getGrids() {
+        return Collections.unmodifiableList(grids);
+    }
+
+    /**
+     * Marks the start of the world update. Call from the main thread.
+     */
+    public void beginWorldUpdate() {
+        updateEvent = JfrEvents.beginWorldUpdate();
+        updateStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the world update, ending the frame of every grid. Call from the main thread.
+     */
+    public void endWorldUpdate() {
+
+        long nanos = System.nanoTime() - updateStart;
+
+        lastWorldUpdate = nanos;
+        worldUpdates.record(nanos);
+
+        intervalUpdateTotal += nanos;
+        intervalUpdateMax = Math.max(intervalUpdateMax, nanos);
+        intervalUpdates++;
+
+        int attached = 0;
+        int detached = 0;
+
+        for (GridMetrics grid : grids) {
+            attached += grid.getAttachedThisFrame();
+            detached += grid.getDetachedThisFrame();
+            grid.endFrame(follower);
+        }
+
+        JfrEvents.commitWorldUpdate(updateEvent, attached, detached);
+        updateEvent = null;
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastSampleTime >= sampleInterval) {
+            sample(now);
+            lastSampleTime = now;
+        }
+    }
+
+    private void sample(long now) {
+
+        double updateMean = intervalUpdates == 0 ? 0 : intervalUpdateTotal / (double) intervalUpdates;
+
+        synchronized (samples) {
+
+            for (GridMetrics grid : grids) {
+
+                samples.add(String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.3f",
+                        now - startTime,
+                        grid.getName(),
+                        grid.getQueued(),
+                        grid.getBuilding(),
+                        grid.getBuilt(),
+                        grid.getCancelled(),
+                        grid.getBuildTimes().getPercentile(0.5) / 1e6,
+                        grid.getBuildTimes().getPercentile(0.99) / 1e6,
+                        grid.getAttachTimes().getPercentile(0.99) / 1e6,
+                        grid.getRingTimes().getPercentile(0.5) / 1e6,
+                        grid.getRingTimes().getPercentile(0.99) / 1e6,
+                        grid.getAttachedCells(),
+                        grid.takeAttachedSinceSample(),
+                        grid.takeDetachedSinceSample(),
+                        grid.getTriangles(),
+                        grid.getVertices(),
+                        grid.getBytes(),
+                        grid.getShadows().getCasterCells(),
+                        grid.getShadows().getCasterGeometries(),
+                        grid.getPrefetch().getPrefetched(),
+                        grid.getPrefetch().getHits(),
+                        grid.getPrefetch().getReadyHits(),
+                        grid.getPrefetch().getWasted(),
+                        grid.getWarmCells().getHits(),
+                        grid.getWarmCells().getMisses(),
+                        grid.getWarmCells().getEvicted(),
+                        grid.getWarmCells().getCells(),
+                        grid.getWarmCells().getBytes(),
+                        grid.getMerge().getGeometries(),
+                        grid.getMerge().getQueuedGeometries(),
+                        grid.getMerge().getSuperCells(),
+                        grid.getMerge().getMergedCells(),
+                        grid.getMerge().getBytes(),
+                        grid.getMerge().getMergeTimes().getPercentile(0.99) / 1e6,
+                        updateMean / 1e6,
+                        intervalUpdateMax / 1e6));
+            }
+
+            while (samples.size() > maxSamples * Math.max(1, grids.size())) {
+                samples.removeFirst();
+            }
+        }
+
+        intervalUpdateTotal = 0;
+        intervalUpdateMax = 0;
+        intervalUpdates = 0;
+    }
+
+    /**
+     * Writes every sample to a CSV file, one row per grid per sample.
+     * @param file the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void exportCsv(File file) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+
+            writer.println(CSV_HEADER);
+
+            synchronized (samples) {
+                for (String sample : samples) {
+                    writer.println(sample);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the recorded build and update times and the samples. The amount of attached cells is kept.
+     */
+    public void reset() {
+
+        for (GridMetrics grid : grids) {
+            grid.getBuildTimes().reset();
+            grid.getAttachTimes().reset();
+            grid.getRingTimes().reset();
+            grid.getMerge().getMergeTimes().reset();
+        }
+
+        worldUpdates.reset();
+
+        synchronized (samples) {
+            samples.clear();
+        }
+    }
+
+    public LatencyHistogram getWorldUpdates() {
+        return worldUpdates;
+    }
+
+    /**
+     * Returns the time the world spent on the main thread in the last frame.
+     * @return the time in nanoseconds.
+     */
+    public long getLastWorldUpdate() {
+        return lastWorldUpdate;
+    }
+
+    public long getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Sets how often the metrics of each grid are sampled for the CSV export.
+     * @param sampleInterval the interval in milliseconds.
+     */
+    public void setSampleInterval(long sampleInterval) {
+        this.sampleInterval = sampleInterval;
+    }
+
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    /**
+     * Sets the amount of samples kept for each grid. The oldest samples are removed first.
+     * @param maxSamples the amount of samples.
+     */
+    public void setMaxSamples(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+}
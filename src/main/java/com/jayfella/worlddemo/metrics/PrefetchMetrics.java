@@ -0,0 +1,86 @@
+package com.jayfella.worlddemo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How well the cells of a grid that were requested ahead of the pager were used, as counted by the cell prefetcher.
+ */
+public class PrefetchMetrics {
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong readyHits = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    PrefetchMetrics() {
+    }
+
+    public void cellPrefetched() {
+        prefetched.incrementAndGet();
+    }
+
+    /**
+     * Called when the pager asks for a cell that was prefetched.
+     * @param ready whether or not the content of the cell had already been built.
+     */
+    public void hit(boolean ready) {
+
+        hits.incrementAndGet();
+
+        if (ready) {
+            readyHits.incrementAndGet();
+        }
+    }
+
+    /**
+     * Called when a prefetched cell is discarded because the pager never asked for it.
+     */
+    public void wasted() {
+        wasted.incrementAndGet();
+    }
+
+    /**
+     * Returns the amount of cells that were requested ahead of the pager.
+     * @return the amount of prefetched cells.
+     */
+    public long getPrefetched() {
+        return prefetched.get();
+    }
+
+    /**
+     * Returns the amount of prefetched cells the pager asked for.
+     * @return the amount of prefetch hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the amount of prefetched cells that had been built by the time the pager asked for them.
+     * @return the amount of prefetch hits that were ready.
+     */
+    public long getReadyHits() {
+        return readyHits.get();
+    }
+
+    /**
+     * Returns the amount of prefetched cells that were discarded without being used, built or not.
+     * @return the amount of wasted prefetches.
+     */
+    public long getWasted() {
+        return wasted.get();
+    }
+
+    /**
+     * Returns the fraction of the prefetched cells that were used or discarded that the pager asked for.
+     * @return the hit rate from 0 to 1.
+     */
+    public double getHitRate() {
+
+        long hits = getHits();
+        long used = hits + getWasted();
+
+        return used == 0 ? 0 : hits / (double) used;
+    }
+
+}
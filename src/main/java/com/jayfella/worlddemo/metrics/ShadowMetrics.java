@@ -0,0 +1,33 @@
+package com.jayfella.worlddemo.metrics;
+
+/**
+ * The cells and geometries of a grid that cast shadows, as counted by the shadow caster state.
+ */
+public class ShadowMetrics {
+
+    // main thread only.
+    private int casterCells;
+    private int casterGeometries;
+
+    ShadowMetrics() {
+    }
+
+    /**
+     * Records the cells of the grid that cast shadows this frame. Call from the main thread.
+     * @param cells      the amount of cells that cast shadows.
+     * @param geometries the amount of geometries in those cells that cast shadows.
+     */
+    public void setCasters(int cells, int geometries) {
+        this.casterCells = cells;
+        this.casterGeometries = geometries;
+    }
+
+    public int getCasterCells() {
+        return casterCells;
+    }
+
+    public int getCasterGeometries() {
+        return casterGeometries;
+    }
+
+}
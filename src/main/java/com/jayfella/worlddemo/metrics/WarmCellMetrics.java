@@ -0,0 +1,72 @@
+package com.jayfella.worlddemo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cells of a grid that are kept warm out of view, as counted by the warm cell cache.
+ */
+public class WarmCellMetrics {
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    // main thread only.
+    private int cells;
+    private long bytes;
+
+    WarmCellMetrics() {
+    }
+
+    /**
+     * Called when the pager asks for a cell that was kept warm, so it is attached again instead of rebuilt.
+     */
+    public void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Called when the pager asks for a cell that was not kept warm, so it must be built.
+     */
+    public void miss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Called when a warm cell is evicted and its content released.
+     */
+    public void evicted() {
+        evicted.incrementAndGet();
+    }
+
+    /**
+     * Records the cells of the grid that are kept warm. Call from the main thread.
+     * @param cells the amount of warm cells.
+     * @param bytes the estimated memory of their content.
+     */
+    public void setCells(int cells, long bytes) {
+        this.cells = cells;
+        this.bytes = bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public int getCells() {
+        return cells;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+}
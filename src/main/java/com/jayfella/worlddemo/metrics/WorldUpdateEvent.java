@@ -0,0 +1,27 @@
+package com.jayfella.worlddemo.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded once per frame. The duration of the event is the time the world spent on the main thread, which is
+ * mostly attaching and detaching cells.
+ * Only used through {@link JfrEvents}.
+ */
+@Name("com.jayfella.worlddemo.WorldUpdate")
+@Label("World Update")
+@Category({ "World Demo", "Pager" })
+@Description("The world updated its grids on the main thread.")
+@StackTrace(false)
+class WorldUpdateEvent extends jdk.jfr.Event {
+
+    @Label("Cells Attached")
+    int attached;
+
+    @Label("Cells Detached")
+    int detached;
+
+}
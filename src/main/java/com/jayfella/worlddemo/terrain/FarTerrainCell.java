@@ -0,0 +1,46 @@
+package com.jayfella.worlddemo.terrain;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.world.CellNode;
+
+/**
+ * A cell of the {@link FarTerrainGrid}. Remembers the level of detail its content was built at, so the grid can
+ * rebuild it when the follower moves into another ring.
+ */
+public class FarTerrainCell extends CellNode {
+
+    // the detail level of a cell with no content, such as a cell the terrain grid covers.
+    public static final int EMPTY = 0;
+
+    private volatile int detail = EMPTY;
+
+    /**
+     * Serialization only. Do not use.
+     */
+    public FarTerrainCell() {
+        super();
+    }
+
+    /**
+     * Creates an empty cell. The content is built on the generation executor.
+     * @param gridPos  the position of the cell.
+     * @param cellSize the size of the cell.
+     */
+    public FarTerrainCell(GridPos2i gridPos, int cellSize) {
+        super("Far Terrain", gridPos, cellSize);
+    }
+
+    public int getDetail() {
+        return detail;
+    }
+
+    /**
+     * Sets the level of detail of the content of the cell. Set by the job that builds the content, and by the grid
+     * when it asks for the content to be rebuilt at another level.
+     * @param detail the level of detail, or {@link #EMPTY} if the cell has no content.
+     */
+    void setDetail(int detail) {
+        this.detail = detail;
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.jayfella.worlddemo.terrain;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.GridSettings;
+import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.jme.worldpager.grid.ModelGrid;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.grid.TerrainGrid;
+import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.worlddemo.world.CellJob;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jayfella.worlddemo.world.WorldContext;
+import com.jme3.material.Material;
+import com.jme3.math.Vector2f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
+
+/**
+ * Extends the terrain beyond the view distance of the terrain grid at a lower resolution.
+ *
+ * The terrain grid belongs to the world-pager and builds every cell at full resolution, so its view distance is
+ * limited by the amount of vertices it can afford. This grid covers the rings around it instead. The first rings are
+ * built at half the resolution of the terrain, and every {@link #getDetailRings() detail rings} after that at half the
+ * resolution again, down to an eighth. As the follower moves, a cell is rebuilt at the detail of its new ring, and its
+ * old content stays in the scene until the new content is ready.
+ *
+ * The cells the terrain grid covers are hidden, and are not built. A cell that moves under the terrain grid keeps its
+ * content for one more ring before it is emptied, so a follower that moves back and forth over the edge of the terrain
+ * doesn't rebuild it each time. The gaps between cells of a different resolution are hidden by skirts, see
+ * {@link FarTerrainMesh}.
+ *
+ * The cells should be the same size as the cells of the terrain grid so the far terrain lines up with it, and use the
+ * material of the terrain grid unless another material is set.
+ */
+public class FarTerrainGrid extends ModelGrid {
+
+    // the name of the terrain grid the world creates.
+    private static final String TERRAIN = "Terrain";
+
+    // the coarsest level of detail, at an eighth of the resolution of the terrain.
+    public static final int MAX_DETAIL = 3;
+
+    // a cell only gets coarser once it is a ring past where it would, so a follower that moves back and forth over the
+    // edge of a ring doesn't rebuild the cells on it each time.
+    private static final int HYSTERESIS = 1;
+
+    private final AbstractWorldState world;
+    private final WorldContext context;
+    private final NoiseEvaluator worldNoise;
+    private final CellJob.Builder cellBuilder = new FarTerrainBuilder();
+
+    private volatile Material material;
+    private volatile int detailRings = 4;
+    private volatile float skirtDepth = 8;
+
+    public FarTerrainGrid(AbstractWorldState world, WorldContext context, GridSettings gridSettings) {
+        super(world, gridSettings);
+
+        this.world = world;
+        this.context = context;
+
+        worldNoise = new NoiseEvaluator() {
+            @Override
+            public float evaluate(Vector2f loc) {
+                return getWorld().getWorldNoise().evaluate(loc);
+            }
+        };
+
+        context.getPrefetcher().register(this, this::createJob);
+    }
+
+    @Override
+    public Object[] buildCell(GridPos2i gridPos) {
+
+        // a cell that was removed a moment ago is attached again with its content.
+        CellNode cell = context.getWarmCells().take(this, gridPos);
+
+        if (cell == null) {
+            cell = context.getPrefetcher().take(this, gridPos);
+        }
+
+        if (cell == null) {
+            CellJob job = createJob(gridPos);
+            cell = job.getCell();
+
+            // the pager only waits for the empty cell. The terrain is built on the generation executor.
+            context.getGenerationExecutor().submit(job);
+        }
+
+        return new Object[] { cell };
+    }
+
+    private CellJob createJob(GridPos2i gridPos) {
+
+        FarTerrainCell cell = new FarTerrainCell(gridPos, getGridSettings().getCellSize().getSize());
+        cell.setScheduler(context.getAttachScheduler());
+        cell.setWarmCache(context.getWarmCells());
+        cell.addControl(new FarTerrainLodControl());
+
+        return new CellJob(context.getCells(this), cell, context.getMetrics().getGrid(this), cellBuilder);
+    }
+
+    /**
+     * Returns the furthest ring of this grid that the terrain grid covers. The cells within it are hidden.
+     * @return the ring distance in cells of this grid, or -1 if there is no terrain grid.
+     */
+    public int getTerrainDistance() {
+
+        SceneGrid terrain = world.getSceneGrid(TERRAIN);
+
+        if (terrain == null) {
+            return -1;
+        }
+
+        int terrainCellSize = terrain.getGridSettings().getCellSize().getSize();
+        return terrain.getGridSettings().getViewDistance() * terrainCellSize / getGridSettings().getCellSize().getSize();
+    }
+
+    /**
+     * Returns the level of detail a cell is built at based on its ring distance from the follower.
+     * @param ring the ring distance of the cell.
+     * @return the level of detail, where the resolution is halved at each level, or {@link FarTerrainCell#EMPTY} if
+     * the terrain grid covers the cell.
+     */
+    public int getDetail(int ring) {
+
+        int terrainDistance = getTerrainDistance();
+
+        if (ring <= terrainDistance) {
+            return FarTerrainCell.EMPTY;
+        }
+
+        return Math.min(MAX_DETAIL, 1 + Math.max(0, ring - terrainDistance - 1) / detailRings);
+    }
+
+    private int getRing(CellNode cell) {
+        return context.getFollower().getRing(cell.getGridPos(), getGridSettings().getCellSize().getSize());
+    }
+
+    private Material findMaterial() {
+
+        Material material = this.material;
+
+        if (material == null) {
+
+            SceneGrid terrain = world.getSceneGrid(TERRAIN);
+
+            if (terrain instanceof TerrainGrid) {
+                material = ((TerrainGrid) terrain).getMaterial();
+            }
+        }
+
+        return material;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * Sets the material of the far terrain. The grid must be refreshed for this to take effect on cells that are
+     * already loaded.
+     * @param material the material, or null to use the material of the terrain grid.
+     */
+    public void setMaterial(Material material) {
+        this.material = material;
+    }
+
+    public int getDetailRings() {
+        return detailRings;
+    }
+
+    /**
+     * Sets how many rings are built at each level of detail before the resolution is halved again. Cells are rebuilt
+     * at their new level as the follower moves.
+     * @param detailRings the amount of rings at each level of detail.
+     */
+    public void setDetailRings(int detailRings) {
+        this.detailRings = Math.max(1, detailRings);
+    }
+
+    public float getSkirtDepth() {
+        return skirtDepth;
+    }
+
+    /**
+     * Sets how far the skirts hang below the edges of each cell. They must reach below the largest gap between a cell
+     * and its neighbours, which grows with the steepness of the terrain and the difference in resolution.
+     * @param skirtDepth the depth in world units.
+     */
+    public void setSkirtDepth(float skirtDepth) {
+        this.skirtDepth = skirtDepth;
+    }
+
+    // builds the terrain of a cell at the detail of its ring, and returns its buffers to the pool once it is not used.
+    private class FarTerrainBuilder implements CellJob.Builder {
+
+        @Override
+        public Spatial build(CellNode cellNode) {
+
+            FarTerrainCell cell = (FarTerrainCell) cellNode;
+            Material material = findMaterial();
+
+            // the terrain grid is created by the world once it is initialized, so it may not exist yet.
+            int detail = material != null ? getDetail(getRing(cell)) : FarTerrainCell.EMPTY;
+            cell.setDetail(detail);
+
+            if (detail == FarTerrainCell.EMPTY) {
+                return null;
+            }
+
+            int cellSize = getGridSettings().getCellSize().getSize();
+            GridPos2i gridPos = cell.getGridPos();
+
+            Geometry geometry = new Geometry("Far Terrain", FarTerrainMesh.create(worldNoise,
+                    gridPos.getWorldTranslationX(), gridPos.getWorldTranslationZ(),
+                    cellSize, (cellSize >> detail) + 1, skirtDepth, context.getBufferPool()));
+
+            geometry.setMaterial(material);
+
+            return geometry;
+        }
+
+        @Override
+        public void release(Spatial content) {
+
+            content.depthFirstTraversal(spatial -> {
+                if (spatial instanceof Geometry) {
+                    context.getBufferPool().release(((Geometry) spatial).getMesh());
+                }
+            });
+        }
+    }
+
+    // hides the cells the terrain grid covers, and rebuilds a cell when its ring needs another level of detail.
+    private class FarTerrainLodControl extends AbstractControl {
+
+        @Override
+        protected void controlUpdate(float tpf) {
+
+            FarTerrainCell cell = (FarTerrainCell) getSpatial();
+            int ring = getRing(cell);
+
+            cell.setCullHint(ring <= getTerrainDistance() ? Spatial.CullHint.Always : Spatial.CullHint.Inherit);
+
+            // a cell is only rebuilt once its content is attached, so each cell has one build at a time.
+            if (!cell.isContentAttached() || findMaterial() == null) {
+                return;
+            }
+
+            int current = cell.getDetail();
+            int detail = getDetail(ring);
+
+            if (detail == current) {
+                return;
+            }
+
+            boolean coarser = current != FarTerrainCell.EMPTY && detail > current;
+
+            if (coarser && getDetail(ring - HYSTERESIS) == current) {
+                return;
+            }
+
+            // a cell only goes under the terrain once it is a ring further in, for the same reason.
+            boolean covered = current != FarTerrainCell.EMPTY && detail == FarTerrainCell.EMPTY;
+
+            if (covered && getDetail(ring + HYSTERESIS) == current) {
+                return;
+            }
+
+            cell.setDetail(detail);
+            cell.rebuild();
+        }
+
+        @Override
+        protected void controlRender(RenderManager rm, ViewPort vp) {
+
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.jayfella.worlddemo.terrain;
+
+import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Creates the mesh of a far terrain cell: a regular grid of heights evaluated from the world noise, with a skirt that
+ * hangs down from every edge. Neighbouring cells of a different resolution don't share all of their edge vertices, so
+ * there would be gaps between them, and between the far terrain and the terrain grid. The skirts fill those gaps.
+ *
+ * The positions are local to the cell, and the texture coordinates run from 0 to 1 across the cell.
+ */
+public final class FarTerrainMesh {
+
+    private FarTerrainMesh() {
+    }
+
+    /**
+     * Creates the mesh of a cell.
+     * @param noise      the world noise.
+     * @param originX    the world x position of the cell.
+     * @param originZ    the world z position of the cell.
+     * @param cellSize   the size of the cell.
+     * @param samples    the amount of vertices along each side of the cell, including both edges.
+     * @param skirtDepth how far the skirts hang below the edges.
+     * @param bufferPool the pool the vertex buffers are allocated from.
+     * @return the mesh of the cell.
+     */
+    public static Mesh create(NoiseEvaluator noise, float originX, float originZ, int cellSize, int samples,
+                              float skirtDepth, BufferPool bufferPool) {
+
+        float spacing = cellSize / (float) (samples - 1);
+
+        // evaluate one extra sample around the edge so the normals on the edge match the neighbouring cells.
+        int bordered = samples + 2;
+        float[] heights = new float[bordered * bordered];
+        Vector2f location = new Vector2f();
+
+        for (int z = 0; z < bordered; z++) {
+            for (int x = 0; x < bordered; x++) {
+                location.set(originX + (x - 1) * spacing, originZ + (z - 1) * spacing);
+                heights[z * bordered + x] = noise.evaluate(location);
+            }
+        }
+
+        int[] edge = getEdge(samples);
+        int vertices = samples * samples + edge.length;
+
+        FloatBuffer positions = bufferPool.allocateFloats(vertices * 3);
+        FloatBuffer normals = bufferPool.allocateFloats(vertices * 3);
+        FloatBuffer texCoords = bufferPool.allocateFloats(vertices * 2);
+
+        Vector3f normal = new Vector3f();
+
+        for (int z = 0; z < samples; z++) {
+            for (int x = 0; x < samples; x++) {
+
+                int b = (z + 1) * bordered + (x + 1);
+
+                float dx = heights[b + 1] - heights[b - 1];
+                float dz = heights[b + bordered] - heights[b - bordered];
+                normal.set(-dx, 2 * spacing, -dz).normalizeLocal();
+
+                positions.put(x * spacing).put(heights[b]).put(z * spacing);
+                normals.put(normal.x).put(normal.y).put(normal.z);
+                texCoords.put(x / (float) (samples - 1)).put(z / (float) (samples - 1));
+            }
+        }
+
+        // the skirt is a copy of the edge vertices, lowered by the skirt depth.
+        for (int index : edge) {
+            positions.put(positions.get(index * 3)).put(positions.get(index * 3 + 1) - skirtDepth).put(positions.get(index * 3 + 2));
+            normals.put(normals.get(index * 3)).put(normals.get(index * 3 + 1)).put(normals.get(index * 3 + 2));
+            texCoords.put(texCoords.get(index * 2)).put(texCoords.get(index * 2 + 1));
+        }
+
+        positions.flip();
+        normals.flip();
+        texCoords.flip();
+
+        int quads = (samples - 1) * (samples - 1) + edge.length;
+        ShortBuffer indices = BufferUtils.createShortBuffer(quads * 6);
+
+        for (int z = 0; z < samples - 1; z++) {
+            for (int x = 0; x < samples - 1; x++) {
+
+                int i0 = z * samples + x;
+                int i1 = i0 + 1;
+                int i2 = i0 + samples;
+                int i3 = i2 + 1;
+
+                putTriangle(indices, i0, i2, i1);
+                putTriangle(indices, i1, i2, i3);
+            }
+        }
+
+        // the edge goes around the cell so that the skirts face outwards.
+        int skirt = samples * samples;
+
+        for (int k = 0; k < edge.length; k++) {
+
+            int next = (k + 1) % edge.length;
+
+            putTriangle(indices, edge[k], edge[next], skirt + k);
+            putTriangle(indices, edge[next], skirt + next, skirt + k);
+        }
+
+        indices.flip();
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, normals);
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+        mesh.setBuffer(VertexBuffer.Type.Index, 3, indices);
+
+        return mesh;
+    }
+
+    /**
+     * Returns the indices of the vertices on the edge of a grid of vertices, in order around the grid: along the
+     * lowest z, up the highest x, back along the highest z and down the lowest x.
+     * @param samples the amount of vertices along each side of the grid.
+     * @return the indices of the edge vertices.
+     */
+    static int[] getEdge(int samples) {
+
+        int last = samples - 1;
+        int[] edge = new int[4 * last];
+        int k = 0;
+
+        for (int x = 0; x < last; x++) {
+            edge[k++] = x;
+        }
+
+        for (int z = 0; z < last; z++) {
+            edge[k++] = z * samples + last;
+        }
+
+        for (int x = last; x > 0; x--) {
+            edge[k++] = last * samples + x;
+        }
+
+        for (int z = last; z > 0; z--) {
+            edge[k++] = z * samples;
+        }
+
+        return edge;
+    }
+
+    private static void putTriangle(ShortBuffer indices, int a, int b, int c) {
+        indices.put((short) a).put((short) b).put((short) c);
+    }
+
+}
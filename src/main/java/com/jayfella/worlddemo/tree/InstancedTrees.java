@@ -0,0 +1,188 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.math.Matrix3f;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * Renders every tree of a single model part in a cell with one draw call.
+ * Unlike the InstancedNode approach this does not need a Geometry per tree. The per-instance transform buffer is
+ * written directly from the cell placements and the mesh is shared with the PlottedModel.
+ *
+ * The instance data uses the same layout as InstancedGeometry, so the standard Lighting and PBR materials can render
+ * it when "UseInstancing" is enabled. Instances are stored in world space because instanced geometries ignore their
+ * own transform.
+ */
+public class InstancedTrees extends InstancedGeometry {
+
+    // a 4x4 matrix per instance.
+    public static final int INSTANCE_SIZE = 16;
+
+    private VertexBuffer[] instanceData;
+    private int numInstances;
+    private BoundingBox bounds;
+
+    /**
+     * Serialization only. Do not use.
+     */
+    public InstancedTrees() {
+        super();
+    }
+
+    public InstancedTrees(TreePart part, FloatBuffer transforms, int numInstances, BoundingBox bounds) {
+        super(part.getName());
+
+        setMesh(part.getMesh());
+        setMaterial(part.getMaterial());
+
+        this.instanceData = new VertexBuffer[] { createInstanceData(transforms) };
+        this.numInstances = numInstances;
+        this.bounds = bounds;
+    }
+
+    private static VertexBuffer createInstanceData(FloatBuffer transforms) {
+
+        VertexBuffer transformData = new VertexBuffer(VertexBuffer.Type.InstanceData);
+        transformData.setInstanced(true);
+        transformData.setupData(VertexBuffer.Usage.Static, INSTANCE_SIZE, VertexBuffer.Format.Float, transforms);
+
+        return transformData;
+    }
+
+    /**
+     * Creates the instanced geometry for a model part using the trees in the given placements that use the model.
+     * @param part        the part of the model to render.
+     * @param modelIndex  the index of the model in the placements.
+     * @param modelRadius the radius of the model at a scale of 1, used to compute the bounds.
+     * @param placements  the trees placed in the cell.
+     * @param cellX       the world x translation of the cell.
+     * @param cellZ       the world z translation of the cell.
+     * @param bufferPool  the pool the instance data is allocated from.
+     * @return the instanced geometry, or null if the cell has no trees of this model.
+     */
+    public static InstancedTrees create(TreePart part, int modelIndex, float modelRadius,
+                                        TreePlacements placements, float cellX, float cellZ, BufferPool bufferPool) {
+
+        int count = placements.count(modelIndex);
+
+        if (count == 0) {
+            return null;
+        }
+
+        FloatBuffer transforms = bufferPool.allocateFloats(count * INSTANCE_SIZE);
+
+        Transform instance = new Transform();
+        Transform combined = new Transform();
+        Quaternion rotation = new Quaternion();
+        Matrix4f matrix = new Matrix4f();
+        Matrix3f rotMatrix = new Matrix3f();
+        Quaternion normalRotation = new Quaternion();
+
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+
+        for (int i = 0; i < placements.size(); i++) {
+
+            if (placements.getModel(i) != modelIndex) {
+                continue;
+            }
+
+            float x = placements.getX(i) + cellX;
+            float y = placements.getY(i);
+            float z = placements.getZ(i) + cellZ;
+            float scale = placements.getScale(i);
+
+            instance.setTranslation(x, y, z);
+            instance.setRotation(rotation.fromAngles(0, placements.getRotation(i), 0));
+            instance.setScale(scale);
+
+            combined.set(part.getTransform());
+            combined.combineWithParent(instance);
+
+            matrix.setTransform(combined.getTranslation(), combined.getScale(), combined.getRotation().toRotationMatrix(rotMatrix));
+            writeInstance(matrix, rotMatrix, normalRotation, transforms);
+
+            float radius = modelRadius * scale;
+            min.set(Math.min(min.x, x - radius), Math.min(min.y, y - radius), Math.min(min.z, z - radius));
+            max.set(Math.max(max.x, x + radius), Math.max(max.y, y + radius), Math.max(max.z, z + radius));
+        }
+
+        transforms.flip();
+
+        return new InstancedTrees(part, transforms, count, new BoundingBox(min, max));
+    }
+
+    // the same encoding InstancedGeometry uses. The W component of each column holds the rotation used for normals.
+    private static void writeInstance(Matrix4f matrix, Matrix3f rotMatrix, Quaternion normalRotation, FloatBuffer store) {
+
+        matrix.toRotationMatrix(rotMatrix);
+        rotMatrix.invertLocal();
+        normalRotation.fromRotationMatrix(rotMatrix);
+
+        store.put(matrix.m00).put(matrix.m10).put(matrix.m20).put(normalRotation.getX());
+        store.put(matrix.m01).put(matrix.m11).put(matrix.m21).put(normalRotation.getY());
+        store.put(matrix.m02).put(matrix.m12).put(matrix.m22).put(normalRotation.getZ());
+        store.put(matrix.m03).put(matrix.m13).put(matrix.m23).put(normalRotation.getW());
+    }
+
+    @Override
+    public int getActualNumInstances() {
+        return numInstances;
+    }
+
+    @Override
+    public VertexBuffer[] getAllInstanceData() {
+        return instanceData;
+    }
+
+    /**
+     * Returns the instance data to the pool. The geometry must not be rendered afterwards.
+     * @param bufferPool the pool to return the instance data to.
+     */
+    public void releaseInstanceData(BufferPool bufferPool) {
+        bufferPool.release(instanceData[0]);
+    }
+
+    @Override
+    protected void updateWorldBound() {
+        super.updateWorldBound();
+        worldBound = bounds.clone(worldBound);
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+
+        FloatBuffer transforms = (FloatBuffer) instanceData[0].getData();
+        transforms.rewind();
+
+        OutputCapsule capsule = ex.getCapsule(this);
+        capsule.write(transforms, "transforms", null);
+        capsule.write(numInstances, "numInstances", 0);
+        capsule.write(bounds, "bounds", null);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+
+        InputCapsule capsule = im.getCapsule(this);
+        instanceData = new VertexBuffer[] { createInstanceData(capsule.readFloatBuffer("transforms", null)) };
+        numInstances = capsule.readInt("numInstances", 0);
+        bounds = (BoundingBox) capsule.readSavable("bounds", null);
+    }
+
+}
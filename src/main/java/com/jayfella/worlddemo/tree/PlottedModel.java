@@ -1,9 +1,20 @@
 package com.jayfella.worlddemo.tree;
 
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingSphere;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
 import com.jme3.scene.Spatial;
+import jme3tools.optimize.LodGenerator;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class PlottedModel {
 
+    private static final Logger log = Logger.getLogger(PlottedModel.class.getName());
+
     private final String name;
 
     private final Spatial treeModel;
@@ -27,6 +38,19 @@ public class PlottedModel {
     private int minAmount = 5;
     private int maxAmount = 10;
 
+    // the model split into shared meshes and instancing materials. Created on first use.
+    private TreePart[] parts;
+    private float radius;
+    private float height;
+
+    // the proportion of triangles removed for each reduced level of detail.
+    private float[] lodReductions = { 0.5f, 0.75f };
+    private boolean lodChainBuilt = false;
+
+    // the material and sprite index used to draw the tree as a billboard when it is far away.
+    private Material billboardMaterial;
+    private int billboardSprite = 0;
+
     public PlottedModel(String name, Spatial treeModel) {
         this.name = name;
         this.treeModel = treeModel;
@@ -40,6 +64,101 @@ public class PlottedModel {
         return treeModel;
     }
 
+    /**
+     * Returns the geometries of the tree model prepared for instancing. The meshes are shared with the original model.
+     * @return the parts of the tree model.
+     */
+    public synchronized TreePart[] getParts() {
+
+        if (parts == null) {
+            parts = TreePart.fromModel(treeModel);
+            computeBounds();
+        }
+
+        return parts;
+    }
+
+    /**
+     * Generates the reduced levels of detail for each part of the model. The levels are stored in the shared meshes,
+     * so this only needs to be done once when the model is registered with a grid.
+     * Level 0 is the full mesh, the following levels use the reductions given in {@link #setLodReductions(float...)}.
+     */
+    public synchronized void buildLodChain() {
+
+        if (lodChainBuilt) {
+            return;
+        }
+
+        for (TreePart part : getParts()) {
+
+            if (part.getMesh().getNumLodLevels() > 0) {
+                continue;
+            }
+
+            try {
+                LodGenerator lodGenerator = new LodGenerator(part.getMesh());
+                lodGenerator.bakeLods(LodGenerator.TriangleReductionMethod.PROPORTIONAL, lodReductions);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Unable to generate levels of detail for " + name + "/" + part.getName(), e);
+            }
+        }
+
+        lodChainBuilt = true;
+    }
+
+    /**
+     * Returns the amount of detail levels the meshes of this model have, including the full detail mesh.
+     * @return the amount of levels of detail.
+     */
+    public synchronized int getLodLevelCount() {
+
+        int levels = Integer.MAX_VALUE;
+
+        for (TreePart part : getParts()) {
+            levels = Math.min(levels, Math.max(1, part.getMesh().getNumLodLevels()));
+        }
+
+        return levels == Integer.MAX_VALUE ? 1 : levels;
+    }
+
+    /**
+     * Returns the distance from the origin of the model to the furthest corner of its bounds at a scale of 1.
+     * @return the radius of the model.
+     */
+    public synchronized float getRadius() {
+        getParts();
+        return radius;
+    }
+
+    /**
+     * Returns the height of the top of the model above its origin at a scale of 1.
+     * @return the height of the model.
+     */
+    public synchronized float getHeight() {
+        getParts();
+        return height;
+    }
+
+    private void computeBounds() {
+
+        Spatial copy = treeModel.clone(false);
+        copy.setLocalTransform(Transform.IDENTITY);
+        copy.updateGeometricState();
+
+        BoundingVolume bound = copy.getWorldBound();
+
+        if (bound instanceof BoundingBox) {
+            BoundingBox box = (BoundingBox) bound;
+            radius = box.getCenter().length() + box.getExtent(null).length();
+            height = box.getCenter().y + box.getYExtent();
+        }
+        else {
+            BoundingSphere sphere = (BoundingSphere) bound;
+            radius = sphere.getCenter().length() + sphere.getRadius();
+            height = sphere.getCenter().y + sphere.getRadius();
+        }
+    }
+
     public float getMinScale() {
         return minScale;
     }
@@ -127,4 +246,42 @@ public class PlottedModel {
     public void setMaxAmount(int maxAmount) {
         this.maxAmount = maxAmount;
     }
+
+    public float[] getLodReductions() {
+        return lodReductions;
+    }
+
+    /**
+     * Sets the reduced levels of detail to generate. Each value is the proportion of triangles to remove, from 0 to 1.
+     * Must be set before the model is registered with a grid.
+     * @param lodReductions the reduction of each level, in order of increasing reduction.
+     */
+    public void setLodReductions(float... lodReductions) {
+        this.lodReductions = lodReductions;
+    }
+
+    public Material getBillboardMaterial() {
+        return billboardMaterial;
+    }
+
+    /**
+     * Sets the material used to draw this tree as a billboard. This is expected to be a Vegetation-Sprite material.
+     * If no material is set the tree is drawn using its lowest level of detail at any distance.
+     * @param billboardMaterial the billboard material.
+     */
+    public void setBillboardMaterial(Material billboardMaterial) {
+        this.billboardMaterial = billboardMaterial;
+    }
+
+    public int getBillboardSprite() {
+        return billboardSprite;
+    }
+
+    /**
+     * Sets the index of the sprite in the 4x4 atlas of the billboard material.
+     * @param billboardSprite the index of the sprite, from 0 to 15.
+     */
+    public void setBillboardSprite(int billboardSprite) {
+        this.billboardSprite = billboardSprite;
+    }
 }
@@ -0,0 +1,170 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.worlddemo.world.CellRandom;
+
+import java.util.Arrays;
+
+/**
+ * Places non-overlapping circles in a square area using dart throwing.
+ * Placed circles are stored in primitive arrays and bucketed in a spatial hash so each candidate is only compared
+ * against its neighbours. A plotter is reused for every cell built on a thread, so plotting a cell does not allocate
+ * once the arrays have grown to fit.
+ *
+ * A candidate is rejected if its centre is closer than the space between of the model, or if the circles overlap.
+ */
+public class PoissonPlotter {
+
+    private final CellRandom random = new CellRandom();
+
+    private float size;
+    private float bucketSize;
+    private int bucketsPerSide;
+
+    // the first point in each bucket and the next point in the same bucket, or -1.
+    private int[] heads = new int[0];
+    private int[] next = new int[32];
+
+    private float[] x = new float[32];
+    private float[] z = new float[32];
+    private float[] radius = new float[32];
+
+    private int count;
+    private float maxPlacedRadius;
+
+    /**
+     * Clears the plotter so it can be used for a new cell.
+     * @param seed       the seed of the cell.
+     * @param size       the width and depth of the area.
+     * @param bucketSize the size of each spatial hash bucket. Usually the smallest space between the points.
+     */
+    public void reset(long seed, float size, float bucketSize) {
+
+        random.reset(seed);
+
+        this.size = size;
+        this.bucketSize = Math.max(1.0f, bucketSize);
+        this.bucketsPerSide = Math.max(1, (int) Math.ceil(size / this.bucketSize));
+
+        int buckets = bucketsPerSide * bucketsPerSide;
+
+        if (heads.length < buckets) {
+            heads = new int[buckets];
+        }
+
+        Arrays.fill(heads, 0, buckets, -1);
+
+        count = 0;
+        maxPlacedRadius = 0;
+    }
+
+    public CellRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Attempts to place the given amount of circles.
+     * @param amount          the amount of circles to place.
+     * @param minRadius       the minimum radius of a circle.
+     * @param maxRadius       the maximum radius of a circle.
+     * @param minSpaceBetween the minimum distance between the centre of two circles.
+     * @param maxAttempts     the amount of times to try to place each circle before giving up on it.
+     * @return the amount of circles that were placed. They are the last points of the plotter.
+     */
+    public int addPoints(int amount, float minRadius, float maxRadius, float minSpaceBetween, int maxAttempts) {
+
+        int added = 0;
+
+        for (int i = 0; i < amount; i++) {
+
+            for (int attempt = 0; attempt < maxAttempts; attempt++) {
+
+                float px = random.nextFloat() * size;
+                float pz = random.nextFloat() * size;
+                float pr = minRadius + random.nextFloat() * (maxRadius - minRadius);
+
+                if (isFree(px, pz, pr, minSpaceBetween)) {
+                    insert(px, pz, pr);
+                    added++;
+                    break;
+                }
+            }
+        }
+
+        return added;
+    }
+
+    private boolean isFree(float px, float pz, float pr, float minSpaceBetween) {
+
+        float reach = Math.max(minSpaceBetween, pr + maxPlacedRadius);
+        int range = (int) Math.ceil(reach / bucketSize);
+
+        int bx = bucket(px);
+        int bz = bucket(pz);
+
+        int minX = Math.max(0, bx - range);
+        int maxX = Math.min(bucketsPerSide - 1, bx + range);
+        int minZ = Math.max(0, bz - range);
+        int maxZ = Math.min(bucketsPerSide - 1, bz + range);
+
+        for (int cz = minZ; cz <= maxZ; cz++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+
+                for (int p = heads[cz * bucketsPerSide + cx]; p != -1; p = next[p]) {
+
+                    float dx = x[p] - px;
+                    float dz = z[p] - pz;
+                    float min = Math.max(minSpaceBetween, pr + radius[p]);
+
+                    if (dx * dx + dz * dz < min * min) {
+                        return false;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void insert(float px, float pz, float pr) {
+
+        if (count == x.length) {
+            int capacity = count * 2;
+            x = Arrays.copyOf(x, capacity);
+            z = Arrays.copyOf(z, capacity);
+            radius = Arrays.copyOf(radius, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+
+        x[count] = px;
+        z[count] = pz;
+        radius[count] = pr;
+
+        int bucket = bucket(pz) * bucketsPerSide + bucket(px);
+        next[count] = heads[bucket];
+        heads[bucket] = count;
+
+        maxPlacedRadius = Math.max(maxPlacedRadius, pr);
+        count++;
+    }
+
+    private int bucket(float value) {
+        return Math.min(bucketsPerSide - 1, (int) (value / bucketSize));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public float getX(int index) {
+        return x[index];
+    }
+
+    public float getZ(int index) {
+        return z[index];
+    }
+
+    public float getRadius(int index) {
+        return radius[index];
+    }
+
+}
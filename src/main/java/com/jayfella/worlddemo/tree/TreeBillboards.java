@@ -0,0 +1,105 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.VertexBuffer;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Creates the billboard level of detail of a tree cell.
+ * Each tree becomes a single camera-facing sprite using the vertex layout of the Vegetation-Sprite material:
+ * all three corners share the ground position, the normal is the direction the sprite grows and the texture
+ * coordinate holds the atlas index plus the corner in the whole and fractional part of X, and the size in Y.
+ *
+ * The sprite is only as good as the atlas of the billboard material, which must hold a picture of the tree in the
+ * tile of {@link PlottedModel#getBillboardSprite()}. No impostors of the tree models are baked yet, so the demo sets no
+ * billboard materials and its trees are drawn as meshes at every distance.
+ */
+public final class TreeBillboards {
+
+    // the fractional part of the texture coordinate that tells the shader which corner of the sprite a vertex is.
+    private static final float[] CORNERS = { 0.0f, 0.25f, 0.5f };
+
+    private TreeBillboards() {
+    }
+
+    /**
+     * Creates a node containing a billboard geometry for each model in the cell that has a billboard material.
+     * @param trees      the models of the grid.
+     * @param placements the trees of the cell.
+     * @param bufferPool the pool the vertex buffers are allocated from.
+     * @return the billboards of the cell.
+     */
+    public static Node create(PlottedModel[] trees, TreePlacements placements, BufferPool bufferPool) {
+
+        Node node = new Node("Tree Billboards");
+
+        for (int i = 0; i < trees.length; i++) {
+
+            Material material = trees[i].getBillboardMaterial();
+            int count = placements.count(i);
+
+            if (material == null || count == 0) {
+                continue;
+            }
+
+            Geometry geometry = new Geometry(trees[i].getName() + " Billboards", createMesh(trees[i], i, placements, count, bufferPool));
+            geometry.setMaterial(material);
+            node.attachChild(geometry);
+        }
+
+        return node;
+    }
+
+    private static Mesh createMesh(PlottedModel model, int modelIndex, TreePlacements placements, int count,
+                                   BufferPool bufferPool) {
+
+        FloatBuffer positions = bufferPool.allocateFloats(count * 3 * 3);
+        FloatBuffer normals = bufferPool.allocateFloats(count * 3 * 3);
+        FloatBuffer texCoords = bufferPool.allocateFloats(count * 3 * 2);
+
+        // the shader moves the corners of each sprite, so the bounds must include the whole sprite.
+        Vector3f min = new Vector3f(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        Vector3f max = new Vector3f(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+
+        for (int i = 0; i < placements.size(); i++) {
+
+            if (placements.getModel(i) != modelIndex) {
+                continue;
+            }
+
+            // the sprite extends a quarter of its size below the ground position and three quarters above.
+            float size = (model.getHeight() * placements.getScale(i)) / 0.75f;
+            float y = placements.getY(i) + size * 0.25f;
+
+            for (float corner : CORNERS) {
+                positions.put(placements.getX(i)).put(y).put(placements.getZ(i));
+                normals.put(0).put(1).put(0);
+                texCoords.put(model.getBillboardSprite() + corner).put(size);
+            }
+
+            float halfSize = size * 0.5f;
+            min.set(Math.min(min.x, placements.getX(i) - halfSize), Math.min(min.y, placements.getY(i)), Math.min(min.z, placements.getZ(i) - halfSize));
+            max.set(Math.max(max.x, placements.getX(i) + halfSize), Math.max(max.y, y + size), Math.max(max.z, placements.getZ(i) + halfSize));
+        }
+
+        positions.flip();
+        normals.flip();
+        texCoords.flip();
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, positions);
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, normals);
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+        mesh.setBound(new BoundingBox(min, max));
+
+        return mesh;
+    }
+
+}
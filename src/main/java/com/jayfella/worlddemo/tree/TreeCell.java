@@ -0,0 +1,215 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+import java.io.IOException;
+
+/**
+ * The content of a loaded tree cell. The placements are kept so the cell can switch between the full meshes,
+ * the reduced meshes and the billboards without plotting the trees again. While the cell is in the scene, the
+ * placements of its attached content are in the {@link TreeIndex} of the grid.
+ */
+public class TreeCell extends CellNode {
+
+    // the detail level used when the billboards are displayed.
+    public static final int BILLBOARD = -1;
+
+    // written by the generation thread, and only read by the next job of the cell.
+    private volatile TreePlacements placements;
+    private volatile int placementVersion;
+
+    private Spatial meshes;
+    private Node billboards;
+    private TreePlacements attachedPlacements;
+
+    private TreeIndex index;
+
+    private int detail = 0;
+
+    /**
+     * Serialization only. Do not use.
+     * A cell that is read back has no grid position or placements, only its meshes and billboards.
+     */
+    public TreeCell() {
+        super();
+    }
+
+    /**
+     * Creates an empty cell. The content is built on the generation executor with {@link #createContent}.
+     * @param gridPos  the position of the cell.
+     * @param cellSize the size of the cell.
+     */
+    public TreeCell(GridPos2i gridPos, int cellSize) {
+        super("Trees", gridPos, cellSize);
+    }
+
+    /**
+     * Creates the content of a tree cell. The meshes are displayed at full detail until the cell sets its detail.
+     * @param meshes     the meshes of the trees.
+     * @param billboards the billboards of the trees.
+     * @param placements the trees the meshes were built from.
+     * @return the content of the cell.
+     */
+    public static Node createContent(Spatial meshes, Node billboards, TreePlacements placements) {
+
+        Content content = new Content(placements);
+        content.attachChild(meshes);
+        content.attachChild(billboards);
+        billboards.setCullHint(CullHint.Always);
+
+        return content;
+    }
+
+    @Override
+    protected void onContentAttached(Spatial content) {
+
+        // the children are always attached in the same order.
+        Node node = (Node) content;
+        meshes = node.getChild(0);
+        billboards = (Node) node.getChild(1);
+
+        // new content is always created at full detail.
+        detail = 0;
+
+        // content that was read back has no placements.
+        TreePlacements placements = content instanceof Content ? ((Content) content).placements : null;
+        attachedPlacements = placements;
+
+        if (index != null && isInScene() && placements != null) {
+            index.add(getGridPos(), getCellSize(), placements);
+        }
+    }
+
+    @Override
+    protected void onAddedToScene() {
+
+        // a warm cell keeps its content attached, so its trees are added again here instead.
+        if (index != null && attachedPlacements != null && getContent() != null) {
+            index.add(getGridPos(), getCellSize(), attachedPlacements);
+        }
+    }
+
+    @Override
+    protected void onRemovedFromScene() {
+
+        if (index != null) {
+            index.remove(getGridPos());
+        }
+    }
+
+    /**
+     * Sets the index the trees of the cell are added to while the cell is in the scene.
+     * @param index the tree index of the grid.
+     */
+    public void setIndex(TreeIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the trees of the cell if they were plotted with the given settings.
+     * @param version the version of the placement settings of the grid.
+     * @return the trees of the cell, or null if they have not been plotted with the given settings.
+     */
+    public TreePlacements getPlacements(int version) {
+        return placements != null && placementVersion == version ? placements : null;
+    }
+
+    /**
+     * Keeps the trees of the cell so it can be rebuilt without plotting them again. Called from the generation thread.
+     * @param placements the trees of the cell.
+     * @param version    the version of the placement settings the trees were plotted with.
+     */
+    public void setPlacements(TreePlacements placements, int version) {
+        this.placementVersion = version;
+        this.placements = placements;
+    }
+
+    public int getDetail() {
+        return detail;
+    }
+
+    /**
+     * Sets the level of detail of the trees in this cell. Does nothing if the trees have not been set.
+     * @param detail the level of detail of the meshes, or {@link #BILLBOARD} to display the billboards.
+     */
+    public void setDetail(int detail) {
+
+        if (meshes == null || this.detail == detail) {
+            return;
+        }
+
+        this.detail = detail;
+
+        if (detail == BILLBOARD) {
+            meshes.setCullHint(CullHint.Always);
+            billboards.setCullHint(CullHint.Inherit);
+            return;
+        }
+
+        billboards.setCullHint(CullHint.Always);
+        meshes.setCullHint(CullHint.Inherit);
+
+        meshes.depthFirstTraversal(spatial -> {
+
+            if (spatial instanceof Geometry) {
+
+                Geometry geometry = (Geometry) spatial;
+                int levels = geometry.getMesh().getNumLodLevels();
+
+                if (levels > 0) {
+                    geometry.setLodLevel(Math.min(detail, levels - 1));
+                }
+            }
+
+        });
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+
+        OutputCapsule capsule = ex.getCapsule(this);
+        capsule.write(detail, "detail", 0);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+
+        InputCapsule capsule = im.getCapsule(this);
+        detail = capsule.readInt("detail", 0);
+    }
+
+    /**
+     * The root of the content of a tree cell, which keeps the trees it was built from.
+     */
+    public static class Content extends Node {
+
+        private TreePlacements placements;
+
+        /**
+         * Serialization only. Do not use. The placements are not written.
+         */
+        public Content() {
+            super();
+        }
+
+        public Content(TreePlacements placements) {
+            super("Tree Content");
+            this.placements = placements;
+        }
+
+        public TreePlacements getPlacements() {
+            return placements;
+        }
+    }
+
+}
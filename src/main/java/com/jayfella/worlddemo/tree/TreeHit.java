@@ -0,0 +1,74 @@
+package com.jayfella.worlddemo.tree;
+
+/**
+ * A tree found by a {@link TreeIndex} query. The same hit can be passed to every query so they don't allocate.
+ * Positions are in world space.
+ */
+public class TreeHit {
+
+    private TreePlacements placements;
+    private int index;
+
+    private float x;
+    private float y;
+    private float z;
+    private float distance;
+
+    void set(TreePlacements placements, int index, float x, float z, float distance) {
+        this.placements = placements;
+        this.index = index;
+        this.x = x;
+        this.y = placements.getY(index);
+        this.z = z;
+        this.distance = distance;
+    }
+
+    /**
+     * Returns the trees of the cell the tree belongs to. The placements must not be changed.
+     * @return the trees of the cell.
+     */
+    public TreePlacements getPlacements() {
+        return placements;
+    }
+
+    /**
+     * Returns the index of the tree in the placements of its cell.
+     * @return the index of the tree.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the horizontal distance from the point of the query to the tree.
+     * @return the distance to the tree.
+     */
+    public float getDistance() {
+        return distance;
+    }
+
+    public int getModel() {
+        return placements.getModel(index);
+    }
+
+    public float getScale() {
+        return placements.getScale(index);
+    }
+
+    public float getRotation() {
+        return placements.getRotation(index);
+    }
+
+}
@@ -0,0 +1,366 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+
+/**
+ * An index of the trees in the scene, so gameplay code can find the nearest tree to a point or every tree within a
+ * radius without walking the scene graph.
+ *
+ * Each tree cell registers the placements its content was built from when the content is attached, and is removed
+ * when the cell leaves the scene. Cells are kept in a table indexed by their grid position modulo the size of the
+ * table, which wraps around the follower the same way the loaded area does. Adding and finding a cell are constant
+ * time and allocation-free, and the table only grows if two cells in the scene land in the same slot. Removing a cell
+ * on the edge of the indexed area scans the table to shrink the area, so a search never covers more than the cells in
+ * the scene, and a nearest search never looks further than its maximum distance.
+ *
+ * Queries don't allocate. Main thread only.
+ */
+public class TreeIndex {
+
+    /**
+     * Receives the trees found by {@link #findWithin}.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for each tree found.
+         * @param placements the trees of the cell the tree belongs to.
+         * @param index      the index of the tree in the placements.
+         * @param x          the world x position of the tree.
+         * @param z          the world z position of the tree.
+         */
+        void visit(TreePlacements placements, int index, float x, float z);
+    }
+
+    private int shift;
+    private int mask;
+
+    private int[] cellX;
+    private int[] cellZ;
+    private TreePlacements[] cells;
+
+    private int cellSize;
+    private int cellCount;
+    private int treeCount;
+
+    // the area the cells in the index cover, so a search knows when to stop.
+    private int minX, maxX, minZ, maxZ;
+
+    // whether the current nearest search has found a tree.
+    private boolean nearestFound;
+
+    public TreeIndex() {
+        this(4);
+    }
+
+    /**
+     * Creates an index.
+     * @param shift the size of the table as a power of two cells per side.
+     */
+    public TreeIndex(int shift) {
+        allocate(shift);
+    }
+
+    private void allocate(int shift) {
+        this.shift = shift;
+        this.mask = (1 << shift) - 1;
+        this.cellX = new int[1 << (shift * 2)];
+        this.cellZ = new int[cellX.length];
+        this.cells = new TreePlacements[cellX.length];
+    }
+
+    private int slot(int x, int z) {
+        return (x & mask) | ((z & mask) << shift);
+    }
+
+    /**
+     * Adds the trees of a cell, replacing the trees the cell was added with before.
+     * @param gridPos    the position of the cell.
+     * @param cellSize   the size of the cells of the grid.
+     * @param placements the trees of the cell.
+     */
+    public void add(GridPos2i gridPos, int cellSize, TreePlacements placements) {
+
+        // the pager removes every cell when the cell size changes, but not necessarily before new cells arrive.
+        if (cellSize != this.cellSize) {
+            clear();
+            this.cellSize = cellSize;
+        }
+
+        int x = gridPos.getX();
+        int z = gridPos.getZ();
+        int slot = slot(x, z);
+
+        while (cells[slot] != null && (cellX[slot] != x || cellZ[slot] != z)) {
+            grow();
+            slot = slot(x, z);
+        }
+
+        if (cells[slot] != null) {
+            treeCount -= cells[slot].size();
+        } else {
+            cellCount++;
+        }
+
+        cellX[slot] = x;
+        cellZ[slot] = z;
+        cells[slot] = placements;
+        treeCount += placements.size();
+
+        if (cellCount == 1) {
+            minX = maxX = x;
+            minZ = maxZ = z;
+        } else {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minZ = Math.min(minZ, z);
+            maxZ = Math.max(maxZ, z);
+        }
+    }
+
+    private void grow() {
+
+        int[] oldX = cellX;
+        int[] oldZ = cellZ;
+        TreePlacements[] oldCells = cells;
+
+        allocate(shift + 1);
+
+        for (int i = 0; i < oldCells.length; i++) {
+            if (oldCells[i] != null) {
+                int slot = slot(oldX[i], oldZ[i]);
+                cellX[slot] = oldX[i];
+                cellZ[slot] = oldZ[i];
+                cells[slot] = oldCells[i];
+            }
+        }
+    }
+
+    /**
+     * Removes the trees of a cell. Does nothing if the cell was not added.
+     * @param gridPos the position of the cell.
+     */
+    public void remove(GridPos2i gridPos) {
+
+        int slot = slot(gridPos.getX(), gridPos.getZ());
+
+        int x = gridPos.getX();
+        int z = gridPos.getZ();
+
+        if (cells[slot] != null && cellX[slot] == x && cellZ[slot] == z) {
+            treeCount -= cells[slot].size();
+            cells[slot] = null;
+            cellCount--;
+
+            // the cells further in still hold the area.
+            if (x == minX || x == maxX || z == minZ || z == maxZ) {
+                updateBounds();
+            }
+        }
+    }
+
+    private void updateBounds() {
+
+        boolean first = true;
+
+        for (int i = 0; i < cells.length; i++) {
+
+            if (cells[i] == null) {
+                continue;
+            }
+
+            if (first) {
+                minX = maxX = cellX[i];
+                minZ = maxZ = cellZ[i];
+                first = false;
+            } else {
+                minX = Math.min(minX, cellX[i]);
+                maxX = Math.max(maxX, cellX[i]);
+                minZ = Math.min(minZ, cellZ[i]);
+                maxZ = Math.max(maxZ, cellZ[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes every cell.
+     */
+    public void clear() {
+
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = null;
+        }
+
+        cellCount = 0;
+        treeCount = 0;
+    }
+
+    private TreePlacements getCell(int x, int z) {
+        int slot = slot(x, z);
+        return cellX[slot] == x && cellZ[slot] == z ? cells[slot] : null;
+    }
+
+    /**
+     * Finds the nearest tree to a point, measured horizontally.
+     * @param x           the world x position of the point.
+     * @param z           the world z position of the point.
+     * @param maxDistance the furthest a tree may be from the point.
+     * @param store       the hit to store the tree in.
+     * @return true if a tree was found.
+     */
+    public boolean findNearest(float x, float z, float maxDistance, TreeHit store) {
+
+        if (treeCount == 0) {
+            return false;
+        }
+
+        int centerX = Math.floorDiv((int) Math.floor(x), cellSize);
+        int centerZ = Math.floorDiv((int) Math.floor(z), cellSize);
+
+        // the rings that can hold a cell, up to the last ring that can hold a tree within the maximum distance.
+        int rings = Math.max(
+                Math.max(Math.abs(minX - centerX), Math.abs(maxX - centerX)),
+                Math.max(Math.abs(minZ - centerZ), Math.abs(maxZ - centerZ)));
+
+        rings = (int) Math.min(rings, maxDistance / cellSize + 1);
+
+        float best = maxDistance * maxDistance;
+        nearestFound = false;
+
+        for (int ring = 0; ring <= rings; ring++) {
+
+            // every cell of the ring is at least this far from the point.
+            float ringDistance = (ring - 1) * (float) cellSize;
+
+            if (ringDistance > 0 && ringDistance * ringDistance > best) {
+                break;
+            }
+
+            for (int i = -ring; i <= ring; i++) {
+
+                best = searchCell(centerX + i, centerZ - ring, x, z, best, store);
+
+                if (ring > 0) {
+                    best = searchCell(centerX + i, centerZ + ring, x, z, best, store);
+                }
+            }
+
+            for (int i = -ring + 1; i <= ring - 1; i++) {
+                best = searchCell(centerX - ring, centerZ + i, x, z, best, store);
+                best = searchCell(centerX + ring, centerZ + i, x, z, best, store);
+            }
+        }
+
+        return nearestFound;
+    }
+
+    // stores the nearest tree of the cell in the hit if it is nearer than the given squared distance.
+    private float searchCell(int cx, int cz, float x, float z, float best, TreeHit store) {
+
+        TreePlacements placements = getCell(cx, cz);
+
+        if (placements == null) {
+            return best;
+        }
+
+        float originX = cx * (float) cellSize;
+        float originZ = cz * (float) cellSize;
+
+        // skip the cell if its bounds are further than the nearest tree so far.
+        float dx = Math.max(0, Math.max(originX - x, x - (originX + cellSize)));
+        float dz = Math.max(0, Math.max(originZ - z, z - (originZ + cellSize)));
+
+        if (dx * dx + dz * dz > best) {
+            return best;
+        }
+
+        int nearest = -1;
+
+        for (int i = 0; i < placements.size(); i++) {
+
+            float tx = originX + placements.getX(i) - x;
+            float tz = originZ + placements.getZ(i) - z;
+            float distance = tx * tx + tz * tz;
+
+            if (distance <= best) {
+                best = distance;
+                nearest = i;
+            }
+        }
+
+        if (nearest >= 0) {
+            store.set(placements, nearest, originX + placements.getX(nearest), originZ + placements.getZ(nearest),
+                    (float) Math.sqrt(best));
+            nearestFound = true;
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds every tree within a radius of a point, measured horizontally.
+     * @param x       the world x position of the point.
+     * @param z       the world z position of the point.
+     * @param radius  the radius to search.
+     * @param visitor receives each tree found.
+     * @return the amount of trees found.
+     */
+    public int findWithin(float x, float z, float radius, Visitor visitor) {
+
+        if (treeCount == 0) {
+            return 0;
+        }
+
+        int fromX = Math.max(minX, Math.floorDiv((int) Math.floor(x - radius), cellSize));
+        int toX = Math.min(maxX, Math.floorDiv((int) Math.floor(x + radius), cellSize));
+        int fromZ = Math.max(minZ, Math.floorDiv((int) Math.floor(z - radius), cellSize));
+        int toZ = Math.min(maxZ, Math.floorDiv((int) Math.floor(z + radius), cellSize));
+
+        float radiusSquared = radius * radius;
+        int found = 0;
+
+        for (int cz = fromZ; cz <= toZ; cz++) {
+            for (int cx = fromX; cx <= toX; cx++) {
+
+                TreePlacements placements = getCell(cx, cz);
+
+                if (placements == null) {
+                    continue;
+                }
+
+                float originX = cx * (float) cellSize;
+                float originZ = cz * (float) cellSize;
+
+                for (int i = 0; i < placements.size(); i++) {
+
+                    float tx = originX + placements.getX(i);
+                    float tz = originZ + placements.getZ(i);
+
+                    if ((tx - x) * (tx - x) + (tz - z) * (tz - z) <= radiusSquared) {
+                        visitor.visit(placements, i, tx, tz);
+                        found++;
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns the amount of cells in the index.
+     * @return the amount of cells.
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Returns the amount of trees in the index.
+     * @return the amount of trees.
+     */
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+}
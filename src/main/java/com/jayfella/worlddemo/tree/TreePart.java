@@ -0,0 +1,79 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single geometry of a tree model (e.g. the trunk or the leaves) prepared for instancing.
+ * The mesh is shared by every cell that renders this part. Only the material is copied so that instancing can be
+ * enabled without altering the original model.
+ */
+public class TreePart {
+
+    private final String name;
+    private final Mesh mesh;
+    private final Material material;
+    private final Transform transform;
+
+    public TreePart(String name, Mesh mesh, Material material, Transform transform) {
+        this.name = name;
+        this.mesh = mesh;
+        this.material = material;
+        this.transform = transform;
+    }
+
+    /**
+     * Splits the given model into its geometries.
+     * The transform of each part is relative to the root of the model, ignoring the transform of the root itself,
+     * since the root transform is replaced by the placement of each tree.
+     * @param model the tree model.
+     * @return the parts of the tree.
+     */
+    public static TreePart[] fromModel(Spatial model) {
+
+        Spatial copy = model.clone(false);
+        copy.setLocalTransform(Transform.IDENTITY);
+        copy.updateGeometricState();
+
+        List<TreePart> parts = new ArrayList<>();
+
+        copy.depthFirstTraversal(spatial -> {
+
+            if (spatial instanceof Geometry) {
+
+                Geometry geometry = (Geometry) spatial;
+
+                Material material = geometry.getMaterial().clone();
+                material.setBoolean("UseInstancing", true);
+
+                parts.add(new TreePart(geometry.getName(), geometry.getMesh(), material, geometry.getWorldTransform().clone()));
+            }
+
+        });
+
+        return parts.toArray(new TreePart[0]);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Mesh getMesh() {
+        return mesh;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public Transform getTransform() {
+        return transform;
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.worlddemo.world.CellStore;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A compact record of the trees placed in a single cell. Each tree is stored as a row in a set of primitive arrays
+ * so a cell costs a few bytes per tree regardless of how many vertices the tree model has.
+ * Positions are local to the cell.
+ */
+public class TreePlacements {
+
+    /**
+     * Stores the trees of a cell in a {@link CellStore}.
+     */
+    public static final CellStore.Codec<TreePlacements> CODEC = new CellStore.Codec<TreePlacements>() {
+
+        @Override
+        public void write(TreePlacements placements, DataOutput out) throws IOException {
+
+            out.writeInt(placements.size);
+
+            for (int i = 0; i < placements.size; i++) {
+                out.writeInt(placements.model[i]);
+            }
+
+            CellStore.writeFloats(out, placements.x, placements.size);
+            CellStore.writeFloats(out, placements.y, placements.size);
+            CellStore.writeFloats(out, placements.z, placements.size);
+            CellStore.writeFloats(out, placements.scale, placements.size);
+            CellStore.writeFloats(out, placements.rotation, placements.size);
+        }
+
+        @Override
+        public TreePlacements read(DataInput in) throws IOException {
+
+            TreePlacements placements = new TreePlacements(0);
+            placements.size = in.readInt();
+            placements.model = new int[placements.size];
+
+            for (int i = 0; i < placements.size; i++) {
+                placements.model[i] = in.readInt();
+            }
+
+            placements.x = CellStore.readFloats(in);
+            placements.y = CellStore.readFloats(in);
+            placements.z = CellStore.readFloats(in);
+            placements.scale = CellStore.readFloats(in);
+            placements.rotation = CellStore.readFloats(in);
+
+            return placements;
+        }
+    };
+
+    private int size;
+
+    private int[] model;
+    private float[] x;
+    private float[] y;
+    private float[] z;
+    private float[] scale;
+    private float[] rotation;
+
+    public TreePlacements() {
+        this(16);
+    }
+
+    public TreePlacements(int capacity) {
+        model = new int[capacity];
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        scale = new float[capacity];
+        rotation = new float[capacity];
+    }
+
+    /**
+     * Adds a tree to the cell.
+     * @param model    the index of the PlottedModel in the grid.
+     * @param x        the cell-local x position.
+     * @param y        the world height.
+     * @param z        the cell-local z position.
+     * @param scale    the uniform scale of the tree.
+     * @param rotation the rotation around the Y axis in radians.
+     */
+    public void add(int model, float x, float y, float z, float scale, float rotation) {
+
+        if (size == this.model.length) {
+            int capacity = Math.max(16, size * 2);
+            this.model = Arrays.copyOf(this.model, capacity);
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.z = Arrays.copyOf(this.z, capacity);
+            this.scale = Arrays.copyOf(this.scale, capacity);
+            this.rotation = Arrays.copyOf(this.rotation, capacity);
+        }
+
+        this.model[size] = model;
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        this.scale[size] = scale;
+        this.rotation[size] = rotation;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the amount of trees in this cell that use the given model.
+     */
+    public int count(int model) {
+
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (this.model[i] == model) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int getModel(int index) {
+        return model[index];
+    }
+
+    public float getX(int index) {
+        return x[index];
+    }
+
+    public float getY(int index) {
+        return y[index];
+    }
+
+    public float getZ(int index) {
+        return z[index];
+    }
+
+    public float getScale(int index) {
+        return scale[index];
+    }
+
+    public float getRotation(int index) {
+        return rotation[index];
+    }
+
+}
@@ -9,26 +9,82 @@ import com.jayfella.jme.worldpager.core.GridSettings;
 import com.jayfella.jme.worldpager.core.NoiseEvaluator;
 import com.jayfella.jme.worldpager.grid.ModelGrid;
 import com.jayfella.jme.worldpager.world.World;
+import com.jayfella.worlddemo.world.BufferPool;
+import com.jayfella.worlddemo.world.CellJob;
+import com.jayfella.worlddemo.world.CellNode;
+import com.jayfella.worlddemo.world.CellRandom;
+import com.jayfella.worlddemo.world.CellStore;
+import com.jayfella.worlddemo.world.SettingsHash;
+import com.jayfella.worlddemo.world.WorldContext;
 import com.jme3.math.FastMath;
 import com.jme3.math.Quaternion;
 import com.jme3.math.Vector2f;
+import com.jme3.renderer.RenderManager;
+import com.jme3.renderer.ViewPort;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
 import com.jme3.scene.Spatial;
+import com.jme3.scene.control.AbstractControl;
 import jme3tools.optimize.GeometryBatchFactory;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 public class TreesGrid extends ModelGrid {
 
     NoiseEvaluator noiseEvaluator;
+    private final WorldContext context;
     private PlottedModel[] trees;
 
-    public TreesGrid(World world, GridSettings gridSettings, PlottedModel... trees) {
+    // render trees using hardware instancing instead of batching a copy of every tree into the cell.
+    private boolean instanced = false;
+
+    // the ring distance from the follower where reduced meshes and billboards are used.
+    private int reducedDistance = 2;
+    private int billboardDistance = 4;
+
+    // use the CirclePlotter from the position-plotters library instead of the spatial hash. Kept for comparison.
+    private boolean legacyPlacement = false;
+
+    // increased each time the trees must be plotted again. Rebuilt cells reuse their trees while this is unchanged.
+    private volatile int placementVersion;
+
+    // each generation thread reuses its own plotter so plotting a cell creates very little garbage.
+    private final ThreadLocal<PlotScratch> plotScratch = ThreadLocal.withInitial(PlotScratch::new);
+
+    // the meshes of the models, which every cell shares and must never be released.
+    private final Set<Mesh> sharedMeshes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final CellJob.Builder cellBuilder = new TreeCellBuilder();
+
+    // the trees of the cells in the scene.
+    private final TreeIndex treeIndex = new TreeIndex();
+
+    public TreesGrid(World world, WorldContext context, GridSettings gridSettings, PlottedModel... trees) {
         super(world, gridSettings);
 
+        this.context = context;
         this.trees = trees;
 
+        // the levels of detail are stored in the shared meshes, so they only need to be created once.
+        for (PlottedModel tree : trees) {
+            tree.buildLodChain();
+
+            for (TreePart part : tree.getParts()) {
+                sharedMeshes.add(part.getMesh());
+            }
+
+            tree.getTreeModel().depthFirstTraversal(spatial -> {
+                if (spatial instanceof Geometry) {
+                    sharedMeshes.add(((Geometry) spatial).getMesh());
+                }
+            });
+        }
+
         LayeredNoise layeredNoise = new LayeredNoise();
 
         NoiseLayer nLayer_1 = new NoiseLayer("Tree Noise", (int)world.getWorldSettings().getSeed() + 10);
@@ -40,11 +96,182 @@ public class TreesGrid extends ModelGrid {
                 return nLayer_1.evaluate(loc);
             }
         };
+
+        context.getPrefetcher().register(this, this::createJob);
     }
 
     @Override
     public Object[] buildCell(GridPos2i gridPos) {
 
+        // a cell that was removed a moment ago is attached again with its content.
+        CellNode cell = context.getWarmCells().take(this, gridPos);
+
+        if (cell == null) {
+            cell = context.getPrefetcher().take(this, gridPos);
+        }
+
+        if (cell == null) {
+            CellJob job = createJob(gridPos);
+            cell = job.getCell();
+
+            // the pager only waits for the empty cell. The trees are built on the generation executor.
+            context.getGenerationExecutor().submit(job);
+        }
+
+        return new Object[] { cell };
+    }
+
+    private CellJob createJob(GridPos2i gridPos) {
+
+        TreeCell cell = new TreeCell(gridPos, getGridSettings().getCellSize().getSize());
+        cell.setScheduler(context.getAttachScheduler());
+        cell.setWarmCache(context.getWarmCells());
+        cell.addControl(new TreeLodControl());
+        cell.setIndex(treeIndex);
+
+        return new CellJob(context.getCells(this), cell, context.getMetrics().getGrid(this), cellBuilder);
+    }
+
+    /**
+     * Returns the level of detail a cell should use based on its ring distance from the follower.
+     * @param gridPos the position of the cell.
+     * @return the level of detail of the meshes, or {@link TreeCell#BILLBOARD} if billboards should be used.
+     */
+    public int getDetail(GridPos2i gridPos) {
+
+        int ring = context.getFollower().getRing(gridPos, getGridSettings().getCellSize().getSize());
+
+        if (ring >= billboardDistance && hasBillboards()) {
+            return TreeCell.BILLBOARD;
+        }
+
+        return Math.max(0, ring - reducedDistance + 1);
+    }
+
+    private boolean hasBillboards() {
+
+        for (PlottedModel tree : trees) {
+            if (tree.getBillboardMaterial() == null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Determines where each tree in the given cell will be placed.
+     * @param gridPos the position of the cell.
+     * @return the trees of the cell.
+     */
+    public TreePlacements plotTrees(GridPos2i gridPos) {
+        return legacyPlacement ? plotTreesLegacy(gridPos) : plotTreesSpatialHash(gridPos);
+    }
+
+    // the trees are stored once they are plotted, so a cell is only plotted once for the same settings.
+    private TreePlacements loadOrPlotTrees(GridPos2i gridPos) {
+
+        CellStore store = context.getCellStore();
+
+        if (store == null) {
+            return plotTrees(gridPos);
+        }
+
+        long settingsHash = getSettingsHash();
+        TreePlacements placements = store.load(getName(), settingsHash, gridPos.getX(), gridPos.getZ(),
+                TreePlacements.CODEC);
+
+        if (placements == null) {
+            placements = plotTrees(gridPos);
+            store.save(getName(), settingsHash, gridPos.getX(), gridPos.getZ(), placements, TreePlacements.CODEC);
+        }
+
+        return placements;
+    }
+
+    // every setting the trees of a cell are placed with. Hashed for each cell, since the settings can change at any time.
+    private long getSettingsHash() {
+
+        SettingsHash hash = new SettingsHash()
+                .add(getGridSettings().getCellSize().getSize())
+                .add(context.getGridSeed(this))
+                .add(legacyPlacement);
+
+        for (PlottedModel tree : trees) {
+            hash.addBean(tree);
+        }
+
+        return context.hashWorldNoise(hash).get();
+    }
+
+    private TreePlacements plotTreesSpatialHash(GridPos2i gridPos) {
+
+        PlotScratch scratch = plotScratch.get();
+        PoissonPlotter plotter = scratch.plotter;
+        Vector2f location = scratch.location;
+
+        float cellSize = getGridSettings().getCellSize().getSize();
+        float cellX = gridPos.getWorldTranslationX();
+        float cellZ = gridPos.getWorldTranslationZ();
+
+        // the buckets are sized to the smallest space between trees so a lookup only needs the surrounding buckets.
+        float bucketSize = Float.MAX_VALUE;
+
+        for (PlottedModel model : trees) {
+            bucketSize = Math.min(bucketSize, model.getMinSpaceBetween());
+        }
+
+        // the points are drawn from the stream of the cell, and each model draws from a stream of its own.
+        long cellSeed = CellRandom.seed(context.getGridSeed(this), gridPos.getX(), gridPos.getZ());
+        plotter.reset(cellSeed, cellSize, bucketSize);
+        CellRandom random = scratch.random;
+
+        TreePlacements placements = new TreePlacements();
+
+        // the amount only depends on the cell, so it's the same for each model.
+        float amountNoise = noiseEvaluator.evaluate(location.set(cellX, cellZ));
+
+        for (int i = 0; i < trees.length; i++) {
+
+            PlottedModel model = trees[i];
+            random.reset(CellRandom.split(cellSeed, i));
+
+            if (random.nextFloat() > model.getLikelihood()) {
+                continue;
+            }
+
+            // use noise to determine the amount so that we get a natural flow of trees.
+            int amount = (int) ((amountNoise * (model.getMaxAmount() - model.getMinAmount())) + model.getMinAmount());
+
+            int added = plotter.addPoints(amount,
+                    model.getMinRadius(),
+                    model.getMaxRadius(),
+                    model.getMinSpaceBetween(),
+                    model.getMaxAttempts());
+
+            for (int p = plotter.size() - added; p < plotter.size(); p++) {
+
+                float x = plotter.getX(p);
+                float z = plotter.getZ(p);
+                float height = context.getHeightfields().sampleHeightAt(x + cellX, z + cellZ);
+
+                if (height > model.getMinHeight() && height < model.getMaxHeight()) {
+
+                    float scale = (random.nextFloat() * (model.getMaxScale() - model.getMinScale())) + model.getMinScale();
+
+                    // rotate the tree so they don't all point in the same direction.
+                    float rotateY = random.nextFloat() * FastMath.TWO_PI;
+
+                    placements.add(i, x, height, z, scale, rotateY);
+                }
+            }
+        }
+
+        return placements;
+    }
+
+    private TreePlacements plotTreesLegacy(GridPos2i gridPos) {
+
         // Use a repeatable seed. This will always be the same, so we will always get the same result.
         int seed = gridPos.hashCode();
         Random random = new Random(seed);
@@ -52,7 +279,7 @@ public class TreesGrid extends ModelGrid {
         CirclePlotter circlePlotter = new CirclePlotter(random.nextInt(),
                 new Vector2f(getGridSettings().getCellSize().getSize(), getGridSettings().getCellSize().getSize()));
 
-        Node node = new Node("Trees");
+        TreePlacements placements = new TreePlacements();
 
         for (int i = 0; i < trees.length; i++) {
 
@@ -78,29 +305,207 @@ public class TreesGrid extends ModelGrid {
 
                 if (height > model.getMinHeight() && height < model.getMaxHeight()) {
 
-                    Spatial tree = model.getTreeModel().clone();
-
                     float scale = (random.nextFloat() * (model.getMaxScale() - model.getMinScale())) + model.getMinScale();
-                    tree.setLocalScale(scale);
 
                     // rotate the tree so they don't all point in the same direction.
                     float rotateY = random.nextFloat() * FastMath.TWO_PI;
-                    tree.setLocalRotation(new Quaternion().fromAngles(new float[] { 0, rotateY, 0 }));
-
-                    tree.setLocalTranslation(circle.getPosition().x, height, circle.getPosition().y);
-                    node.attachChild(tree);
 
+                    placements.add(i, circle.getPosition().x, height, circle.getPosition().y, scale, rotateY);
                 }
             }
 
         }
 
-        Spatial batched = GeometryBatchFactory.optimize(node);
+        return placements;
+    }
+
+    private Spatial createBatchedCell(TreePlacements placements) {
+
+        Node node = new Node("Trees");
 
-        return new Object[] { batched };
+        for (int i = 0; i < placements.size(); i++) {
+
+            Spatial tree = trees[placements.getModel(i)].getTreeModel().clone();
+            tree.setLocalScale(placements.getScale(i));
+            tree.setLocalRotation(new Quaternion().fromAngles(new float[] { 0, placements.getRotation(i), 0 }));
+            tree.setLocalTranslation(placements.getX(i), placements.getY(i), placements.getZ(i));
+            node.attachChild(tree);
+        }
+
+        return GeometryBatchFactory.optimize(node);
+    }
+
+    private Spatial createInstancedCell(GridPos2i gridPos, TreePlacements placements) {
+
+        Node node = new Node("Trees");
+
+        for (int i = 0; i < trees.length; i++) {
+
+            PlottedModel model = trees[i];
+
+            for (TreePart part : model.getParts()) {
+
+                InstancedTrees instancedTrees = InstancedTrees.create(part, i, model.getRadius(), placements,
+                        gridPos.getWorldTranslationX(), gridPos.getWorldTranslationZ(), context.getBufferPool());
+
+                if (instancedTrees != null) {
+                    node.attachChild(instancedTrees);
+                }
+            }
+        }
+
+        return node;
     }
 
     public PlottedModel[] getTrees() {
         return trees;
     }
+
+    /**
+     * Returns the index of the trees in the scene, for finding trees without walking the scene graph.
+     * Main thread only.
+     * @return the tree index of the grid.
+     */
+    public TreeIndex getTreeIndex() {
+        return treeIndex;
+    }
+
+    public int getReducedDistance() {
+        return reducedDistance;
+    }
+
+    /**
+     * Sets the ring distance from the follower at which cells start using the reduced meshes.
+     * Each ring after this uses the next reduced level until the lowest level is reached.
+     * Reduced meshes are only used when the grid is instanced.
+     * @param reducedDistance the ring distance in cells.
+     */
+    public void setReducedDistance(int reducedDistance) {
+        this.reducedDistance = reducedDistance;
+    }
+
+    public int getBillboardDistance() {
+        return billboardDistance;
+    }
+
+    /**
+     * Sets the ring distance from the follower at which cells display billboards instead of meshes.
+     * Billboards are only used if every model has a billboard material.
+     * @param billboardDistance the ring distance in cells.
+     */
+    public void setBillboardDistance(int billboardDistance) {
+        this.billboardDistance = billboardDistance;
+    }
+
+    public boolean isLegacyPlacement() {
+        return legacyPlacement;
+    }
+
+    /**
+     * Places trees using the CirclePlotter of the position-plotters library instead of the spatial hash plotter.
+     * The result is not the same as the spatial hash plotter. This is only useful to compare the two.
+     * @param legacyPlacement whether or not to use the CirclePlotter.
+     */
+    public void setLegacyPlacement(boolean legacyPlacement) {
+        this.legacyPlacement = legacyPlacement;
+        invalidatePlacements();
+    }
+
+    /**
+     * Marks the trees of every cell as out of date, so they are plotted again the next time a cell is rebuilt instead
+     * of only rebuilding the meshes. Call when a setting that places the trees has changed, such as the settings of a
+     * model or the world noise. Main thread only.
+     */
+    public void invalidatePlacements() {
+        placementVersion++;
+    }
+
+    public boolean isInstanced() {
+        return instanced;
+    }
+
+    /**
+     * Renders each tree model with hardware instancing. Each cell only stores a transform per tree and shares the
+     * meshes of the models, instead of batching a copy of every tree into a new mesh.
+     * The grid must be refreshed for this to take effect on cells that are already loaded. The trees are not plotted
+     * again when it is.
+     * @param instanced whether or not to use instancing.
+     */
+    public void setInstanced(boolean instanced) {
+        this.instanced = instanced;
+    }
+
+    // builds the trees of a cell, and returns their buffers to the pool once the cell no longer uses them.
+    private class TreeCellBuilder implements CellJob.Builder {
+
+        @Override
+        public Spatial build(CellNode cellNode) {
+
+            TreeCell cell = (TreeCell) cellNode;
+            GridPos2i gridPos = cell.getGridPos();
+
+            // a rebuilt cell keeps its trees unless the settings that place them have changed.
+            int version = placementVersion;
+            TreePlacements placements = cell.getPlacements(version);
+
+            if (placements == null) {
+                placements = loadOrPlotTrees(gridPos);
+                cell.setPlacements(placements, version);
+            }
+
+            Spatial meshes = instanced
+                    ? createInstancedCell(gridPos, placements)
+                    : createBatchedCell(placements);
+
+            return TreeCell.createContent(meshes, TreeBillboards.create(trees, placements, context.getBufferPool()),
+                    placements);
+        }
+
+        @Override
+        public void release(Spatial content) {
+
+            BufferPool bufferPool = context.getBufferPool();
+
+            content.depthFirstTraversal(spatial -> {
+
+                if (spatial instanceof InstancedTrees) {
+                    ((InstancedTrees) spatial).releaseInstanceData(bufferPool);
+                } else if (spatial instanceof Geometry) {
+
+                    // batched and billboard meshes belong to the cell, unlike the meshes of the models.
+                    Mesh mesh = ((Geometry) spatial).getMesh();
+
+                    if (!sharedMeshes.contains(mesh)) {
+                        bufferPool.release(mesh);
+                    }
+                }
+            });
+        }
+    }
+
+    private static class PlotScratch {
+        private final PoissonPlotter plotter = new PoissonPlotter();
+        private final CellRandom random = new CellRandom();
+        private final Vector2f location = new Vector2f();
+    }
+
+    // switches the level of detail of a cell as the follower moves.
+    private class TreeLodControl extends AbstractControl {
+
+        @Override
+        protected void controlUpdate(float tpf) {
+            TreeCell cell = (TreeCell) getSpatial();
+
+            // the trees are only switched once they are attached.
+            if (cell.isContentAttached()) {
+                cell.setDetail(getDetail(cell.getGridPos()));
+            }
+        }
+
+        @Override
+        protected void controlRender(RenderManager rm, ViewPort vp) {
+
+        }
+    }
+
 }
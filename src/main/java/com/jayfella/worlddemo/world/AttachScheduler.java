@@ -0,0 +1,281 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Attaches the content of cells on the main thread within a time budget each frame, shared by every demo grid.
+ *
+ * The pager attaches a fixed amount of cells per frame regardless of how expensive they are. Cells built by the demo
+ * grids are attached by the pager as empty placeholders, and their content is handed to this scheduler once it has
+ * been built. Each frame the waiting cells in the camera frustum are attached first, nearest first, followed by the
+ * cells outside of it, until the budget is used. At least one cell is attached each frame so the grids always make
+ * progress. If the scheduler is not budgeted every waiting cell is attached each frame.
+ *
+ * Content built on the generation executor can only be attached by this scheduler, so it must be attached to the
+ * state manager. Cells can be submitted from any thread.
+ */
+public class AttachScheduler extends BaseAppState {
+
+    // the height of the box used to check if a cell is in the frustum. Cells are taller than the world can be.
+    private static final float CELL_HEIGHT = 1024;
+
+    private final Follower follower;
+
+    private float budget = 2.0f;
+    private boolean budgeted = true;
+
+    private final Queue<CellNode> submitted = new ConcurrentLinkedQueue<>();
+    private final List<CellNode> pending = new ArrayList<>();
+    private final List<PendingCell> ordered = new ArrayList<>();
+
+    private Application app;
+    private Camera camera;
+    private final BoundingBox cellBounds = new BoundingBox();
+    private final Vector3f location = new Vector3f();
+    private final Vector3f center = new Vector3f();
+
+    private int attachedLastFrame;
+    private long usedLastFrame;
+
+    public AttachScheduler(Follower follower) {
+        this.follower = follower;
+    }
+
+    /**
+     * Returns whether or not cells should hand their content to this scheduler.
+     * @return true if the scheduler is attached and enabled.
+     */
+    public boolean isActive() {
+        return isInitialized() && isEnabled();
+    }
+
+    /**
+     * Queues the content of a cell to be attached. Called by the cell when the pager attaches it and its content is
+     * ready, which may be on a generation thread.
+     * @param cell the cell to attach the content of.
+     */
+    public void submit(CellNode cell) {
+        submitted.add(cell);
+    }
+
+    /**
+     * Attaches the content of a cell on the main thread straight away, without waiting for the budget. Used by cells
+     * whose content is ready while the scheduler is not active, which may be on a generation thread. Until the
+     * scheduler is initialized the cell is queued instead, and attached when the scheduler first updates.
+     * @param cell the cell to attach the content of.
+     */
+    void attachLater(CellNode cell) {
+
+        Application app = this.app;
+
+        if (app == null) {
+            submit(cell);
+            return;
+        }
+
+        app.enqueue(() -> {
+
+            // the cell may have been detached since its content was ready.
+            if (cell.isInScene()) {
+                long start = System.nanoTime();
+                cell.attachContent();
+                cell.recordAttachTime(System.nanoTime() - start);
+            }
+        });
+    }
+
+    /**
+     * Removes a cell from the queue. Called from the main thread by the cell when the pager detaches it.
+     * @param cell the cell that was detached.
+     */
+    public void cancel(CellNode cell) {
+        pending.remove(cell);
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        attachedLastFrame = 0;
+        usedLastFrame = 0;
+
+        CellNode cell;
+
+        while ((cell = submitted.poll()) != null) {
+
+            // the cell may have been detached since it was submitted, or submitted twice.
+            if (cell.isInScene() && !pending.contains(cell)) {
+                pending.add(cell);
+            }
+        }
+
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        prioritize();
+
+        long start = System.nanoTime();
+        long budgetNanos = budgeted ? (long) (budget * 1_000_000) : Long.MAX_VALUE;
+
+        for (PendingCell next : ordered) {
+
+            long attachStart = System.nanoTime();
+            next.cell.attachContent();
+            next.cell.recordAttachTime(System.nanoTime() - attachStart);
+
+            pending.remove(next.cell);
+            attachedLastFrame++;
+
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+
+        ordered.clear();
+        usedLastFrame = System.nanoTime() - start;
+    }
+
+    private void prioritize() {
+
+        follower.getLocation(location);
+
+        // check every plane, not just the ones the last culled spatial needed.
+        int planeState = camera.getPlaneState();
+        camera.setPlaneState(0);
+
+        for (CellNode cell : pending) {
+
+            int cellSize = cell.getCellSize();
+            float halfSize = cellSize * 0.5f;
+
+            float centerX = cell.getGridPos().getWorldTranslationX() + halfSize;
+            float centerZ = cell.getGridPos().getWorldTranslationZ() + halfSize;
+
+            cellBounds.setCenter(center.set(centerX, 0, centerZ));
+            cellBounds.setXExtent(halfSize);
+            cellBounds.setYExtent(CELL_HEIGHT);
+            cellBounds.setZExtent(halfSize);
+
+            boolean visible = camera.contains(cellBounds) != Camera.FrustumIntersect.Outside;
+
+            float dx = centerX - location.x;
+            float dz = centerZ - location.z;
+
+            ordered.add(new PendingCell(cell, visible, dx * dx + dz * dz));
+        }
+
+        camera.setPlaneState(planeState);
+        ordered.sort(PendingCell.ORDER);
+    }
+
+    public float getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the time the scheduler may spend attaching cells each frame.
+     * @param budget the budget in milliseconds.
+     */
+    public void setBudget(float budget) {
+        this.budget = budget;
+    }
+
+    public boolean isBudgeted() {
+        return budgeted;
+    }
+
+    /**
+     * Sets whether or not the time spent attaching cells each frame is limited to the budget.
+     * @param budgeted whether or not to limit the time spent attaching cells.
+     */
+    public void setBudgeted(boolean budgeted) {
+        this.budgeted = budgeted;
+    }
+
+    /**
+     * Returns the amount of cells waiting to be attached.
+     * @return the amount of cells in the queue.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public int getAttachedLastFrame() {
+        return attachedLastFrame;
+    }
+
+    /**
+     * Returns the time spent attaching cells in the last frame.
+     * @return the time in nanoseconds.
+     */
+    public long getUsedLastFrame() {
+        return usedLastFrame;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        this.app = app;
+        camera = app.getCamera();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        attachAll();
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+        // nothing else will attach the waiting cells.
+        attachAll();
+    }
+
+    private void attachAll() {
+
+        CellNode cell;
+
+        while ((cell = submitted.poll()) != null) {
+            if (cell.isInScene()) {
+                cell.attachContent();
+            }
+        }
+
+        for (CellNode pendingCell : pending) {
+            pendingCell.attachContent();
+        }
+
+        pending.clear();
+    }
+
+    private static class PendingCell {
+
+        private static final Comparator<PendingCell> ORDER = Comparator
+                .comparing((PendingCell cell) -> !cell.visible)
+                .thenComparingDouble(cell -> cell.distanceSq);
+
+        private final CellNode cell;
+        private final boolean visible;
+        private final float distanceSq;
+
+        private PendingCell(CellNode cell, boolean visible, float distanceSq) {
+            this.cell = cell;
+            this.visible = visible;
+            this.distanceSq = distanceSq;
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct float buffers shared by the cell builds of the demo grids.
+ *
+ * Buffers are kept in size classes of a power of two floats. A request is served by the smallest class that fits it,
+ * so a buffer may be larger than requested, and its limit is set to the requested size. When a cell is discarded its
+ * buffers are released back to the pool instead of waiting for the garbage collector to free the native memory. The
+ * pool retains at most {@link #getMaxBytes()} bytes, and buffers released beyond that are freed straight away.
+ *
+ * Buffers can be allocated and released from any thread. A buffer must not be used once it has been released.
+ */
+public class BufferPool {
+
+    // 1024 floats (4 KB) to 4M floats (16 MB). Larger buffers are not pooled.
+    private static final int MIN_CLASS = 10;
+    private static final int MAX_CLASS = 22;
+
+    private final ConcurrentLinkedQueue<FloatBuffer>[] classes;
+
+    private volatile long maxBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong freed = new AtomicLong();
+
+    /**
+     * Creates a pool.
+     * @param maxBytes the most memory the pool retains, in bytes.
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long maxBytes) {
+
+        this.maxBytes = maxBytes;
+        this.classes = new ConcurrentLinkedQueue[MAX_CLASS - MIN_CLASS + 1];
+
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Returns a direct float buffer with room for at least the given amount of floats. The position is zero and the
+     * limit is the requested amount.
+     * @param count the amount of floats.
+     * @return a buffer from the pool, or a new buffer if the pool has none that fit.
+     */
+    public FloatBuffer allocateFloats(int count) {
+
+        // the smallest class that holds the request.
+        int sizeClass = Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(Math.max(1, count) - 1));
+
+        if (sizeClass > MAX_CLASS) {
+            misses.incrementAndGet();
+            return BufferUtils.createFloatBuffer(count);
+        }
+
+        FloatBuffer buffer = classes[sizeClass - MIN_CLASS].poll();
+
+        if (buffer == null) {
+            misses.incrementAndGet();
+            buffer = BufferUtils.createFloatBuffer(1 << sizeClass);
+        } else {
+            hits.incrementAndGet();
+            retainedBytes.addAndGet(-bytes(buffer));
+        }
+
+        buffer.clear();
+        buffer.limit(count);
+
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Direct float buffers are kept if there is room, and every other direct buffer is
+     * freed straight away. The buffer does not need to have come from this pool, but nothing else may use it.
+     * @param buffer the buffer to release.
+     */
+    public void release(Buffer buffer) {
+
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        released.incrementAndGet();
+
+        if (buffer instanceof FloatBuffer) {
+
+            // a buffer serves the largest class it holds completely.
+            int sizeClass = 31 - Integer.numberOfLeadingZeros(buffer.capacity());
+
+            if (sizeClass >= MIN_CLASS && sizeClass <= MAX_CLASS) {
+
+                long bytes = bytes(buffer);
+
+                if (retainedBytes.addAndGet(bytes) <= maxBytes) {
+                    classes[sizeClass - MIN_CLASS].add((FloatBuffer) buffer);
+                    return;
+                }
+
+                retainedBytes.addAndGet(-bytes);
+            }
+        }
+
+        free(buffer);
+    }
+
+    /**
+     * Releases the data of a vertex buffer. The vertex buffer no longer holds the data afterwards, so the native
+     * memory is not freed again when the vertex buffer is deleted.
+     * @param vertexBuffer the vertex buffer to release the data of.
+     */
+    public void release(VertexBuffer vertexBuffer) {
+
+        Buffer data = vertexBuffer.getData();
+
+        if (data != null) {
+            vertexBuffer.updateData(null);
+            release(data);
+        }
+    }
+
+    /**
+     * Releases the data of every vertex buffer of a mesh. The mesh must not be shared with anything else.
+     * @param mesh the mesh to release the buffers of.
+     */
+    public void release(Mesh mesh) {
+
+        for (VertexBuffer vertexBuffer : mesh.getBufferList()) {
+            release(vertexBuffer);
+        }
+    }
+
+    private void free(Buffer buffer) {
+        freed.incrementAndGet();
+        BufferUtils.destroyDirectBuffer(buffer);
+    }
+
+    private static long bytes(Buffer buffer) {
+        return (long) buffer.capacity() * Float.BYTES;
+    }
+
+    /**
+     * Frees every buffer the pool retains.
+     */
+    public void clear() {
+
+        for (ConcurrentLinkedQueue<FloatBuffer> sizeClass : classes) {
+
+            FloatBuffer buffer;
+
+            while ((buffer = sizeClass.poll()) != null) {
+                retainedBytes.addAndGet(-bytes(buffer));
+                free(buffer);
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the most memory the pool retains. Buffers already retained beyond the new limit are kept until they are
+     * allocated or the pool is cleared.
+     * @param maxBytes the high-water mark in bytes.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the memory held by the buffers in the pool.
+     * @return the retained memory in bytes.
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the fraction of allocations that were served by the pool.
+     * @return the hit rate from 0 to 1.
+     */
+    public double getHitRate() {
+
+        long hits = this.hits.get();
+        long total = hits + misses.get();
+
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public long getReleased() {
+        return released.get();
+    }
+
+    /**
+     * Returns the amount of buffers freed explicitly, either because they couldn't be pooled or the pool was full.
+     * @return the amount of freed buffers.
+     */
+    public long getFreed() {
+        return freed.get();
+    }
+
+}
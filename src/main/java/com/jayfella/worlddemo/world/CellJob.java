@@ -0,0 +1,206 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.CellBuild;
+import com.jayfella.worlddemo.metrics.CellStats;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.scene.Spatial;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds the content of a cell on the {@link GenerationExecutor}.
+ * A job that has not started can be cancelled, and a cancelled job can be queued again if its cell is needed after
+ * all. Once a job has started it always runs to the end. A job runs once; a cell is rebuilt with a copy of its job.
+ */
+public class CellJob {
+
+    private static final Logger log = Logger.getLogger(CellJob.class.getName());
+
+    /**
+     * Builds the content of a cell with the current settings of the grid.
+     */
+    public interface Builder {
+
+        /**
+         * Builds the content of a cell. Called on a generation thread.
+         * @param cell the cell the content is built for.
+         * @return the content of the cell, or null if the cell is empty.
+         */
+        Spatial build(CellNode cell);
+
+        /**
+         * Releases the memory of content built by this builder once it is no longer used, such as returning its
+         * buffers to the {@link BufferPool}. Called on the main thread when the content is replaced or its cell is
+         * removed from the scene, on the generation thread that built it if its cell was removed in the meantime, or
+         * on the thread that unpins the content if it was pinned at the time.
+         * @see GridCells#pin(Spatial)
+         * @param content the content to release.
+         */
+        default void release(Spatial content) {
+
+        }
+    }
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int CANCELLED = 3;
+
+    private final GridCells cells;
+    private final CellNode cell;
+    private final GridMetrics metrics;
+    private final Builder builder;
+
+    private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+    // whether the cell was requested ahead of the pager, so it is built even though it is not in view yet.
+    private volatile boolean prefetch;
+
+    public CellJob(GridCells cells, CellNode cell, GridMetrics metrics, Builder builder) {
+        this.cells = cells;
+        this.cell = cell;
+        this.metrics = metrics;
+        this.builder = builder;
+
+        // the cell is attached by the pager before it is built, so it reports to the metrics from the start.
+        cell.setMetrics(metrics);
+    }
+
+    public SceneGrid getGrid() {
+        return cells.getGrid();
+    }
+
+    public GridCells getCells() {
+        return cells;
+    }
+
+    public CellNode getCell() {
+        return cell;
+    }
+
+    GridMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Builds the content of the cell if the job has not started or been cancelled.
+     */
+    public void run() {
+
+        if (!state.compareAndSet(QUEUED, RUNNING)) {
+            return;
+        }
+
+        metrics.jobStarted();
+        CellBuild build = metrics.startBuild(cell.getGridPos());
+
+        // the settings are read after this, so the content is at least as new as this generation.
+        int generation = cells.getGeneration();
+
+        try {
+
+            Spatial content = builder.build(cell);
+            CellStats stats = content != null ? build.finish(content) : CellStats.EMPTY;
+
+            cell.setContent(content, stats);
+
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Unable to build " + getGrid().getName() + " cell " + cell.getGridPos(), e);
+        } finally {
+            build.cancel();
+
+            synchronized (this) {
+                state.set(DONE);
+                notifyAll();
+            }
+
+            cell.contentReady(generation);
+        }
+    }
+
+    /**
+     * Cancels the job if it has not started.
+     * @return true if the job was cancelled.
+     */
+    boolean cancel() {
+
+        if (state.compareAndSet(QUEUED, CANCELLED)) {
+            metrics.jobCancelled();
+
+            synchronized (this) {
+                notifyAll();
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Queues a cancelled job again.
+     * @return true if the job was cancelled and can be submitted again.
+     */
+    boolean requeue() {
+        return state.compareAndSet(CANCELLED, QUEUED);
+    }
+
+    /**
+     * Releases content built by this job once it is no longer used.
+     * @param content the content to release.
+     */
+    void release(Spatial content) {
+
+        if (!cells.deferRelease(content, () -> builder.release(content))) {
+            builder.release(content);
+        }
+    }
+
+    /**
+     * Creates a job that builds the content of the same cell again.
+     * @return a new job for the cell.
+     */
+    CellJob copy() {
+        return new CellJob(cells, cell, metrics, builder);
+    }
+
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Sets whether the job builds a cell ahead of the pager. A prefetch job is not cancelled for being out of view,
+     * but is only run once every cell in view has been built.
+     * @param prefetch whether or not the job is a prefetch.
+     */
+    void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public boolean isQueued() {
+        return state.get() == QUEUED;
+    }
+
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    public boolean isDone() {
+        return state.get() == DONE;
+    }
+
+    /**
+     * Waits for the job to finish. Returns straight away if the job is cancelled.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    synchronized void await() throws InterruptedException {
+
+        while (state.get() == QUEUED || state.get() == RUNNING) {
+            wait();
+        }
+    }
+
+}
@@ -0,0 +1,784 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.CellStats;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.material.Material;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.Camera;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+import com.jme3.util.BufferUtils;
+import jme3tools.optimize.GeometryBatchFactory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges blocks of distant cells of the demo grids into super cells, as decided by the {@link MergePolicy} of each
+ * grid, and splits them again as the follower approaches.
+ *
+ * Each cell is its own geometry, so a grid of grass with a view distance of eight draws hundreds of geometries, most
+ * of them far from the camera. The geometries of the cells of a block are merged into one geometry per material on the
+ * generation executor, with bounds that hold the bounds of every geometry it was merged from, so geometries that a
+ * shader expands beyond their mesh are still in view. The merge reads views of the buffers of the cells taken on the
+ * main thread, since the batch factory moves the position and limit of the buffers it reads and the renderer reads the
+ * same buffers. Once merged, the super cell is attached and the geometries of its cells are culled. The cells
+ * themselves stay in the scene, so the pager, the warm cells and the other states see them as usual. Cells that are
+ * culled themselves, such as far terrain hidden under the terrain grid, are not merged.
+ *
+ * The culled geometries keep their buffers, so a merged block holds its vertices twice, once in its cells and once in
+ * its super cell, which costs memory to save draw calls. The merged buffers are counted in the bytes of the grid, so
+ * the memory governor steps down the grids by what they really hold.
+ *
+ * A super cell is split as soon as any of its cells leaves the scene, has new content, or switches the geometries it
+ * displays, such as a tree cell switching to its billboards, and the block is merged again. A block stays merged one
+ * ring nearer than it is merged at, so moving back and forth across a cell boundary doesn't merge and split it each
+ * time. Only geometries with float positions, normals and tangents and without levels of detail are merged, so
+ * instanced geometries, point clouds and compact vertices stay in their cells.
+ *
+ * The geometries of each grid with a policy, and how many of them are in view of the camera, are reported to its
+ * metrics each frame whether or not the grid merges, so the reduction can be compared.
+ */
+public class CellMerger extends BaseAppState {
+
+    private static final Logger log = Logger.getLogger(CellMerger.class.getName());
+
+    // a block stays merged this many rings nearer than it is merged at.
+    private static final int HYSTERESIS = 1;
+
+    // a block of fewer cells isn't worth merging.
+    private static final int MIN_CELLS = 2;
+
+    private final WorldContext context;
+    private final List<GridMerge> grids = new ArrayList<>();
+
+    // the super cells of every grid, in the same place in the scene as their cells.
+    private final Node node = new Node("Merged Cells");
+
+    // super cells merged on the generation executor, waiting to be attached on the main thread.
+    private final Queue<SuperCell> merged = new ConcurrentLinkedQueue<>();
+
+    private Camera camera;
+
+    public CellMerger(WorldContext context) {
+        this.context = context;
+    }
+
+    private static class GridMerge {
+
+        private final SceneGrid grid;
+        private final GridCells cells;
+        private final GridMetrics metrics;
+        private MergePolicy policy;
+
+        private final Map<Block, SuperCell> superCells = new HashMap<>();
+
+        private GridMerge(SceneGrid grid, GridCells cells, GridMetrics metrics, MergePolicy policy) {
+            this.grid = grid;
+            this.cells = cells;
+            this.metrics = metrics;
+            this.policy = policy;
+        }
+    }
+
+    // an aligned square of cells.
+    private static final class Block {
+
+        private final int x;
+        private final int z;
+        private final int size;
+
+        private Block(int x, int z, int size) {
+            this.x = x;
+            this.z = z;
+            this.size = size;
+        }
+
+        private static Block of(GridPos2i gridPos, int size) {
+            return new Block(Math.floorDiv(gridPos.getX(), size), Math.floorDiv(gridPos.getZ(), size), size);
+        }
+
+        // the ring of the cell of the block nearest the follower.
+        private int getRing(int followerX, int followerZ) {
+
+            int minX = x * size;
+            int minZ = z * size;
+
+            int dx = Math.max(0, Math.max(minX - followerX, followerX - (minX + size - 1)));
+            int dz = Math.max(0, Math.max(minZ - followerZ, followerZ - (minZ + size - 1)));
+
+            return Math.max(dx, dz);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Block)) {
+                return false;
+            }
+
+            Block other = (Block) o;
+            return x == other.x && z == other.z && size == other.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, z, size);
+        }
+    }
+
+    // a geometry of a cell that is merged, with its transform relative to the origin of the super cell, and a view of
+    // its mesh to merge on another thread.
+    private static class Source {
+
+        private final Geometry geometry;
+        private final Mesh mesh;
+        private final Transform transform;
+        private final Spatial.CullHint cullHint;
+
+        private Source(Geometry geometry, Transform transform) {
+            this.geometry = geometry;
+            this.mesh = createView(geometry.getMesh());
+            this.transform = transform;
+            this.cullHint = geometry.getLocalCullHint();
+        }
+    }
+
+    private static class SuperCell {
+
+        private final GridMerge gridMerge;
+        private final Block block;
+        private final List<CellNode> cells;
+        private final Set<CellNode> cellSet;
+        private final List<Spatial> contents = new ArrayList<>();
+        private final List<Source> sources = new ArrayList<>();
+        private final Vector3f origin;
+
+        // written by the thread that merged the cells.
+        private volatile Node result;
+        private volatile long mergeTime;
+
+        // main thread only.
+        private boolean cancelled;
+        private boolean applied;
+        private Node node;
+        private long bytes;
+
+        private SuperCell(GridMerge gridMerge, Block block, List<CellNode> cells) {
+            this.gridMerge = gridMerge;
+            this.block = block;
+            this.cells = cells;
+            this.cellSet = new HashSet<>(cells);
+            this.origin = cells.get(0).getWorldTranslation().clone();
+
+            for (CellNode cell : cells) {
+                contents.add(cell.getContent());
+            }
+        }
+    }
+
+    // the geometries of a super cell that are merged together.
+    private static final class Batch {
+
+        private final Material material;
+        private final Mesh.Mode mode;
+        private final RenderQueue.Bucket bucket;
+        private final String layout;
+
+        private Batch(Geometry geometry) {
+            this.material = geometry.getMaterial();
+            this.mode = geometry.getMesh().getMode();
+            this.bucket = geometry.getLocalQueueBucket();
+            this.layout = getLayout(geometry.getMesh());
+        }
+
+        // meshes are only merged with meshes that have the same buffers.
+        private static String getLayout(Mesh mesh) {
+
+            StringBuilder layout = new StringBuilder();
+
+            for (VertexBuffer.Type type : VertexBuffer.Type.values()) {
+
+                VertexBuffer buffer = mesh.getBuffer(type);
+
+                if (buffer != null && type != VertexBuffer.Type.Index) {
+                    layout.append(type.ordinal()).append(':').append(buffer.getFormat().ordinal())
+                            .append(':').append(buffer.getNumComponents()).append(';');
+                }
+            }
+
+            return layout.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Batch)) {
+                return false;
+            }
+
+            Batch other = (Batch) o;
+            return material == other.material && mode == other.mode && bucket == other.bucket
+                    && layout.equals(other.layout);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(material), mode, bucket, layout);
+        }
+    }
+
+    /**
+     * Sets the merge policy of a grid. Call from the main thread.
+     * @param grid   the grid.
+     * @param policy the policy, or null to split the merged cells of the grid and stop counting its geometries.
+     */
+    public void setPolicy(SceneGrid grid, MergePolicy policy) {
+
+        for (int i = 0; i < grids.size(); i++) {
+
+            GridMerge gridMerge = grids.get(i);
+
+            if (gridMerge.grid == grid) {
+
+                if (policy != null) {
+                    gridMerge.policy = policy;
+                } else {
+                    splitAll(gridMerge);
+                    gridMerge.metrics.getMerge().setGeometries(0, 0);
+                    grids.remove(i);
+                }
+
+                return;
+            }
+        }
+
+        if (policy != null) {
+            grids.add(new GridMerge(grid, context.getCells(grid), context.getMetrics().getGrid(grid), policy));
+        }
+    }
+
+    /**
+     * Returns the merge policy of a grid.
+     * @param grid the grid.
+     * @return the policy, or null if the grid has none.
+     */
+    public MergePolicy getPolicy(SceneGrid grid) {
+
+        for (GridMerge gridMerge : grids) {
+            if (gridMerge.grid == grid) {
+                return gridMerge.policy;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the node the super cells are attached to, which is attached to the root node while the state is.
+     * @return the node of the super cells.
+     */
+    public Node getNode() {
+        return node;
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        attachMerged();
+
+        for (GridMerge gridMerge : grids) {
+
+            if (gridMerge.policy.isEnabled()) {
+                mergeCells(gridMerge);
+            } else {
+                splitAll(gridMerge);
+            }
+
+            countGeometries(gridMerge);
+        }
+    }
+
+    private void attachMerged() {
+
+        SuperCell superCell;
+
+        while ((superCell = merged.poll()) != null) {
+
+            GridMerge gridMerge = superCell.gridMerge;
+            Node result = superCell.result;
+
+            // the block was split while it was being merged, or the merge failed.
+            if (superCell.cancelled || result == null) {
+                destroy(result);
+                continue;
+            }
+
+            gridMerge.metrics.getMerge().recordMergeTime(superCell.mergeTime);
+
+            // a cell changed while the block was being merged. It is merged again with its new content.
+            if (!isCurrent(superCell)) {
+                gridMerge.superCells.remove(superCell.block);
+                destroy(result);
+                continue;
+            }
+
+            for (Source source : superCell.sources) {
+                source.geometry.setCullHint(Spatial.CullHint.Always);
+            }
+
+            result.setLocalTranslation(superCell.origin);
+            result.setShadowMode(superCell.cells.get(0).getShadowMode());
+            node.attachChild(result);
+
+            superCell.node = result;
+            superCell.bytes = CellStats.of(result).getBytes();
+            superCell.applied = true;
+
+            gridMerge.metrics.getMerge().addBytes(superCell.bytes);
+        }
+    }
+
+    private void mergeCells(GridMerge gridMerge) {
+
+        int cellSize = gridMerge.grid.getGridSettings().getCellSize().getSize();
+        int followerX = context.getFollower().getCellX(cellSize);
+        int followerZ = context.getFollower().getCellZ(cellSize);
+
+        // the cells with attached content, by the block they belong in this frame.
+        Map<Block, List<CellNode>> blocks = new LinkedHashMap<>();
+
+        for (CellNode cell : gridMerge.cells.getCells()) {
+
+            // a cell hidden by its grid isn't drawn, so it isn't merged either.
+            if (cell.getContent() == null || !cell.isContentAttached()
+                    || cell.getLocalCullHint() == Spatial.CullHint.Always) {
+                continue;
+            }
+
+            Block block = getBlock(gridMerge, cell.getGridPos(), followerX, followerZ);
+
+            if (block != null) {
+                blocks.computeIfAbsent(block, b -> new ArrayList<>(b.size * b.size)).add(cell);
+            }
+        }
+
+        Iterator<SuperCell> iterator = gridMerge.superCells.values().iterator();
+
+        while (iterator.hasNext()) {
+
+            SuperCell superCell = iterator.next();
+            List<CellNode> cells = blocks.get(superCell.block);
+
+            // the block is no longer merged, its cells have changed, or a cell has new content.
+            if (cells == null || cells.size() != superCell.cells.size() || !superCell.cellSet.containsAll(cells)
+                    || superCell.applied && !isCurrent(superCell)) {
+
+                split(superCell);
+                iterator.remove();
+                continue;
+            }
+
+            if (superCell.node != null) {
+
+                RenderQueue.ShadowMode shadowMode = superCell.cells.get(0).getShadowMode();
+
+                if (superCell.node.getLocalShadowMode() != shadowMode) {
+                    superCell.node.setShadowMode(shadowMode);
+                }
+            }
+        }
+
+        for (Map.Entry<Block, List<CellNode>> entry : blocks.entrySet()) {
+
+            if (entry.getValue().size() >= MIN_CELLS && !gridMerge.superCells.containsKey(entry.getKey())) {
+                submit(gridMerge, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // the block a cell is merged in, or null if it isn't merged. Every cell of a block is given the same block.
+    private static Block getBlock(GridMerge gridMerge, GridPos2i gridPos, int followerX, int followerZ) {
+
+        MergePolicy policy = gridMerge.policy;
+
+        Block wide = Block.of(gridPos, 4);
+        int wideRing = wide.getRing(followerX, followerZ);
+
+        if (wideRing >= policy.getWideMergeRing()
+                || wideRing >= policy.getWideMergeRing() - HYSTERESIS && gridMerge.superCells.containsKey(wide)) {
+            return wide;
+        }
+
+        Block block = Block.of(gridPos, 2);
+        int ring = block.getRing(followerX, followerZ);
+
+        if (ring >= policy.getMergeRing()
+                || ring >= policy.getMergeRing() - HYSTERESIS && gridMerge.superCells.containsKey(block)) {
+            return block;
+        }
+
+        return null;
+    }
+
+    private void submit(GridMerge gridMerge, Block block, List<CellNode> cells) {
+
+        SuperCell superCell = new SuperCell(gridMerge, block, cells);
+
+        for (Spatial content : superCell.contents) {
+            collectSources(content, superCell.origin, superCell.sources);
+        }
+
+        gridMerge.superCells.put(block, superCell);
+
+        // there is nothing to merge, so the block is left as it is until its cells change.
+        if (superCell.sources.size() < MIN_CELLS) {
+            superCell.applied = true;
+            return;
+        }
+
+        // the content can't be released while it is merged, or its buffers could be reused under the merge.
+        for (Spatial content : superCell.contents) {
+            gridMerge.cells.pin(content);
+        }
+
+        context.getGenerationExecutor().execute(() -> merge(superCell));
+    }
+
+    private static void collectSources(Spatial spatial, Vector3f origin, List<Source> sources) {
+
+        if (spatial.getLocalCullHint() == Spatial.CullHint.Always) {
+            return;
+        }
+
+        if (spatial instanceof Geometry) {
+
+            Geometry geometry = (Geometry) spatial;
+
+            if (isMergeable(geometry)) {
+                Transform transform = geometry.getWorldTransform().clone();
+                transform.getTranslation().subtractLocal(origin);
+                sources.add(new Source(geometry, transform));
+            }
+
+        } else if (spatial instanceof Node) {
+
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                collectSources(child, origin, sources);
+            }
+        }
+    }
+
+    // the batch factory transforms the positions, normals and tangents as floats, and drops levels of detail.
+    private static boolean isMergeable(Geometry geometry) {
+
+        Mesh mesh = geometry.getMesh();
+
+        if (geometry instanceof InstancedGeometry || mesh.getNumLodLevels() > 0
+                || mesh.getBuffer(VertexBuffer.Type.Position) == null) {
+            return false;
+        }
+
+        return isFloat(mesh, VertexBuffer.Type.Position)
+                && isFloat(mesh, VertexBuffer.Type.Normal)
+                && isFloat(mesh, VertexBuffer.Type.Tangent);
+    }
+
+    private static boolean isFloat(Mesh mesh, VertexBuffer.Type type) {
+        VertexBuffer buffer = mesh.getBuffer(type);
+        return buffer == null || buffer.getFormat() == VertexBuffer.Format.Float;
+    }
+
+    // a mesh with duplicates of the buffers of a mesh, which share their data but have their own position and limit.
+    // Created on the main thread, so the buffers are not read while the renderer moves them.
+    private static Mesh createView(Mesh mesh) {
+
+        Mesh view = new Mesh();
+        view.setMode(mesh.getMode());
+
+        for (VertexBuffer buffer : mesh.getBufferList()) {
+
+            VertexBuffer duplicate = new VertexBuffer(buffer.getBufferType());
+            duplicate.setupData(buffer.getUsage(), buffer.getNumComponents(), buffer.getFormat(), duplicate(buffer.getData()));
+            duplicate.setNormalized(buffer.isNormalized());
+            view.setBuffer(duplicate);
+        }
+
+        view.setBound(mesh.getBound().clone());
+        view.updateCounts();
+
+        return view;
+    }
+
+    private static Buffer duplicate(Buffer data) {
+
+        if (data instanceof FloatBuffer) {
+            return ((FloatBuffer) data).duplicate();
+        } else if (data instanceof ShortBuffer) {
+            return ((ShortBuffer) data).duplicate();
+        } else if (data instanceof IntBuffer) {
+            return ((IntBuffer) data).duplicate();
+        } else if (data instanceof ByteBuffer) {
+            return ((ByteBuffer) data).duplicate();
+        }
+
+        return BufferUtils.clone(data);
+    }
+
+    // called on a generation thread.
+    private void merge(SuperCell superCell) {
+
+        long start = System.nanoTime();
+
+        try {
+            superCell.result = createSuperCell(superCell);
+            superCell.mergeTime = System.nanoTime() - start;
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Unable to merge " + superCell.gridMerge.grid.getName() + " cells", e);
+        } finally {
+
+            for (Spatial content : superCell.contents) {
+                superCell.gridMerge.cells.unpin(content);
+            }
+
+            merged.add(superCell);
+        }
+    }
+
+    private static Node createSuperCell(SuperCell superCell) {
+
+        Map<Batch, List<Geometry>> batches = new LinkedHashMap<>();
+
+        for (Source source : superCell.sources) {
+
+            // a copy that is not in the scene, so its world transform can be computed on this thread.
+            Geometry copy = new Geometry(source.geometry.getName(), source.mesh);
+            copy.setMaterial(source.geometry.getMaterial());
+            copy.setQueueBucket(source.geometry.getLocalQueueBucket());
+            copy.setLocalTransform(source.transform);
+            copy.updateGeometricState();
+
+            batches.computeIfAbsent(new Batch(copy), b -> new ArrayList<>()).add(copy);
+        }
+
+        Block block = superCell.block;
+        Node superNode = new Node(superCell.gridMerge.grid.getName() + " " + block.size + "x" + block.size
+                + " (" + block.x + ", " + block.z + ")");
+
+        for (Map.Entry<Batch, List<Geometry>> entry : batches.entrySet()) {
+
+            List<Geometry> geometries = entry.getValue();
+            BoundingVolume bound = null;
+
+            // the bounds of each geometry may be larger than its mesh, such as sprites that the shader expands.
+            for (Geometry geometry : geometries) {
+
+                BoundingVolume worldBound = geometry.getWorldBound();
+
+                if (worldBound != null) {
+                    bound = bound == null ? worldBound.clone() : bound.mergeLocal(worldBound);
+                }
+            }
+
+            Mesh mesh = new Mesh();
+            GeometryBatchFactory.mergeGeometries(geometries, mesh);
+
+            if (bound != null) {
+                mesh.setBound(bound);
+            }
+
+            Geometry batch = new Geometry(superNode.getName() + " " + superNode.getQuantity(), mesh);
+            batch.setMaterial(entry.getKey().material);
+            batch.setQueueBucket(entry.getKey().bucket);
+            superNode.attachChild(batch);
+        }
+
+        // the node is a root until it is attached, so this only computes its own transforms and bounds.
+        superNode.updateGeometricState();
+
+        return superNode;
+    }
+
+    // whether or not every cell of a super cell still has the content, and displays the geometries, it was merged from.
+    private static boolean isCurrent(SuperCell superCell) {
+
+        for (int i = 0; i < superCell.cells.size(); i++) {
+
+            CellNode cell = superCell.cells.get(i);
+
+            if (!cell.isInScene() || !cell.isContentAttached() || cell.getContent() != superCell.contents.get(i)
+                    || cell.getLocalCullHint() == Spatial.CullHint.Always) {
+                return false;
+            }
+        }
+
+        for (Source source : superCell.sources) {
+
+            for (Node parent = source.geometry.getParent(); parent != null && !(parent instanceof CellNode);
+                 parent = parent.getParent()) {
+
+                if (parent.getLocalCullHint() == Spatial.CullHint.Always) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void split(SuperCell superCell) {
+
+        superCell.cancelled = true;
+
+        if (superCell.node == null) {
+            return;
+        }
+
+        for (Source source : superCell.sources) {
+
+            // the cull hint is only restored if nothing else has changed it since.
+            if (source.geometry.getLocalCullHint() == Spatial.CullHint.Always) {
+                source.geometry.setCullHint(source.cullHint);
+            }
+        }
+
+        node.detachChild(superCell.node);
+        destroy(superCell.node);
+        superCell.node = null;
+
+        superCell.gridMerge.metrics.getMerge().addBytes(-superCell.bytes);
+        superCell.bytes = 0;
+    }
+
+    private void splitAll(GridMerge gridMerge) {
+
+        for (SuperCell superCell : gridMerge.superCells.values()) {
+            split(superCell);
+        }
+
+        gridMerge.superCells.clear();
+    }
+
+    // the merged meshes belong to the super cell, so their buffers are released straight away. The vertex buffers no
+    // longer hold them afterwards, so nothing can upload them once they are freed.
+    private void destroy(Node superNode) {
+
+        if (superNode == null) {
+            return;
+        }
+
+        BufferPool bufferPool = context.getBufferPool();
+
+        superNode.depthFirstTraversal(spatial -> {
+
+            if (spatial instanceof Geometry) {
+                bufferPool.release(((Geometry) spatial).getMesh());
+            }
+        });
+    }
+
+    private void countGeometries(GridMerge gridMerge) {
+
+        int[] counts = new int[2];
+
+        for (CellNode cell : gridMerge.cells.getCells()) {
+            countGeometries(cell, counts);
+        }
+
+        int superCells = 0;
+        int mergedCells = 0;
+
+        for (SuperCell superCell : gridMerge.superCells.values()) {
+
+            if (superCell.node != null) {
+                countGeometries(superCell.node, counts);
+                superCells++;
+                mergedCells += superCell.cells.size();
+            }
+        }
+
+        gridMerge.metrics.getMerge().setGeometries(counts[0], counts[1]);
+        gridMerge.metrics.getMerge().setSuperCells(superCells, mergedCells);
+    }
+
+    // the geometries that are drawn, and those of them in view of the camera, which are the ones that are queued.
+    private void countGeometries(Spatial spatial, int[] counts) {
+
+        if (spatial.getLocalCullHint() == Spatial.CullHint.Always) {
+            return;
+        }
+
+        if (spatial instanceof Geometry) {
+
+            counts[0]++;
+
+            BoundingVolume bound = spatial.getWorldBound();
+            camera.setPlaneState(0);
+
+            if (bound == null || camera.contains(bound) != Camera.FrustumIntersect.Outside) {
+                counts[1]++;
+            }
+
+        } else if (spatial instanceof Node) {
+
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                countGeometries(child, counts);
+            }
+        }
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        camera = app.getCamera();
+        ((SimpleApplication) app).getRootNode().attachChild(node);
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+        node.removeFromParent();
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        // the cells draw their own geometries again.
+        for (GridMerge gridMerge : grids) {
+            splitAll(gridMerge);
+            gridMerge.metrics.getMerge().setSuperCells(0, 0);
+        }
+    }
+
+}
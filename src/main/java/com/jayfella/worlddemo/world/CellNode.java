@@ -0,0 +1,580 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.worlddemo.metrics.CellStats;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.export.InputCapsule;
+import com.jme3.export.JmeExporter;
+import com.jme3.export.JmeImporter;
+import com.jme3.export.OutputCapsule;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.instancing.InstancedGeometry;
+
+import java.io.IOException;
+
+/**
+ * The root of the content of a cell built by one of the demo grids.
+ *
+ * The pager is given an empty cell straight away, and the content is built by a {@link CellJob} on the
+ * {@link GenerationExecutor}. Once the content is built and the pager has attached the cell, the content is handed to
+ * the {@link AttachScheduler}, or attached straight away if the scheduler is not active. The cell also reports to
+ * its grid metrics when it is attached and detached, since the pager does that itself.
+ *
+ * A cell can be rebuilt while it is in the scene. The old content stays attached until the new content has been
+ * built, and the two are swapped when the scheduler attaches it, so a refresh never leaves a hole in the world.
+ *
+ * Content that is replaced is released by the builder of the cell so its buffers can be reused. When the pager removes
+ * the cell, it is kept with its content by the {@link WarmCellCache} if there is one, and released once the cache
+ * evicts it. Otherwise the content is released with the cell. A cell that the pager attaches again after its content
+ * was released is rebuilt.
+ */
+public class CellNode extends Node {
+
+    private GridPos2i gridPos;
+    private int cellSize;
+
+    private AttachScheduler scheduler;
+    private WarmCellCache warmCache;
+
+    // the content and the content that replaces it once attached. Guarded by the lock.
+    private final Object lock = new Object();
+    private volatile Spatial content;
+    private CellStats stats = CellStats.EMPTY;
+    private Spatial replacement;
+    private CellStats replacementStats;
+    private boolean replacing;
+    private boolean attached;
+
+    // the job that builds the content, if the content is built on the generation executor.
+    private GenerationExecutor executor;
+    private CellJob job;
+    private boolean ready = true;
+    private volatile boolean inScene;
+    private volatile int generation;
+
+    // whether the pager removed the cell and its content was released, so content built afterwards is released too.
+    private boolean removed;
+
+    // whether or not the content has been added to the grid metrics. Main thread only.
+    private boolean counted;
+
+    private GridMetrics metrics;
+
+    /**
+     * Serialization only. Do not use.
+     */
+    public CellNode() {
+        super();
+    }
+
+    public CellNode(String name, GridPos2i gridPos, int cellSize) {
+        super(name);
+        this.gridPos = gridPos;
+        this.cellSize = cellSize;
+    }
+
+    public GridPos2i getGridPos() {
+        return gridPos;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public Spatial getContent() {
+        return content;
+    }
+
+    /**
+     * Sets the content of the cell. Call this from the generation thread. The bounds of the content are computed here
+     * so the main thread doesn't need to. If the cell already has attached content, the new content replaces it the
+     * next time the content is attached.
+     * @param content the content of the cell, or null if the cell is empty.
+     * @param stats   the size of the content.
+     */
+    public void setContent(Spatial content, CellStats stats) {
+
+        if (content != null) {
+
+            // instanced geometries share their mesh with other cells, and compute their bounds when they are created.
+            // meshes with quantized positions can't compute their bounds, and are given them when they are encoded.
+            content.depthFirstTraversal(spatial -> {
+                if (spatial instanceof Geometry && !(spatial instanceof InstancedGeometry) && hasFloatPositions((Geometry) spatial)) {
+                    ((Geometry) spatial).updateModelBound();
+                }
+            });
+
+            // the content is a root until it is attached, so this only computes its own transforms and bounds.
+            content.updateGeometricState();
+        }
+
+        synchronized (lock) {
+
+            if (attached) {
+                replacement = content;
+                replacementStats = stats;
+                replacing = true;
+            } else {
+                this.content = content;
+                this.stats = stats;
+            }
+        }
+    }
+
+    private static boolean hasFloatPositions(Geometry geometry) {
+
+        VertexBuffer positions = geometry.getMesh().getBuffer(VertexBuffer.Type.Position);
+        return positions != null && positions.getFormat() == VertexBuffer.Format.Float;
+    }
+
+    /**
+     * Returns whether or not the content is attached to the cell and there is no new content waiting to replace it.
+     * @return true if the content is attached.
+     */
+    public boolean isContentAttached() {
+
+        synchronized (lock) {
+            return attached && !replacing;
+        }
+    }
+
+    /**
+     * Attaches the content of the cell, replacing the old content if the cell has been rebuilt. Call from the main
+     * thread once the cell is in the scene, or from any thread if the cell will never be attached to the scene.
+     */
+    public void attachContent() {
+
+        Spatial previous = null;
+        CellStats previousStats = null;
+        Spatial next = null;
+
+        synchronized (lock) {
+
+            if (replacing) {
+                previous = content;
+                previousStats = stats;
+                content = replacement;
+                stats = replacementStats;
+                replacement = null;
+                replacementStats = null;
+                replacing = false;
+                attached = false;
+            }
+
+            if (!attached) {
+                next = content;
+                attached = true;
+            }
+        }
+
+        if (previous != null) {
+            detachChild(previous);
+            release(previous);
+        }
+
+        if (next != null) {
+            attachChild(next);
+            onContentAttached(next);
+        }
+
+        if (isInScene() && metrics != null) {
+
+            if (!counted) {
+                counted = true;
+                metrics.contentAttached(this);
+            } else if (previousStats != null) {
+                metrics.contentReplaced(this, previousStats);
+            }
+        }
+    }
+
+    private void release(Spatial content) {
+
+        CellJob job;
+
+        synchronized (lock) {
+            job = this.job;
+        }
+
+        if (job != null) {
+            job.release(content);
+        }
+    }
+
+    /**
+     * Called on the thread that attaches the content, each time new content is attached.
+     * @param content the content that was attached.
+     */
+    protected void onContentAttached(Spatial content) {
+
+    }
+
+    /**
+     * Returns whether or not the pager has attached this cell to the scene.
+     * @return true if the cell is in the scene.
+     */
+    public boolean isInScene() {
+        return inScene;
+    }
+
+    void setJob(GenerationExecutor executor, CellJob job) {
+
+        synchronized (lock) {
+            this.executor = executor;
+            this.job = job;
+
+            // content that has already been built can be attached while it is rebuilt.
+            this.ready = attached || content != null;
+        }
+    }
+
+    /**
+     * Builds the content of the cell on the calling thread if it has not been built yet, or waits for it.
+     * Used when the content is needed without attaching the cell to the scene.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void awaitContent() throws InterruptedException {
+
+        CellJob job;
+        GenerationExecutor executor;
+
+        synchronized (lock) {
+            job = this.job;
+            executor = this.executor;
+        }
+
+        if (job != null) {
+            executor.runOrWait(job);
+        }
+    }
+
+    /**
+     * Builds the content of the cell again with the current settings of its grid. The current content stays attached
+     * until the new content is ready. Does nothing if the content is waiting to be built anyway.
+     */
+    public void rebuild() {
+
+        CellJob job;
+        GenerationExecutor executor;
+
+        synchronized (lock) {
+            job = this.job;
+            executor = this.executor;
+        }
+
+        // a queued job hasn't read the settings yet, and a cancelled one is queued again when the cell is attached.
+        if (job == null || job.isQueued() || job.isCancelled()) {
+            return;
+        }
+
+        executor.submit(job.copy());
+    }
+
+    /**
+     * Returns the generation of the grid the content was built for.
+     * @return the generation the content was built for.
+     * @see GridCells#getGeneration()
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Called by the job of this cell when it has finished, whether or not the cell has any content.
+     * @param generation the generation of the grid the content was built for.
+     */
+    void contentReady(int generation) {
+
+        boolean submit;
+        boolean discard;
+
+        synchronized (lock) {
+            this.generation = generation;
+            ready = true;
+            submit = inScene;
+            discard = !inScene && removed;
+        }
+
+        if (discard) {
+            // the job was already running when the pager removed the cell.
+            discardContent();
+            return;
+        }
+
+        if (!submit) {
+            return;
+        }
+
+        if (scheduler != null && scheduler.isActive()) {
+            scheduler.submit(this);
+        } else if (scheduler != null) {
+            // this may be a generation thread, so the content is attached on the main thread.
+            scheduler.attachLater(this);
+        } else {
+            long start = System.nanoTime();
+            attachContent();
+            recordAttachTime(System.nanoTime() - start);
+        }
+    }
+
+    public WarmCellCache getWarmCache() {
+        return warmCache;
+    }
+
+    /**
+     * Sets the cache that keeps this cell and its content when the pager removes it.
+     * @param warmCache the warm cell cache, or null to release the content when the cell is removed.
+     */
+    public void setWarmCache(WarmCellCache warmCache) {
+        this.warmCache = warmCache;
+    }
+
+    public AttachScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sets the scheduler that attaches the content of this cell when the pager attaches it.
+     * @param scheduler the scheduler, or null to attach the content straight away.
+     */
+    public void setScheduler(AttachScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the size of the content of the cell.
+     * @return the size of the content.
+     */
+    public CellStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Sets the metrics this cell reports to when it is attached or detached.
+     * @param metrics the metrics of the grid that built the cell.
+     */
+    public void setMetrics(GridMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void recordAttachTime(long nanos) {
+
+        if (metrics != null) {
+            metrics.recordAttachTime(nanos);
+        }
+    }
+
+    @Override
+    protected void setParent(Node parent) {
+
+        boolean wasAttached = getParent() != null;
+        super.setParent(parent);
+
+        if (parent != null && !wasAttached) {
+            onAttached();
+        } else if (parent == null && wasAttached) {
+            onDetached();
+        }
+    }
+
+    private void onAttached() {
+
+        boolean attach;
+        CellJob job;
+
+        synchronized (lock) {
+            inScene = true;
+            removed = false;
+            attach = ready;
+            job = this.job;
+        }
+
+        if (metrics != null && gridPos != null) {
+            metrics.cellAttached(this);
+        }
+
+        onAddedToScene();
+
+        if (job != null) {
+
+            job.getCells().add(this);
+
+            if (job.isCancelled()) {
+                // the job was cancelled when the cell left the view, but the pager wants it after all.
+                executor.resubmit(job);
+            } else if (generation < job.getCells().getGeneration()) {
+                // the grid was refreshed after the content was built, but before the pager attached the cell.
+                rebuild();
+            }
+        }
+
+        if (attach) {
+
+            if (scheduler != null && scheduler.isActive()) {
+                scheduler.submit(this);
+            } else {
+                long start = System.nanoTime();
+                attachContent();
+                recordAttachTime(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void onDetached() {
+
+        CellJob job;
+        Spatial discarded = null;
+        Spatial discardedReplacement = null;
+        boolean warm;
+
+        synchronized (lock) {
+            inScene = false;
+            job = this.job;
+
+            // the pager doesn't keep cells it removes, so content built by a job is kept warm or released with the cell.
+            // content that is still being rebuilt is released too, rather than kept warm while it is out of date.
+            warm = job != null && job.isDone() && warmCache != null && warmCache.isActive();
+
+            if (job != null && !warm) {
+
+                discarded = content;
+                discardedReplacement = replacement;
+                content = null;
+                replacement = null;
+                replacementStats = null;
+                replacing = false;
+                stats = CellStats.EMPTY;
+                attached = false;
+                ready = false;
+                removed = true;
+
+                // if the pager attaches the cell again anyway, it is rebuilt. A job that hasn't finished sets the
+                // generation itself.
+                if (job.isDone()) {
+                    generation = -1;
+                }
+            }
+        }
+
+        if (job != null) {
+            job.getCells().remove(this);
+
+            // a job that has not started is queued again if the pager attaches the cell later.
+            if (!warm) {
+                executor.cancel(job);
+            }
+        }
+
+        if (scheduler != null) {
+            scheduler.cancel(this);
+        }
+
+        if (metrics != null && gridPos != null) {
+            metrics.cellDetached(this, counted);
+        }
+
+        counted = false;
+
+        if (discarded != null) {
+            detachChild(discarded);
+            job.release(discarded);
+        }
+
+        if (discardedReplacement != null) {
+            job.release(discardedReplacement);
+        }
+
+        onRemovedFromScene();
+
+        if (warm) {
+            warmCache.put(job.getGrid(), this);
+        }
+    }
+
+    /**
+     * Releases the content of a cell that is not in the scene, such as a prefetched cell the pager didn't ask for, or a
+     * warm cell that was evicted. Does nothing if the cell is in the scene or its job has not finished. Call from the
+     * main thread, or from the generation thread that finished the job if the cell has already been removed.
+     * @return true if the content was released.
+     */
+    boolean discardContent() {
+
+        CellJob job;
+        Spatial discarded;
+        Spatial discardedReplacement;
+
+        synchronized (lock) {
+
+            job = this.job;
+
+            if (inScene || job == null || !job.isDone()) {
+                return false;
+            }
+
+            discarded = content;
+            discardedReplacement = replacement;
+            content = null;
+            replacement = null;
+            replacementStats = null;
+            replacing = false;
+            stats = CellStats.EMPTY;
+            attached = false;
+            ready = false;
+            generation = -1;
+        }
+
+        if (discarded != null) {
+            detachChild(discarded);
+            job.release(discarded);
+        }
+
+        if (discardedReplacement != null) {
+            job.release(discardedReplacement);
+        }
+
+        return true;
+    }
+
+    /**
+     * Called on the main thread when the pager attaches the cell to the scene, before its content is attached. A warm
+     * cell that is attached again already has its content attached.
+     */
+    protected void onAddedToScene() {
+
+    }
+
+    /**
+     * Called on the main thread when the pager removes the cell from the scene.
+     */
+    protected void onRemovedFromScene() {
+
+    }
+
+    @Override
+    public void write(JmeExporter ex) throws IOException {
+        super.write(ex);
+
+        OutputCapsule capsule = ex.getCapsule(this);
+        capsule.write(cellSize, "cellSize", 0);
+    }
+
+    @Override
+    public void read(JmeImporter im) throws IOException {
+        super.read(im);
+
+        InputCapsule capsule = im.getCapsule(this);
+        cellSize = capsule.readInt("cellSize", 0);
+
+        // only cells with their content attached are written.
+        content = getQuantity() > 0 ? getChild(0) : null;
+        attached = true;
+
+        if (content != null) {
+            onContentAttached(content);
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Builds cells ahead of the pager along the path the follower is moving on.
+ *
+ * The pager only asks for a cell once the follower is close enough for it to be in view, so a fast camera reaches the
+ * edge of the world before its cells are built. Each time the follower, or the point it will reach in the look-ahead
+ * time, moves into another cell, the cells that will come into view along the way are queued on the generation
+ * executor. They are only built once every cell in view has been. When the pager asks a grid for one of those cells,
+ * the grid takes the prefetched cell instead of creating a new one.
+ *
+ * Prefetched cells the follower turns away from, or that the pager doesn't ask for in time, are cancelled or
+ * released. The hits and wasted prefetches are reported to the metrics of each grid.
+ */
+public class CellPrefetcher extends BaseAppState {
+
+    /**
+     * Creates the job for a cell of a grid, without submitting it.
+     */
+    public interface CellFactory {
+
+        /**
+         * Creates a cell and the job that builds its content.
+         * @param gridPos the position of the cell.
+         * @return the job of the cell.
+         */
+        CellJob createJob(GridPos2i gridPos);
+    }
+
+    private final WorldContext context;
+    private final List<GridPrefetch> grids = new CopyOnWriteArrayList<>();
+
+    private float lookAhead = 1.5f;
+    private int maxCells = 128;
+    private float maxAge = 10;
+
+    // jobs of prefetched cells that were discarded, waiting to be cancelled or released. Main thread only.
+    private final List<CellJob> evicted = new ArrayList<>();
+    private final Queue<CellJob> evictedElsewhere = new ConcurrentLinkedQueue<>();
+
+    private final Vector3f location = new Vector3f();
+    private final Vector3f velocity = new Vector3f();
+
+    public CellPrefetcher(WorldContext context) {
+        this.context = context;
+    }
+
+    private static class GridPrefetch {
+
+        private final SceneGrid grid;
+        private final CellFactory factory;
+
+        // written on the main thread, taken from by the pager.
+        private final Map<Long, Prefetch> cells = new ConcurrentHashMap<>();
+
+        // main thread only.
+        private int cellSize;
+        private int followerX = Integer.MIN_VALUE;
+        private int followerZ = Integer.MIN_VALUE;
+        private int targetX = Integer.MIN_VALUE;
+        private int targetZ = Integer.MIN_VALUE;
+
+        private GridPrefetch(SceneGrid grid, CellFactory factory) {
+            this.grid = grid;
+            this.factory = factory;
+        }
+    }
+
+    private static class Prefetch {
+
+        private final CellJob job;
+        private final long time;
+
+        private Prefetch(CellJob job, long time) {
+            this.job = job;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Allows the cells of a grid to be prefetched. Grids call this when they are created.
+     * @param grid    the grid.
+     * @param factory creates the cells of the grid.
+     */
+    public void register(SceneGrid grid, CellFactory factory) {
+        grids.add(new GridPrefetch(grid, factory));
+    }
+
+    /**
+     * Takes a prefetched cell the pager has asked for. Called by the grid from the thread the pager builds cells on.
+     * The cell is built like any other from then on.
+     * @param grid    the grid.
+     * @param gridPos the position of the cell.
+     * @return the prefetched cell, or null if the cell was not prefetched.
+     */
+    public CellNode take(SceneGrid grid, GridPos2i gridPos) {
+
+        GridPrefetch gridPrefetch = find(grid);
+
+        if (gridPrefetch == null) {
+            return null;
+        }
+
+        Prefetch prefetch = gridPrefetch.cells.remove(key(gridPos.getX(), gridPos.getZ()));
+
+        if (prefetch == null) {
+            return null;
+        }
+
+        CellJob job = prefetch.job;
+
+        // the cell size changed since the cell was prefetched.
+        if (job.getCell().getCellSize() != grid.getGridSettings().getCellSize().getSize()) {
+            metrics(gridPrefetch).getPrefetch().wasted();
+            evictedElsewhere.add(job);
+            return null;
+        }
+
+        job.setPrefetch(false);
+        metrics(gridPrefetch).getPrefetch().hit(job.isDone());
+
+        return job.getCell();
+    }
+
+    private GridPrefetch find(SceneGrid grid) {
+
+        for (GridPrefetch gridPrefetch : grids) {
+            if (gridPrefetch.grid == grid) {
+                return gridPrefetch;
+            }
+        }
+
+        return null;
+    }
+
+    // grids are named after they are created, so the metrics are looked up when they are needed.
+    private GridMetrics metrics(GridPrefetch gridPrefetch) {
+        return context.getMetrics().getGrid(gridPrefetch.grid);
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        releaseEvicted();
+
+        Follower follower = context.getFollower();
+        follower.getLocation(location);
+        follower.getVelocity(velocity);
+
+        float targetLocationX = location.x + velocity.x * lookAhead;
+        float targetLocationZ = location.z + velocity.z * lookAhead;
+
+        long now = System.nanoTime();
+        long maxAgeNanos = (long) (maxAge * 1e9);
+
+        for (GridPrefetch gridPrefetch : grids) {
+
+            // a grid that isn't paged never asks for its cells.
+            if (context.getCells(gridPrefetch.grid).getCells().isEmpty()) {
+                evictAll(gridPrefetch);
+                continue;
+            }
+
+            int cellSize = gridPrefetch.grid.getGridSettings().getCellSize().getSize();
+
+            if (cellSize != gridPrefetch.cellSize) {
+                evictAll(gridPrefetch);
+                gridPrefetch.cellSize = cellSize;
+            }
+
+            int followerX = (int) Math.floor(location.x / cellSize);
+            int followerZ = (int) Math.floor(location.z / cellSize);
+            int targetX = (int) Math.floor(targetLocationX / cellSize);
+            int targetZ = (int) Math.floor(targetLocationZ / cellSize);
+
+            if (followerX != gridPrefetch.followerX || followerZ != gridPrefetch.followerZ
+                    || targetX != gridPrefetch.targetX || targetZ != gridPrefetch.targetZ) {
+
+                gridPrefetch.followerX = followerX;
+                gridPrefetch.followerZ = followerZ;
+                gridPrefetch.targetX = targetX;
+                gridPrefetch.targetZ = targetZ;
+
+                prefetch(gridPrefetch, now);
+            }
+
+            for (Map.Entry<Long, Prefetch> entry : gridPrefetch.cells.entrySet()) {
+                if (now - entry.getValue().time > maxAgeNanos) {
+                    evict(gridPrefetch, entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void prefetch(GridPrefetch gridPrefetch, long now) {
+
+        int viewDistance = gridPrefetch.grid.getGridSettings().getViewDistance();
+
+        int followerX = gridPrefetch.followerX;
+        int followerZ = gridPrefetch.followerZ;
+        int steps = Math.max(Math.abs(gridPrefetch.targetX - followerX), Math.abs(gridPrefetch.targetZ - followerZ));
+
+        // the cells that come into view at each step along the path, nearest first.
+        path:
+        for (int step = 1; step <= steps; step++) {
+
+            int centerX = followerX + Math.round((gridPrefetch.targetX - followerX) * step / (float) steps);
+            int centerZ = followerZ + Math.round((gridPrefetch.targetZ - followerZ) * step / (float) steps);
+
+            for (int z = centerZ - viewDistance; z <= centerZ + viewDistance; z++) {
+                for (int x = centerX - viewDistance; x <= centerX + viewDistance; x++) {
+
+                    // the pager already has the cells in view.
+                    if (ring(x, z, followerX, followerZ) <= viewDistance) {
+                        continue;
+                    }
+
+                    long key = key(x, z);
+
+                    // warm cells are attached again without being built.
+                    if (gridPrefetch.cells.containsKey(key) || context.getWarmCells().contains(gridPrefetch.grid, x, z)) {
+                        continue;
+                    }
+
+                    if (gridPrefetch.cells.size() >= maxCells) {
+                        break path;
+                    }
+
+                    CellJob job = gridPrefetch.factory.createJob(
+                            new GridPos2i(x, z, gridPrefetch.grid.getGridSettings().getCellSize().getBitshift()));
+                    job.setPrefetch(true);
+
+                    gridPrefetch.cells.put(key, new Prefetch(job, now));
+                    metrics(gridPrefetch).getPrefetch().cellPrefetched();
+                    context.getGenerationExecutor().submit(job);
+                }
+            }
+        }
+
+        // cells the follower has turned away from won't be asked for.
+        for (Long key : gridPrefetch.cells.keySet()) {
+
+            int x = (int) (key >> 32);
+            int z = key.intValue();
+
+            if (ring(x, z, followerX, followerZ) > viewDistance
+                    && ring(x, z, gridPrefetch.targetX, gridPrefetch.targetZ) > viewDistance + 1) {
+                evict(gridPrefetch, key);
+            }
+        }
+    }
+
+    private static int ring(int x, int z, int centerX, int centerZ) {
+        return Math.max(Math.abs(x - centerX), Math.abs(z - centerZ));
+    }
+
+    private void evict(GridPrefetch gridPrefetch, long key) {
+
+        Prefetch prefetch = gridPrefetch.cells.remove(key);
+
+        // the pager may have taken it in the meantime.
+        if (prefetch != null) {
+            metrics(gridPrefetch).getPrefetch().wasted();
+            evicted.add(prefetch.job);
+        }
+    }
+
+    private void evictAll(GridPrefetch gridPrefetch) {
+
+        for (Long key : gridPrefetch.cells.keySet()) {
+            evict(gridPrefetch, key);
+        }
+    }
+
+    // cancels the evicted jobs that haven't started, and releases the content of those that have finished.
+    private void releaseEvicted() {
+
+        CellJob job;
+
+        while ((job = evictedElsewhere.poll()) != null) {
+            evicted.add(job);
+        }
+
+        Iterator<CellJob> iterator = evicted.iterator();
+
+        while (iterator.hasNext()) {
+
+            job = iterator.next();
+
+            if (job.cancel() || job.isCancelled()) {
+                iterator.remove();
+            } else if (job.isDone()) {
+                job.getCell().discardContent();
+                iterator.remove();
+            }
+        }
+    }
+
+    public float getLookAhead() {
+        return lookAhead;
+    }
+
+    /**
+     * Sets how far ahead of the follower cells are prefetched.
+     * @param lookAhead the time in seconds the follower travels at its current velocity.
+     */
+    public void setLookAhead(float lookAhead) {
+        this.lookAhead = lookAhead;
+    }
+
+    public int getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * Sets the most cells of each grid that are prefetched at once.
+     * @param maxCells the amount of cells.
+     */
+    public void setMaxCells(int maxCells) {
+        this.maxCells = maxCells;
+    }
+
+    public float getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets how long a prefetched cell is kept if the pager doesn't ask for it.
+     * @param maxAge the time in seconds.
+     */
+    public void setMaxAge(float maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the amount of cells that have been prefetched and not yet taken by the pager.
+     * @return the amount of prefetched cells.
+     */
+    public int getPrefetchedCount() {
+
+        int count = 0;
+
+        for (GridPrefetch gridPrefetch : grids) {
+            count += gridPrefetch.cells.size();
+        }
+
+        return count;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        for (GridPrefetch gridPrefetch : grids) {
+            evictAll(gridPrefetch);
+            gridPrefetch.followerX = Integer.MIN_VALUE;
+            gridPrefetch.targetX = Integer.MIN_VALUE;
+        }
+
+        releaseEvicted();
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * A stream of random numbers for generating a single cell, seeded from the world seed, the grid and the cell.
+ *
+ * Every cell and every use within a cell gets a stream of its own, so the content of a cell doesn't depend on the
+ * thread that builds it, the order cells are built in, or what else was built before it. A stream is not thread safe,
+ * but it is only ever used by the thread building the cell, so no two threads contend for it. A stream can be reset
+ * with a new seed, so a thread can reuse one for every cell it builds.
+ *
+ * The numbers are generated with SplitMix64, which is fast, and gives unrelated streams for neighbouring seeds, unlike
+ * {@link java.util.Random} seeded with a hash of the cell position.
+ */
+public final class CellRandom {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public CellRandom() {
+    }
+
+    public CellRandom(long seed) {
+        reset(seed);
+    }
+
+    /**
+     * Returns the seed of a cell of a grid. Grids with different names get unrelated seeds for the same cell.
+     * @param worldSeed the seed of the world.
+     * @param gridName  the name of the grid.
+     * @param cellX     the x coordinate of the cell.
+     * @param cellZ     the z coordinate of the cell.
+     * @return the seed of the cell.
+     */
+    public static long seed(long worldSeed, String gridName, int cellX, int cellZ) {
+        return seed(gridSeed(worldSeed, gridName), cellX, cellZ);
+    }
+
+    /**
+     * Returns the seed of a grid, from which the seed of each of its cells is derived.
+     * @param worldSeed the seed of the world.
+     * @param gridName  the name of the grid.
+     * @return the seed of the grid.
+     */
+    public static long gridSeed(long worldSeed, String gridName) {
+        return mix(worldSeed ^ new SettingsHash().add(gridName).get());
+    }
+
+    /**
+     * Returns the seed of a cell of a grid.
+     * @param gridSeed the seed of the grid.
+     * @param cellX    the x coordinate of the cell.
+     * @param cellZ    the z coordinate of the cell.
+     * @return the seed of the cell.
+     */
+    public static long seed(long gridSeed, int cellX, int cellZ) {
+        return mix(gridSeed ^ (((long) cellX << 32) | (cellZ & 0xFFFFFFFFL)));
+    }
+
+    /**
+     * Returns the seed of a stream derived from another, such as a stream for each rule or model of a cell, so that
+     * changing what one of them draws doesn't change the others.
+     * @param seed   the seed to derive from.
+     * @param stream the number of the stream.
+     * @return the seed of the stream.
+     */
+    public static long split(long seed, long stream) {
+        return mix(seed + (stream + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns a repeatable random value for an element of a stream without creating the stream. The value only depends
+     * on the seed and the index, so elements can be drawn in any order and from any thread.
+     * @param seed  the seed of the stream.
+     * @param index the index of the element.
+     * @return a value from 0 (inclusive) to 1 (exclusive).
+     */
+    public static float random(long seed, long index) {
+        return toFloat(mix(seed + (index + 1) * GOLDEN_GAMMA));
+    }
+
+    // the splitmix64 finalizer.
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private static float toFloat(long h) {
+        return (h >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Starts the stream again from the given seed.
+     * @param seed the seed.
+     */
+    public void reset(long seed) {
+        state = seed;
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Returns a random value from 0 (inclusive) to the bound (exclusive).
+     * @param bound the bound. Must be positive.
+     * @return the value.
+     */
+    public int nextInt(int bound) {
+
+        if (bound <= 0) {
+            throw new IllegalArgumentException("The bound must be positive: " + bound);
+        }
+
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Returns a random value from 0 (inclusive) to 1 (exclusive).
+     * @return the value.
+     */
+    public float nextFloat() {
+        return toFloat(nextLong());
+    }
+
+}
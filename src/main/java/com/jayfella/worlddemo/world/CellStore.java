@@ -0,0 +1,372 @@
+package com.jayfella.worlddemo.world;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the generated data of cells on disk, so revisiting an area or restarting the demo doesn't generate it again.
+ *
+ * Cells are grouped into region files of 32 x 32 cells, one directory per seed, grid and settings hash:
+ * {@code <directory>/<seed>/<grid>/<settings hash>/r.<x>.<z>.region}. Each grid decides what it stores for a cell and
+ * how, with a {@link Codec}, and hashes every setting the data depends on with a {@link SettingsHash}. When a setting
+ * changes the hash changes, so cells generated with the old settings are never read. They stay on disk in case the
+ * settings are changed back.
+ *
+ * Payloads are compressed with deflate. The store can be used from any thread. A store that fails to read or write
+ * logs the error and treats the cell as missing, so a damaged store only costs the time to generate the cell.
+ */
+public class CellStore {
+
+    private static final Logger log = Logger.getLogger(CellStore.class.getName());
+
+    /**
+     * Writes and reads the stored data of a cell.
+     * @param <T> the type of the data.
+     */
+    public interface Codec<T> {
+
+        /**
+         * Writes the data of a cell.
+         * @param value the data to write.
+         * @param out   the output to write to.
+         * @throws IOException if the data can't be written.
+         */
+        void write(T value, DataOutput out) throws IOException;
+
+        /**
+         * Reads the data of a cell.
+         * @param in the input to read from.
+         * @return the data of the cell.
+         * @throws IOException if the data can't be read.
+         */
+        T read(DataInput in) throws IOException;
+    }
+
+    // 32 x 32 cells per region.
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    // the times a cell is tried in a region that is closed while it is used, before giving up.
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final File directory;
+
+    // the most region files that are kept open. The least recently used file is closed first.
+    private int maxOpenFiles = 64;
+    private final LinkedHashMap<String, RegionFile> regions = new LinkedHashMap<>(64, 0.75f, true);
+
+    private volatile boolean enabled = true;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * Creates a store.
+     * @param directory the directory the stores of every seed are kept in.
+     * @param seed      the seed of the world.
+     */
+    public CellStore(File directory, long seed) {
+        this.directory = new File(directory, Long.toString(seed));
+    }
+
+    /**
+     * Loads the stored data of a cell.
+     * @param grid         the name of the grid.
+     * @param settingsHash the hash of the settings the data must have been generated with.
+     * @param x            the x coordinate of the cell.
+     * @param z            the z coordinate of the cell.
+     * @param codec        reads the data.
+     * @param <T>          the type of the data.
+     * @return the data, or null if the cell is not stored or the store is disabled.
+     */
+    public <T> T load(String grid, long settingsHash, int x, int z, Codec<T> codec) {
+
+        if (!enabled) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+
+        try {
+
+            byte[] payload = withRegion(grid, settingsHash, x, z, region -> region.read(index(x, z)));
+
+            if (payload == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(payload))))) {
+
+                T value = codec.read(in);
+
+                hits.incrementAndGet();
+                loadNanos.addAndGet(System.nanoTime() - start);
+
+                return value;
+            }
+
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Unable to load " + grid + " cell " + x + ", " + z, e);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the data of a cell, replacing the data it was stored with before.
+     * @param grid         the name of the grid.
+     * @param settingsHash the hash of the settings the data was generated with.
+     * @param x            the x coordinate of the cell.
+     * @param z            the z coordinate of the cell.
+     * @param value        the data to store.
+     * @param codec        writes the data.
+     * @param <T>          the type of the data.
+     */
+    public <T> void save(String grid, long settingsHash, int x, int z, T value, Codec<T> codec) {
+
+        if (!enabled) {
+            return;
+        }
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new DeflaterOutputStream(bytes, deflater)))) {
+                codec.write(value, out);
+            } finally {
+                deflater.end();
+            }
+
+            byte[] payload = bytes.toByteArray();
+            withRegion(grid, settingsHash, x, z, region -> {
+                region.write(index(x, z), payload);
+                return null;
+            });
+
+            writes.incrementAndGet();
+            bytesWritten.addAndGet(payload.length);
+
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Unable to store " + grid + " cell " + x + ", " + z, e);
+        }
+    }
+
+    /**
+     * Writes an array of floats in one block, which is much faster than writing each float on its own.
+     * @param out    the output to write to.
+     * @param values the values to write.
+     * @param count  the amount of values to write from the start of the array.
+     * @throws IOException if the values can't be written.
+     */
+    public static void writeFloats(DataOutput out, float[] values, int count) throws IOException {
+
+        ByteBuffer bytes = ByteBuffer.allocate(count * 4);
+        bytes.asFloatBuffer().put(values, 0, count);
+
+        out.writeInt(count);
+        out.write(bytes.array());
+    }
+
+    /**
+     * Reads an array of floats written by {@link #writeFloats(DataOutput, float[], int)}.
+     * @param in the input to read from.
+     * @return the values.
+     * @throws IOException if the values can't be read.
+     */
+    public static float[] readFloats(DataInput in) throws IOException {
+
+        float[] values = new float[in.readInt()];
+        byte[] bytes = new byte[values.length * 4];
+        in.readFully(bytes);
+
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+        return values;
+    }
+
+    private static int index(int x, int z) {
+        return (z & (REGION_SIZE - 1)) * REGION_SIZE + (x & (REGION_SIZE - 1));
+    }
+
+    private interface RegionTask<T> {
+        T run(RegionFile region) throws IOException;
+    }
+
+    // runs a task on the region of a cell. The least recently used region can be closed by another thread before the
+    // task locks it, in which case the region is opened again.
+    private <T> T withRegion(String grid, long settingsHash, int x, int z, RegionTask<T> task) throws IOException {
+
+        for (int attempt = 1; ; attempt++) {
+
+            try {
+                return task.run(getRegion(grid, settingsHash, x, z));
+            } catch (ClosedChannelException e) {
+
+                if (attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private RegionFile getRegion(String grid, long settingsHash, int x, int z) throws IOException {
+
+        int regionX = x >> REGION_SHIFT;
+        int regionZ = z >> REGION_SHIFT;
+
+        File dir = new File(new File(directory, grid), Long.toHexString(settingsHash));
+        File file = new File(dir, "r." + regionX + "." + regionZ + ".region");
+        String key = file.getPath();
+
+        synchronized (regions) {
+
+            RegionFile region = regions.get(key);
+
+            if (region == null) {
+
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("Unable to create directory: " + dir);
+                }
+
+                region = new RegionFile(file, settingsHash, REGION_SIZE * REGION_SIZE);
+                regions.put(key, region);
+                closeEldest();
+            }
+
+            return region;
+        }
+    }
+
+    private void closeEldest() {
+
+        Iterator<Map.Entry<String, RegionFile>> iterator = regions.entrySet().iterator();
+
+        while (regions.size() > maxOpenFiles && iterator.hasNext()) {
+
+            RegionFile region = iterator.next().getValue();
+            iterator.remove();
+
+            try {
+                region.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Unable to close a region file.", e);
+            }
+        }
+    }
+
+    /**
+     * Closes every open region file. The store can still be used afterwards, and opens the files again.
+     */
+    public void close() {
+
+        synchronized (regions) {
+
+            for (RegionFile region : regions.values()) {
+                try {
+                    region.close();
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Unable to close a region file.", e);
+                }
+            }
+
+            regions.clear();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether or not cells are loaded from and saved to the store.
+     * @param enabled whether or not to use the store.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Sets the most region files that are kept open at once.
+     * @param maxOpenFiles the amount of files, at least one.
+     */
+    public void setMaxOpenFiles(int maxOpenFiles) {
+
+        synchronized (regions) {
+            // the region that was opened last must stay open to be used.
+            this.maxOpenFiles = Math.max(1, maxOpenFiles);
+            closeEldest();
+        }
+    }
+
+    /**
+     * Returns the amount of cells that were loaded from the store.
+     * @return the amount of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the amount of cells that were not in the store, or could not be read.
+     * @return the amount of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * Returns the amount of compressed bytes written to the store.
+     * @return the size in bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Returns the mean time taken to load a stored cell, including decompressing and decoding it.
+     * @return the time in nanoseconds.
+     */
+    public long getMeanLoadTime() {
+        long hits = this.hits.get();
+        return hits == 0 ? 0 : loadNanos.get() / hits;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jme3.math.Vector3f;
+
+/**
+ * Tracks the location the world is being paged around. Grids use this to decide how much detail a cell needs.
+ * The location is written on the render thread and may be read from the generation threads.
+ *
+ * If the location is updated each frame with the time since the last frame, the follower also tracks its velocity,
+ * smoothed over a fraction of a second so a single uneven frame doesn't change the heading.
+ */
+public class Follower {
+
+    // the time the velocity is smoothed over, in seconds.
+    private static final float VELOCITY_SMOOTHING = 0.25f;
+
+    // anything faster than this is a teleport, not movement.
+    private static final float MAX_SPEED = 10000;
+
+    private final Vector3f location = new Vector3f();
+    private final Vector3f velocity = new Vector3f();
+    private boolean tracking;
+
+    /**
+     * Moves the follower without changing its velocity, such as when it is teleported.
+     * @param location the new location.
+     */
+    public synchronized void setLocation(Vector3f location) {
+        this.location.set(location);
+        this.tracking = false;
+    }
+
+    /**
+     * Moves the follower and updates its velocity. Call once per frame from the render thread.
+     * @param location the new location.
+     * @param tpf      the time since the last frame in seconds.
+     */
+    public synchronized void update(Vector3f location, float tpf) {
+
+        if (tracking && tpf > 0) {
+
+            float vx = (location.x - this.location.x) / tpf;
+            float vy = (location.y - this.location.y) / tpf;
+            float vz = (location.z - this.location.z) / tpf;
+
+            if (vx * vx + vy * vy + vz * vz > MAX_SPEED * MAX_SPEED) {
+                velocity.set(0, 0, 0);
+            } else {
+                float blend = Math.min(1, tpf / VELOCITY_SMOOTHING);
+                velocity.set(
+                        velocity.x + (vx - velocity.x) * blend,
+                        velocity.y + (vy - velocity.y) * blend,
+                        velocity.z + (vz - velocity.z) * blend);
+            }
+        } else {
+            velocity.set(0, 0, 0);
+        }
+
+        this.location.set(location);
+        this.tracking = true;
+    }
+
+    /**
+     * Returns the smoothed velocity of the follower, in world units per second.
+     * @param store the vector to store the velocity in, or null to create one.
+     * @return the velocity.
+     */
+    public synchronized Vector3f getVelocity(Vector3f store) {
+
+        if (store == null) {
+            store = new Vector3f();
+        }
+
+        return store.set(velocity);
+    }
+
+    public synchronized Vector3f getLocation(Vector3f store) {
+
+        if (store == null) {
+            store = new Vector3f();
+        }
+
+        return store.set(location);
+    }
+
+    /**
+     * Returns the cell the follower is in on the x axis.
+     * @param cellSize the size of the cells of the grid.
+     */
+    public synchronized int getCellX(int cellSize) {
+        return (int) Math.floor(location.x / cellSize);
+    }
+
+    /**
+     * Returns the cell the follower is in on the z axis.
+     * @param cellSize the size of the cells of the grid.
+     */
+    public synchronized int getCellZ(int cellSize) {
+        return (int) Math.floor(location.z / cellSize);
+    }
+
+    /**
+     * Returns the ring the given cell is in, measured from the cell the follower is in.
+     * The cell the follower is in is ring 0, the eight cells around it are ring 1, and so on.
+     * @param gridPos  the position of the cell.
+     * @param cellSize the size of the cells of the grid.
+     * @return the ring distance of the cell.
+     */
+    public synchronized int getRing(GridPos2i gridPos, int cellSize) {
+        return Math.max(
+                Math.abs(gridPos.getX() - getCellX(cellSize)),
+                Math.abs(gridPos.getZ() - getCellZ(cellSize)));
+    }
+
+}
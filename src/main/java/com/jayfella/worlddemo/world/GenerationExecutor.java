@@ -0,0 +1,290 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the content of the cells of every demo grid on a single work-stealing pool.
+ *
+ * Jobs are not run in the order they are submitted. Each time a thread becomes free it takes the waiting job nearest
+ * to the follower, so cells queued for an old camera position don't hold up the cells around the new one. The queue
+ * is a heap ordered by the distance from where the follower was when it was last ordered, and is ordered again once
+ * the follower has moved a few units, so taking a job doesn't look at every job in the queue.
+ *
+ * A job for a cell that has left the view distance of its grid before it started is cancelled, unless the pager has
+ * already attached its cell, in which case it waits until every job in view has been built. A cancelled cell is
+ * queued again if the pager attaches it later. Cells prefetched ahead of the follower are out of view too, and also
+ * wait for every job in view.
+ */
+public class GenerationExecutor {
+
+    // the follower has to move this far before the queue is ordered again.
+    private static final float REPRIORITIZE_DISTANCE = 8;
+
+    private final Follower follower;
+    private final ForkJoinPool pool;
+
+    private final PriorityQueue<QueuedJob> queue = new PriorityQueue<>(QueuedJob.ORDER);
+
+    // guarded by the queue. The location of the follower, and where it was when the queue was last ordered.
+    private final Vector3f location = new Vector3f();
+    private final Vector3f prioritizedAt = new Vector3f();
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Creates an executor.
+     * @param follower the follower the jobs are prioritized by.
+     * @param threads  the amount of threads to build cells with.
+     */
+    public GenerationExecutor(Follower follower, int threads) {
+        this.follower = follower;
+        this.pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Returns the amount of threads to use on this machine. One core is left for the render thread.
+     * @return the amount of threads.
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Queues a job. The job is run on one of the threads of the pool when it is the nearest job to the follower.
+     * @param job the job to run.
+     */
+    public void submit(CellJob job) {
+
+        job.getCell().setJob(this, job);
+        job.getMetrics().jobQueued();
+
+        synchronized (queue) {
+            queue.add(prioritize(new QueuedJob(job)));
+        }
+
+        // each task runs whichever job is the most important when it starts, not necessarily this one.
+        pool.execute(this::runNext);
+    }
+
+    /**
+     * Runs a task on the threads of the pool that isn't a cell, such as merging cells. Tasks are not prioritized by
+     * the follower, and run alongside the jobs in the order they are executed.
+     * @param task the task to run.
+     */
+    public void execute(Runnable task) {
+        pool.execute(task);
+    }
+
+    /**
+     * Queues a cancelled job again.
+     * @param job the job to queue.
+     */
+    void resubmit(CellJob job) {
+
+        if (job.requeue()) {
+            submit(job);
+        }
+    }
+
+    /**
+     * Cancels a job if it has not started, such as the job of a cell the pager removed. The job is dropped from the
+     * queue when a thread next takes a job.
+     * @param job the job to cancel.
+     */
+    void cancel(CellJob job) {
+
+        if (job.cancel()) {
+            cancelled.incrementAndGet();
+        }
+    }
+
+    /**
+     * Runs the given job on the calling thread if it has not been taken by the pool, otherwise waits for it.
+     * @param job the job to run.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void runOrWait(CellJob job) throws InterruptedException {
+
+        boolean removed;
+
+        synchronized (queue) {
+            removed = queue.removeIf(queued -> queued.job == job);
+        }
+
+        // a cancelled job has left the queue, but its cell is wanted after all.
+        if (!removed && job.requeue()) {
+            job.getMetrics().jobQueued();
+            removed = true;
+        }
+
+        if (removed) {
+            job.run();
+            completed.incrementAndGet();
+        } else {
+            job.await();
+        }
+    }
+
+    private void runNext() {
+
+        CellJob job = takeNext();
+
+        if (job != null) {
+            job.run();
+            completed.incrementAndGet();
+        }
+    }
+
+    private CellJob takeNext() {
+
+        synchronized (queue) {
+
+            follower.getLocation(location);
+
+            if (location.distanceSquared(prioritizedAt) > REPRIORITIZE_DISTANCE * REPRIORITIZE_DISTANCE) {
+                reprioritize();
+            }
+
+            QueuedJob next;
+
+            while ((next = queue.poll()) != null) {
+
+                if (!next.job.isCancelled() && !cancelIfOutOfView(next.job)) {
+                    return next.job;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    // orders the queue by the distance of each job from where the follower is now. Called with the queue lock held.
+    private void reprioritize() {
+
+        prioritizedAt.set(location);
+
+        List<QueuedJob> jobs = new ArrayList<>(queue);
+        queue.clear();
+
+        for (QueuedJob queued : jobs) {
+
+            if (!queued.job.isCancelled() && !cancelIfOutOfView(queued.job)) {
+                queue.add(prioritize(queued));
+            }
+        }
+    }
+
+    private boolean cancelIfOutOfView(CellJob job) {
+
+        CellNode cell = job.getCell();
+
+        if (isInView(job) || cell.isInScene() || job.isPrefetch()) {
+            return false;
+        }
+
+        if (job.cancel()) {
+            cancelled.incrementAndGet();
+        }
+
+        return true;
+    }
+
+    private boolean isInView(CellJob job) {
+
+        CellNode cell = job.getCell();
+        int ring = follower.getRing(cell.getGridPos(), cell.getCellSize());
+
+        return ring <= job.getGrid().getGridSettings().getViewDistance();
+    }
+
+    // sets whether a job is in view and its distance from where the queue was last prioritized. Called with the queue
+    // lock held.
+    private QueuedJob prioritize(QueuedJob queued) {
+
+        CellNode cell = queued.job.getCell();
+
+        float halfSize = cell.getCellSize() * 0.5f;
+        float dx = cell.getGridPos().getWorldTranslationX() + halfSize - prioritizedAt.x;
+        float dz = cell.getGridPos().getWorldTranslationZ() + halfSize - prioritizedAt.z;
+
+        queued.inView = isInView(queued.job);
+        queued.distanceSq = dx * dx + dz * dz;
+
+        return queued;
+    }
+
+    private static class QueuedJob {
+
+        // cells out of view, including prefetched cells, are only built once everything in view has been, nearest first.
+        private static final Comparator<QueuedJob> ORDER = Comparator
+                .comparing((QueuedJob queued) -> !queued.inView)
+                .thenComparingDouble(queued -> queued.distanceSq);
+
+        private final CellJob job;
+        private boolean inView;
+        private float distanceSq;
+
+        private QueuedJob(CellJob job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * Returns the amount of jobs waiting to be run.
+     * @return the amount of jobs in the queue.
+     */
+    public int getQueued() {
+
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Returns the amount of jobs that have been run.
+     * @return the amount of completed jobs.
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the amount of jobs that were cancelled because their cell left the view or was removed before they started.
+     * @return the amount of builds that were avoided.
+     */
+    public long getCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Stops the pool. Jobs that have not started are discarded.
+     */
+    public void shutdown() {
+
+        synchronized (queue) {
+            queue.clear();
+        }
+
+        pool.shutdownNow();
+
+        try {
+            pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jme3.scene.Spatial;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The cells of a demo grid that the pager has attached to the scene.
+ *
+ * Each time the grid is invalidated its generation is increased and every cell in the scene is rebuilt in place. The
+ * generation executor builds the cells nearest the follower first, so the new content spreads out in rings from the
+ * camera. Cells that were built for an older generation and are attached later are rebuilt when they are attached.
+ *
+ * Content that is read on another thread, such as by the {@link CellMerger}, is pinned while it is read. Content that
+ * is released while it is pinned is released once it is unpinned, so its buffers are never reused while being read.
+ */
+public class GridCells {
+
+    private final SceneGrid grid;
+
+    // main thread only.
+    private final Set<CellNode> cells = new LinkedHashSet<>();
+
+    private volatile int generation;
+
+    // the content being read on other threads, and the release waiting for each. Guarded by itself.
+    private final Map<Spatial, Pin> pins = new IdentityHashMap<>();
+
+    public GridCells(SceneGrid grid) {
+        this.grid = grid;
+    }
+
+    public SceneGrid getGrid() {
+        return grid;
+    }
+
+    void add(CellNode cell) {
+        cells.add(cell);
+    }
+
+    void remove(CellNode cell) {
+        cells.remove(cell);
+    }
+
+    /**
+     * Returns the cells in the scene. Main thread only.
+     * @return the cells in the scene.
+     */
+    public Collection<CellNode> getCells() {
+        return Collections.unmodifiableSet(cells);
+    }
+
+    /**
+     * Pins content so it isn't released while it is read on another thread. Content can be pinned more than once.
+     * @param content the content of a cell.
+     */
+    public void pin(Spatial content) {
+
+        synchronized (pins) {
+            pins.computeIfAbsent(content, c -> new Pin()).count++;
+        }
+    }
+
+    /**
+     * Unpins content once it has been read. If the content was released while it was pinned, it is released now, on the
+     * calling thread.
+     * @param content the content of a cell.
+     */
+    public void unpin(Spatial content) {
+
+        Runnable release = null;
+
+        synchronized (pins) {
+
+            Pin pin = pins.get(content);
+
+            if (pin != null && --pin.count == 0) {
+                pins.remove(content);
+                release = pin.release;
+            }
+        }
+
+        if (release != null) {
+            release.run();
+        }
+    }
+
+    /**
+     * Waits for pinned content to be unpinned before releasing it.
+     * @param content the content to release.
+     * @param release releases the content.
+     * @return true if the content is pinned and will be released when it is unpinned, or false if it can be released now.
+     */
+    boolean deferRelease(Spatial content, Runnable release) {
+
+        synchronized (pins) {
+
+            Pin pin = pins.get(content);
+
+            if (pin == null) {
+                return false;
+            }
+
+            pin.release = release;
+            return true;
+        }
+    }
+
+    /**
+     * Returns the generation of the grid, which is increased each time the grid is invalidated.
+     * @return the generation of the grid.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Rebuilds every cell of the grid that is in the scene. Each cell keeps its old content until its new content is
+     * ready. Call from the main thread.
+     * @return the amount of cells that are rebuilt.
+     */
+    public int invalidate() {
+
+        generation++;
+
+        for (CellNode cell : cells) {
+            cell.rebuild();
+        }
+
+        return cells.size();
+    }
+
+    private static class Pin {
+        private int count;
+        private Runnable release;
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Refreshes grids when the parameters they are built from change, and only the grids the changes affect.
+ *
+ * Each tracked parameter is a bean property, the grids it affects, and how they must be refreshed. When a refresh is
+ * requested the properties are compared to their values at the last refresh. Grids whose parameters have not changed
+ * are left alone. Demo grids are rebuilt in place through their {@link GridCells}, so the old cells stay visible until
+ * their replacements are ready. Everything else, such as the terrain or a change of cell size, is refreshed by the
+ * pager, which removes every cell of the grid first.
+ *
+ * The callback of a parameter that changed runs when the first of its grids is refreshed, once however many of the
+ * parameters that share it changed. Refreshing unrelated grids doesn't run it.
+ *
+ * Main thread only.
+ */
+public class GridRefresher {
+
+    /**
+     * How a grid must be refreshed when a parameter changes.
+     */
+    public enum Refresh {
+
+        /** The cells in the scene are rebuilt in place. */
+        CELLS,
+
+        /** The pager refreshes the grid, removing every cell. */
+        GRID
+    }
+
+    private final WorldContext context;
+
+    private final List<Parameter> parameters = new ArrayList<>();
+    private final Map<SceneGrid, Refresh> dirty = new HashMap<>();
+
+    // the callbacks of parameters that changed, and the grids whose refresh runs them.
+    private final Map<Runnable, Set<SceneGrid>> changed = new LinkedHashMap<>();
+
+    public GridRefresher(WorldContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Tracks a parameter.
+     * @param bean     the object the parameter belongs to.
+     * @param property the name of the bean property.
+     * @param refresh  how the grids must be refreshed when the parameter changes.
+     * @param grids    the grids the parameter affects.
+     */
+    public void track(Object bean, String property, Refresh refresh, SceneGrid... grids) {
+        track(bean, property, refresh, null, grids);
+    }
+
+    /**
+     * Tracks a parameter.
+     * @param bean     the object the parameter belongs to.
+     * @param property the name of the bean property.
+     * @param refresh  how the grids must be refreshed when the parameter changes.
+     * @param onChange run before the first of the grids is refreshed after the parameter changes. Parameters that
+     *                 share a callback run it once. May be null.
+     * @param grids    the grids the parameter affects.
+     */
+    public void track(Object bean, String property, Refresh refresh, Runnable onChange, SceneGrid... grids) {
+
+        Parameter parameter = new Parameter(bean, findGetter(bean, property), refresh, onChange, grids);
+        parameter.value = parameter.read();
+
+        parameters.add(parameter);
+    }
+
+    private static Method findGetter(Object bean, String property) {
+
+        try {
+
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(bean.getClass()).getPropertyDescriptors()) {
+                if (descriptor.getName().equals(property) && descriptor.getReadMethod() != null) {
+                    return descriptor.getReadMethod();
+                }
+            }
+
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Unable to inspect " + bean.getClass().getName(), e);
+        }
+
+        throw new IllegalArgumentException(bean.getClass().getName() + " has no readable property: " + property);
+    }
+
+    /**
+     * Compares the tracked parameters to their values at the last refresh, and marks the grids they affect as dirty.
+     */
+    private void findChanges() {
+
+        for (Parameter parameter : parameters) {
+
+            Object value = parameter.read();
+
+            if (Objects.equals(value, parameter.value)) {
+                continue;
+            }
+
+            parameter.value = value;
+
+            if (parameter.onChange != null) {
+                changed.computeIfAbsent(parameter.onChange, onChange -> new HashSet<>())
+                        .addAll(Arrays.asList(parameter.grids));
+            }
+
+            for (SceneGrid grid : parameter.grids) {
+                // a pager refresh also rebuilds the cells.
+                dirty.merge(grid, parameter.refresh, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * Returns whether or not a tracked parameter of the given grid has changed since it was last refreshed.
+     * @param grid the grid.
+     * @return true if the grid needs to be refreshed.
+     */
+    public boolean isDirty(SceneGrid grid) {
+        findChanges();
+        return dirty.containsKey(grid);
+    }
+
+    /**
+     * Refreshes the given grids if their parameters have changed.
+     * @param grids the grids to refresh.
+     * @return the amount of grids that were refreshed.
+     */
+    public int refresh(SceneGrid... grids) {
+
+        findChanges();
+        runCallbacks(grids);
+
+        int refreshed = 0;
+
+        for (SceneGrid grid : grids) {
+
+            Refresh refresh = dirty.remove(grid);
+
+            if (refresh == null) {
+                continue;
+            }
+
+            if (refresh == Refresh.GRID) {
+                grid.refreshGrid();
+            } else {
+                context.getCells(grid).invalidate();
+            }
+
+            refreshed++;
+        }
+
+        return refreshed;
+    }
+
+    // runs the callbacks of the changed parameters that affect any of the given grids.
+    private void runCallbacks(SceneGrid[] grids) {
+
+        Iterator<Map.Entry<Runnable, Set<SceneGrid>>> iterator = changed.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+
+            Map.Entry<Runnable, Set<SceneGrid>> entry = iterator.next();
+
+            for (SceneGrid grid : grids) {
+
+                if (entry.getValue().contains(grid)) {
+                    entry.getKey().run();
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static class Parameter {
+
+        private final Object bean;
+        private final Method getter;
+        private final Refresh refresh;
+        private final Runnable onChange;
+        private final SceneGrid[] grids;
+
+        private Object value;
+
+        private Parameter(Object bean, Method getter, Refresh refresh, Runnable onChange, SceneGrid[] grids) {
+            this.bean = bean;
+            this.getter = getter;
+            this.refresh = refresh;
+            this.onChange = onChange;
+            this.grids = grids;
+        }
+
+        private Object read() {
+
+            try {
+                return getter.invoke(bean);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("Unable to read " + getter.getName() + " of " + bean, e);
+            }
+        }
+    }
+
+}
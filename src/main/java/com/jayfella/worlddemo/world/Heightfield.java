@@ -0,0 +1,146 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.math.Vector3f;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A raster of the world height and surface normal over a single cell.
+ * Samples are spaced evenly and include both edges of the cell, so neighbouring cells share their edge samples.
+ * A heightfield is never modified once it has been created, so it can be read from any thread.
+ */
+public class Heightfield {
+
+    /**
+     * Stores heightfields in a {@link CellStore}.
+     */
+    public static final CellStore.Codec<Heightfield> CODEC = new CellStore.Codec<Heightfield>() {
+
+        @Override
+        public void write(Heightfield heightfield, DataOutput out) throws IOException {
+            out.writeInt(heightfield.cellX);
+            out.writeInt(heightfield.cellZ);
+            out.writeInt(heightfield.cellSize);
+            out.writeInt(heightfield.samples);
+            CellStore.writeFloats(out, heightfield.heights, heightfield.heights.length);
+            CellStore.writeFloats(out, heightfield.normals, heightfield.normals.length);
+        }
+
+        @Override
+        public Heightfield read(DataInput in) throws IOException {
+            return new Heightfield(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    CellStore.readFloats(in), CellStore.readFloats(in));
+        }
+    };
+
+    private final int cellX;
+    private final int cellZ;
+    private final int cellSize;
+    private final int samples;
+    private final float spacing;
+
+    private final float[] heights;
+    private final float[] normals;
+
+    /**
+     * Creates a heightfield.
+     * @param cellX    the x coordinate of the cell.
+     * @param cellZ    the z coordinate of the cell.
+     * @param cellSize the size of the cell in world units.
+     * @param samples  the amount of samples along each side, including both edges.
+     * @param heights  the heights, row by row along the z axis.
+     * @param normals  the normals, three floats for each height.
+     */
+    public Heightfield(int cellX, int cellZ, int cellSize, int samples, float[] heights, float[] normals) {
+        this.cellX = cellX;
+        this.cellZ = cellZ;
+        this.cellSize = cellSize;
+        this.samples = samples;
+        this.spacing = cellSize / (float) (samples - 1);
+        this.heights = heights;
+        this.normals = normals;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellZ() {
+        return cellZ;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    public float getSpacing() {
+        return spacing;
+    }
+
+    /**
+     * Returns the height at the given sample.
+     */
+    public float getHeight(int sampleX, int sampleZ) {
+        return heights[sampleZ * samples + sampleX];
+    }
+
+    /**
+     * Returns the height at the given cell-local position, interpolated between the four surrounding samples.
+     * @param x the x position inside the cell.
+     * @param z the z position inside the cell.
+     * @return the height of the world at the position.
+     */
+    public float getHeightAt(float x, float z) {
+
+        float fx = clamp(x / spacing);
+        float fz = clamp(z / spacing);
+
+        int x0 = Math.min((int) fx, samples - 2);
+        int z0 = Math.min((int) fz, samples - 2);
+
+        float tx = fx - x0;
+        float tz = fz - z0;
+
+        int i = z0 * samples + x0;
+
+        float h0 = heights[i] + (heights[i + 1] - heights[i]) * tx;
+        float h1 = heights[i + samples] + (heights[i + samples + 1] - heights[i + samples]) * tx;
+
+        return h0 + (h1 - h0) * tz;
+    }
+
+    /**
+     * Returns the normal of the nearest sample to the given cell-local position.
+     * @param x     the x position inside the cell.
+     * @param z     the z position inside the cell.
+     * @param store the vector to store the result in.
+     * @return the normal of the world at the position.
+     */
+    public Vector3f getNormalAt(float x, float z, Vector3f store) {
+
+        int sx = Math.round(clamp(x / spacing));
+        int sz = Math.round(clamp(z / spacing));
+        int i = (sz * samples + sx) * 3;
+
+        return store.set(normals[i], normals[i + 1], normals[i + 2]);
+    }
+
+    private float clamp(float sample) {
+        return Math.max(0, Math.min(samples - 1, sample));
+    }
+
+    /**
+     * Returns the approximate amount of memory this heightfield uses.
+     * @return the size in bytes.
+     */
+    public long getSizeInBytes() {
+        return (heights.length + normals.length) * 4L;
+    }
+
+}
@@ -0,0 +1,313 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.world.World;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A world-level cache of heightfields so each grid does not evaluate the world noise for the same ground again.
+ * Heightfields are created the first time a cell is requested. When the cache uses more memory than allowed the least
+ * recently used heightfields are removed.
+ *
+ * Evaluating a heightfield costs a noise sample for every sample of the cell, which only pays off for callers that
+ * sample most of the cell, such as the grass masks. Callers that only need a few heights, such as placing trees, use
+ * {@link #sampleHeightAt(float, float)}, which reads the heightfield if it is cached without taking the lock of the
+ * cache, and otherwise evaluates the noise once at the position.
+ *
+ * The cache is safe to use from the generation threads. Two threads that request the same missing cell at the same
+ * time may both evaluate it, but only one result is kept.
+ */
+public class HeightfieldCache {
+
+    // the name heightfields are kept under in the cell store.
+    private static final String STORE_NAME = "Heightfields";
+
+    private final World world;
+    private final int cellSize;
+    private final int samples;
+
+    private final LinkedHashMap<Long, Heightfield> heightfields = new LinkedHashMap<>(256, 0.75f, true);
+
+    // the same heightfields, so a few heights can be read without the lock. Only changed while holding the lock.
+    private final Map<Long, Heightfield> index = new ConcurrentHashMap<>();
+
+    private long maxBytes = 64L * 1024 * 1024;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile CellStore store;
+
+    // each generation thread reuses its own scratch to evaluate the noise.
+    private final ThreadLocal<Vector2f> scratch = ThreadLocal.withInitial(Vector2f::new);
+
+    /**
+     * Creates a heightfield cache.
+     * @param world    the world to evaluate the heights from.
+     * @param cellSize the size of each cached cell in world units.
+     * @param samples  the amount of samples along each side of a cell, including both edges.
+     */
+    public HeightfieldCache(World world, int cellSize, int samples) {
+        this.world = world;
+        this.cellSize = cellSize;
+        this.samples = samples;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the heightfield of the given cell, evaluating it if it's not in the cache.
+     * @param cellX the x coordinate of the cell.
+     * @param cellZ the z coordinate of the cell.
+     * @return the heightfield of the cell.
+     */
+    public Heightfield get(int cellX, int cellZ) {
+
+        long key = key(cellX, cellZ);
+
+        synchronized (this) {
+
+            Heightfield heightfield = heightfields.get(key);
+
+            if (heightfield != null) {
+                hits.incrementAndGet();
+                return heightfield;
+            }
+
+            misses.incrementAndGet();
+        }
+
+        Heightfield heightfield = loadOrEvaluate(cellX, cellZ);
+        return putIfAbsent(key, heightfield);
+    }
+
+    private Heightfield loadOrEvaluate(int cellX, int cellZ) {
+
+        CellStore store = this.store;
+
+        if (store == null) {
+            return evaluate(cellX, cellZ);
+        }
+
+        long settingsHash = new SettingsHash()
+                .add(cellSize)
+                .add(samples)
+                .addBean(world.getWorldNoise())
+                .get();
+
+        Heightfield heightfield = store.load(STORE_NAME, settingsHash, cellX, cellZ, Heightfield.CODEC);
+
+        if (heightfield == null) {
+            heightfield = evaluate(cellX, cellZ);
+            store.save(STORE_NAME, settingsHash, cellX, cellZ, heightfield, Heightfield.CODEC);
+        }
+
+        return heightfield;
+    }
+
+    /**
+     * Returns the height of the world at the given world position, evaluating the heightfield of the cell if it's not
+     * in the cache. Use this when sampling most of a cell.
+     * @param x the world x position.
+     * @param z the world z position.
+     * @return the interpolated height of the world.
+     */
+    public float getHeightAt(float x, float z) {
+
+        int cellX = (int) Math.floor(x / cellSize);
+        int cellZ = (int) Math.floor(z / cellSize);
+
+        return get(cellX, cellZ).getHeightAt(x - cellX * cellSize, z - cellZ * cellSize);
+    }
+
+    /**
+     * Returns the height of the world at the given world position. If the heightfield of the cell is cached its height
+     * is read without taking the lock of the cache, and without counting as a use of the heightfield. Otherwise the
+     * noise is evaluated once at the position, and the heightfield is not created. Use this when sampling a few
+     * positions of a cell.
+     *
+     * A cached heightfield interpolates between its samples, so where the ground curves between two samples the heights
+     * of the two paths differ slightly, by less than the ground rises or falls across one sample spacing.
+     * @param x the world x position.
+     * @param z the world z position.
+     * @return the height of the world.
+     */
+    public float sampleHeightAt(float x, float z) {
+
+        int cellX = (int) Math.floor(x / cellSize);
+        int cellZ = (int) Math.floor(z / cellSize);
+
+        Heightfield heightfield = index.get(key(cellX, cellZ));
+
+        if (heightfield != null) {
+            hits.incrementAndGet();
+            return heightfield.getHeightAt(x - cellX * cellSize, z - cellZ * cellSize);
+        }
+
+        misses.incrementAndGet();
+        return evaluate(x, z);
+    }
+
+    private float evaluate(float x, float z) {
+        return world.getWorldNoise().evaluate(scratch.get().set(x, z));
+    }
+
+    /**
+     * Returns the normal of the world at the given world position.
+     * @param x     the world x position.
+     * @param z     the world z position.
+     * @param store the vector to store the result in.
+     * @return the normal of the world.
+     */
+    public Vector3f getNormalAt(float x, float z, Vector3f store) {
+
+        int cellX = (int) Math.floor(x / cellSize);
+        int cellZ = (int) Math.floor(z / cellSize);
+
+        return get(cellX, cellZ).getNormalAt(x - cellX * cellSize, z - cellZ * cellSize, store);
+    }
+
+    /**
+     * Removes every heightfield, for example when the world noise has changed.
+     */
+    public synchronized void clear() {
+        heightfields.clear();
+        index.clear();
+        bytes = 0;
+    }
+
+    private synchronized Heightfield putIfAbsent(long key, Heightfield heightfield) {
+
+        Heightfield existing = heightfields.get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        heightfields.put(key, heightfield);
+        index.put(key, heightfield);
+        bytes += heightfield.getSizeInBytes();
+        evict();
+
+        return heightfield;
+    }
+
+    private void evict() {
+
+        Iterator<Map.Entry<Long, Heightfield>> iterator = heightfields.entrySet().iterator();
+
+        while (bytes > maxBytes && iterator.hasNext()) {
+
+            Map.Entry<Long, Heightfield> entry = iterator.next();
+
+            bytes -= entry.getValue().getSizeInBytes();
+            index.remove(entry.getKey());
+            iterator.remove();
+        }
+    }
+
+    private Heightfield evaluate(int cellX, int cellZ) {
+
+        Vector2f location = scratch.get();
+
+        float spacing = cellSize / (float) (samples - 1);
+        float originX = cellX * cellSize;
+        float originZ = cellZ * cellSize;
+
+        // evaluate one extra sample around the edge so the normals on the edge match the neighbouring cells.
+        int bordered = samples + 2;
+        float[] border = new float[bordered * bordered];
+
+        for (int z = 0; z < bordered; z++) {
+            for (int x = 0; x < bordered; x++) {
+                location.set(originX + (x - 1) * spacing, originZ + (z - 1) * spacing);
+                border[z * bordered + x] = world.getWorldNoise().evaluate(location);
+            }
+        }
+
+        float[] heights = new float[samples * samples];
+        float[] normals = new float[samples * samples * 3];
+
+        Vector3f normal = new Vector3f();
+
+        for (int z = 0; z < samples; z++) {
+            for (int x = 0; x < samples; x++) {
+
+                int b = (z + 1) * bordered + (x + 1);
+                int i = z * samples + x;
+
+                heights[i] = border[b];
+
+                float dx = border[b + 1] - border[b - 1];
+                float dz = border[b + bordered] - border[b - bordered];
+
+                normal.set(-dx, 2 * spacing, -dz).normalizeLocal();
+                normals[i * 3] = normal.x;
+                normals[i * 3 + 1] = normal.y;
+                normals[i * 3 + 2] = normal.z;
+            }
+        }
+
+        return new Heightfield(cellX, cellZ, cellSize, samples, heights, normals);
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    public CellStore getStore() {
+        return store;
+    }
+
+    /**
+     * Sets the store heightfields are loaded from before they are evaluated, and saved to after.
+     * Heightfields already in the cache are not saved.
+     * @param store the cell store, or null to always evaluate the heightfields.
+     */
+    public void setStore(CellStore store) {
+        this.store = store;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum amount of memory the cached heightfields may use.
+     * @param maxBytes the memory cap in bytes.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    public synchronized int getCellCount() {
+        return heightfields.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+}
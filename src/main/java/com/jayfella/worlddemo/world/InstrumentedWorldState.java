@@ -0,0 +1,40 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.DemoWorldState;
+import com.jayfella.jme.worldpager.world.WorldSettings;
+import com.jayfella.worlddemo.metrics.MetricsRegistry;
+
+/**
+ * The demo world of the world-pager, timing how long it spends on the main thread each frame.
+ * Most of that time is spent attaching and detaching cells.
+ */
+public class InstrumentedWorldState extends DemoWorldState {
+
+    private MetricsRegistry metrics;
+
+    public InstrumentedWorldState(WorldSettings worldSettings) {
+        super(worldSettings);
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        if (metrics == null) {
+            super.update(tpf);
+            return;
+        }
+
+        metrics.beginWorldUpdate();
+        super.update(tpf);
+        metrics.endWorldUpdate();
+    }
+
+}
@@ -0,0 +1,411 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jayfella.worlddemo.metrics.MemorySampler;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the memory the world uses within a budget by reducing the view distance of the grids.
+ *
+ * The memory of the world is the sum of the view distances of every grid, so raising the density or view distance of
+ * one grid can run the application out of memory. Twice a second the governor reads the heap that survived the last
+ * garbage collection and the direct buffers that hold the mesh buffers. Mapped files, such as the regions of the
+ * {@link CellStore}, are not counted, since giving up cells doesn't free them. When either is over its budget, it frees
+ * the buffers the {@link BufferPool} retains and the cells the {@link WarmCellCache} keeps, and then reduces the view
+ * distance of a grid by a ring at a time, the grid with the lowest priority first. The cells a step removes are kept
+ * warm, so the next step evicts them before it reduces another ring. A step taken because of the heap waits for a
+ * garbage collection before the next, see {@link MemorySteps}. Once the memory has stayed below the headroom for a
+ * while, the view distances are restored a ring at a time, the grid with the highest priority first. Every change is
+ * logged.
+ *
+ * Only grids with a {@link MemoryPolicy} are changed. The governor is disabled until the startup is complete, since
+ * the startup grows the view distances itself. Disabling it restores every view distance it reduced, to the distance
+ * it had before, unless the view distance was changed in the meantime.
+ */
+public class MemoryGovernor extends BaseAppState {
+
+    private static final Logger log = Logger.getLogger(MemoryGovernor.class.getName());
+
+    private static final float SAMPLE_INTERVAL = 0.5f;
+
+    private final WorldContext context;
+    private final List<GridPolicy> policies = new ArrayList<>();
+
+    private final long maxHeap = Runtime.getRuntime().maxMemory();
+    private final long maxDirect = MemorySampler.getMaxDirectMemory();
+
+    private float heapBudget = 0.8f;
+    private float directBudget = 0.8f;
+
+    private final MemorySteps steps = new MemorySteps();
+    private float sampleTime;
+    private boolean atMinimum;
+
+    private long heapUsed;
+    private long directUsed;
+
+    public MemoryGovernor(WorldContext context) {
+        this.context = context;
+
+        // enabled by the startup state once every grid has its whole view.
+        setEnabled(false);
+    }
+
+    private static class GridPolicy {
+
+        private final SceneGrid grid;
+        private final GridMetrics metrics;
+        private MemoryPolicy policy;
+
+        private final ViewDistanceReduction reduction = new ViewDistanceReduction();
+
+        private GridPolicy(SceneGrid grid, GridMetrics metrics, MemoryPolicy policy) {
+            this.grid = grid;
+            this.metrics = metrics;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Sets the memory policy of a grid. Call from the main thread.
+     * @param grid   the grid.
+     * @param policy the policy, or null to no longer change the view distance of the grid. The view distance is
+     *               restored if it was reduced.
+     */
+    public void setPolicy(SceneGrid grid, MemoryPolicy policy) {
+
+        for (int i = 0; i < policies.size(); i++) {
+
+            GridPolicy gridPolicy = policies.get(i);
+
+            if (gridPolicy.grid == grid) {
+
+                if (policy != null) {
+                    gridPolicy.policy = policy;
+                } else {
+                    restore(gridPolicy);
+                    policies.remove(i);
+                }
+
+                return;
+            }
+        }
+
+        if (policy != null) {
+            policies.add(new GridPolicy(grid, context.getMetrics().getGrid(grid), policy));
+        }
+    }
+
+    /**
+     * Returns the memory policy of a grid.
+     * @param grid the grid.
+     * @return the policy, or null if the grid has none.
+     */
+    public MemoryPolicy getPolicy(SceneGrid grid) {
+
+        for (GridPolicy gridPolicy : policies) {
+            if (gridPolicy.grid == grid) {
+                return gridPolicy.policy;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void initialize(Application app) {
+
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        for (GridPolicy gridPolicy : policies) {
+            restore(gridPolicy);
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        sampleTime += tpf;
+
+        if (sampleTime < SAMPLE_INTERVAL) {
+            return;
+        }
+
+        float elapsed = sampleTime;
+        sampleTime = 0;
+
+        // counted before the heap is read, so a collection counted since a step was over before the heap was read.
+        long collections = MemorySampler.readHeapCollections();
+
+        heapUsed = MemorySampler.readHeapLive();
+        directUsed = MemorySampler.readDirectUsed();
+
+        boolean heapOver = heapUsed > getHeapLimit();
+        boolean directOver = directUsed > getDirectLimit();
+
+        if (!heapOver && !directOver) {
+            atMinimum = false;
+        }
+
+        switch (steps.sample(elapsed, heapUsed, getHeapLimit(), directUsed, getDirectLimit(), collections)) {
+
+            case DOWN:
+                // counted again after the step, so the next step waits for a collection after this one.
+                if (stepDown(directOver)) {
+                    steps.stepped(heapOver, MemorySampler.readHeapCollections());
+                }
+                break;
+
+            case UP:
+                if (stepUp()) {
+                    steps.stepped(false, 0);
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private boolean stepDown(boolean directOver) {
+
+        // the buffers the pool retains are the cheapest memory to give back.
+        BufferPool bufferPool = context.getBufferPool();
+        long retained = bufferPool.getRetainedBytes();
+
+        if (directOver && retained > 0) {
+            bufferPool.clear();
+            log.info(String.format(Locale.ROOT, "Memory over budget (%s): freed %.1f MB of pooled buffers",
+                    describeMemory(), megabytes(retained)));
+            return true;
+        }
+
+        // the cells a step removes are kept warm within a few rings of the view distance, so a step frees nothing
+        // until the warm cells are given up.
+        WarmCellCache warmCells = context.getWarmCells();
+        long warm = warmCells.getBytes();
+
+        if (warm > 0) {
+            warmCells.evictAll();
+            log.info(String.format(Locale.ROOT, "Memory over budget (%s): evicted %.1f MB of warm cells",
+                    describeMemory(), megabytes(warm)));
+            return true;
+        }
+
+        // the grid with the lowest priority, or the one with the most memory if they are the same.
+        GridPolicy target = null;
+
+        for (GridPolicy gridPolicy : policies) {
+
+            if (gridPolicy.grid.getGridSettings().getViewDistance() <= gridPolicy.policy.getMinViewDistance()) {
+                continue;
+            }
+
+            if (target == null
+                    || gridPolicy.policy.getPriority() < target.policy.getPriority()
+                    || (gridPolicy.policy.getPriority() == target.policy.getPriority()
+                        && gridPolicy.metrics.getBytes() > target.metrics.getBytes())) {
+                target = gridPolicy;
+            }
+        }
+
+        if (target == null) {
+
+            if (!atMinimum) {
+                log.warning(String.format(Locale.ROOT, "Memory over budget (%s): every grid is at its minimum view distance",
+                        describeMemory()));
+                atMinimum = true;
+            }
+
+            return false;
+        }
+
+        int viewDistance = target.grid.getGridSettings().getViewDistance();
+        int reduced = target.reduction.reduce(viewDistance);
+        target.grid.getGridSettings().setViewDistance(reduced);
+
+        log.info(String.format(Locale.ROOT, "Memory over budget (%s): reduced the view distance of %s from %d to %d, its cells use %.1f MB",
+                describeMemory(), target.grid.getName(), viewDistance, reduced,
+                megabytes(target.metrics.getBytes())));
+
+        return true;
+    }
+
+    private boolean stepUp() {
+
+        // the grid with the highest priority, or the one with the least memory if they are the same.
+        GridPolicy target = null;
+
+        for (GridPolicy gridPolicy : policies) {
+
+            if (gridPolicy.reduction.getRings(gridPolicy.grid.getGridSettings().getViewDistance()) == 0) {
+                continue;
+            }
+
+            if (target == null
+                    || gridPolicy.policy.getPriority() > target.policy.getPriority()
+                    || (gridPolicy.policy.getPriority() == target.policy.getPriority()
+                        && gridPolicy.metrics.getBytes() < target.metrics.getBytes())) {
+                target = gridPolicy;
+            }
+        }
+
+        if (target == null) {
+            return false;
+        }
+
+        int viewDistance = target.grid.getGridSettings().getViewDistance();
+        int restored = target.reduction.restoreRing(viewDistance);
+        target.grid.getGridSettings().setViewDistance(restored);
+
+        log.info(String.format(Locale.ROOT, "Memory within budget (%s): restored the view distance of %s from %d to %d",
+                describeMemory(), target.grid.getName(), viewDistance, restored));
+
+        return true;
+    }
+
+    private void restore(GridPolicy gridPolicy) {
+
+        int viewDistance = gridPolicy.grid.getGridSettings().getViewDistance();
+        int restored = gridPolicy.reduction.restore(viewDistance);
+
+        if (restored < 0) {
+            return;
+        }
+
+        gridPolicy.grid.getGridSettings().setViewDistance(restored);
+
+        log.info(String.format(Locale.ROOT, "Restored the view distance of %s from %d to %d",
+                gridPolicy.grid.getName(), viewDistance, restored));
+    }
+
+    private String describeMemory() {
+        return String.format(Locale.ROOT, "heap %.0f / %.0f MB, direct %.0f / %.0f MB",
+                megabytes(heapUsed), megabytes(getHeapLimit()), megabytes(directUsed), megabytes(getDirectLimit()));
+    }
+
+    private static double megabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    public long getHeapLimit() {
+        return (long) (maxHeap * heapBudget);
+    }
+
+    public long getDirectLimit() {
+        return (long) (maxDirect * directBudget);
+    }
+
+    /**
+     * Returns the heap in use after the last garbage collection, as of the last sample.
+     * @return the size in bytes.
+     */
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    /**
+     * Returns the direct buffers in use, not counting mapped files, as of the last sample.
+     * @return the size in bytes.
+     */
+    public long getDirectUsed() {
+        return directUsed;
+    }
+
+    /**
+     * Returns the amount of rings the view distances are reduced by, over every grid.
+     * @return the amount of rings.
+     */
+    public int getReducedRings() {
+
+        int reduced = 0;
+
+        for (GridPolicy gridPolicy : policies) {
+            reduced += gridPolicy.reduction.getRings(gridPolicy.grid.getGridSettings().getViewDistance());
+        }
+
+        return reduced;
+    }
+
+    public float getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * Sets how much of the maximum heap the world may use.
+     * @param heapBudget the fraction of the maximum heap, from 0 to 1.
+     */
+    public void setHeapBudget(float heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    public float getDirectBudget() {
+        return directBudget;
+    }
+
+    /**
+     * Sets how much of the maximum direct memory the world may use.
+     * @param directBudget the fraction of the maximum direct memory, from 0 to 1.
+     */
+    public void setDirectBudget(float directBudget) {
+        this.directBudget = directBudget;
+    }
+
+    public float getHeadroom() {
+        return steps.getHeadroom();
+    }
+
+    /**
+     * Sets how far below the budgets the memory must be before the view distances are restored.
+     * @param headroom the fraction of the budgets, from 0 to 1.
+     */
+    public void setHeadroom(float headroom) {
+        steps.setHeadroom(headroom);
+    }
+
+    public float getStepInterval() {
+        return steps.getStepInterval();
+    }
+
+    /**
+     * Sets the shortest time between two changes, so the cells of a change are added or removed before the next. A
+     * change made because of the heap also waits for a garbage collection.
+     * @param stepInterval the time in seconds.
+     */
+    public void setStepInterval(float stepInterval) {
+        steps.setStepInterval(stepInterval);
+    }
+
+    public float getRestoreDelay() {
+        return steps.getRestoreDelay();
+    }
+
+    /**
+     * Sets how long the memory must stay below the headroom before a view distance is restored.
+     * @param restoreDelay the time in seconds.
+     */
+    public void setRestoreDelay(float restoreDelay) {
+        steps.setRestoreDelay(restoreDelay);
+    }
+
+}
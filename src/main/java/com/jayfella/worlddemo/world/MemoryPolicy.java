@@ -0,0 +1,48 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * Decides how the {@link MemoryGovernor} may reduce the view distance of a grid when the world uses too much memory.
+ *
+ * Grids with the lowest priority are reduced first, and restored last. A grid is never reduced below its minimum view
+ * distance, so the grids that matter most to the scene, such as the grass around the camera, are always there.
+ */
+public class MemoryPolicy {
+
+    private int priority;
+    private int minViewDistance;
+
+    /**
+     * Creates a policy.
+     * @param priority        the priority of the grid. Grids with a lower priority are reduced first.
+     * @param minViewDistance the smallest view distance the grid is reduced to.
+     */
+    public MemoryPolicy(int priority, int minViewDistance) {
+        this.priority = priority;
+        this.minViewDistance = minViewDistance;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of the grid. Grids with a lower priority are reduced first, and restored last.
+     * @param priority the priority.
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getMinViewDistance() {
+        return minViewDistance;
+    }
+
+    /**
+     * Sets the smallest view distance the grid is reduced to.
+     * @param minViewDistance the view distance in cells.
+     */
+    public void setMinViewDistance(int minViewDistance) {
+        this.minViewDistance = minViewDistance;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * Decides when the {@link MemoryGovernor} changes a view distance, from the memory it samples.
+ *
+ * A step down is taken while the memory is over a budget, at most once every step interval, so the cells of a step are
+ * removed before the memory is judged again. The live heap is only known after a garbage collection, so once a step
+ * was taken because of the heap, the next step also waits for a collection. Otherwise the heap read after a step still
+ * holds the cells it removed, and every grid would be reduced to its minimum one step at a time. A step up is taken
+ * once the memory has stayed below the headroom for the restore delay.
+ */
+class MemorySteps {
+
+    enum Step {
+        NONE, DOWN, UP
+    }
+
+    private float stepInterval = 2;
+    private float restoreDelay = 10;
+    private float headroom = 0.7f;
+
+    private float sinceStep = Float.MAX_VALUE;
+    private float belowTime;
+
+    // the collections counted when the last step was taken because of the heap, or -1 if it wasn't.
+    private long collectionsAtStep = -1;
+
+    /**
+     * Returns the step to take for a sample of the memory. The step is only counted once {@link #stepped} is called.
+     * @param elapsed     the time since the last sample in seconds.
+     * @param heapUsed    the live heap.
+     * @param heapLimit   the heap budget.
+     * @param directUsed  the direct memory in use.
+     * @param directLimit the direct memory budget.
+     * @param collections the amount of collections after which the live heap is up to date.
+     * @return the step to take.
+     */
+    Step sample(float elapsed, long heapUsed, long heapLimit, long directUsed, long directLimit, long collections) {
+
+        sinceStep += elapsed;
+
+        boolean heapOver = heapUsed > heapLimit;
+        boolean directOver = directUsed > directLimit;
+
+        if (heapOver || directOver) {
+
+            belowTime = 0;
+
+            if (sinceStep < stepInterval) {
+                return Step.NONE;
+            }
+
+            // the heap still holds what the last step removed until it has been collected. Direct memory is read as it
+            // is, so it doesn't wait.
+            if (!directOver && collections == collectionsAtStep) {
+                return Step.NONE;
+            }
+
+            return Step.DOWN;
+        }
+
+        if (heapUsed < heapLimit * headroom && directUsed < directLimit * headroom) {
+
+            belowTime += elapsed;
+            return belowTime >= restoreDelay && sinceStep >= stepInterval ? Step.UP : Step.NONE;
+        }
+
+        belowTime = 0;
+        return Step.NONE;
+    }
+
+    /**
+     * Records that a step was taken.
+     * @param heap        whether or not the step was taken because of the heap, so the next step waits for a
+     *                    collection.
+     * @param collections the amount of collections counted once the step was taken. Only used for a step taken
+     *                    because of the heap.
+     */
+    void stepped(boolean heap, long collections) {
+        sinceStep = 0;
+        belowTime = 0;
+        collectionsAtStep = heap ? collections : -1;
+    }
+
+    float getStepInterval() {
+        return stepInterval;
+    }
+
+    void setStepInterval(float stepInterval) {
+        this.stepInterval = stepInterval;
+    }
+
+    float getRestoreDelay() {
+        return restoreDelay;
+    }
+
+    void setRestoreDelay(float restoreDelay) {
+        this.restoreDelay = restoreDelay;
+    }
+
+    float getHeadroom() {
+        return headroom;
+    }
+
+    void setHeadroom(float headroom) {
+        this.headroom = headroom;
+    }
+
+}
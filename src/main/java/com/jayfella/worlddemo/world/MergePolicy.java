@@ -0,0 +1,62 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * Decides which cells of a grid are merged into super cells. Applied to the cells of a grid by the {@link CellMerger}.
+ *
+ * Cells are merged in aligned blocks of 2 x 2 cells from the merge ring outwards, and in blocks of 4 x 4 cells from the
+ * wide merge ring outwards. The ring of a block is the ring of its cell nearest the follower, so every cell of a block
+ * is at least that far away. The policy can be changed at any time, and is applied the next frame.
+ */
+public class MergePolicy {
+
+    private boolean enabled = true;
+    private int mergeRing;
+    private int wideMergeRing;
+
+    /**
+     * Creates a policy.
+     * @param mergeRing     the nearest ring of blocks of 2 x 2 cells.
+     * @param wideMergeRing the nearest ring of blocks of 4 x 4 cells.
+     */
+    public MergePolicy(int mergeRing, int wideMergeRing) {
+        this.mergeRing = mergeRing;
+        this.wideMergeRing = wideMergeRing;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether or not the cells of the grid are merged. Merged cells are split again the next frame.
+     * @param enabled whether or not to merge the cells.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMergeRing() {
+        return mergeRing;
+    }
+
+    /**
+     * Sets the ring from which cells are merged in blocks of 2 x 2 cells.
+     * @param mergeRing the ring distance in cells.
+     */
+    public void setMergeRing(int mergeRing) {
+        this.mergeRing = mergeRing;
+    }
+
+    public int getWideMergeRing() {
+        return wideMergeRing;
+    }
+
+    /**
+     * Sets the ring from which cells are merged in blocks of 4 x 4 cells.
+     * @param wideMergeRing the ring distance in cells.
+     */
+    public void setWideMergeRing(int wideMergeRing) {
+        this.wideMergeRing = wideMergeRing;
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.util.BufferUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file holding the stored payloads of a square region of cells of one grid.
+ *
+ * The file starts with a fixed header: a magic number, the format version, the settings hash the cells were
+ * generated with, and an index of the offset and length of the payload of every cell in the region. Payloads are
+ * appended to the end of the file, and a cell that is stored again is appended again, leaving its old payload unused.
+ *
+ * Payloads are read from a read-only memory map of the file. Payloads appended after the file was mapped are read
+ * from the channel instead, and the file is only mapped again once it has doubled in size, so a growing file is
+ * mapped a logarithmic amount of times. Safe to use from any thread. A file that has been closed throws a
+ * {@link ClosedChannelException}, and must be opened again to be used.
+ */
+class RegionFile {
+
+    private static final int MAGIC = 0x57444353;
+    private static final int VERSION = 1;
+
+    // the magic number, version and settings hash, followed by the index.
+    private static final int INDEX_OFFSET = 16;
+
+    private final File file;
+    private final long settingsHash;
+    private final int cells;
+
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    /**
+     * Opens a region file, creating it if it doesn't exist. A file that was written with another version or other
+     * settings is emptied.
+     * @param file         the file.
+     * @param settingsHash the settings hash of the cells.
+     * @param cells        the amount of cells in the region.
+     * @throws IOException if the file can't be opened.
+     */
+    RegionFile(File file, long settingsHash, int cells) throws IOException {
+        this.file = file;
+        this.settingsHash = settingsHash;
+        this.cells = cells;
+        this.offsets = new int[cells];
+        this.lengths = new int[cells];
+
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (!readHeader()) {
+            writeHeader();
+        }
+    }
+
+    private int getHeaderSize() {
+        return INDEX_OFFSET + cells * 8;
+    }
+
+    private boolean readHeader() throws IOException {
+
+        if (channel.size() < getHeaderSize()) {
+            return false;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(getHeaderSize());
+
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+
+        header.flip();
+
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getLong() != settingsHash) {
+            return false;
+        }
+
+        long size = channel.size();
+
+        for (int i = 0; i < cells; i++) {
+
+            int offset = header.getInt();
+            int length = header.getInt();
+
+            // a payload that was being written when the file was closed is treated as missing.
+            if (offset >= getHeaderSize() && length > 0 && (long) offset + length <= size) {
+                offsets[i] = offset;
+                lengths[i] = length;
+            }
+        }
+
+        return true;
+    }
+
+    private void writeHeader() throws IOException {
+
+        channel.truncate(0);
+
+        ByteBuffer header = ByteBuffer.allocate(getHeaderSize());
+        header.putInt(MAGIC).putInt(VERSION).putLong(settingsHash);
+        header.position(getHeaderSize());
+        header.flip();
+
+        write(header, 0);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Returns the payload of a cell.
+     * @param index the index of the cell in the region.
+     * @return a copy of the payload, or null if the cell is not stored.
+     * @throws IOException if the file can't be read.
+     */
+    synchronized byte[] read(int index) throws IOException {
+
+        ensureOpen();
+
+        if (lengths[index] == 0) {
+            return null;
+        }
+
+        int offset = offsets[index];
+        int length = lengths[index];
+
+        if (mapped == null || channel.size() >= 2L * mapped.capacity()) {
+
+            if (mapped != null) {
+                BufferUtils.destroyDirectBuffer(mapped);
+            }
+
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        byte[] payload = new byte[length];
+
+        if (offset + length <= mapped.capacity()) {
+            ByteBuffer view = mapped.duplicate();
+            view.position(offset);
+            view.get(payload);
+        } else {
+            read(ByteBuffer.wrap(payload), offset);
+        }
+
+        return payload;
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new IOException("Unexpected end of the region file: " + file);
+            }
+
+            position += read;
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+
+        if (channel == null) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Stores the payload of a cell, replacing the payload it was stored with before.
+     * @param index   the index of the cell in the region.
+     * @param payload the payload.
+     * @throws IOException if the file can't be written.
+     */
+    synchronized void write(int index, byte[] payload) throws IOException {
+
+        ensureOpen();
+
+        long end = channel.size();
+
+        if (end + payload.length > Integer.MAX_VALUE) {
+            throw new IOException("The region file is full: " + file);
+        }
+
+        write(ByteBuffer.wrap(payload), end);
+
+        // the index is written after the payload, so a crash can't leave an entry pointing at a partial payload.
+        ByteBuffer entry = ByteBuffer.allocate(8);
+        entry.putInt((int) end).putInt(payload.length);
+        entry.flip();
+        write(entry, INDEX_OFFSET + index * 8L);
+
+        offsets[index] = (int) end;
+        lengths[index] = payload.length;
+    }
+
+    synchronized void close() throws IOException {
+
+        if (mapped != null) {
+            BufferUtils.destroyDirectBuffer(mapped);
+            mapped = null;
+        }
+
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A 64 bit hash of the settings a cell was generated with, so stored cells can be told apart from cells generated
+ * with other settings. Values are hashed in the order they are added.
+ *
+ * Beans are hashed by reading every bean property with a simple value: primitives, strings, enums and vectors, in
+ * order of their names. Properties that hold a collection are hashed element by element, so the layers of a noise
+ * generator are included. Anything else, such as a material or a model, is skipped, since it can't be hashed
+ * consistently between runs.
+ */
+public final class SettingsHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // how deep the collections of a bean are followed.
+    private static final int MAX_DEPTH = 2;
+
+    private static final Map<Class<?>, List<Method>> getters = new ConcurrentHashMap<>();
+
+    private long hash = FNV_OFFSET;
+
+    public SettingsHash add(long value) {
+
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return this;
+    }
+
+    public SettingsHash add(int value) {
+        return add((long) value);
+    }
+
+    public SettingsHash add(float value) {
+        return add(Float.floatToIntBits(value));
+    }
+
+    public SettingsHash add(boolean value) {
+        return add(value ? 1 : 0);
+    }
+
+    public SettingsHash add(String value) {
+
+        if (value == null) {
+            return add(-1);
+        }
+
+        add(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+            add(value.charAt(i));
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds the simple bean properties of an object.
+     * @param bean the object to hash, or null.
+     * @return this hash.
+     */
+    public SettingsHash addBean(Object bean) {
+        addBean(bean, 0);
+        return this;
+    }
+
+    private void addBean(Object bean, int depth) {
+
+        if (bean == null) {
+            add(-1);
+            return;
+        }
+
+        add(bean.getClass().getName());
+
+        for (Method getter : getGetters(bean.getClass())) {
+
+            Object value;
+
+            try {
+                value = getter.invoke(bean);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                continue;
+            }
+
+            if (value instanceof Iterable) {
+
+                if (depth < MAX_DEPTH) {
+                    for (Object element : (Iterable<?>) value) {
+                        addBean(element, depth + 1);
+                    }
+                }
+
+            } else {
+                addValue(value);
+            }
+        }
+    }
+
+    private void addValue(Object value) {
+
+        if (value == null) {
+            add(-1);
+        } else if (value instanceof Float) {
+            add((float) (Float) value);
+        } else if (value instanceof Double) {
+            add(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Number) {
+            add(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            add((boolean) (Boolean) value);
+        } else if (value instanceof Character) {
+            add((char) (Character) value);
+        } else if (value instanceof String) {
+            add((String) value);
+        } else if (value instanceof Enum) {
+            add(((Enum<?>) value).name());
+        } else if (value instanceof Vector2f) {
+            add(((Vector2f) value).x).add(((Vector2f) value).y);
+        } else if (value instanceof Vector3f) {
+            add(((Vector3f) value).x).add(((Vector3f) value).y).add(((Vector3f) value).z);
+        }
+    }
+
+    private static List<Method> getGetters(Class<?> type) {
+        return getters.computeIfAbsent(type, SettingsHash::findGetters);
+    }
+
+    private static List<Method> findGetters(Class<?> type) {
+
+        List<Method> methods = new ArrayList<>();
+
+        try {
+
+            // the introspector orders the properties by name.
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+
+                Method getter = descriptor.getReadMethod();
+
+                if (getter != null && isHashable(getter.getReturnType())) {
+                    methods.add(getter);
+                }
+            }
+
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Unable to read the properties of " + type.getName(), e);
+        }
+
+        return methods;
+    }
+
+    private static boolean isHashable(Class<?> type) {
+        return type.isPrimitive()
+                || Number.class.isAssignableFrom(type)
+                || type == Boolean.class
+                || type == Character.class
+                || type == String.class
+                || type.isEnum()
+                || type == Vector2f.class
+                || type == Vector3f.class
+                || Iterable.class.isAssignableFrom(type);
+    }
+
+    /**
+     * Returns the hash of everything added so far.
+     * @return the hash.
+     */
+    public long get() {
+        return hash;
+    }
+
+}
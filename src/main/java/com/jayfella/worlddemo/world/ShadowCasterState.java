@@ -0,0 +1,235 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the {@link ShadowPolicy} of each demo grid to its cells as the follower moves.
+ *
+ * Every geometry that casts shadows is rendered again into each split of the shadow map, so a grid of grass that casts
+ * everywhere costs far more than it draws. Each frame the cells of every grid with a policy are given the shadow mode
+ * of their ring, which their content inherits. Grids without a policy, such as the terrain, are left alone.
+ *
+ * The amount of cells and geometries that cast shadows is reported to the metrics of each grid. The geometries are
+ * counted before the shadow renderer culls them to the light, so they are the most that can reach the shadow queue.
+ */
+public class ShadowCasterState extends BaseAppState {
+
+    private final WorldContext context;
+    private final List<GridPolicy> policies = new ArrayList<>();
+
+    // the amount of cells in each ring, reused each frame.
+    private int[] ringCounts = new int[16];
+
+    public ShadowCasterState(WorldContext context) {
+        this.context = context;
+    }
+
+    private static class GridPolicy {
+
+        private final SceneGrid grid;
+        private final GridMetrics metrics;
+        private ShadowPolicy policy;
+
+        private GridPolicy(SceneGrid grid, GridMetrics metrics, ShadowPolicy policy) {
+            this.grid = grid;
+            this.metrics = metrics;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Sets the shadow policy of a grid. Call from the main thread.
+     * @param grid   the grid.
+     * @param policy the policy, or null to leave the shadow mode of the cells to the scene again.
+     */
+    public void setPolicy(SceneGrid grid, ShadowPolicy policy) {
+
+        for (int i = 0; i < policies.size(); i++) {
+
+            GridPolicy gridPolicy = policies.get(i);
+
+            if (gridPolicy.grid == grid) {
+
+                if (policy != null) {
+                    gridPolicy.policy = policy;
+                } else {
+                    reset(gridPolicy);
+                    policies.remove(i);
+                }
+
+                return;
+            }
+        }
+
+        if (policy != null) {
+            policies.add(new GridPolicy(grid, context.getMetrics().getGrid(grid), policy));
+        }
+    }
+
+    /**
+     * Returns the shadow policy of a grid.
+     * @param grid the grid.
+     * @return the policy, or null if the grid has none.
+     */
+    public ShadowPolicy getPolicy(SceneGrid grid) {
+
+        for (GridPolicy gridPolicy : policies) {
+            if (gridPolicy.grid == grid) {
+                return gridPolicy.policy;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        Follower follower = context.getFollower();
+
+        for (GridPolicy gridPolicy : policies) {
+
+            ShadowPolicy policy = gridPolicy.policy;
+            GridCells cells = context.getCells(gridPolicy.grid);
+
+            int cellSize = gridPolicy.grid.getGridSettings().getCellSize().getSize();
+            int followerX = follower.getCellX(cellSize);
+            int followerZ = follower.getCellZ(cellSize);
+
+            int castRings = policy.getCastRings(cellSize);
+
+            if (castRings >= 0 && policy.getMaxCasters() > 0) {
+                castRings = limitRings(cells, followerX, followerZ, castRings, policy);
+            }
+
+            RenderQueue.ShadowMode castMode = policy.isReceive()
+                    ? RenderQueue.ShadowMode.CastAndReceive
+                    : RenderQueue.ShadowMode.Cast;
+
+            RenderQueue.ShadowMode otherMode = policy.isReceive()
+                    ? RenderQueue.ShadowMode.Receive
+                    : RenderQueue.ShadowMode.Off;
+
+            int casterCells = 0;
+            int casterGeometries = 0;
+
+            for (CellNode cell : cells.getCells()) {
+
+                boolean casts = ring(cell, followerX, followerZ) <= castRings;
+                RenderQueue.ShadowMode mode = casts ? castMode : otherMode;
+
+                if (cell.getLocalShadowMode() != mode) {
+                    cell.setShadowMode(mode);
+                }
+
+                if (casts) {
+                    casterCells++;
+                    casterGeometries += countCasters(cell);
+                }
+            }
+
+            gridPolicy.metrics.getShadows().setCasters(casterCells, casterGeometries);
+        }
+    }
+
+    private static int ring(CellNode cell, int followerX, int followerZ) {
+        return Math.max(Math.abs(cell.getGridPos().getX() - followerX), Math.abs(cell.getGridPos().getZ() - followerZ));
+    }
+
+    // counts the cells in each of the cast rings, and limits the rings to the caster budget of the policy.
+    private int limitRings(GridCells cells, int followerX, int followerZ, int castRings, ShadowPolicy policy) {
+
+        int furthest = -1;
+
+        for (CellNode cell : cells.getCells()) {
+
+            int ring = ring(cell, followerX, followerZ);
+
+            if (ring > castRings) {
+                continue;
+            }
+
+            if (ring >= ringCounts.length) {
+                int[] counts = new int[Math.max(ring + 1, ringCounts.length * 2)];
+                System.arraycopy(ringCounts, 0, counts, 0, ringCounts.length);
+                ringCounts = counts;
+            }
+
+            // the counts are cleared as they are read, so only rings that were counted this frame are non-zero.
+            ringCounts[ring]++;
+            furthest = Math.max(furthest, ring);
+        }
+
+        return policy.limitRings(ringCounts, furthest, castRings);
+    }
+
+    // the geometries that the shadow renderer would consider, skipping anything culled or told not to cast.
+    private static int countCasters(Spatial spatial) {
+
+        RenderQueue.ShadowMode mode = spatial.getLocalShadowMode();
+
+        if (spatial.getCullHint() == Spatial.CullHint.Always
+                || mode == RenderQueue.ShadowMode.Off
+                || mode == RenderQueue.ShadowMode.Receive) {
+            return 0;
+        }
+
+        if (spatial instanceof Geometry) {
+            return 1;
+        }
+
+        int count = 0;
+
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                count += countCasters(child);
+            }
+        }
+
+        return count;
+    }
+
+    private void reset(GridPolicy gridPolicy) {
+
+        for (CellNode cell : context.getCells(gridPolicy.grid).getCells()) {
+            cell.setShadowMode(RenderQueue.ShadowMode.Inherit);
+        }
+
+        gridPolicy.metrics.getShadows().setCasters(0, 0);
+    }
+
+    @Override
+    protected void initialize(Application app) {
+
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        // the cells cast and receive as the scene tells them to again.
+        for (GridPolicy gridPolicy : policies) {
+            reset(gridPolicy);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * Decides which cells of a grid cast shadows. Applied to the cells of a grid by the {@link ShadowCasterState}.
+ *
+ * Cells cast shadows if the grid casts, the cell is within the cast distance of the follower, and the cells that cast
+ * fit in the caster budget. Every other cell only receives shadows, or neither casts nor receives them if the grid
+ * doesn't receive. The policy can be changed at any time, and is applied the next frame.
+ */
+public class ShadowPolicy {
+
+    private boolean cast = true;
+    private boolean receive = true;
+    private float castDistance = Float.POSITIVE_INFINITY;
+    private int maxCasters;
+
+    /**
+     * Creates a policy where no cell casts shadows.
+     * @param receive whether or not the cells receive shadows.
+     * @return the policy.
+     */
+    public static ShadowPolicy noCasters(boolean receive) {
+
+        ShadowPolicy policy = new ShadowPolicy();
+        policy.setCast(false);
+        policy.setReceive(receive);
+
+        return policy;
+    }
+
+    /**
+     * Creates a policy where the cells within a distance of the follower cast shadows.
+     * @param castDistance the distance in world units, usually the z-extend of the shadow renderer.
+     * @return the policy.
+     */
+    public static ShadowPolicy castWithin(float castDistance) {
+
+        ShadowPolicy policy = new ShadowPolicy();
+        policy.setCastDistance(castDistance);
+
+        return policy;
+    }
+
+    public boolean isCast() {
+        return cast;
+    }
+
+    /**
+     * Sets whether or not the cells of the grid cast shadows at all.
+     * @param cast whether or not the cells cast shadows.
+     */
+    public void setCast(boolean cast) {
+        this.cast = cast;
+    }
+
+    public boolean isReceive() {
+        return receive;
+    }
+
+    /**
+     * Sets whether or not the cells of the grid receive shadows.
+     * @param receive whether or not the cells receive shadows.
+     */
+    public void setReceive(boolean receive) {
+        this.receive = receive;
+    }
+
+    public float getCastDistance() {
+        return castDistance;
+    }
+
+    /**
+     * Sets how far from the follower cells cast shadows. The distance is converted to the ring of cells around the
+     * follower that it reaches, so a cell casts if any part of it could be within the distance.
+     * @param castDistance the distance in world units.
+     */
+    public void setCastDistance(float castDistance) {
+        this.castDistance = castDistance;
+    }
+
+    /**
+     * Returns the furthest ring of cells that casts shadows, measured from the cell the follower is in.
+     * @param cellSize the size of the cells of the grid.
+     * @return the ring, or -1 if no cell casts.
+     */
+    public int getCastRings(int cellSize) {
+
+        if (!cast) {
+            return -1;
+        }
+
+        if (castDistance == Float.POSITIVE_INFINITY) {
+            return Integer.MAX_VALUE;
+        }
+
+        // the nearest edge of a cell in ring r is at least (r - 1) cells away.
+        return (int) Math.ceil(castDistance / cellSize);
+    }
+
+    /**
+     * Returns the furthest ring whose cells, and the cells of every ring inside it, fit in the caster budget.
+     * The counts are cleared as they are read, so the same array can be counted into again.
+     * @param ringCounts the amount of cells in each ring, from the ring the follower is in.
+     * @param furthest   the furthest ring with a count, or -1 if there are no cells.
+     * @param castRings  the furthest ring that casts shadows within the cast distance.
+     * @return the furthest ring that casts shadows, or -1 if no cell casts.
+     */
+    int limitRings(int[] ringCounts, int furthest, int castRings) {
+
+        int total = 0;
+        int limit = -1;
+
+        for (int ring = 0; ring <= furthest; ring++) {
+
+            total += ringCounts[ring];
+            ringCounts[ring] = 0;
+
+            if ((maxCasters <= 0 || total <= maxCasters) && limit == ring - 1) {
+                limit = ring;
+            }
+        }
+
+        // an empty ring beyond the last cell doesn't add any casters.
+        return limit == furthest ? castRings : limit;
+    }
+
+    public int getMaxCasters() {
+        return maxCasters;
+    }
+
+    /**
+     * Sets the most cells of the grid that cast shadows at once. Cells cast in whole rings from the follower, so the
+     * casters don't change within a ring as the follower moves.
+     * @param maxCasters the amount of cells, or 0 for no limit.
+     */
+    public void setMaxCasters(int maxCasters) {
+        this.maxCasters = maxCasters;
+    }
+
+}
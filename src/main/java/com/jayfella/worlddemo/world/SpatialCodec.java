@@ -0,0 +1,306 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.material.Material;
+import com.jme3.math.Quaternion;
+import com.jme3.math.Transform;
+import com.jme3.math.Vector3f;
+import com.jme3.renderer.queue.RenderQueue;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the generated content of a cell in a {@link CellStore}: the meshes of its geometries, with their names,
+ * transforms and queue buckets. Nested nodes are flattened, so the content is read back as a node holding every
+ * geometry with its transform relative to the content. Materials are not stored, so every geometry that is read uses
+ * the material of the codec.
+ *
+ * Empty content is stored too, so a cell without content isn't generated again. It is read back as a node without
+ * children. Only meshes with float, half float, short, int and byte buffers can be stored.
+ */
+public class SpatialCodec implements CellStore.Codec<Spatial> {
+
+    private static final int EMPTY = 0;
+    private static final int GEOMETRY = 1;
+    private static final int NODE = 2;
+
+    private final Material material;
+
+    /**
+     * Creates a codec.
+     * @param material the material of the geometries that are read.
+     */
+    public SpatialCodec(Material material) {
+        this.material = material;
+    }
+
+    /**
+     * Returns whether or not content read by this codec is empty.
+     * @param content the content.
+     * @return true if the content is null or a node without children.
+     */
+    public static boolean isEmpty(Spatial content) {
+        return content == null || content instanceof Node && ((Node) content).getQuantity() == 0;
+    }
+
+    @Override
+    public void write(Spatial content, DataOutput out) throws IOException {
+
+        if (content == null) {
+            out.writeByte(EMPTY);
+        } else if (content instanceof Geometry) {
+            out.writeByte(GEOMETRY);
+            writeGeometry((Geometry) content, content.getLocalTransform(), out);
+        } else {
+
+            List<Geometry> geometries = new ArrayList<>();
+
+            content.depthFirstTraversal(spatial -> {
+                if (spatial instanceof Geometry) {
+                    geometries.add((Geometry) spatial);
+                }
+            });
+
+            out.writeByte(NODE);
+            out.writeUTF(nameOf(content));
+            writeTransform(content.getLocalTransform(), out);
+            out.writeInt(geometries.size());
+
+            for (Geometry geometry : geometries) {
+
+                Transform transform = geometry.getLocalTransform().clone();
+
+                for (Node parent = geometry.getParent(); parent != content; parent = parent.getParent()) {
+                    transform.combineWithParent(parent.getLocalTransform());
+                }
+
+                writeGeometry(geometry, transform, out);
+            }
+        }
+    }
+
+    @Override
+    public Spatial read(DataInput in) throws IOException {
+
+        int type = in.readByte();
+
+        switch (type) {
+
+            case EMPTY:
+                return new Node();
+
+            case GEOMETRY:
+                return readGeometry(in);
+
+            case NODE:
+
+                Node node = new Node(in.readUTF());
+                node.setLocalTransform(readTransform(in));
+
+                int count = in.readInt();
+
+                for (int i = 0; i < count; i++) {
+                    node.attachChild(readGeometry(in));
+                }
+
+                return node;
+
+            default:
+                throw new IOException("Unknown content type: " + type);
+        }
+    }
+
+    private static String nameOf(Spatial spatial) {
+        return spatial.getName() == null ? "" : spatial.getName();
+    }
+
+    private void writeGeometry(Geometry geometry, Transform transform, DataOutput out) throws IOException {
+
+        out.writeUTF(nameOf(geometry));
+        writeTransform(transform, out);
+        out.writeUTF(geometry.getLocalQueueBucket().name());
+
+        Mesh mesh = geometry.getMesh();
+        List<VertexBuffer> buffers = new ArrayList<>();
+
+        for (VertexBuffer buffer : mesh.getBufferList()) {
+            if (buffer.getData() != null) {
+                buffers.add(buffer);
+            }
+        }
+
+        out.writeUTF(mesh.getMode().name());
+        out.writeInt(buffers.size());
+
+        for (VertexBuffer buffer : buffers) {
+            out.writeUTF(buffer.getBufferType().name());
+            out.writeUTF(buffer.getFormat().name());
+            out.writeByte(buffer.getNumComponents());
+            out.writeBoolean(buffer.isNormalized());
+            writeData(buffer, out);
+        }
+    }
+
+    private Geometry readGeometry(DataInput in) throws IOException {
+
+        Geometry geometry = new Geometry(in.readUTF());
+        geometry.setLocalTransform(readTransform(in));
+        geometry.setQueueBucket(RenderQueue.Bucket.valueOf(in.readUTF()));
+
+        Mesh mesh = new Mesh();
+        mesh.setMode(Mesh.Mode.valueOf(in.readUTF()));
+
+        int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+
+            VertexBuffer buffer = new VertexBuffer(VertexBuffer.Type.valueOf(in.readUTF()));
+            VertexBuffer.Format format = VertexBuffer.Format.valueOf(in.readUTF());
+            int components = in.readByte();
+            boolean normalized = in.readBoolean();
+
+            buffer.setupData(VertexBuffer.Usage.Static, components, format, readData(format, in));
+            buffer.setNormalized(normalized);
+            mesh.setBuffer(buffer);
+        }
+
+        mesh.updateCounts();
+        mesh.updateBound();
+
+        geometry.setMesh(mesh);
+        geometry.setMaterial(material);
+
+        return geometry;
+    }
+
+    private static void writeTransform(Transform transform, DataOutput out) throws IOException {
+
+        Vector3f translation = transform.getTranslation();
+        Quaternion rotation = transform.getRotation();
+        Vector3f scale = transform.getScale();
+
+        out.writeFloat(translation.x);
+        out.writeFloat(translation.y);
+        out.writeFloat(translation.z);
+        out.writeFloat(rotation.getX());
+        out.writeFloat(rotation.getY());
+        out.writeFloat(rotation.getZ());
+        out.writeFloat(rotation.getW());
+        out.writeFloat(scale.x);
+        out.writeFloat(scale.y);
+        out.writeFloat(scale.z);
+    }
+
+    private static Transform readTransform(DataInput in) throws IOException {
+        return new Transform(
+                new Vector3f(in.readFloat(), in.readFloat(), in.readFloat()),
+                new Quaternion(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat()),
+                new Vector3f(in.readFloat(), in.readFloat(), in.readFloat()));
+    }
+
+    // the data is written as one block of bytes, which is far faster than writing each value.
+    private static void writeData(VertexBuffer buffer, DataOutput out) throws IOException {
+
+        Buffer data = buffer.getData();
+        int count = data.limit();
+        ByteBuffer bytes;
+
+        switch (buffer.getFormat()) {
+
+            case Float:
+                bytes = ByteBuffer.allocate(count * 4);
+                bytes.asFloatBuffer().put((FloatBuffer) ((FloatBuffer) data).duplicate().rewind());
+                break;
+
+            case Short:
+            case UnsignedShort:
+                bytes = ByteBuffer.allocate(count * 2);
+                bytes.asShortBuffer().put((ShortBuffer) ((ShortBuffer) data).duplicate().rewind());
+                break;
+
+            case Int:
+            case UnsignedInt:
+                bytes = ByteBuffer.allocate(count * 4);
+                bytes.asIntBuffer().put((IntBuffer) ((IntBuffer) data).duplicate().rewind());
+                break;
+
+            case Byte:
+            case UnsignedByte:
+            case Half:
+                bytes = ByteBuffer.allocate(count);
+                bytes.put((ByteBuffer) ((ByteBuffer) data).duplicate().rewind());
+                break;
+
+            default:
+                throw new IOException("Unable to store a buffer of format " + buffer.getFormat());
+        }
+
+        out.writeInt(count);
+        out.write(bytes.array());
+    }
+
+    private static Buffer readData(VertexBuffer.Format format, DataInput in) throws IOException {
+
+        int count = in.readInt();
+
+        switch (format) {
+
+            case Float: {
+                ByteBuffer bytes = readBytes(in, count * 4);
+                FloatBuffer data = BufferUtils.createFloatBuffer(count);
+                data.put(bytes.asFloatBuffer()).flip();
+                return data;
+            }
+
+            case Short:
+            case UnsignedShort: {
+                ByteBuffer bytes = readBytes(in, count * 2);
+                ShortBuffer data = BufferUtils.createShortBuffer(count);
+                data.put(bytes.asShortBuffer()).flip();
+                return data;
+            }
+
+            case Int:
+            case UnsignedInt: {
+                ByteBuffer bytes = readBytes(in, count * 4);
+                IntBuffer data = BufferUtils.createIntBuffer(count);
+                data.put(bytes.asIntBuffer()).flip();
+                return data;
+            }
+
+            case Byte:
+            case UnsignedByte:
+            case Half: {
+                ByteBuffer data = BufferUtils.createByteBuffer(count);
+                data.put(readBytes(in, count)).flip();
+                return data;
+            }
+
+            default:
+                throw new IOException("Unable to read a buffer of format " + format);
+        }
+    }
+
+    private static ByteBuffer readBytes(DataInput in, int length) throws IOException {
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return ByteBuffer.wrap(bytes);
+    }
+
+}
@@ -0,0 +1,295 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Brings the world up ring by ring when the demo starts, and reports how long each stage took.
+ *
+ * Without this every grid asks for its whole view at once, so the cells around the camera wait behind hundreds of
+ * distant ones. While starting, each demo grid is paged with a view distance of one ring, which grows by a ring each
+ * time every cell within it is attached, until it reaches the view distance the grid was created with. The terrain is
+ * held at one ring until the ground under that ring is in the scene, then paged as usual. The demo grids only start
+ * growing once the terrain is released, so grids that depend on the view distance of the terrain, such as the far
+ * terrain, don't build cells for the smaller terrain that are thrown away once it grows.
+ *
+ * The demo grids are created once their assets have loaded, which happens while the terrain is paged, so the startup
+ * is only complete once the asset load time has been recorded. The terrain grid belongs to the world-pager and doesn't
+ * report its cells, so its first ring is read from the cells the {@link TerrainTracker} records in its metrics.
+ *
+ * The report holds how long loading the assets took, and the time from the start of the application to: the first
+ * frame, the first ring of terrain, each demo grid having its whole view attached, and every grid being complete.
+ */
+public class StartupState extends BaseAppState {
+
+    private static final Logger log = Logger.getLogger(StartupState.class.getName());
+
+    private static final String TERRAIN = "Terrain";
+
+    private final AbstractWorldState world;
+    private final WorldContext context;
+    private final long start;
+
+    private boolean progressive = true;
+
+    // written on the main thread, and read by whatever is waiting for the startup, such as the headless tools.
+    private volatile long assetLoadTime = -1;
+    private volatile long firstFrameTime = -1;
+    private volatile long terrainRingTime = -1;
+    private volatile long completeTime = -1;
+
+    private final Map<SceneGrid, GridStartup> grids = new LinkedHashMap<>();
+    private GridStartup terrain;
+
+    /**
+     * Creates the startup state.
+     * @param world   the world.
+     * @param context the context of the demo grids.
+     * @param start   the {@link System#nanoTime()} the application started at.
+     */
+    public StartupState(AbstractWorldState world, WorldContext context, long start) {
+        this.world = world;
+        this.context = context;
+        this.start = start;
+    }
+
+    private static class GridStartup {
+
+        private final SceneGrid grid;
+        private final int viewDistance;
+        private long readyTime = -1;
+
+        private GridStartup(SceneGrid grid, int viewDistance) {
+            this.grid = grid;
+            this.viewDistance = viewDistance;
+        }
+    }
+
+    /**
+     * Records how long loading the assets took, once the grids that use them have been added to the world. The
+     * startup is not complete until it is recorded. Called on the main thread.
+     * @param assetLoadTime the time taken in nanoseconds.
+     */
+    public void setAssetLoadTime(long assetLoadTime) {
+        this.assetLoadTime = assetLoadTime;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Sets whether or not the grids are brought up ring by ring. If not, the state only reports the times. Only has an
+     * effect before the state is attached.
+     * @param progressive whether or not to grow the view distances.
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        long now = System.nanoTime() - start;
+
+        if (firstFrameTime < 0) {
+            firstFrameTime = now;
+        }
+
+        if (completeTime >= 0) {
+            return;
+        }
+
+        // the terrain is created by the world once it is initialized, so grids are tracked as they appear.
+        for (SceneGrid grid : world.getSceneGrids()) {
+
+            if (!grids.containsKey(grid)) {
+
+                GridStartup startup = new GridStartup(grid, grid.getGridSettings().getViewDistance());
+                grids.put(grid, startup);
+
+                if (TERRAIN.equals(grid.getName())) {
+                    terrain = startup;
+                }
+
+                if (progressive) {
+                    grid.getGridSettings().setViewDistance(Math.min(1, startup.viewDistance));
+                }
+            }
+        }
+
+        if (terrain != null && terrainRingTime < 0 && isTerrainRingReady(terrain.grid)) {
+            terrainRingTime = now;
+            terrain.grid.getGridSettings().setViewDistance(terrain.viewDistance);
+        }
+
+        // the demo grids are only added once the asset load time is recorded.
+        boolean complete = terrainRingTime >= 0 && assetLoadTime >= 0;
+
+        for (GridStartup startup : grids.values()) {
+
+            if (startup == terrain) {
+                continue;
+            }
+
+            if (startup.readyTime < 0 && terrainRingTime >= 0 && grow(startup)) {
+                startup.readyTime = now;
+            }
+
+            complete &= startup.readyTime >= 0;
+        }
+
+        if (complete && !grids.isEmpty()) {
+            completeTime = now;
+            log.info(getReport());
+
+            // the view distances are the governor's to change from now on.
+            context.getMemoryGovernor().setEnabled(true);
+        }
+    }
+
+    // grows the view distance of a grid by a ring once the current one is ready, and returns true once it is complete.
+    private boolean grow(GridStartup startup) {
+
+        int cellSize = startup.grid.getGridSettings().getCellSize().getSize();
+        int viewDistance = startup.grid.getGridSettings().getViewDistance();
+
+        Follower follower = context.getFollower();
+        GridMetrics metrics = context.getMetrics().getGrid(startup.grid);
+
+        if (!metrics.isRingReady(follower.getCellX(cellSize), follower.getCellZ(cellSize), viewDistance)) {
+            return false;
+        }
+
+        if (viewDistance < startup.viewDistance) {
+            startup.grid.getGridSettings().setViewDistance(viewDistance + 1);
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isTerrainRingReady(SceneGrid terrain) {
+
+        int cellSize = terrain.getGridSettings().getCellSize().getSize();
+        Follower follower = context.getFollower();
+
+        return context.getMetrics().getGrid(terrain)
+                .isRingReady(follower.getCellX(cellSize), follower.getCellZ(cellSize), 1);
+    }
+
+    /**
+     * Returns whether or not every grid has its whole view attached.
+     * @return true if the startup is complete.
+     */
+    public boolean isComplete() {
+        return completeTime >= 0;
+    }
+
+    /**
+     * Returns how long loading the assets took.
+     * @return the time in nanoseconds, or -1 if it was not recorded.
+     */
+    public long getAssetLoadTime() {
+        return assetLoadTime;
+    }
+
+    /**
+     * Returns the time from the start of the application until the first frame was updated.
+     * @return the time in nanoseconds, or -1 if there has not been a frame yet.
+     */
+    public long getFirstFrameTime() {
+        return firstFrameTime;
+    }
+
+    /**
+     * Returns the time from the start of the application until the terrain around the follower was in the scene.
+     * @return the time in nanoseconds, or -1 if the terrain is not ready yet.
+     */
+    public long getTerrainRingTime() {
+        return terrainRingTime;
+    }
+
+    /**
+     * Returns the time from the start of the application until every grid had its whole view attached.
+     * @return the time in nanoseconds, or -1 if the startup is not complete yet.
+     */
+    public long getCompleteTime() {
+        return completeTime;
+    }
+
+    /**
+     * Returns the time from the start of the application until a demo grid had its whole view attached.
+     * @param grid the grid.
+     * @return the time in nanoseconds, or -1 if the grid is not complete yet.
+     */
+    public long getGridReadyTime(SceneGrid grid) {
+        GridStartup startup = grids.get(grid);
+        return startup == null ? -1 : startup.readyTime;
+    }
+
+    /**
+     * Returns the times recorded so far.
+     * @return a line for each time.
+     */
+    public String getReport() {
+
+        StringBuilder report = new StringBuilder("Startup:");
+        appendTime(report, "Asset load", assetLoadTime);
+        appendTime(report, "First frame", firstFrameTime);
+        appendTime(report, "First terrain ring", terrainRingTime);
+
+        for (GridStartup startup : grids.values()) {
+            if (startup != terrain) {
+                appendTime(report, startup.grid.getName() + " complete", startup.readyTime);
+            }
+        }
+
+        appendTime(report, "All grids complete", completeTime);
+
+        return report.toString();
+    }
+
+    private static void appendTime(StringBuilder report, String name, long nanos) {
+
+        report.append(String.format(Locale.ROOT, "%n  %-24s", name + ":"));
+        report.append(nanos < 0 ? "-" : String.format(Locale.ROOT, "%.1f ms", nanos / 1e6));
+    }
+
+    @Override
+    protected void initialize(Application app) {
+
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        if (completeTime >= 0) {
+            return;
+        }
+
+        // a startup that is stopped early leaves every grid at its own view distance.
+        for (GridStartup startup : grids.values()) {
+            startup.grid.getGridSettings().setViewDistance(startup.viewDistance);
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.world.AbstractWorldState;
+import com.jayfella.worlddemo.metrics.CellStats;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.SimpleApplication;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Records the cells of the terrain grid in the grid metrics, as the cells of the demo grids record themselves.
+ *
+ * The terrain grid belongs to the world-pager and doesn't report its cells, so they are found in the scene instead.
+ * Every geometry outside of the demo cells and their super cells is the terrain, one geometry per cell, and the cell it
+ * belongs to is the cell the centre of its bounds is in. Once the first terrain geometry is found, only the child of
+ * the root node that holds it is searched, which is a walk over the terrain cells in the scene each frame. A cell
+ * counts as attached with its content when its geometry appears, and detached when it is gone.
+ *
+ * The world-pager builds the terrain on threads of its own, so the build times of the terrain are not recorded. The
+ * attached cells, their size and the ring times are, which is what the startup waits for.
+ */
+public class TerrainTracker extends BaseAppState {
+
+    private static final String TERRAIN = "Terrain";
+
+    private final AbstractWorldState world;
+    private final WorldContext context;
+
+    private Node rootNode;
+    private GridMetrics metrics;
+
+    // the child of the root node the terrain cells are attached to, once the first one is found.
+    private Spatial terrainNode;
+
+    private final Map<Geometry, TerrainCell> cells = new IdentityHashMap<>();
+    private int frame;
+
+    public TerrainTracker(AbstractWorldState world, WorldContext context) {
+        this.world = world;
+        this.context = context;
+    }
+
+    private static class TerrainCell {
+
+        private final int x;
+        private final int z;
+        private final CellStats stats;
+        private int frame;
+
+        private TerrainCell(int x, int z, CellStats stats) {
+            this.x = x;
+            this.z = z;
+            this.stats = stats;
+        }
+    }
+
+    @Override
+    protected void initialize(Application app) {
+        rootNode = ((SimpleApplication) app).getRootNode();
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+
+        // the cells are counted again from the scene if the state is enabled again.
+        removeCells(frame + 1);
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        // the terrain is created by the world once it is initialized.
+        if (metrics == null) {
+
+            SceneGrid terrain = world.getSceneGrid(TERRAIN);
+
+            if (terrain == null) {
+                return;
+            }
+
+            metrics = context.getMetrics().getGrid(terrain);
+        }
+
+        if (terrainNode == null || terrainNode.getParent() != rootNode) {
+            terrainNode = findTerrainNode();
+
+            if (terrainNode == null) {
+                return;
+            }
+        }
+
+        int cellSize = world.getSceneGrid(TERRAIN).getGridSettings().getCellSize().getSize();
+
+        frame++;
+        visit(terrainNode, cellSize);
+        removeCells(frame);
+    }
+
+    private Spatial findTerrainNode() {
+
+        for (Spatial child : rootNode.getChildren()) {
+            if (containsTerrain(child)) {
+                return child;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean containsTerrain(Spatial spatial) {
+
+        if (isDemoSpatial(spatial)) {
+            return false;
+        }
+
+        if (spatial instanceof Geometry) {
+            return true;
+        }
+
+        if (spatial instanceof Node) {
+            for (Spatial child : ((Node) spatial).getChildren()) {
+                if (containsTerrain(child)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isDemoSpatial(Spatial spatial) {
+        return spatial instanceof CellNode || spatial == context.getCellMerger().getNode();
+    }
+
+    private void visit(Spatial spatial, int cellSize) {
+
+        if (isDemoSpatial(spatial)) {
+            return;
+        }
+
+        if (spatial instanceof Geometry) {
+
+            Geometry geometry = (Geometry) spatial;
+            TerrainCell cell = cells.get(geometry);
+
+            if (cell == null) {
+                cell = addCell(geometry, cellSize);
+
+                if (cell == null) {
+                    return;
+                }
+            }
+
+            cell.frame = frame;
+
+        } else if (spatial instanceof Node) {
+
+            Node node = (Node) spatial;
+
+            for (int i = 0; i < node.getQuantity(); i++) {
+                visit(node.getChild(i), cellSize);
+            }
+        }
+    }
+
+    private TerrainCell addCell(Geometry geometry, int cellSize) {
+
+        BoundingVolume bound = geometry.getWorldBound();
+
+        if (bound == null) {
+            return null;
+        }
+
+        int x = (int) Math.floor(bound.getCenter().x / cellSize);
+        int z = (int) Math.floor(bound.getCenter().z / cellSize);
+
+        TerrainCell cell = new TerrainCell(x, z, CellStats.of(geometry));
+        cells.put(geometry, cell);
+
+        metrics.cellAttached(x, z);
+        metrics.contentAttached(x, z, cell.stats);
+
+        return cell;
+    }
+
+    // removes the cells that were not in the scene in the given frame.
+    private void removeCells(int frame) {
+
+        Iterator<TerrainCell> iterator = cells.values().iterator();
+
+        while (iterator.hasNext()) {
+
+            TerrainCell cell = iterator.next();
+
+            if (cell.frame != frame) {
+                metrics.cellDetached(cell.x, cell.z, cell.stats);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of terrain cells in the scene.
+     * @return the amount of cells.
+     */
+    public int getCellCount() {
+        return cells.size();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.jayfella.worlddemo.world;
+
+/**
+ * The rings the {@link MemoryGovernor} has taken off the view distance of a grid.
+ *
+ * The view distance the grid had before it was first reduced is kept, so restoring it sets that distance instead of
+ * adding the rings to whatever the view distance is now. If the view distance is changed by anything else while it is
+ * reduced, such as the settings, the reduction is forgotten and the new view distance is left as it is.
+ */
+class ViewDistanceReduction {
+
+    // the view distance before the first reduction, and the one the governor set last. -1 if it isn't reduced.
+    private int original = -1;
+    private int applied = -1;
+
+    /**
+     * Takes a ring off a view distance.
+     * @param viewDistance the view distance of the grid now.
+     * @return the view distance to set.
+     */
+    int reduce(int viewDistance) {
+
+        if (viewDistance != applied) {
+            original = viewDistance;
+        }
+
+        applied = viewDistance - 1;
+        return applied;
+    }
+
+    /**
+     * Gives a ring back to a view distance.
+     * @param viewDistance the view distance of the grid now.
+     * @return the view distance to set, or -1 if it isn't reduced.
+     */
+    int restoreRing(int viewDistance) {
+
+        if (!isReduced(viewDistance)) {
+            return -1;
+        }
+
+        int restored = viewDistance + 1;
+
+        if (restored >= original) {
+            clear();
+        } else {
+            applied = restored;
+        }
+
+        return restored;
+    }
+
+    /**
+     * Gives every ring back to a view distance.
+     * @param viewDistance the view distance of the grid now.
+     * @return the view distance to set, or -1 if it isn't reduced.
+     */
+    int restore(int viewDistance) {
+
+        int restored = isReduced(viewDistance) ? original : -1;
+        clear();
+
+        return restored;
+    }
+
+    /**
+     * Returns the amount of rings the view distance is reduced by.
+     * @param viewDistance the view distance of the grid now.
+     * @return the amount of rings, or 0 if it isn't reduced.
+     */
+    int getRings(int viewDistance) {
+        return isReduced(viewDistance) ? original - applied : 0;
+    }
+
+    // a view distance changed by something else is no longer reduced.
+    private boolean isReduced(int viewDistance) {
+        return original >= 0 && viewDistance == applied;
+    }
+
+    private void clear() {
+        original = -1;
+        applied = -1;
+    }
+
+}
@@ -0,0 +1,393 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.worlddemo.metrics.GridMetrics;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the cells the pager removes from the scene, with their content, so a cell that comes back into view is
+ * attached again instead of rebuilt. Moving back and forth across a cell boundary no longer rebuilds the same ring of
+ * cells each time.
+ *
+ * A cell stays warm while it is within a few rings beyond the view distance of its grid, so a cell only just out of
+ * view is kept while the follower hovers around the boundary. Cells beyond that, and the least recently removed cells
+ * once the warm cells use more memory than the budget, are evicted and their content released. The memory of a cell is
+ * estimated from the buffers of its meshes.
+ *
+ * Grids take a warm cell when the pager asks for it, before creating a new one. The hits, misses and memory held are
+ * reported to the metrics of each grid.
+ */
+public class WarmCellCache extends BaseAppState {
+
+    private final WorldContext context;
+
+    private long maxBytes = 128L * 1024 * 1024;
+    private int hysteresis = 2;
+
+    // every warm cell, least recently removed first. Guarded by itself.
+    private final LinkedHashMap<Key, CellNode> cells = new LinkedHashMap<>();
+    private long bytes;
+
+    // the key cells are looked up with, so a lookup doesn't create one. Guarded by the cells.
+    private final Key lookup = new Key(null, 0, 0);
+
+    // reused by the update on the main thread.
+    private final List<Map.Entry<Key, CellNode>> outOfRange = new ArrayList<>();
+    private final Map<SceneGrid, long[]> totals = new HashMap<>();
+
+    // cells taken by the pager with the wrong cell size, waiting to be released on the main thread.
+    private final Queue<CellNode> evictedElsewhere = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public WarmCellCache(WorldContext context) {
+        this.context = context;
+    }
+
+    private static final class Key {
+
+        private SceneGrid grid;
+        private int x;
+        private int z;
+
+        private Key(SceneGrid grid, int x, int z) {
+            set(grid, x, z);
+        }
+
+        private Key set(SceneGrid grid, int x, int z) {
+            this.grid = grid;
+            this.x = x;
+            this.z = z;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return grid == other.grid && x == other.x && z == other.z;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(grid) * 31 + x) * 31 + z;
+        }
+    }
+
+    /**
+     * Returns whether or not cells should be kept when the pager removes them.
+     * @return true if the cache is attached and enabled.
+     */
+    public boolean isActive() {
+        return isInitialized() && isEnabled();
+    }
+
+    /**
+     * Keeps a cell the pager has removed from the scene, as the most recently removed cell. Called by the cell on the
+     * main thread.
+     * @param grid the grid of the cell.
+     * @param cell the cell, with its content.
+     */
+    void put(SceneGrid grid, CellNode cell) {
+
+        GridPos2i gridPos = cell.getGridPos();
+        CellNode previous;
+
+        synchronized (cells) {
+            // removed first, so a cell that was already warm moves to the end of the eviction order.
+            previous = cells.remove(lookup.set(grid, gridPos.getX(), gridPos.getZ()));
+            cells.put(new Key(grid, gridPos.getX(), gridPos.getZ()), cell);
+            bytes += cell.getStats().getBytes();
+
+            if (previous != null) {
+                bytes -= previous.getStats().getBytes();
+            }
+        }
+
+        if (previous != null && previous != cell) {
+            release(grid, previous);
+        }
+
+        evictOverBudget();
+    }
+
+    /**
+     * Takes a warm cell the pager has asked for. Called by the grid from the thread the pager builds cells on.
+     * @param grid    the grid.
+     * @param gridPos the position of the cell.
+     * @return the warm cell with its content, or null if the cell is not warm.
+     */
+    public CellNode take(SceneGrid grid, GridPos2i gridPos) {
+
+        CellNode cell;
+
+        synchronized (cells) {
+
+            cell = cells.remove(lookup.set(grid, gridPos.getX(), gridPos.getZ()));
+
+            if (cell != null) {
+                bytes -= cell.getStats().getBytes();
+            }
+        }
+
+        GridMetrics metrics = context.getMetrics().getGrid(grid);
+
+        // the cell size changed since the cell was removed.
+        if (cell != null && cell.getCellSize() != grid.getGridSettings().getCellSize().getSize()) {
+            evictedElsewhere.add(cell);
+            cell = null;
+        }
+
+        if (cell == null) {
+            misses.incrementAndGet();
+            metrics.getWarmCells().miss();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        metrics.getWarmCells().hit();
+
+        return cell;
+    }
+
+    /**
+     * Returns whether or not a cell is warm, so it doesn't need to be built ahead of the pager.
+     * @param grid the grid.
+     * @param x    the x coordinate of the cell.
+     * @param z    the z coordinate of the cell.
+     * @return true if the cell is warm.
+     */
+    public boolean contains(SceneGrid grid, int x, int z) {
+
+        synchronized (cells) {
+            return cells.containsKey(lookup.set(grid, x, z));
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        CellNode cell;
+
+        while ((cell = evictedElsewhere.poll()) != null) {
+            cell.discardContent();
+            evicted.incrementAndGet();
+        }
+
+        for (long[] total : totals.values()) {
+            total[0] = 0;
+            total[1] = 0;
+        }
+
+        synchronized (cells) {
+
+            Iterator<Map.Entry<Key, CellNode>> iterator = cells.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+
+                Map.Entry<Key, CellNode> entry = iterator.next();
+                SceneGrid grid = entry.getKey().grid;
+                CellNode warm = entry.getValue();
+
+                int cellSize = grid.getGridSettings().getCellSize().getSize();
+                int maxRing = grid.getGridSettings().getViewDistance() + hysteresis;
+
+                if (warm.getCellSize() != cellSize || context.getFollower().getRing(warm.getGridPos(), cellSize) > maxRing) {
+                    bytes -= warm.getStats().getBytes();
+                    iterator.remove();
+                    outOfRange.add(entry);
+                    continue;
+                }
+
+                long[] total = totals.computeIfAbsent(grid, g -> new long[2]);
+                total[0]++;
+                total[1] += warm.getStats().getBytes();
+            }
+        }
+
+        for (int i = 0; i < outOfRange.size(); i++) {
+            Map.Entry<Key, CellNode> entry = outOfRange.get(i);
+            release(entry.getKey().grid, entry.getValue());
+        }
+
+        outOfRange.clear();
+
+        evictOverBudget();
+
+        // a grid without warm cells keeps a zero total until the cache is disabled.
+        for (Map.Entry<SceneGrid, long[]> entry : totals.entrySet()) {
+            context.getMetrics().getGrid(entry.getKey()).getWarmCells().setCells((int) entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    private void evictOverBudget() {
+
+        while (true) {
+
+            Map.Entry<Key, CellNode> eldest;
+
+            synchronized (cells) {
+
+                if (bytes <= maxBytes || cells.isEmpty()) {
+                    return;
+                }
+
+                Iterator<Map.Entry<Key, CellNode>> iterator = cells.entrySet().iterator();
+                eldest = iterator.next();
+                iterator.remove();
+                bytes -= eldest.getValue().getStats().getBytes();
+            }
+
+            release(eldest.getKey().grid, eldest.getValue());
+        }
+    }
+
+    /**
+     * Evicts every warm cell and releases its content, such as when the memory of the world is over budget. Call from
+     * the main thread.
+     */
+    public void evictAll() {
+
+        List<Map.Entry<Key, CellNode>> all;
+
+        synchronized (cells) {
+            all = new ArrayList<>(cells.entrySet());
+            cells.clear();
+            bytes = 0;
+        }
+
+        totals.clear();
+
+        for (Map.Entry<Key, CellNode> entry : all) {
+            release(entry.getKey().grid, entry.getValue());
+        }
+
+        for (GridMetrics metrics : context.getMetrics().getGrids()) {
+            metrics.getWarmCells().setCells(0, 0);
+        }
+    }
+
+    private void release(SceneGrid grid, CellNode cell) {
+        cell.discardContent();
+        evicted.incrementAndGet();
+        context.getMetrics().getGrid(grid).getWarmCells().evicted();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the most memory the warm cells of every grid may use together. The least recently removed cells are
+     * evicted first.
+     * @param maxBytes the memory budget in bytes.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the memory budget in megabytes, for the property panels.
+     * @return the memory budget in megabytes.
+     */
+    public int getMaxMegabytes() {
+        return (int) (maxBytes / (1024 * 1024));
+    }
+
+    public void setMaxMegabytes(int maxMegabytes) {
+        setMaxBytes(maxMegabytes * 1024L * 1024L);
+    }
+
+    public int getHysteresis() {
+        return hysteresis;
+    }
+
+    /**
+     * Sets how many rings beyond the view distance of a grid its cells are kept warm.
+     * @param hysteresis the amount of rings.
+     */
+    public void setHysteresis(int hysteresis) {
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Returns the amount of cells the pager asked for that were warm.
+     * @return the amount of hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the amount of cells the pager asked for that had to be built.
+     * @return the amount of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the amount of warm cells whose content was released before the pager asked for them again.
+     * @return the amount of evicted cells.
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Returns the estimated memory used by the warm cells of every grid.
+     * @return the size in bytes.
+     */
+    public long getBytes() {
+
+        synchronized (cells) {
+            return bytes;
+        }
+    }
+
+    public int getCellCount() {
+
+        synchronized (cells) {
+            return cells.size();
+        }
+    }
+
+    @Override
+    protected void initialize(Application app) {
+
+    }
+
+    @Override
+    protected void cleanup(Application app) {
+
+    }
+
+    @Override
+    protected void onEnable() {
+
+    }
+
+    @Override
+    protected void onDisable() {
+        evictAll();
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.jayfella.worlddemo.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+import com.jayfella.jme.worldpager.world.World;
+import com.jayfella.worlddemo.metrics.MetricsRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * World-level state shared by the grids of the demo.
+ */
+public class WorldContext {
+
+    private final World world;
+    private final Follower follower = new Follower();
+    private final HeightfieldCache heightfields;
+    private final MetricsRegistry metrics = new MetricsRegistry(follower);
+    private final AttachScheduler attachScheduler = new AttachScheduler(follower);
+    private final GenerationExecutor generationExecutor =
+            new GenerationExecutor(follower, GenerationExecutor.getDefaultThreads());
+    private final Map<String, GridCells> cells = new HashMap<>();
+    private final ShadowCasterState shadowCasters = new ShadowCasterState(this);
+    private final CellPrefetcher prefetcher = new CellPrefetcher(this);
+    private final WarmCellCache warmCells = new WarmCellCache(this);
+    private final CellMerger cellMerger = new CellMerger(this);
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor(this);
+
+    // enough for the buffers of a few rings of cells to be reused as the camera moves.
+    private final BufferPool bufferPool = new BufferPool(64 * 1024 * 1024);
+
+    private volatile CellStore cellStore;
+
+    public WorldContext(World world) {
+        this.world = world;
+
+        // one sample per world unit, which matches the resolution of the terrain.
+        this.heightfields = new HeightfieldCache(world, 32, 33);
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public Follower getFollower() {
+        return follower;
+    }
+
+    public HeightfieldCache getHeightfields() {
+        return heightfields;
+    }
+
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the scheduler that attaches the content of cells within a time budget.
+     * It must be attached to the state manager to be used.
+     * @return the attach scheduler.
+     */
+    public AttachScheduler getAttachScheduler() {
+        return attachScheduler;
+    }
+
+    /**
+     * Returns the executor that builds the content of the cells of the demo grids.
+     * @return the generation executor.
+     */
+    public GenerationExecutor getGenerationExecutor() {
+        return generationExecutor;
+    }
+
+    /**
+     * Returns the state that decides which cells of the demo grids cast shadows.
+     * It must be attached to the state manager to be used.
+     * @return the shadow caster state.
+     */
+    public ShadowCasterState getShadowCasters() {
+        return shadowCasters;
+    }
+
+    /**
+     * Returns the state that builds cells ahead of the follower along its path.
+     * It must be attached to the state manager for cells to be prefetched.
+     * @return the cell prefetcher.
+     */
+    public CellPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Returns the cache that keeps the cells the pager removes, so they are attached again instead of rebuilt.
+     * It must be attached to the state manager for cells to be kept.
+     * @return the warm cell cache.
+     */
+    public WarmCellCache getWarmCells() {
+        return warmCells;
+    }
+
+    /**
+     * Returns the state that merges blocks of distant cells into super cells.
+     * It must be attached to the state manager for cells to be merged.
+     * @return the cell merger.
+     */
+    public CellMerger getCellMerger() {
+        return cellMerger;
+    }
+
+    /**
+     * Returns the state that reduces the view distances of the grids when the world uses too much memory.
+     * It must be attached to the state manager, and is enabled once the startup is complete.
+     * @return the memory governor.
+     */
+    public MemoryGovernor getMemoryGovernor() {
+        return memoryGovernor;
+    }
+
+    /**
+     * Returns the pool of direct buffers the demo grids build their cells with.
+     * @return the buffer pool.
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the store the generated data of cells is kept in between runs.
+     * @return the cell store, or null if cells are always generated.
+     */
+    public CellStore getCellStore() {
+        return cellStore;
+    }
+
+    /**
+     * Sets the store the grids and the heightfield cache load the data of cells from before generating it.
+     * @param cellStore the cell store, or null to always generate cells.
+     */
+    public void setCellStore(CellStore cellStore) {
+        this.cellStore = cellStore;
+        heightfields.setStore(cellStore);
+    }
+
+    /**
+     * Returns the seed the random streams of the cells of a grid are derived from. It depends on the seed of the world
+     * and the name of the grid, so each grid places its content differently.
+     * @param grid the grid.
+     * @return the seed of the grid.
+     */
+    public long getGridSeed(SceneGrid grid) {
+        return CellRandom.gridSeed(world.getWorldSettings().getSeed(), grid.getName());
+    }
+
+    /**
+     * Adds the settings of the world noise to a settings hash, for data that depends on the height of the world.
+     * @param hash the hash to add to.
+     * @return the hash.
+     */
+    public SettingsHash hashWorldNoise(SettingsHash hash) {
+        return hash
+                .add(heightfields.getSamples())
+                .addBean(world.getWorldNoise());
+    }
+
+    /**
+     * Returns the cells of the given grid that are in the scene, creating them the first time the grid is requested.
+     * @param grid the grid.
+     * @return the cells of the grid.
+     */
+    public synchronized GridCells getCells(SceneGrid grid) {
+        return cells.computeIfAbsent(grid.getName(), name -> new GridCells(grid));
+    }
+
+}
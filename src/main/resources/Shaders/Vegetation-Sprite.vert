@@ -36,12 +36,41 @@ uniform sampler2D m_Noise;
 uniform vec3 m_WorldOffset;
 
 attribute vec3 inPosition;
-attribute vec2 inTexCoord;
 attribute vec3 inNormal;
 
+#ifdef POINT_CLOUD
+  // the mesh is the shape of one sprite, and each instance is a clump. See SpriteCloud.
+  // x is the offset across the sprite, y the height on the texture and z the plane of the sprite.
+  attribute vec3 inTexCoord;
+  // the cell-local position and the size of the clump.
+  attribute vec4 inInstanceData;
+  // the sprite index, the phase and the octahedral normal of the clump.
+  attribute vec4 inTexCoord3;
+#else
+  attribute vec2 inTexCoord;
+#endif
+
 varying vec3 lightVec;
 //varying vec4 spotVec;
 
+#ifdef COMPACT_VERTICES
+  // positions are quantized shorts, normals are octahedral normalized shorts and texture coordinates are half floats.
+  uniform vec3 m_PositionScale;
+  uniform vec3 m_PositionOffset;
+#endif
+
+#if defined(COMPACT_VERTICES) || defined(POINT_CLOUD)
+  // the normal is projected onto an octahedron with Y up, and the lower half is folded over the upper half.
+  vec3 decodeNormal(in vec2 e){
+      vec3 n = vec3(e.x, 1.0 - abs(e.x) - abs(e.y), e.y);
+      if (n.y < 0.0){
+          vec2 s = vec2(e.x >= 0.0 ? 1.0 : -1.0, e.y >= 0.0 ? 1.0 : -1.0);
+          n.xz = (1.0 - abs(e.yx)) * s;
+      }
+      return normalize(n);
+  }
+#endif
+
 #ifdef VERTEX_COLOR
   attribute vec4 inColor;
 #endif
@@ -141,8 +170,16 @@ vec2 computeLighting(in vec3 wvPos, in vec3 wvNorm, in vec3 wvViewDir, in vec4 w
 #endif
 
 void main(){
-   vec4 modelSpacePos = vec4(inPosition, 1.0);
-   vec3 modelSpaceNorm = inNormal;
+   #if defined(POINT_CLOUD)
+     vec4 modelSpacePos = vec4(inInstanceData.xyz, 1.0);
+     vec3 modelSpaceNorm = decodeNormal(inTexCoord3.zw * (1.0 / 32767.0));
+   #elif defined(COMPACT_VERTICES)
+     vec4 modelSpacePos = vec4(inPosition * m_PositionScale + m_PositionOffset, 1.0);
+     vec3 modelSpaceNorm = decodeNormal(inNormal.xy);
+   #else
+     vec4 modelSpacePos = vec4(inPosition, 1.0);
+     vec3 modelSpaceNorm = inNormal;
+   #endif
 
    #ifndef VERTEX_LIGHTING
         vec3 modelSpaceTan  = inTangent.xyz;
@@ -159,7 +196,6 @@ void main(){
    // We plot the position of the grass vertexes based on the
    // texture coordinates
    //gl_Position = g_WorldViewProjectionMatrix * modelSpacePos;
-   texCoord = inTexCoord;
    #ifdef SEPARATE_TEXCOORD
       texCoord2 = inTexCoord2;
    #endif
@@ -177,17 +213,34 @@ void main(){
    vec3 cameraDir = cameraOffset / vDistance;
    vec3 posOffset = normalize(vec3(-cameraDir.z, 0.0, cameraDir.x));
 
-   // The whole part of the x coordinate is the atlas cell.
-   // The fractional part says which corner this is.
-   // X fract() will be 0.25, 0.5, or 0.0
-   // Y will be 1 at x=0 and x=0.5 but 0 at x=0.25.
-   // I kept the decimal part small so that it could be safely
-   // extracted from the texture coordinate.
-   float texFract = fract(texCoord.x);
-   float offsetLength = (texFract * 2.0) - 0.5;
-   float texY = abs(offsetLength) * 2.0;
+   #ifdef POINT_CLOUD
+     float offsetLength = inTexCoord.x;
+     float texY = inTexCoord.y;
+     float size = inInstanceData.w;
+     float index = inTexCoord3.x;
+     float phase = inTexCoord3.y * (6.2831853 / 32767.0);
+
+     // crossed sprites keep their own direction, turned by the phase of the clump.
+     if (inTexCoord.z > 0.5){
+         float angle = phase + (inTexCoord.z - 1.0) * 1.5707963;
+         posOffset = vec3(cos(angle), 0.0, sin(angle));
+     }
+   #else
+     // The whole part of the x coordinate is the atlas cell.
+     // The fractional part says which corner this is.
+     // X fract() will be 0.25, 0.5, or 0.0
+     // Y will be 1 at x=0 and x=0.5 but 0 at x=0.25.
+     // I kept the decimal part small so that it could be safely
+     // extracted from the texture coordinate.
+     float texFract = fract(inTexCoord.x);
+     float offsetLength = (texFract * 2.0) - 0.5;
+     float texY = abs(offsetLength) * 2.0;
+     float size = inTexCoord.y;
+     float index = inTexCoord.x - texFract;
+     float phase = 0.0;
+   #endif
+
    float normalProjectionLength = texY - 0.25;
-   float size = texCoord.y;
 
    modelSpacePos.xyz += modelSpaceNorm * normalProjectionLength * size;
    wPos = (g_WorldMatrix * modelSpacePos).xyz;
@@ -201,16 +254,15 @@ void main(){
     vec4 noise = texture2D(m_Noise, vec2(groundPos.x * 0.01 + g_Time * 0.01, groundPos.y * 0.01));
     //wPos.x += (noise.x * 0.5 - 0.25) * normalProjectionLength;
     float strength = noise.y * 0.15 * size;
-    wPos.x += sin(g_Time * (1.0 + noise.x)) * normalProjectionLength * strength;
+    wPos.x += sin(g_Time * (1.0 + noise.x) + phase) * normalProjectionLength * strength;
    #endif
 
    gl_Position = g_ViewProjectionMatrix * vec4(wPos, 1.0);
 
    // Figure out the texture coordinate from the index
-   float index = texCoord.x - texFract;
    float u = mod(index, 4.0);
    float v = mod((index - u) * 0.25, 4.0);
-   texCoord.x = u * 0.25 + texFract * 0.5;
+   texCoord.x = u * 0.25 + (offsetLength + 0.5) * 0.25;
    texCoord.y = v * 0.25 + texY * 0.25;
 
 
@@ -0,0 +1,238 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactSpriteMeshTest {
+
+    private static Mesh createMesh(float[] positions, float[] normals, float[] texCoords) {
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, BufferUtils.createFloatBuffer(positions));
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, BufferUtils.createFloatBuffer(normals));
+        mesh.setBuffer(VertexBuffer.Type.TexCoord, 2, BufferUtils.createFloatBuffer(texCoords));
+        mesh.updateCounts();
+
+        return mesh;
+    }
+
+    private static Mesh createQuad() {
+
+        Mesh mesh = createMesh(
+                new float[] { 0, -12.5f, 0, 255.9f, 0, 0, 255.9f, 1023.9f, 255.9f, 0, 0.75f, 255.9f },
+                new float[] { 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1, 0 },
+                new float[] { 0, 0, 0.25f, 0, 0.25f, 0.5f, 0, 0.5f });
+
+        mesh.setBuffer(VertexBuffer.Type.Index, 3, BufferUtils.createShortBuffer(new short[] { 0, 1, 2, 0, 2, 3 }));
+        mesh.updateCounts();
+
+        return mesh;
+    }
+
+    private static int bytes(VertexBuffer vertexBuffer) {
+
+        // the half floats are written to a byte buffer.
+        Buffer data = vertexBuffer.getData();
+        return data instanceof ByteBuffer ? data.limit() : data.limit() * vertexBuffer.getFormat().getComponentSize();
+    }
+
+    @Test
+    public void usesFourteenBytesAVertex() {
+
+        Mesh compact = CompactSpriteMesh.encode(createQuad());
+        assertNotNull(compact);
+
+        VertexBuffer positions = compact.getBuffer(VertexBuffer.Type.Position);
+        VertexBuffer normals = compact.getBuffer(VertexBuffer.Type.Normal);
+        VertexBuffer texCoords = compact.getBuffer(VertexBuffer.Type.TexCoord);
+
+        assertEquals(VertexBuffer.Format.Short, positions.getFormat());
+        assertEquals(VertexBuffer.Format.Short, normals.getFormat());
+        assertEquals(VertexBuffer.Format.Half, texCoords.getFormat());
+        assertTrue(normals.isNormalized());
+
+        assertEquals(4 * 6, bytes(positions));
+        assertEquals(4 * 4, bytes(normals));
+        assertEquals(4 * 4, bytes(texCoords));
+        assertEquals(4 * 14, bytes(positions) + bytes(normals) + bytes(texCoords));
+
+        assertEquals(4, compact.getVertexCount());
+        assertEquals(2, compact.getTriangleCount());
+    }
+
+    @Test
+    public void sharesTheOtherBuffersAndKeepsTheBounds() {
+
+        Mesh mesh = createQuad();
+        Mesh compact = CompactSpriteMesh.encode(mesh);
+
+        assertSame(mesh.getBuffer(VertexBuffer.Type.Index), compact.getBuffer(VertexBuffer.Type.Index));
+
+        BoundingBox bounds = (BoundingBox) compact.getBound();
+
+        assertEquals(255.9f / 2, bounds.getXExtent(), 0.001f);
+        assertEquals((1023.9f + 12.5f) / 2, bounds.getYExtent(), 0.001f);
+
+        // the source mesh keeps its float buffers.
+        assertEquals(VertexBuffer.Format.Float, mesh.getBuffer(VertexBuffer.Type.Position).getFormat());
+    }
+
+    @Test
+    public void decodesPositionsWithinHalfAStep() {
+
+        Mesh mesh = createQuad();
+        Mesh compact = CompactSpriteMesh.encode(mesh);
+
+        Vector3f expected = new Vector3f();
+        Vector3f decoded = new Vector3f();
+
+        for (int i = 0; i < mesh.getVertexCount(); i++) {
+
+            expected.set(
+                    mesh.getFloatBuffer(VertexBuffer.Type.Position).get(i * 3),
+                    mesh.getFloatBuffer(VertexBuffer.Type.Position).get(i * 3 + 1),
+                    mesh.getFloatBuffer(VertexBuffer.Type.Position).get(i * 3 + 2));
+
+            CompactSpriteMesh.decodePosition(compact, i, decoded);
+
+            assertEquals(expected.x, decoded.x, 0.5f / 256);
+            assertEquals(expected.y, decoded.y, 0.5f / 32);
+            assertEquals(expected.z, decoded.z, 0.5f / 256);
+        }
+    }
+
+    @Test
+    public void rejectsPositionsOutOfRange() {
+
+        float[] normals = { 0, 1, 0 };
+        float[] texCoords = { 0, 0 };
+
+        assertNull(CompactSpriteMesh.encode(createMesh(new float[] { 256.1f, 0, 0 }, normals, texCoords)));
+        assertNull(CompactSpriteMesh.encode(createMesh(new float[] { -0.1f, 0, 0 }, normals, texCoords)));
+        assertNull(CompactSpriteMesh.encode(createMesh(new float[] { 0, 1025, 0 }, normals, texCoords)));
+        assertNull(CompactSpriteMesh.encode(createMesh(new float[] { 0, 0, 256.1f }, normals, texCoords)));
+    }
+
+    @Test
+    public void rejectsMeshesWithoutTheSpriteLayout() {
+
+        Mesh mesh = createQuad();
+        mesh.clearBuffer(VertexBuffer.Type.Normal);
+
+        assertNull(CompactSpriteMesh.encode(mesh));
+    }
+
+    @Test
+    public void decodesOctahedralNormals() {
+
+        Vector3f[] directions = {
+                Vector3f.UNIT_Y, Vector3f.UNIT_Y.negate(), Vector3f.UNIT_X, Vector3f.UNIT_Z.negate(),
+                new Vector3f(1, 1, 1), new Vector3f(-0.3f, 0.9f, 0.2f), new Vector3f(0.5f, -0.7f, -0.4f),
+                new Vector3f(-1, -1, 1), new Vector3f(0.01f, -1, 0)
+        };
+
+        int count = directions.length;
+        float[] positions = new float[count * 3];
+        float[] normals = new float[count * 3];
+
+        for (int i = 0; i < count; i++) {
+            Vector3f normal = directions[i].normalize();
+            normals[i * 3] = normal.x;
+            normals[i * 3 + 1] = normal.y;
+            normals[i * 3 + 2] = normal.z;
+        }
+
+        Mesh compact = CompactSpriteMesh.encode(createMesh(positions, normals, new float[count * 2]));
+        Vector3f decoded = new Vector3f();
+
+        for (int i = 0; i < count; i++) {
+
+            Vector3f expected = directions[i].normalize();
+            CompactSpriteMesh.decodeNormal(compact, i, decoded);
+
+            // two 16 bit components are within a few steps of 1 / 32767 on each axis.
+            assertEquals(expected.x, decoded.x, 0.0002f);
+            assertEquals(expected.y, decoded.y, 0.0002f);
+            assertEquals(expected.z, decoded.z, 0.0002f);
+            assertEquals(1, decoded.length(), 0.0001f);
+        }
+    }
+
+    @Test
+    public void encodesAMissingNormalAsUp() {
+
+        ShortBuffer store = BufferUtils.createShortBuffer(2);
+        CompactSpriteMesh.encodeNormal(0, 0, 0, store);
+
+        assertEquals(0, store.get(0));
+        assertEquals(0, store.get(1));
+    }
+
+    @Test
+    public void decodesTheAtlasCornersExactly() {
+
+        // the corners of the sprites in a 4 x 2 atlas.
+        float[] texCoords = { 0, 0, 0.25f, 0, 0.5f, 0.5f, 0.75f, 1, 1, 0.5f };
+        int count = texCoords.length / 2;
+
+        Mesh compact = CompactSpriteMesh.encode(createMesh(new float[count * 3], new float[count * 3], texCoords));
+        Vector2f decoded = new Vector2f();
+
+        for (int i = 0; i < count; i++) {
+            CompactSpriteMesh.decodeTexCoord(compact, i, decoded);
+            assertEquals(texCoords[i * 2], decoded.x, 0);
+            assertEquals(texCoords[i * 2 + 1], decoded.y, 0);
+        }
+    }
+
+    @Test
+    public void convertsHalfFloatsBothWays() {
+
+        float[] exact = { 0, 1, -1, 0.5f, 0.25f, 2048, 65504, -0.000061035156f, 0.0000000596046448f };
+
+        for (float value : exact) {
+            assertEquals(value, CompactSpriteMesh.fromHalf(CompactSpriteMesh.toHalf(value)), 0);
+        }
+
+        // the known bit patterns of 1, -2 and the largest half float.
+        assertEquals(0x3c00, CompactSpriteMesh.toHalf(1) & 0xffff);
+        assertEquals(0xc000, CompactSpriteMesh.toHalf(-2) & 0xffff);
+        assertEquals(0x7bff, CompactSpriteMesh.toHalf(65504) & 0xffff);
+    }
+
+    @Test
+    public void roundsHalfFloatsToTheNearestValue() {
+
+        for (float value = -300; value < 300; value += 0.37f) {
+
+            float decoded = CompactSpriteMesh.fromHalf(CompactSpriteMesh.toHalf(value));
+
+            // an 11 bit significand is within half a unit in the last place.
+            assertEquals(value, decoded, Math.abs(value) / 2048 + 1e-7f);
+        }
+    }
+
+    @Test
+    public void convertsOutOfRangeHalfFloats() {
+
+        assertEquals(Float.POSITIVE_INFINITY, CompactSpriteMesh.fromHalf(CompactSpriteMesh.toHalf(1e6f)), 0);
+        assertEquals(Float.NEGATIVE_INFINITY, CompactSpriteMesh.fromHalf(CompactSpriteMesh.toHalf(-1e6f)), 0);
+        assertEquals(0, CompactSpriteMesh.fromHalf(CompactSpriteMesh.toHalf(1e-10f)), 0);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.jayfella.worlddemo.grass;
+
+import com.jayfella.worlddemo.world.CellRandom;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PathMaskTest {
+
+    @Test
+    public void sizesTheMaskToTheCellAndResolution() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+
+        assertEquals(64, mask.getTexels());
+        assertEquals(0, mask.count());
+    }
+
+    @Test
+    public void looksUpTheTexelOfAPosition() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+        mask.set(3, 5);
+
+        // texel 3,5 covers 1.5 to 2 along x and 2.5 to 3 along z.
+        assertTrue(mask.get(1.5f, 2.5f));
+        assertTrue(mask.get(1.99f, 2.99f));
+        assertFalse(mask.get(2.0f, 2.5f));
+        assertFalse(mask.get(1.5f, 3.0f));
+        assertEquals(1, mask.count());
+    }
+
+    @Test
+    public void clampsPositionsOnTheEdgeOfTheCell() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+        mask.set(0, 0);
+        mask.set(63, 63);
+
+        assertTrue(mask.get(-0.1f, -0.1f));
+        assertTrue(mask.get(32.0f, 32.0f));
+    }
+
+    @Test
+    public void setsTexelsAcrossWordBoundaries() {
+
+        // 9 x 9 texels don't fill a whole number of longs.
+        PathMask mask = new PathMask(0, 0, 0, 9, 1.0f);
+
+        for (int z = 0; z < 9; z++) {
+            for (int x = 0; x < 9; x++) {
+                if ((x + z) % 2 == 0) {
+                    mask.set(x, z);
+                }
+            }
+        }
+
+        assertEquals(41, mask.count());
+
+        for (int z = 0; z < 9; z++) {
+            for (int x = 0; x < 9; x++) {
+                assertEquals((x + z) % 2 == 0, mask.get(x + 0.5f, z + 0.5f));
+            }
+        }
+    }
+
+    @Test
+    public void matchesOnlyItsCellAndVersion() {
+
+        PathMask mask = new PathMask(2, -3, 7, 32, 2.0f);
+
+        assertTrue(mask.matches(2, -3, 7));
+        assertFalse(mask.matches(2, -3, 8));
+        assertFalse(mask.matches(-3, 2, 7));
+    }
+
+    @Test
+    public void agreesWithAPlacementItWasBuiltFrom() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+        fill(mask, true, false);
+
+        assertEquals(1.0f, mask.measureAgreement((x, z) -> x < 16, 4096, new CellRandom(1)), 0);
+    }
+
+    @Test
+    public void anAllSetMaskDisagreesWhereThePlacementRemovesVegetation() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+        fill(mask, true, true);
+
+        // half the cell is removed, which the mask misses.
+        assertEquals(0.5f, mask.measureAgreement((x, z) -> x < 16, 4096, new CellRandom(1)), 0.05f);
+    }
+
+    @Test
+    public void anEmptyMaskDisagreesWhereThePlacementGrowsVegetation() {
+
+        PathMask mask = new PathMask(0, 0, 0, 32, 2.0f);
+
+        assertEquals(0.5f, mask.measureAgreement((x, z) -> x < 16, 4096, new CellRandom(1)), 0.05f);
+    }
+
+    // sets the left half of the texels, and the right half if asked to.
+    private static void fill(PathMask mask, boolean left, boolean right) {
+
+        for (int z = 0; z < mask.getTexels(); z++) {
+            for (int x = 0; x < mask.getTexels(); x++) {
+                if (x < mask.getTexels() / 2 ? left : right) {
+                    mask.set(x, z);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.jayfella.worlddemo.tree;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TreeIndexTest {
+
+    private static final int CELL_SIZE = 32;
+    private static final int BITSHIFT = 5;
+
+    private static GridPos2i cell(int x, int z) {
+        return new GridPos2i(x, z, BITSHIFT);
+    }
+
+    // a cell with a tree at each of the given cell-local positions.
+    private static TreePlacements trees(float... positions) {
+
+        TreePlacements placements = new TreePlacements();
+
+        for (int i = 0; i < positions.length; i += 2) {
+            placements.add(0, positions[i], 10, positions[i + 1], 1, 0);
+        }
+
+        return placements;
+    }
+
+    @Test
+    public void countsTheCellsAndTrees() {
+
+        TreeIndex index = new TreeIndex();
+
+        index.add(cell(0, 0), CELL_SIZE, trees(1, 1, 2, 2));
+        index.add(cell(1, 0), CELL_SIZE, trees(3, 3));
+
+        assertEquals(2, index.getCellCount());
+        assertEquals(3, index.getTreeCount());
+
+        // adding a cell again replaces its trees.
+        index.add(cell(0, 0), CELL_SIZE, trees(1, 1));
+
+        assertEquals(2, index.getCellCount());
+        assertEquals(2, index.getTreeCount());
+
+        index.remove(cell(1, 0));
+        index.remove(cell(5, 5));
+
+        assertEquals(1, index.getCellCount());
+        assertEquals(1, index.getTreeCount());
+    }
+
+    @Test
+    public void growsWhenCellsShareASlot() {
+
+        // a table of 2 x 2 cells.
+        TreeIndex index = new TreeIndex(1);
+
+        index.add(cell(0, 0), CELL_SIZE, trees(1, 1));
+        index.add(cell(2, 0), CELL_SIZE, trees(1, 1));
+        index.add(cell(0, -2), CELL_SIZE, trees(1, 1));
+
+        assertEquals(3, index.getCellCount());
+
+        TreeHit hit = new TreeHit();
+
+        assertTrue(index.findNearest(2 * CELL_SIZE + 1, 1, 1, hit));
+        assertTrue(index.findNearest(1, -2 * CELL_SIZE + 1, 1, hit));
+    }
+
+    @Test
+    public void findsTheNearestTreeAcrossCells() {
+
+        TreeIndex index = new TreeIndex();
+
+        TreePlacements near = trees(1, 1);
+        index.add(cell(0, 0), CELL_SIZE, trees(20, 20));
+        index.add(cell(1, 0), CELL_SIZE, near);
+        index.add(cell(-3, 2), CELL_SIZE, trees(0, 0));
+
+        TreeHit hit = new TreeHit();
+
+        // the point is in cell 0,0, but the tree just over the edge in cell 1,0 is nearer.
+        assertTrue(index.findNearest(30, 2, 100, hit));
+        assertSame(near, hit.getPlacements());
+        assertEquals(33, hit.getX(), 0);
+        assertEquals(1, hit.getZ(), 0);
+        assertEquals(10, hit.getY(), 0);
+        assertEquals((float) Math.sqrt(9 + 1), hit.getDistance(), 0.0001f);
+    }
+
+    @Test
+    public void findsNothingBeyondTheMaximumDistance() {
+
+        TreeIndex index = new TreeIndex();
+        index.add(cell(4, 0), CELL_SIZE, trees(0, 0));
+
+        TreeHit hit = new TreeHit();
+
+        assertFalse(index.findNearest(0, 0, 127, hit));
+        assertTrue(index.findNearest(0, 0, 128, hit));
+        assertFalse(new TreeIndex().findNearest(0, 0, 1000, hit));
+    }
+
+    @Test
+    public void findsEveryTreeWithinARadius() {
+
+        TreeIndex index = new TreeIndex();
+
+        index.add(cell(0, 0), CELL_SIZE, trees(16, 16, 31, 16, 1, 1));
+        index.add(cell(1, 0), CELL_SIZE, trees(1, 16));
+        index.add(cell(-1, -1), CELL_SIZE, trees(31, 31));
+
+        List<Float> found = new ArrayList<>();
+        int count = index.findWithin(16, 16, 17.5f, (placements, i, x, z) -> found.add(x));
+
+        // 16,16 and 31,16 and 33,16 are within 17.5, but 1,1 and -1,-1 are not.
+        assertEquals(3, count);
+        assertEquals(3, found.size());
+        assertTrue(found.contains(33f));
+    }
+
+    @Test
+    public void followsTheCellsAfterALongFlight() {
+
+        TreeIndex index = new TreeIndex();
+        TreeHit hit = new TreeHit();
+
+        // a view distance of 2 moving a thousand cells along x, as the pager would add and remove them.
+        for (int step = 0; step < 1000; step++) {
+
+            for (int z = -2; z <= 2; z++) {
+                index.add(cell(step + 2, z), CELL_SIZE, trees(16, 16));
+
+                if (step >= 3) {
+                    index.remove(cell(step - 3, z));
+                }
+            }
+        }
+
+        assertEquals(25, index.getCellCount());
+
+        float x = 999 * CELL_SIZE + 16;
+        assertTrue(index.findNearest(x, 16, 1, hit));
+        assertEquals(x, hit.getX(), 0);
+
+        // the cells left behind are gone.
+        assertFalse(index.findNearest(16, 16, 100, hit));
+        assertEquals(0, index.findWithin(16, 16, 100, (placements, i, tx, tz) -> { }));
+    }
+
+    @Test
+    public void startsAgainWhenTheCellSizeChanges() {
+
+        TreeIndex index = new TreeIndex();
+
+        index.add(cell(0, 0), CELL_SIZE, trees(1, 1));
+        index.add(new GridPos2i(3, 3, 6), 64, trees(1, 1));
+
+        assertEquals(1, index.getCellCount());
+        assertEquals(1, index.getTreeCount());
+    }
+
+}
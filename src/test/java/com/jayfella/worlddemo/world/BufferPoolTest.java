@@ -0,0 +1,153 @@
+package com.jayfella.worlddemo.world;
+
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void roundsRequestsUpToTheirSizeClass() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        FloatBuffer small = pool.allocateFloats(10);
+        FloatBuffer exact = pool.allocateFloats(2048);
+        FloatBuffer rounded = pool.allocateFloats(2049);
+
+        // the smallest class is 1024 floats.
+        assertEquals(1024, small.capacity());
+        assertEquals(2048, exact.capacity());
+        assertEquals(4096, rounded.capacity());
+
+        assertTrue(small.isDirect());
+        assertEquals(0, rounded.position());
+        assertEquals(2049, rounded.limit());
+    }
+
+    @Test
+    public void reusesReleasedBuffers() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        FloatBuffer buffer = pool.allocateFloats(1500);
+        buffer.put(1.0f);
+        pool.release(buffer);
+
+        assertEquals(2048 * Float.BYTES, pool.getRetainedBytes());
+
+        FloatBuffer reused = pool.allocateFloats(1100);
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(1100, reused.limit());
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0.5, pool.getHitRate(), 0);
+    }
+
+    @Test
+    public void servesTheLargestClassABufferHolds() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        // a buffer from elsewhere with room for 3000 floats can serve requests of up to 2048 floats.
+        FloatBuffer foreign = BufferUtils.createFloatBuffer(3000);
+        pool.release(foreign);
+
+        assertNotSame(foreign, pool.allocateFloats(2049));
+        assertSame(foreign, pool.allocateFloats(2048));
+    }
+
+    @Test
+    public void freesBuffersBeyondTheLimit() {
+
+        BufferPool pool = new BufferPool(1024 * Float.BYTES);
+
+        FloatBuffer first = pool.allocateFloats(1024);
+        FloatBuffer second = pool.allocateFloats(1024);
+
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(2, pool.getReleased());
+        assertEquals(1, pool.getFreed());
+        assertEquals(1024 * Float.BYTES, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void freesBuffersThatCannotBePooled() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        pool.release(ByteBuffer.allocateDirect(4096));
+        pool.release(BufferUtils.createFloatBuffer(16));
+        pool.release(FloatBuffer.allocate(4096));
+        pool.release((FloatBuffer) null);
+
+        // heap buffers and null are ignored.
+        assertEquals(2, pool.getReleased());
+        assertEquals(2, pool.getFreed());
+        assertEquals(0, pool.getRetainedBytes());
+    }
+
+    @Test
+    public void allocatesRequestsLargerThanTheLargestClassExactly() {
+
+        BufferPool pool = new BufferPool(Long.MAX_VALUE);
+
+        FloatBuffer large = pool.allocateFloats((1 << 22) + 1);
+
+        assertEquals((1 << 22) + 1, large.capacity());
+        assertEquals(1, pool.getMisses());
+
+        // once released it serves the largest class.
+        pool.release(large);
+
+        assertSame(large, pool.allocateFloats(1 << 22));
+    }
+
+    @Test
+    public void clearFreesEveryRetainedBuffer() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        pool.release(pool.allocateFloats(1024));
+        pool.release(pool.allocateFloats(4096));
+        pool.clear();
+
+        assertEquals(0, pool.getRetainedBytes());
+        assertEquals(2, pool.getFreed());
+    }
+
+    @Test
+    public void releasesTheDataOfAMesh() {
+
+        BufferPool pool = new BufferPool(MEGABYTE);
+
+        Mesh mesh = new Mesh();
+        mesh.setBuffer(VertexBuffer.Type.Position, 3, pool.allocateFloats(3 * 400));
+        mesh.setBuffer(VertexBuffer.Type.Normal, 3, pool.allocateFloats(3 * 400));
+
+        pool.release(mesh);
+
+        assertNull(mesh.getBuffer(VertexBuffer.Type.Position).getData());
+        assertNull(mesh.getBuffer(VertexBuffer.Type.Normal).getData());
+        assertEquals(2, pool.getReleased());
+        assertEquals(2 * 2048 * Float.BYTES, pool.getRetainedBytes());
+    }
+
+}
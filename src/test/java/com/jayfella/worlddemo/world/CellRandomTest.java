@@ -0,0 +1,125 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CellRandomTest {
+
+    @Test
+    public void theSameSeedGivesTheSameStream() {
+
+        CellRandom first = new CellRandom(42);
+        CellRandom second = new CellRandom(42);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first.nextLong(), second.nextLong());
+        }
+    }
+
+    @Test
+    public void resetStartsTheStreamAgain() {
+
+        CellRandom random = new CellRandom(7);
+        long first = random.nextLong();
+        random.nextLong();
+
+        random.reset(7);
+
+        assertEquals(first, random.nextLong());
+    }
+
+    @Test
+    public void neighbouringCellsGetUnrelatedSeeds() {
+
+        long gridSeed = CellRandom.gridSeed(123, "Grass");
+
+        long seed = CellRandom.seed(gridSeed, 0, 0);
+        assertNotEquals(seed, CellRandom.seed(gridSeed, 1, 0));
+        assertNotEquals(seed, CellRandom.seed(gridSeed, 0, 1));
+        assertNotEquals(seed, CellRandom.seed(gridSeed, -1, 0));
+
+        // the same cell of another grid or world gets another seed.
+        assertNotEquals(seed, CellRandom.seed(123, "Flowers", 0, 0));
+        assertNotEquals(seed, CellRandom.seed(124, "Grass", 0, 0));
+        assertEquals(seed, CellRandom.seed(123, "Grass", 0, 0));
+
+        // x and z are not interchangeable.
+        assertNotEquals(CellRandom.seed(gridSeed, 1, 2), CellRandom.seed(gridSeed, 2, 1));
+    }
+
+    @Test
+    public void splitStreamsDifferFromEachOtherAndTheirSeed() {
+
+        long seed = CellRandom.seed(1, "Trees", 3, 4);
+
+        long first = CellRandom.split(seed, 0);
+        long second = CellRandom.split(seed, 1);
+
+        assertNotEquals(first, second);
+        assertNotEquals(seed, first);
+        assertNotEquals(new CellRandom(seed).nextLong(), new CellRandom(first).nextLong());
+        assertEquals(first, CellRandom.split(seed, 0));
+    }
+
+    @Test
+    public void drawsTheSameElementsAsTheStream() {
+
+        long seed = CellRandom.seed(99, "Grass", -5, 8);
+        CellRandom random = new CellRandom(seed);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(random.nextFloat(), CellRandom.random(seed, i), 0);
+        }
+    }
+
+    @Test
+    public void floatsAreEvenlySpreadOverTheUnitInterval() {
+
+        CellRandom random = new CellRandom(5);
+        int[] buckets = new int[10];
+        int samples = 100000;
+
+        for (int i = 0; i < samples; i++) {
+
+            float value = random.nextFloat();
+            assertTrue(value >= 0 && value < 1);
+
+            buckets[(int) (value * buckets.length)]++;
+        }
+
+        // each bucket holds a tenth of the samples, within a few standard deviations.
+        for (int count : buckets) {
+            assertEquals(samples / buckets.length, count, 500);
+        }
+    }
+
+    @Test
+    public void intsStayWithinTheBound() {
+
+        CellRandom random = new CellRandom(11);
+        boolean[] seen = new boolean[7];
+
+        for (int i = 0; i < 1000; i++) {
+
+            int value = random.nextInt(seen.length);
+            assertTrue(value >= 0 && value < seen.length);
+
+            seen[value] = true;
+        }
+
+        for (boolean value : seen) {
+            assertTrue(value);
+        }
+
+        assertEquals(0, random.nextInt(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsABoundThatIsNotPositive() {
+        new CellRandom(1).nextInt(0);
+    }
+
+}
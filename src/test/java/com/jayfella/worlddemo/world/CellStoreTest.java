@@ -0,0 +1,127 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CellStoreTest {
+
+    private static final CellStore.Codec<Integer> CODEC = new CellStore.Codec<Integer>() {
+
+        @Override
+        public void write(Integer value, DataOutput out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadsWhatItSaved() {
+
+        CellStore store = new CellStore(folder.getRoot(), 1);
+
+        store.save("Trees", 7, 3, -40, 1234, CODEC);
+
+        assertEquals(Integer.valueOf(1234), store.load("Trees", 7, 3, -40, CODEC));
+        assertNull(store.load("Trees", 8, 3, -40, CODEC));
+        assertNull(store.load("Grass", 7, 3, -40, CODEC));
+
+        assertEquals(1, store.getHits());
+        assertEquals(2, store.getMisses());
+        assertEquals(1, store.getWrites());
+
+        store.close();
+    }
+
+    @Test
+    public void opensClosedRegionsAgain() {
+
+        CellStore store = new CellStore(folder.getRoot(), 1);
+        store.setMaxOpenFiles(1);
+
+        // every cell is in a region of its own, so each one closes the region before it.
+        for (int i = 0; i < 8; i++) {
+            store.save("Trees", 7, i * 32, 0, i, CODEC);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Integer.valueOf(i), store.load("Trees", 7, i * 32, 0, CODEC));
+        }
+
+        store.close();
+    }
+
+    @Test
+    public void countsOnlyTheWritesThatReachedTheFile() throws Exception {
+
+        CellStore store = new CellStore(folder.getRoot(), 1);
+        store.setMaxOpenFiles(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger next = new AtomicInteger();
+
+        // the threads keep closing each other's regions.
+        Future<?>[] futures = new Future<?>[4];
+
+        for (int t = 0; t < futures.length; t++) {
+            futures[t] = executor.submit(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < 200) {
+                    store.save("Trees", 7, (i % 8) * 32, i / 8, i, CODEC);
+                }
+            });
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        int stored = 0;
+
+        for (int i = 0; i < 200; i++) {
+            if (Integer.valueOf(i).equals(store.load("Trees", 7, (i % 8) * 32, i / 8, CODEC))) {
+                stored++;
+            }
+        }
+
+        assertEquals(store.getWrites(), stored);
+        store.close();
+    }
+
+    @Test
+    public void doesNothingWhenDisabled() {
+
+        CellStore store = new CellStore(folder.getRoot(), 1);
+        store.setEnabled(false);
+
+        store.save("Trees", 7, 0, 0, 1, CODEC);
+
+        assertNull(store.load("Trees", 7, 0, 0, CODEC));
+        assertEquals(0, store.getWrites());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MemoryStepsTest {
+
+    private static final long LIMIT = 1000;
+
+    @Test
+    public void stepsDownWhenOverButNotBeforeTheInterval() {
+
+        MemorySteps steps = new MemorySteps();
+
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 100, LIMIT, 1200, LIMIT, 0));
+        steps.stepped(false, 0);
+
+        assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 100, LIMIT, 1200, LIMIT, 0));
+        assertEquals(MemorySteps.Step.NONE, steps.sample(1, 100, LIMIT, 1200, LIMIT, 0));
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 100, LIMIT, 1200, LIMIT, 0));
+    }
+
+    @Test
+    public void waitsForACollectionAfterAHeapStep() {
+
+        MemorySteps steps = new MemorySteps();
+
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 1200, LIMIT, 100, LIMIT, 3));
+        steps.stepped(true, 4);
+
+        // the heap still reads over budget until it has been collected, however long that takes.
+        for (int i = 0; i < 20; i++) {
+            assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 1200, LIMIT, 100, LIMIT, 4));
+        }
+
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 1200, LIMIT, 100, LIMIT, 5));
+    }
+
+    @Test
+    public void directMemoryDoesNotWaitForACollection() {
+
+        MemorySteps steps = new MemorySteps();
+
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 1200, LIMIT, 100, LIMIT, 3));
+        steps.stepped(true, 3);
+
+        assertEquals(MemorySteps.Step.NONE, steps.sample(1, 1200, LIMIT, 1200, LIMIT, 3));
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(1, 1200, LIMIT, 1200, LIMIT, 3));
+        steps.stepped(false, 3);
+
+        assertEquals(MemorySteps.Step.NONE, steps.sample(1, 100, LIMIT, 1200, LIMIT, 3));
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(1, 100, LIMIT, 1200, LIMIT, 3));
+    }
+
+    @Test
+    public void stepsUpOnceBelowTheHeadroomForTheRestoreDelay() {
+
+        MemorySteps steps = new MemorySteps();
+
+        assertEquals(MemorySteps.Step.DOWN, steps.sample(0.5f, 100, LIMIT, 1200, LIMIT, 0));
+        steps.stepped(false, 0);
+
+        for (int i = 0; i < 19; i++) {
+            assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+        }
+
+        assertEquals(MemorySteps.Step.UP, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+        steps.stepped(false, 0);
+
+        // the delay starts again after a step up.
+        assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+    }
+
+    @Test
+    public void memoryBetweenTheHeadroomAndTheBudgetResetsTheRestoreDelay() {
+
+        MemorySteps steps = new MemorySteps();
+        steps.stepped(false, 0);
+
+        for (int i = 0; i < 19; i++) {
+            assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+        }
+
+        assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 800, LIMIT, 500, LIMIT, 0));
+
+        for (int i = 0; i < 19; i++) {
+            assertEquals(MemorySteps.Step.NONE, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+        }
+
+        assertEquals(MemorySteps.Step.UP, steps.sample(0.5f, 100, LIMIT, 500, LIMIT, 0));
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RegionFileTest {
+
+    private static final int CELLS = 16;
+
+    // the magic number, version and settings hash, followed by the offset and length of each cell.
+    private static final int HEADER_SIZE = 16 + CELLS * 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] payload(int length, int seed) {
+
+        byte[] payload = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (i * 31 + seed);
+        }
+
+        return payload;
+    }
+
+    @Test
+    public void createsAnEmptyRegion() throws IOException {
+
+        File file = new File(folder.getRoot(), "r.0.0.region");
+        RegionFile region = new RegionFile(file, 42, CELLS);
+
+        for (int i = 0; i < CELLS; i++) {
+            assertNull(region.read(i));
+        }
+
+        region.close();
+
+        assertEquals(HEADER_SIZE, file.length());
+    }
+
+    @Test
+    public void readsThePayloadsItWrote() throws IOException {
+
+        RegionFile region = new RegionFile(folder.newFile(), 42, CELLS);
+
+        region.write(0, payload(100, 1));
+        region.write(15, payload(5, 2));
+
+        assertArrayEquals(payload(100, 1), region.read(0));
+        assertArrayEquals(payload(5, 2), region.read(15));
+        assertNull(region.read(1));
+
+        region.close();
+    }
+
+    @Test
+    public void readsPayloadsWrittenAfterTheFileWasMapped() throws IOException {
+
+        RegionFile region = new RegionFile(folder.newFile(), 42, CELLS);
+
+        region.write(0, payload(10, 1));
+        assertArrayEquals(payload(10, 1), region.read(0));
+
+        // each payload lies beyond the mapping, and the file doubles in size along the way.
+        for (int i = 1; i < CELLS; i++) {
+            region.write(i, payload(i * 64, i));
+            assertArrayEquals(payload(i * 64, i), region.read(i));
+        }
+
+        for (int i = 1; i < CELLS; i++) {
+            assertArrayEquals(payload(i * 64, i), region.read(i));
+        }
+
+        region.close();
+    }
+
+    @Test
+    public void replacesAStoredPayload() throws IOException {
+
+        File file = folder.newFile();
+        RegionFile region = new RegionFile(file, 42, CELLS);
+
+        region.write(3, payload(50, 1));
+        region.write(3, payload(20, 2));
+
+        assertArrayEquals(payload(20, 2), region.read(3));
+        region.close();
+
+        // the old payload is left in the file unused.
+        assertEquals(HEADER_SIZE + 70, file.length());
+    }
+
+    @Test
+    public void keepsThePayloadsWhenOpenedAgain() throws IOException {
+
+        File file = folder.newFile();
+
+        RegionFile region = new RegionFile(file, 42, CELLS);
+        region.write(7, payload(30, 3));
+        region.close();
+
+        region = new RegionFile(file, 42, CELLS);
+        assertArrayEquals(payload(30, 3), region.read(7));
+        region.close();
+    }
+
+    @Test
+    public void emptiesARegionWrittenWithOtherSettings() throws IOException {
+
+        File file = folder.newFile();
+
+        RegionFile region = new RegionFile(file, 42, CELLS);
+        region.write(7, payload(30, 3));
+        region.close();
+
+        region = new RegionFile(file, 43, CELLS);
+        assertNull(region.read(7));
+        region.close();
+
+        assertEquals(HEADER_SIZE, file.length());
+    }
+
+    @Test
+    public void ignoresAPayloadCutShort() throws IOException {
+
+        File file = folder.newFile();
+
+        RegionFile region = new RegionFile(file, 42, CELLS);
+        region.write(0, payload(30, 1));
+        region.write(1, payload(30, 2));
+        region.close();
+
+        // as if the file was closed while the second payload was written.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(HEADER_SIZE + 45);
+        }
+
+        region = new RegionFile(file, 42, CELLS);
+        assertArrayEquals(payload(30, 1), region.read(0));
+        assertNull(region.read(1));
+        region.close();
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void refusesToWriteOnceClosed() throws IOException {
+
+        RegionFile region = new RegionFile(folder.newFile(), 42, CELLS);
+        region.close();
+        region.write(0, payload(10, 1));
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void refusesToReadOnceClosed() throws IOException {
+
+        RegionFile region = new RegionFile(folder.newFile(), 42, CELLS);
+        region.write(0, payload(10, 1));
+        region.close();
+        region.read(0);
+    }
+
+}
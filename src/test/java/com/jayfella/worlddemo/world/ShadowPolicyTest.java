@@ -0,0 +1,94 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShadowPolicyTest {
+
+    @Test
+    public void everyCellCastsByDefault() {
+
+        ShadowPolicy policy = new ShadowPolicy();
+
+        assertTrue(policy.isCast());
+        assertTrue(policy.isReceive());
+        assertEquals(Integer.MAX_VALUE, policy.getCastRings(32));
+    }
+
+    @Test
+    public void noCellCastsWithoutCasters() {
+
+        ShadowPolicy policy = ShadowPolicy.noCasters(false);
+
+        assertFalse(policy.isCast());
+        assertFalse(policy.isReceive());
+        assertEquals(-1, policy.getCastRings(32));
+        assertTrue(ShadowPolicy.noCasters(true).isReceive());
+    }
+
+    @Test
+    public void castsFromEveryRingThatCouldBeWithinTheDistance() {
+
+        // the nearest edge of ring r is (r - 1) cells away when the follower is on the edge of its own cell.
+        assertEquals(0, ShadowPolicy.castWithin(0).getCastRings(32));
+        assertEquals(1, ShadowPolicy.castWithin(1).getCastRings(32));
+        assertEquals(1, ShadowPolicy.castWithin(32).getCastRings(32));
+        assertEquals(2, ShadowPolicy.castWithin(33).getCastRings(32));
+        assertEquals(4, ShadowPolicy.castWithin(100).getCastRings(32));
+        assertEquals(7, ShadowPolicy.castWithin(100).getCastRings(16));
+    }
+
+    @Test
+    public void limitsTheCastersToWholeRings() {
+
+        ShadowPolicy policy = ShadowPolicy.castWithin(1000);
+        policy.setMaxCasters(10);
+
+        // 1 + 8 cells fit, but the 16 cells of the second ring don't.
+        assertEquals(1, policy.limitRings(new int[] { 1, 8, 16 }, 2, 32));
+
+        // even the ring the follower is in can be over the budget.
+        assertEquals(-1, policy.limitRings(new int[] { 11 }, 0, 32));
+
+        policy.setMaxCasters(25);
+
+        // every counted ring fits, so the cast distance decides.
+        assertEquals(32, policy.limitRings(new int[] { 1, 8, 16 }, 2, 32));
+    }
+
+    @Test
+    public void stopsAtTheFirstRingOverTheBudget() {
+
+        ShadowPolicy policy = new ShadowPolicy();
+        policy.setMaxCasters(5);
+
+        // the third ring would fit on its own, but the casters are whole rings from the follower.
+        assertEquals(0, policy.limitRings(new int[] { 1, 6, 0, 0 }, 3, 10));
+    }
+
+    @Test
+    public void clearsTheCountsItReads() {
+
+        ShadowPolicy policy = new ShadowPolicy();
+        policy.setMaxCasters(4);
+
+        int[] counts = { 1, 8, 16, 0 };
+        policy.limitRings(counts, 2, 3);
+
+        assertArrayEquals(new int[4], counts);
+    }
+
+    @Test
+    public void castsEveryCountedRingWithoutABudget() {
+
+        ShadowPolicy policy = ShadowPolicy.castWithin(64);
+
+        assertEquals(2, policy.limitRings(new int[] { 1, 8, 16 }, 2, 2));
+        assertEquals(2, policy.limitRings(new int[0], -1, 2));
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.jayfella.worlddemo.world;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ViewDistanceReductionTest {
+
+    @Test
+    public void restoresTheOriginalViewDistance() {
+
+        ViewDistanceReduction reduction = new ViewDistanceReduction();
+
+        assertEquals(5, reduction.reduce(6));
+        assertEquals(4, reduction.reduce(5));
+        assertEquals(2, reduction.getRings(4));
+
+        assertEquals(6, reduction.restore(4));
+        assertEquals(0, reduction.getRings(6));
+        assertEquals(-1, reduction.restore(6));
+    }
+
+    @Test
+    public void restoresARingAtATimeUpToTheOriginal() {
+
+        ViewDistanceReduction reduction = new ViewDistanceReduction();
+        reduction.reduce(6);
+        reduction.reduce(5);
+
+        assertEquals(5, reduction.restoreRing(4));
+        assertEquals(1, reduction.getRings(5));
+        assertEquals(6, reduction.restoreRing(5));
+        assertEquals(0, reduction.getRings(6));
+        assertEquals(-1, reduction.restoreRing(6));
+    }
+
+    @Test
+    public void forgetsTheReductionWhenTheViewDistanceIsChangedElsewhere() {
+
+        ViewDistanceReduction reduction = new ViewDistanceReduction();
+        reduction.reduce(6);
+
+        // the settings set the view distance to 3 while it was reduced to 5.
+        assertEquals(0, reduction.getRings(3));
+        assertEquals(-1, reduction.restoreRing(3));
+        assertEquals(-1, reduction.restore(3));
+
+        // a reduction from the new view distance restores to it.
+        assertEquals(2, reduction.reduce(3));
+        assertEquals(3, reduction.restore(2));
+    }
+
+    @Test
+    public void aNewReductionAfterAChangeStartsFromTheNewViewDistance() {
+
+        ViewDistanceReduction reduction = new ViewDistanceReduction();
+        reduction.reduce(6);
+
+        assertEquals(7, reduction.reduce(8));
+        assertEquals(1, reduction.getRings(7));
+        assertEquals(8, reduction.restore(7));
+    }
+
+}